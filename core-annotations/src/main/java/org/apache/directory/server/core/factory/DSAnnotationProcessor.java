@@ -58,6 +58,7 @@ import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartit
 import org.apache.directory.server.core.partition.impl.btree.jdbm.JdbmIndex;
 import org.apache.directory.server.core.partition.impl.btree.mavibot.MavibotIndex;
 import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.NGramIndex;
 import org.junit.jupiter.api.extension.ExtensionContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -278,6 +279,13 @@ public final class DSAnnotationProcessor
 
                             btreePartition.addIndexedAttributes( index );
                         }
+                        else if ( createIndex.type() == NGramIndex.class )
+                        {
+                            // N-gram index : the partition creates the underlying indexes
+                            NGramIndex index = new NGramIndex( createIndex.attribute() );
+
+                            btreePartition.addIndexedAttributes( index );
+                        }
                         else
                         {
                             // The annotation does not specify a specific index
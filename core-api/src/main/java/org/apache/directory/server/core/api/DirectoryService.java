@@ -349,6 +349,16 @@ public interface DirectoryService extends ServerEntryFactory
     List<String> getInterceptors( OperationEnum operation );
 
 
+    /**
+     * Returns the chain of interceptors to call for a given operation. The returned array
+     * is shared : it must not be modified. It's replaced when the interceptors are changed.
+     *
+     * @param operation The operation that the interceptors must implement
+     * @return the interceptors to call for this operation, in order
+     */
+    Interceptor[] getInterceptorChain( OperationEnum operation );
+
+
     /**
      * Sets the interceptors in the server.
      *
@@ -530,6 +540,22 @@ public interface DirectoryService extends ServerEntryFactory
     void setMaxPDUSize( int maxPDUSize );
 
 
+    /**
+     * @return The maximum number of bytes used to sort the search results in memory
+     */
+    long getMaxSortMemory();
+
+
+    /**
+     * Set the maximum number of bytes used to sort the search results in memory. Above
+     * this size, the sorted results are written in temporary files.
+     * 
+     * @param maxSortMemory A positive number of bytes. A negative or null value will
+     * be transformed to {@link Long#MAX_VALUE}
+     */
+    void setMaxSortMemory( long maxSortMemory );
+
+
     /**
      * Get an Interceptor instance from its name
      * @param interceptorName The interceptor's name for which we want the instance
@@ -1317,7 +1317,7 @@ public class LdapCoreSessionConnection extends AbstractLdapConnection
         }
 
         bindContext.setDn( bindDn );
-        bindContext.setInterceptors( directoryService.getInterceptors( OperationEnum.BIND ) );
+        bindContext.setInterceptorChain( directoryService.getInterceptorChain( OperationEnum.BIND ) );
 
         for ( Control control : bindRequest.getControls().values() )
         {
@@ -38,6 +38,7 @@ import org.apache.directory.server.core.api.interceptor.context.MoveOperationCon
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
+import org.apache.directory.server.core.api.partition.Partition;
 
 
 /**
@@ -171,31 +172,44 @@ public interface OperationManager
 
 
     /**
-     * Acquires a WriteLock
+     * Acquires the server-wide WriteLock. No operation can be processed on any
+     * partition until it's released.
+     *
+     * @throws LdapException If the current thread already holds the ReadLock
      */
-    void lockWrite();
+    void lockWrite() throws LdapException;
 
 
     /**
-     * Releases a WriteLock
+     * Releases the server-wide WriteLock
      */
     void unlockWrite();
 
 
     /**
-     * Acquires a ReadLock
+     * Acquires the server-wide ReadLock
      */
     void lockRead();
 
 
     /**
-     * Releases a ReadLock
+     * Releases the server-wide ReadLock
      */
     void unlockRead();
 
 
     /**
-     * @return the OperationManager R/W lock
+     * @return the OperationManager server-wide R/W lock
      */
     ReadWriteLock getRWLock();
+
+
+    /**
+     * Get the R/W lock protecting a given partition. Operations on other partitions
+     * are not blocked by this lock.
+     *
+     * @param partition The partition
+     * @return the R/W lock associated with this partition
+     */
+    ReadWriteLock getRWLock( Partition partition );
 }
@@ -23,6 +23,7 @@ package org.apache.directory.server.core.api.entry;
 import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
@@ -41,6 +42,20 @@ import org.apache.directory.server.i18n.I18n;
 /**
  * A ServerEntry refers to the original entry before being modified by
  * EntryFilters or operations.
+ * <p>
+ * The original entry is never modified, and it is not copied either : the
+ * entry is read from the original entry until it is modified. It's then
+ * copied on write :
+ * <ul>
+ *   <li>the first modification creates a shallow copy of the original entry,
+ *   which shares the original attributes</li>
+ *   <li>an attribute is cloned before being modified, or before being returned
+ *   by a <code>get</code> method, as the caller may modify it</li>
+ *   <li>all the attributes are cloned when they are iterated, or when the
+ *   cloned entry is requested</li>
+ * </ul>
+ * The original entry can then be an entry shared by many operations, like the
+ * entries stored in a partition cache.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -49,9 +64,12 @@ public class ClonedServerEntry implements Entry
     /** The original entry as returned by the backend */
     protected Entry originalEntry;
 
-    /** The copied entry */
+    /** The copied entry, created when the entry is modified. Its attributes are shared with the original entry until they are cloned */
     protected Entry clonedEntry;
 
+    /** Tells if all the attributes of the copied entry have been cloned */
+    private boolean allCloned;
+
 
     /**
      * Creates a new instance of ClonedServerEntry.
@@ -64,14 +82,13 @@ public class ClonedServerEntry implements Entry
     /**
      * Creates a new instance of ClonedServerEntry.
      *
-     * The original entry is cloned in order to protect its content.
+     * The original entry is copied on write in order to protect its content.
      *
      * @param originalEntry The original entry
      */
     public ClonedServerEntry( Entry originalEntry )
     {
         this.originalEntry = originalEntry;
-        this.clonedEntry = originalEntry.clone();
     }
 
 
@@ -85,88 +102,220 @@ public class ClonedServerEntry implements Entry
 
 
     /**
-     * @return the cloned Entry
+     * @return the cloned Entry, which does not share anything with the original entry
      */
     public Entry getClonedEntry()
     {
+        if ( originalEntry == null )
+        {
+            return null;
+        }
+
+        cloneAll();
+
+        return clonedEntry;
+    }
+
+
+    /**
+     * @return The entry to read : the original entry, until it has been modified
+     */
+    private Entry current()
+    {
+        if ( clonedEntry != null )
+        {
+            return clonedEntry;
+        }
+
+        return originalEntry;
+    }
+
+
+    /**
+     * @return The entry to modify, created by a shallow copy of the original entry
+     */
+    private Entry copy()
+    {
+        if ( clonedEntry == null )
+        {
+            clonedEntry = originalEntry.shallowClone();
+        }
+
         return clonedEntry;
     }
 
 
+    /**
+     * Tells if an attribute of the current entry is still shared with the original entry
+     */
+    private boolean isShared( Attribute attribute )
+    {
+        if ( allCloned )
+        {
+            return false;
+        }
+
+        if ( clonedEntry == null )
+        {
+            return true;
+        }
+
+        AttributeType attributeType = attribute.getAttributeType();
+
+        if ( attributeType != null )
+        {
+            return attribute == originalEntry.get( attributeType );
+        }
+        else
+        {
+            return attribute == originalEntry.get( attribute.getId() );
+        }
+    }
+
+
+    /**
+     * Clones an attribute of the current entry if it's shared with the original entry,
+     * so that it can be modified.
+     *
+     * @param attribute The attribute read from the current entry
+     * @return The attribute stored in the copied entry, or null
+     */
+    private Attribute own( Attribute attribute )
+    {
+        if ( ( attribute == null ) || !isShared( attribute ) )
+        {
+            return attribute;
+        }
+
+        Attribute clonedAttribute = attribute.clone();
+
+        try
+        {
+            copy().put( clonedAttribute );
+        }
+        catch ( LdapException le )
+        {
+            // Can't happen, the attribute comes from this entry
+            throw new IllegalStateException( le.getMessage(), le );
+        }
+
+        return clonedAttribute;
+    }
+
+
+    /**
+     * Clones all the attributes shared with the original entry
+     */
+    private void cloneAll()
+    {
+        if ( allCloned )
+        {
+            return;
+        }
+
+        if ( clonedEntry == null )
+        {
+            clonedEntry = originalEntry.clone();
+        }
+        else
+        {
+            List<Attribute> attributes = new ArrayList<>( clonedEntry.size() );
+
+            for ( Attribute attribute : clonedEntry )
+            {
+                attributes.add( attribute );
+            }
+
+            for ( Attribute attribute : attributes )
+            {
+                own( attribute );
+            }
+        }
+
+        allCloned = true;
+    }
+
+
     @Override
     public Entry add( AttributeType attributeType, byte[]... values ) throws LdapException
     {
-        return clonedEntry.add( attributeType, values );
+        own( current().get( attributeType ) );
+
+        return copy().add( attributeType, values );
     }
 
 
     @Override
     public Entry add( AttributeType attributeType, String... values ) throws LdapException
     {
-        return clonedEntry.add( attributeType, values );
+        own( current().get( attributeType ) );
+
+        return copy().add( attributeType, values );
     }
 
 
     @Override
     public Entry add( AttributeType attributeType, Value... values ) throws LdapException
     {
-        return clonedEntry.add( attributeType, values );
+        own( current().get( attributeType ) );
+
+        return copy().add( attributeType, values );
     }
 
 
     @Override
     public Entry add( String upId, AttributeType attributeType, byte[]... values ) throws LdapException
     {
-        return clonedEntry.add( attributeType, values );
+        return add( attributeType, values );
     }
 
 
     @Override
     public Entry add( String upId, AttributeType attributeType, String... values ) throws LdapException
     {
-        return clonedEntry.add( attributeType, values );
+        return add( attributeType, values );
     }
 
 
     @Override
     public Entry add( String upId, AttributeType attributeType, Value... values ) throws LdapException
     {
-        return clonedEntry.add( attributeType, values );
+        return add( attributeType, values );
     }
 
 
     @Override
     public boolean contains( AttributeType attributeType, byte[]... values )
     {
-        return clonedEntry.contains( attributeType, values );
+        return current().contains( attributeType, values );
     }
 
 
     @Override
     public boolean contains( AttributeType attributeType, String... values )
     {
-        return clonedEntry.contains( attributeType, values );
+        return current().contains( attributeType, values );
     }
 
 
     @Override
     public boolean contains( AttributeType attributeType, Value... values )
     {
-        return clonedEntry.contains( attributeType, values );
+        return current().contains( attributeType, values );
     }
 
 
     @Override
     public boolean containsAttribute( AttributeType attributeType )
     {
-        return clonedEntry.containsAttribute( attributeType );
+        return current().containsAttribute( attributeType );
     }
 
 
     @Override
     public Attribute get( AttributeType attributeType )
     {
-        return clonedEntry.get( attributeType );
+        return own( current().get( attributeType ) );
     }
 
 
@@ -176,6 +325,8 @@ public class ClonedServerEntry implements Entry
     @Override
     public Collection<Attribute> getAttributes()
     {
+        cloneAll();
+
         return clonedEntry.getAttributes();
     }
 
@@ -183,175 +334,200 @@ public class ClonedServerEntry implements Entry
     @Override
     public boolean hasObjectClass( Attribute... objectClasses )
     {
-        return clonedEntry.hasObjectClass( objectClasses );
+        return current().hasObjectClass( objectClasses );
     }
 
 
     @Override
     public Attribute put( AttributeType attributeType, byte[]... values ) throws LdapException
     {
-        return clonedEntry.put( attributeType, values );
+        return copy().put( attributeType, values );
     }
 
 
     @Override
     public Attribute put( AttributeType attributeType, String... values ) throws LdapException
     {
-        return clonedEntry.put( attributeType, values );
+        return copy().put( attributeType, values );
     }
 
 
     @Override
     public Attribute put( AttributeType attributeType, Value... values ) throws LdapException
     {
-        return clonedEntry.put( attributeType, values );
+        return copy().put( attributeType, values );
     }
 
 
     @Override
     public Attribute put( String upId, AttributeType attributeType, byte[]... values ) throws LdapException
     {
-        return clonedEntry.put( attributeType, values );
+        return copy().put( attributeType, values );
     }
 
 
     @Override
     public Attribute put( String upId, AttributeType attributeType, String... values ) throws LdapException
     {
-        return clonedEntry.put( upId, attributeType, values );
+        return copy().put( upId, attributeType, values );
     }
 
 
     @Override
     public Attribute put( String upId, AttributeType attributeType, Value... values ) throws LdapException
     {
-        return clonedEntry.put( upId, attributeType, values );
+        return copy().put( upId, attributeType, values );
     }
 
 
     @Override
     public boolean remove( AttributeType attributeType, byte[]... values ) throws LdapException
     {
-        return clonedEntry.remove( attributeType, values );
+        own( current().get( attributeType ) );
+
+        return copy().remove( attributeType, values );
     }
 
 
     @Override
     public boolean remove( AttributeType attributeType, String... values ) throws LdapException
     {
-        return clonedEntry.remove( attributeType, values );
+        own( current().get( attributeType ) );
+
+        return copy().remove( attributeType, values );
     }
 
 
     @Override
     public boolean remove( AttributeType attributeType, Value... values ) throws LdapException
     {
-        return clonedEntry.remove( attributeType, values );
+        own( current().get( attributeType ) );
+
+        return copy().remove( attributeType, values );
     }
 
 
     @Override
     public List<Attribute> remove( Attribute... attributes ) throws LdapException
     {
-        return clonedEntry.remove( attributes );
+        return copy().remove( attributes );
     }
 
 
     @Override
     public void removeAttributes( AttributeType... attributes )
     {
-        clonedEntry.removeAttributes( attributes );
+        copy().removeAttributes( attributes );
     }
 
 
     @Override
     public Entry add( Attribute... attributes ) throws LdapException
     {
-        return clonedEntry.add( attributes );
+        // The values of an existing attribute are merged
+        for ( Attribute attribute : attributes )
+        {
+            if ( attribute.getAttributeType() != null )
+            {
+                own( current().get( attribute.getAttributeType() ) );
+            }
+            else
+            {
+                own( current().get( attribute.getId() ) );
+            }
+        }
+
+        return copy().add( attributes );
     }
 
 
     @Override
     public Entry add( String upId, String... values ) throws LdapException
     {
-        return clonedEntry.add( upId, values );
+        own( current().get( upId ) );
+
+        return copy().add( upId, values );
     }
 
 
     @Override
     public Entry add( String upId, byte[]... values ) throws LdapException
     {
-        return clonedEntry.add( upId, values );
+        own( current().get( upId ) );
+
+        return copy().add( upId, values );
     }
 
 
     @Override
     public Entry add( String upId, Value... values ) throws LdapException
     {
-        return clonedEntry.add( upId, values );
+        own( current().get( upId ) );
+
+        return copy().add( upId, values );
     }
 
 
     @Override
     public void clear()
     {
-        clonedEntry.clear();
+        copy().clear();
     }
 
 
     @Override
     public boolean contains( Attribute... attributes )
     {
-        return clonedEntry.contains( attributes );
+        return current().contains( attributes );
     }
 
 
     @Override
     public boolean contains( String upId, byte[]... values )
     {
-        return clonedEntry.contains( upId, values );
+        return current().contains( upId, values );
     }
 
 
     @Override
     public boolean contains( String upId, String... values )
     {
-        return clonedEntry.contains( upId, values );
+        return current().contains( upId, values );
     }
 
 
     @Override
     public boolean contains( String upId, Value... values )
     {
-        return clonedEntry.contains( upId, values );
+        return current().contains( upId, values );
     }
 
 
     @Override
     public boolean containsAttribute( String... attributes )
     {
-        return clonedEntry.containsAttribute( attributes );
+        return current().containsAttribute( attributes );
     }
 
 
     @Override
     public Attribute get( String alias )
     {
-        return clonedEntry.get( alias );
+        return own( current().get( alias ) );
     }
 
 
     @Override
     public Dn getDn()
     {
-        return clonedEntry.getDn();
+        return current().getDn();
     }
 
 
     @Override
     public boolean hasObjectClass( String... objectClasses )
     {
-        return clonedEntry.hasObjectClass( objectClasses );
+        return current().hasObjectClass( objectClasses );
     }
 
 
@@ -361,13 +537,15 @@ public class ClonedServerEntry implements Entry
     @Override
     public boolean isSchemaAware()
     {
-        return clonedEntry.isSchemaAware();
+        return current().isSchemaAware();
     }
 
 
     @Override
     public Iterator<Attribute> iterator()
     {
+        cloneAll();
+
         return clonedEntry.iterator();
     }
 
@@ -375,89 +553,97 @@ public class ClonedServerEntry implements Entry
     @Override
     public List<Attribute> put( Attribute... attributes ) throws LdapException
     {
-        return clonedEntry.put( attributes );
+        return copy().put( attributes );
     }
 
 
     @Override
     public Attribute put( String upId, byte[]... values )
     {
-        return clonedEntry.put( upId, values );
+        return copy().put( upId, values );
     }
 
 
     @Override
     public Attribute put( String upId, String... values )
     {
-        return clonedEntry.put( upId, values );
+        return copy().put( upId, values );
     }
 
 
     @Override
     public Attribute put( String upId, Value... values )
     {
-        return clonedEntry.put( upId, values );
+        return copy().put( upId, values );
     }
 
 
     @Override
     public boolean remove( String upId, byte[]... values ) throws LdapException
     {
-        return clonedEntry.remove( upId, values );
+        own( current().get( upId ) );
+
+        return copy().remove( upId, values );
     }
 
 
     @Override
     public boolean remove( String upId, String... values ) throws LdapException
     {
-        return clonedEntry.remove( upId, values );
+        own( current().get( upId ) );
+
+        return copy().remove( upId, values );
     }
 
 
     @Override
     public boolean remove( String upId, Value... values ) throws LdapException
     {
-        return clonedEntry.remove( upId, values );
+        own( current().get( upId ) );
+
+        return copy().remove( upId, values );
     }
 
 
     @Override
     public void removeAttributes( String... attributes )
     {
-        clonedEntry.removeAttributes( attributes );
+        copy().removeAttributes( attributes );
     }
 
 
     @Override
     public void setDn( Dn dn )
     {
-        clonedEntry.setDn( dn );
+        copy().setDn( dn );
     }
 
 
     @Override
     public void setDn( String dn ) throws LdapInvalidDnException
     {
-        clonedEntry.setDn( dn );
+        copy().setDn( dn );
     }
 
 
     @Override
     public int size()
     {
-        return clonedEntry.size();
+        return current().size();
     }
 
 
     public Entry toClientEntry() throws LdapException
     {
+        Entry entry = current();
+
         // Copy the Dn
-        Entry clientEntry = new DefaultEntry( clonedEntry.getDn() );
+        Entry clientEntry = new DefaultEntry( entry.getDn() );
 
         // Convert each attribute
-        for ( Attribute clonedEntry : this )
+        for ( Attribute attribute : entry )
         {
-            Attribute clientAttribute = clonedEntry.clone();
+            Attribute clientAttribute = attribute.clone();
             clientEntry.add( clientAttribute );
         }
 
@@ -492,13 +678,16 @@ public class ClonedServerEntry implements Entry
     @Override
     public Entry clone()
     {
-        return clonedEntry.clone();
+        return current().clone();
     }
 
 
     @Override
     public Entry shallowClone()
     {
+        // The returned entry shares the attributes, which can then be modified
+        cloneAll();
+
         return clonedEntry.shallowClone();
     }
 
@@ -529,7 +718,7 @@ public class ClonedServerEntry implements Entry
 
         if ( obj instanceof ClonedServerEntry )
         {
-            other = ( ( ClonedServerEntry ) obj ).getClonedEntry();
+            other = ( ( ClonedServerEntry ) obj ).current();
         }
         else if ( obj instanceof Entry )
         {
@@ -539,13 +728,16 @@ public class ClonedServerEntry implements Entry
         {
             return false;
         }
-        if ( clonedEntry == null )
+
+        Entry entry = current();
+
+        if ( entry == null )
         {
             return other == null;
         }
         else
         {
-            return clonedEntry.equals( other );
+            return entry.equals( other );
         }
     }
 
@@ -566,6 +758,6 @@ public class ClonedServerEntry implements Entry
     @Override
     public String toString( String tabs )
     {
-        return clonedEntry.toString( tabs );
+        return current().toString( tabs );
     }
 }
@@ -89,4 +89,16 @@ public interface DirectoryListener
      * @return true if should be invoked synchronously, false otherwise
      */
     boolean isSynchronous();
+
+
+    /**
+     * Called when some notifications could not be delivered to an asynchronous listener,
+     * because it does not process them fast enough. The listener is called in the order
+     * of the notifications, just after the last one it has received.
+     *
+     * @param nbDropped the number of notifications which have been dropped
+     * @param disconnected true if the listener has been removed from the EventService, and
+     * won't receive any more notifications
+     */
+    void eventsDropped( int nbDropped, boolean disconnected );
 }
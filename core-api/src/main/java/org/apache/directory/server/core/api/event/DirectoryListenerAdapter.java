@@ -78,4 +78,10 @@ public abstract class DirectoryListenerAdapter implements DirectoryListener
     {
         return false;
     }
+
+
+    @Override
+    public void eventsDropped( int nbDropped, boolean disconnected )
+    {
+    }
 }
@@ -31,6 +31,7 @@ import org.apache.directory.api.ldap.model.message.Control;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.LdapPrincipal;
+import org.apache.directory.server.core.api.interceptor.Interceptor;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 
@@ -64,7 +65,7 @@ public abstract class AbstractOperationContext implements OperationContext
     protected Collection<String> byPassed;
 
     /** The interceptors to call for this operation */
-    protected List<String> interceptors;
+    protected Interceptor[] interceptors;
 
     /** The current interceptor position */
     protected int currentInterceptor;
@@ -314,7 +315,12 @@ public abstract class AbstractOperationContext implements OperationContext
     @Override
     public final void setInterceptors( List<String> interceptors )
     {
-        this.interceptors = interceptors;
+        this.interceptors = new Interceptor[interceptors.size()];
+
+        for ( int i = 0; i < this.interceptors.length; i++ )
+        {
+            this.interceptors[i] = session.getDirectoryService().getInterceptor( interceptors.get( i ) );
+        }
     }
 
 
@@ -324,12 +330,39 @@ public abstract class AbstractOperationContext implements OperationContext
     @Override
     public final String getNextInterceptor()
     {
-        if ( currentInterceptor == interceptors.size() )
+        Interceptor interceptor = getNextInterceptorInChain();
+
+        if ( interceptor == null )
         {
             return "FINAL";
         }
 
-        String interceptor = interceptors.get( currentInterceptor );
+        return interceptor.getName();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final void setInterceptorChain( Interceptor[] interceptors )
+    {
+        this.interceptors = interceptors;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final Interceptor getNextInterceptorInChain()
+    {
+        if ( currentInterceptor == interceptors.length )
+        {
+            return null;
+        }
+
+        Interceptor interceptor = interceptors[currentInterceptor];
         currentInterceptor++;
 
         return interceptor;
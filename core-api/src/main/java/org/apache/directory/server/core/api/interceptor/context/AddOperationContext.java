@@ -41,6 +41,10 @@ import org.apache.directory.server.core.api.entry.ClonedServerEntry;
  */
 public class AddOperationContext extends AbstractChangeOperationContext
 {
+    /** Tells if the partition is flushed on disk when the entry has been added */
+    private boolean syncOnWrite = true;
+
+
     /**
      * Creates a new instance of AddOperationContext.
      * 
@@ -52,7 +56,7 @@ public class AddOperationContext extends AbstractChangeOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.ADD ) );
+            setInterceptorChain( session.getDirectoryService().getInterceptorChain( OperationEnum.ADD ) );
         }
     }
 
@@ -69,7 +73,7 @@ public class AddOperationContext extends AbstractChangeOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.ADD ) );
+            setInterceptorChain( session.getDirectoryService().getInterceptorChain( OperationEnum.ADD ) );
         }
     }
 
@@ -86,7 +90,7 @@ public class AddOperationContext extends AbstractChangeOperationContext
         this.entry = new ClonedServerEntry( entry );
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.ADD ) );
+            setInterceptorChain( session.getDirectoryService().getInterceptorChain( OperationEnum.ADD ) );
         }
     }
 
@@ -104,7 +108,7 @@ public class AddOperationContext extends AbstractChangeOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.ADD ) );
+            setInterceptorChain( session.getDirectoryService().getInterceptorChain( OperationEnum.ADD ) );
         }
 
         this.entry = new ClonedServerEntry( entry );
@@ -124,7 +128,7 @@ public class AddOperationContext extends AbstractChangeOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.ADD ) );
+            setInterceptorChain( session.getDirectoryService().getInterceptorChain( OperationEnum.ADD ) );
         }
         else
         {
@@ -157,6 +161,31 @@ public class AddOperationContext extends AbstractChangeOperationContext
     }
 
 
+    /**
+     * @return <tt>true</tt> if the partition is flushed on disk when the entry has been added,
+     * if the partition does so
+     */
+    public boolean isSyncOnWrite()
+    {
+        return syncOnWrite;
+    }
+
+
+    /**
+     * Tells the partition not to flush the added entry on disk. The caller will flush the
+     * partition when it has added all its entries. Only this operation is affected, the
+     * other operations done on the partition meanwhile are flushed as usual. The operation
+     * must not be part of a session transaction, which would not be flushed either.
+     *
+     * @param syncOnWrite <tt>false</tt> if the partition must not be flushed on disk when the
+     * entry has been added
+     */
+    public void setSyncOnWrite( boolean syncOnWrite )
+    {
+        this.syncOnWrite = syncOnWrite;
+    }
+
+
     /**
      * @return the operation name
      */
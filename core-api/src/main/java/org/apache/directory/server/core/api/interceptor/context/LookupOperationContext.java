@@ -47,7 +47,7 @@ public class LookupOperationContext extends FilteringOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.LOOKUP ) );
+            setInterceptorChain( session.getDirectoryService().getInterceptorChain( OperationEnum.LOOKUP ) );
         }
     }
 
@@ -64,7 +64,7 @@ public class LookupOperationContext extends FilteringOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.LOOKUP ) );
+            setInterceptorChain( session.getDirectoryService().getInterceptorChain( OperationEnum.LOOKUP ) );
         }
     }
 
@@ -81,7 +81,7 @@ public class LookupOperationContext extends FilteringOperationContext
         
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.LOOKUP ) );
+            setInterceptorChain( session.getDirectoryService().getInterceptorChain( OperationEnum.LOOKUP ) );
         }
     }
 
@@ -99,7 +99,7 @@ public class LookupOperationContext extends FilteringOperationContext
         
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.LOOKUP ) );
+            setInterceptorChain( session.getDirectoryService().getInterceptorChain( OperationEnum.LOOKUP ) );
         }
     }
 
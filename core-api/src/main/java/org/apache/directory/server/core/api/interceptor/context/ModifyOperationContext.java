@@ -67,7 +67,7 @@ public class ModifyOperationContext extends AbstractChangeOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.MODIFY ) );
+            setInterceptorChain( session.getDirectoryService().getInterceptorChain( OperationEnum.MODIFY ) );
         }
     }
 
@@ -85,7 +85,7 @@ public class ModifyOperationContext extends AbstractChangeOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.MODIFY ) );
+            setInterceptorChain( session.getDirectoryService().getInterceptorChain( OperationEnum.MODIFY ) );
         }
 
         this.modItems = modItems;
@@ -105,7 +105,7 @@ public class ModifyOperationContext extends AbstractChangeOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.MODIFY ) );
+            setInterceptorChain( session.getDirectoryService().getInterceptorChain( OperationEnum.MODIFY ) );
         }
         else
         {
@@ -58,7 +58,7 @@ public class MoveAndRenameOperationContext extends RenameOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.MOVE_AND_RENAME ) );
+            setInterceptorChain( session.getDirectoryService().getInterceptorChain( OperationEnum.MOVE_AND_RENAME ) );
         }
     }
 
@@ -79,7 +79,7 @@ public class MoveAndRenameOperationContext extends RenameOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.MOVE_AND_RENAME ) );
+            setInterceptorChain( session.getDirectoryService().getInterceptorChain( OperationEnum.MOVE_AND_RENAME ) );
         }
 
         try
@@ -113,7 +113,7 @@ public class MoveAndRenameOperationContext extends RenameOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.MOVE_AND_RENAME ) );
+            setInterceptorChain( session.getDirectoryService().getInterceptorChain( OperationEnum.MOVE_AND_RENAME ) );
         }
 
         if ( newSuperiorDn == null )
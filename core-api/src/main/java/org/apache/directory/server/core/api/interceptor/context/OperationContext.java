@@ -29,6 +29,7 @@ import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.LdapPrincipal;
 import org.apache.directory.server.core.api.entry.ClonedServerEntry;
+import org.apache.directory.server.core.api.interceptor.Interceptor;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 
@@ -233,6 +234,23 @@ public interface OperationContext
     void setInterceptors( List<String> interceptors );
 
 
+    /**
+     * Gets the next interceptor in the chain of interceptors. The
+     * position in the chain will be incremented.
+     * 
+     * @return The next interceptor from the chain, or null if all of them have been called
+     */
+    Interceptor getNextInterceptorInChain();
+
+
+    /**
+     * Sets the chain of interceptors to go through for an operation
+     * 
+     * @param interceptors The chain of interceptors, which won't be modified
+     */
+    void setInterceptorChain( Interceptor[] interceptors );
+
+
     /**
      * Gets the session associated with this operation.
      *
@@ -65,6 +65,9 @@ public class SearchOperationContext extends FilteringOperationContext
 
     /** flag to indicate if this search is done for replication */
     private boolean syncreplSearch;
+
+    /** flag to indicate if the partition returns the entries in the order requested by the Sort control */
+    private boolean sorted;
     
     /**
      * Creates a new instance of SearchOperationContext.
@@ -77,7 +80,7 @@ public class SearchOperationContext extends FilteringOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.SEARCH ) );
+            setInterceptorChain( session.getDirectoryService().getInterceptorChain( OperationEnum.SEARCH ) );
         }
     }
 
@@ -94,7 +97,7 @@ public class SearchOperationContext extends FilteringOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.SEARCH ) );
+            setInterceptorChain( session.getDirectoryService().getInterceptorChain( OperationEnum.SEARCH ) );
         }
 
         this.filter = searchRequest.getFilter();
@@ -130,7 +133,7 @@ public class SearchOperationContext extends FilteringOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.SEARCH ) );
+            setInterceptorChain( session.getDirectoryService().getInterceptorChain( OperationEnum.SEARCH ) );
         }
     }
 
@@ -153,7 +156,7 @@ public class SearchOperationContext extends FilteringOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.SEARCH ) );
+            setInterceptorChain( session.getDirectoryService().getInterceptorChain( OperationEnum.SEARCH ) );
         }
     }
 
@@ -221,6 +224,28 @@ public class SearchOperationContext extends FilteringOperationContext
     }
 
 
+    /**
+     * @return <code>true</code> if the partition already returns the entries in the order
+     * requested by the Sort control
+     */
+    public boolean isSorted()
+    {
+        return sorted;
+    }
+
+
+    /**
+     * Sets the flag to indicate if the partition already returns the entries in the order
+     * requested by the Sort control, so that they don't have to be sorted again
+     * 
+     * @param sorted The flag indicating the entries are sorted
+     */
+    public void setSorted( boolean sorted )
+    {
+        this.sorted = sorted;
+    }
+
+
     /**
      * @return The alias dereferencing mode
      */
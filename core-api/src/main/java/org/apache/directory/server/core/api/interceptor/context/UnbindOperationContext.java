@@ -43,7 +43,7 @@ public class UnbindOperationContext extends AbstractOperationContext
     {
         super( session, session.getEffectivePrincipal().getDn() );
 
-        setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.UNBIND ) );
+        setInterceptorChain( session.getDirectoryService().getInterceptorChain( OperationEnum.UNBIND ) );
     }
 
 
@@ -58,7 +58,7 @@ public class UnbindOperationContext extends AbstractOperationContext
         super( session, session.getEffectivePrincipal().getDn() );
         setRequestControls( unbindRequest.getControls() );
 
-        setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.UNBIND ) );
+        setInterceptorChain( session.getDirectoryService().getInterceptorChain( OperationEnum.UNBIND ) );
     }
 
 
@@ -99,7 +99,7 @@ public interface JournalStore
 
     /**
      * The file name to use as the journal file. Default to 
-     * 'journal.ldif'
+     * 'journal.bin'
      * @param fileName the fileName to set
      */
     void setFileName( String fileName );
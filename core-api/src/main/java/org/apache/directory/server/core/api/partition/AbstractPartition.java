@@ -172,6 +172,16 @@ public abstract class AbstractPartition implements Partition
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isConcurrentModifySupported()
+    {
+        return false;
+    }
+
+
     /**
      * {@inheritDoc}
      */
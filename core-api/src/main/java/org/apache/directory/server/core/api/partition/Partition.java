@@ -168,6 +168,15 @@ public interface Partition
     boolean isInitialized();
 
 
+    /**
+     * Tells if this partition can process modifications of distinct entries concurrently.
+     * If not, a modification locks the whole partition.
+     * 
+     * @return <tt>true</tt> if distinct entries can be modified concurrently, false otherwise
+     */
+    boolean isConcurrentModifySupported();
+
+
     /**
      * Flushes any changes made to this partition now.
      * 
@@ -28,6 +28,10 @@ import java.io.IOException;
  */
 public class PartitionWriteTxn implements PartitionTxn
 {
+    /** Tells if the changes are flushed on disk when the transaction is committed */
+    private boolean syncOnWrite = true;
+
+
     /**
      * {@inheritDoc}
      */
@@ -63,4 +67,25 @@ public class PartitionWriteTxn implements PartitionTxn
     public void close() throws IOException
     {
     }
+
+
+    /**
+     * @return <tt>true</tt> if the changes are flushed on disk when the transaction is committed
+     */
+    public boolean isSyncOnWrite()
+    {
+        return syncOnWrite;
+    }
+
+
+    /**
+     * Sets the flag telling if the changes are flushed on disk when the transaction is
+     * committed. A partition which doesn't flush its changes on disk ignores it.
+     *
+     * @param syncOnWrite <tt>true</tt> if the changes are flushed on disk on commit
+     */
+    public void setSyncOnWrite( boolean syncOnWrite )
+    {
+        this.syncOnWrite = syncOnWrite;
+    }
 }
@@ -20,8 +20,12 @@
 package org.apache.directory.server.core.api.subtree;
 
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -34,6 +38,10 @@ import org.apache.directory.api.ldap.model.subtree.Subentry;
  * representing its position in the DIT.<br>
  * This cache has a size limit set to 1000 at the moment. We should add a configuration
  * parameter to manage its size.
+ * <p>
+ * The subentries are also stored in a tree of the Rdns of their administrative point,
+ * so that the subentries which may select an entry - the ones stored in its ancestors
+ * or in the entry itself - can be found without checking all of them.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -51,6 +59,31 @@ public class SubentryCache implements Iterable<Dn>
     /** The Subentry cache */
     private final Map<Dn, Subentry> cache;
 
+    /** The node associated with the RootDSE in the administrative points tree */
+    private final ApNode root = new ApNode( null );
+
+
+    /**
+     * A node in the administrative points tree
+     */
+    private static class ApNode
+    {
+        /** The parent node, null for the root */
+        private final ApNode parent;
+
+        /** The children, by normalized Rdn */
+        private final Map<String, ApNode> children = new ConcurrentHashMap<>();
+
+        /** The subentries stored in the entry associated with this node */
+        private final Set<Dn> subentries = ConcurrentHashMap.newKeySet();
+
+
+        ApNode( ApNode parent )
+        {
+            this.parent = parent;
+        }
+    }
+
 
     /**
      * Creates a new instance of SubentryCache with a default maximum size.
@@ -96,7 +129,17 @@ public class SubentryCache implements Iterable<Dn>
      */
     public final Subentry removeSubentry( Dn dn )
     {
-        Subentry oldSubentry = cache.remove( dn );
+        Subentry oldSubentry;
+
+        synchronized ( root )
+        {
+            oldSubentry = cache.remove( dn );
+
+            if ( oldSubentry != null )
+            {
+                removeFromTree( dn );
+            }
+        }
 
         if ( oldSubentry != null )
         {
@@ -121,7 +164,17 @@ public class SubentryCache implements Iterable<Dn>
             throw new IllegalStateException( "Cache is full: size=" + cacheSize.get() + ", max=" + cacheMaxSize );
         }
 
-        Subentry oldSubentry = cache.put( dn, subentry );
+        Subentry oldSubentry;
+
+        synchronized ( root )
+        {
+            oldSubentry = cache.put( dn, subentry );
+
+            if ( oldSubentry == null )
+            {
+                addToTree( dn );
+            }
+        }
 
         if ( oldSubentry == null )
         {
@@ -132,6 +185,102 @@ public class SubentryCache implements Iterable<Dn>
     }
 
 
+    /**
+     * Gets the subentries which may select an entry : the subentries of the entry itself,
+     * if it's an administrative point, and of its ancestors. Their subtree specification
+     * still has to be evaluated.
+     *
+     * @param dn The entry Dn
+     * @return The DNs of the subentries
+     */
+    public List<Dn> getSubentries( Dn dn )
+    {
+        List<Dn> subentries = null;
+        ApNode node = root;
+        int depth = 0;
+        int dnSize = dn.size();
+
+        while ( node != null )
+        {
+            if ( !node.subentries.isEmpty() )
+            {
+                if ( subentries == null )
+                {
+                    subentries = new ArrayList<>();
+                }
+
+                subentries.addAll( node.subentries );
+            }
+
+            if ( depth == dnSize )
+            {
+                break;
+            }
+
+            // The Rdns are stored from the right
+            node = node.children.get( dn.getRdn( dnSize - 1 - depth ).getNormName() );
+            depth++;
+        }
+
+        if ( subentries == null )
+        {
+            return Collections.emptyList();
+        }
+
+        return subentries;
+    }
+
+
+    /**
+     * Stores a subentry Dn in the node of its administrative point, creating the missing nodes
+     */
+    private void addToTree( Dn dn )
+    {
+        ApNode node = root;
+
+        // The subentry is stored in its parent
+        for ( int i = dn.size() - 1; i > 0; i-- )
+        {
+            ApNode parent = node;
+            node = node.children.computeIfAbsent( dn.getRdn( i ).getNormName(), rdn -> new ApNode( parent ) );
+        }
+
+        node.subentries.add( dn );
+    }
+
+
+    /**
+     * Removes a subentry Dn from the node of its administrative point, and the nodes
+     * which are now useless
+     */
+    private void removeFromTree( Dn dn )
+    {
+        ApNode node = root;
+
+        for ( int i = dn.size() - 1; ( i > 0 ) && ( node != null ); i-- )
+        {
+            node = node.children.get( dn.getRdn( i ).getNormName() );
+        }
+
+        if ( node == null )
+        {
+            return;
+        }
+
+        node.subentries.remove( dn );
+
+        // Prune the branch
+        int i = 1;
+
+        while ( ( node.parent != null ) && node.subentries.isEmpty() && node.children.isEmpty() )
+        {
+            node.parent.children.remove( dn.getRdn( i ).getNormName() );
+            node = node.parent;
+            i++;
+        }
+    }
+
+
     /**
      * Tells if there is a Subentry associated with a Dn
      * @param dn The Dn
@@ -73,10 +73,17 @@ public class SubentryUtils
         SubentryCache subentryCache = directoryService.getSubentryCache();
         SubtreeEvaluator evaluator = directoryService.getEvaluator();
 
-        for ( Dn subentryDn : subentryCache )
+        for ( Dn subentryDn : subentryCache.getSubentries( dn ) )
         {
             Dn apDn = subentryDn.getParent();
             Subentry subentry = subentryCache.getSubentry( subentryDn );
+
+            if ( subentry == null )
+            {
+                // Removed in the meantime
+                continue;
+            }
+
             SubtreeSpecification ss = subentry.getSubtreeSpecification();
 
             if ( evaluator.evaluate( ss, apDn, dn, entryAttrs ) )
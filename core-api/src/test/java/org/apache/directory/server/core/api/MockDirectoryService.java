@@ -438,6 +438,18 @@ public class MockDirectoryService implements DirectoryService
     }
 
 
+    public long getMaxSortMemory()
+    {
+        return Long.MAX_VALUE;
+    }
+
+
+    public void setMaxSortMemory( long maxSortMemory )
+    {
+        // Do nothing
+    }
+
+
     public Interceptor getInterceptor( String interceptorName )
     {
         return null;
@@ -581,6 +593,13 @@ public class MockDirectoryService implements DirectoryService
     }
 
 
+    @Override
+    public Interceptor[] getInterceptorChain( OperationEnum operation )
+    {
+        return null;
+    }
+
+
     @Override
     public void addFirst( Interceptor interceptor ) throws LdapException
     {
@@ -33,6 +33,7 @@ import org.apache.directory.server.core.api.LdapPrincipal;
 import org.apache.directory.server.core.api.ReferralHandlingMode;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursorImpl;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
+import org.apache.directory.server.core.api.interceptor.Interceptor;
 import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.OperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
@@ -231,6 +232,19 @@ public class MockOperation implements OperationContext
     }
 
 
+    @Override
+    public void setInterceptorChain( Interceptor[] interceptors )
+    {
+    }
+
+
+    @Override
+    public Interceptor getNextInterceptorInChain()
+    {
+        return null;
+    }
+
+
     @Override
     public int getCurrentInterceptor()
     {
@@ -22,9 +22,15 @@ package org.apache.directory.server.core.api.entry;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import org.apache.directory.api.ldap.model.entry.Attribute;
 import org.apache.directory.api.ldap.model.entry.DefaultEntry;
 import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.parallel.Execution;
@@ -46,6 +52,7 @@ public class ClonedServerEntryTest
     private static Entry clonedServerEntryACopy1;
     private static Entry clonedServerEntryB1;
     private static Entry clonedServerEntryC1;
+    private static SchemaManager schemaManager;
 
 
     /**
@@ -65,6 +72,8 @@ public class ClonedServerEntryTest
         clonedServerEntryACopy1 = new ClonedServerEntry( eA );
         clonedServerEntryB1 = new ClonedServerEntry( eB );
         clonedServerEntryC1 = new ClonedServerEntry( eC );
+
+        schemaManager = new DefaultSchemaManager();
     }
 
 
@@ -142,4 +151,72 @@ public class ClonedServerEntryTest
         assertFalse( clonedServerEntryA1.equals( clonedServerEntryC1 ) );
         assertFalse( clonedServerEntryC1.equals( clonedServerEntryA1 ) );
     }
+
+
+    @Test
+    public void testCopyOnWrite() throws Exception
+    {
+        Entry original = new DefaultEntry( schemaManager, "cn=test,dc=example,dc=com",
+            "objectClass: top",
+            "objectClass: person",
+            "cn: test",
+            "sn: test",
+            "description: a" );
+        Attribute originalCn = original.get( "cn" );
+        Attribute originalDescription = original.get( "description" );
+
+        ClonedServerEntry entry = new ClonedServerEntry( original );
+
+        // Reading the entry does not copy it
+        assertTrue( entry.contains( "cn", "test" ) );
+        assertEquals( 4, entry.size() );
+
+        // The modifications are done on the copy
+        entry.add( "description", "b" );
+        entry.remove( "cn", "test" );
+        entry.removeAttributes( "sn" );
+        entry.setDn( "cn=other,dc=example,dc=com" );
+
+        assertTrue( entry.contains( "description", "a", "b" ) );
+        assertFalse( entry.containsAttribute( "cn", "sn" ) );
+        assertEquals( "cn=other,dc=example,dc=com", entry.getDn().getName() );
+
+        assertEquals( "cn=test,dc=example,dc=com", original.getDn().getName() );
+        assertEquals( 4, original.size() );
+        assertSame( originalCn, original.get( "cn" ) );
+        assertTrue( originalCn.contains( "test" ) );
+        assertSame( originalDescription, original.get( "description" ) );
+        assertEquals( 1, originalDescription.size() );
+    }
+
+
+    @Test
+    public void testGetReturnsPrivateAttribute() throws Exception
+    {
+        Entry original = new DefaultEntry( schemaManager, "cn=test,dc=example,dc=com",
+            "objectClass: top",
+            "objectClass: person",
+            "cn: test",
+            "sn: test" );
+
+        ClonedServerEntry entry = new ClonedServerEntry( original );
+
+        // The attribute may be modified by the caller : it's not the original one
+        Attribute cn = entry.get( "cn" );
+        assertNotSame( original.get( "cn" ), cn );
+        assertSame( cn, entry.get( "cn" ) );
+
+        cn.add( "other" );
+        assertTrue( entry.contains( "cn", "test", "other" ) );
+        assertFalse( original.contains( "cn", "other" ) );
+
+        // The iterated attributes are private too
+        for ( Attribute attribute : entry )
+        {
+            assertNotSame( original.get( attribute.getAttributeType() ), attribute );
+        }
+
+        entry.getClonedEntry().get( "sn" ).clear();
+        assertTrue( original.contains( "sn", "test" ) );
+    }
 }
@@ -0,0 +1,136 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.subtree;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.model.subtree.Subentry;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+
+/**
+ * Tests the administrative points tree of the SubentryCache.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SubentryCacheTest
+{
+    private static SchemaManager schemaManager;
+
+
+    @BeforeAll
+    public static void init() throws Exception
+    {
+        schemaManager = new DefaultSchemaManager();
+    }
+
+
+    @Test
+    public void testGetSubentries() throws Exception
+    {
+        SubentryCache cache = new SubentryCache();
+        Dn systemSubentry = dn( "cn=systemSubentry,ou=system" );
+        Dn tenantSubentry = dn( "cn=tenantSubentry,ou=tenant1,ou=tenants,ou=system" );
+        Dn otherSubentry = dn( "cn=otherSubentry,ou=tenant2,ou=tenants,ou=system" );
+
+        cache.addSubentry( systemSubentry, new Subentry() );
+        cache.addSubentry( tenantSubentry, new Subentry() );
+        cache.addSubentry( otherSubentry, new Subentry() );
+
+        assertEquals( set( systemSubentry, tenantSubentry ),
+            set( cache.getSubentries( dn( "uid=user,ou=people,ou=tenant1,ou=tenants,ou=system" ) ) ) );
+
+        // The administrative point is selected by its own subentries
+        assertEquals( set( systemSubentry, tenantSubentry ),
+            set( cache.getSubentries( dn( "ou=tenant1,ou=tenants,ou=system" ) ) ) );
+        assertEquals( set( systemSubentry ), set( cache.getSubentries( dn( "ou=tenants,ou=system" ) ) ) );
+        assertTrue( cache.getSubentries( dn( "dc=example,dc=com" ) ).isEmpty() );
+
+        // The Rdns are compared once normalized
+        assertEquals( set( systemSubentry, otherSubentry ),
+            set( cache.getSubentries( dn( "uid=user,OU=Tenant2,ou=tenants,ou=system" ) ) ) );
+    }
+
+
+    @Test
+    public void testRemoveAndMoveSubentries() throws Exception
+    {
+        SubentryCache cache = new SubentryCache();
+        Dn subentry1 = dn( "cn=subentry1,ou=tenant1,ou=tenants,ou=system" );
+        Dn subentry2 = dn( "cn=subentry2,ou=tenant1,ou=tenants,ou=system" );
+        Dn entry = dn( "uid=user,ou=tenant1,ou=tenants,ou=system" );
+
+        cache.addSubentry( subentry1, new Subentry() );
+        cache.addSubentry( subentry2, new Subentry() );
+
+        assertNotNull( cache.removeSubentry( subentry1 ) );
+        assertEquals( set( subentry2 ), set( cache.getSubentries( entry ) ) );
+
+        // Move the subentry to another administrative point
+        Dn movedSubentry = dn( "cn=subentry2,ou=tenant2,ou=tenants,ou=system" );
+        cache.addSubentry( movedSubentry, cache.removeSubentry( subentry2 ) );
+
+        assertTrue( cache.getSubentries( entry ).isEmpty() );
+        assertEquals( set( movedSubentry ),
+            set( cache.getSubentries( dn( "uid=user,ou=tenant2,ou=tenants,ou=system" ) ) ) );
+        assertEquals( 1, cache.getCacheSize() );
+
+        cache.removeSubentry( movedSubentry );
+
+        assertTrue( cache.getSubentries( dn( "uid=user,ou=tenant2,ou=tenants,ou=system" ) ).isEmpty() );
+        assertEquals( 0, cache.getCacheSize() );
+    }
+
+
+    private static Dn dn( String name ) throws Exception
+    {
+        return new Dn( schemaManager, name );
+    }
+
+
+    private static Set<Dn> set( Dn... dns )
+    {
+        Set<Dn> set = new HashSet<>();
+
+        for ( Dn dn : dns )
+        {
+            set.add( dn );
+        }
+
+        return set;
+    }
+
+
+    private static Set<Dn> set( List<Dn> dns )
+    {
+        return new HashSet<>( dns );
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.authz;
+
+
+import static org.apache.directory.server.core.authz.AutzIntegUtils.createAccessControlSubentry;
+import static org.apache.directory.server.core.authz.AutzIntegUtils.createUser;
+import static org.apache.directory.server.core.authz.AutzIntegUtils.getAdminConnection;
+import static org.apache.directory.server.core.authz.AutzIntegUtils.getConnectionAs;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.apache.directory.api.ldap.model.cursor.EntryCursor;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.apache.directory.server.core.annotations.ApplyLdifs;
+import org.apache.directory.server.core.annotations.CreateDS;
+import org.apache.directory.server.core.api.InterceptorEnum;
+import org.apache.directory.server.core.integ.AbstractLdapTestUnit;
+import org.apache.directory.server.core.integ.ApacheDSTestExtension;
+import org.apache.directory.server.core.integ.IntegrationUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+
+/**
+ * Measures the cost of the access control when a non admin user does a subtree search,
+ * with and without the ACI decisions cache.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@ExtendWith( ApacheDSTestExtension.class )
+@CreateDS(enableAccessControl = true, name = "SearchAuthorizationPerfIT")
+@ApplyLdifs(
+    {
+        "dn: ou=tests,ou=system",
+        "objectclass: top",
+        "objectclass: organizationalUnit",
+        "ou: tests",
+        ""
+})
+public class SearchAuthorizationPerfIT extends AbstractLdapTestUnit
+{
+    /** The number of entries under ou=tests,ou=system */
+    private static final int NB_ENTRIES = 2000;
+
+    /** The number of searches for each measure */
+    private static final int NB_SEARCHES = 200;
+
+
+    @BeforeEach
+    public void setService() throws Exception
+    {
+        AutzIntegUtils.service = getService();
+    }
+
+
+    @AfterEach
+    public void closeConnections()
+    {
+        IntegrationUtils.closeConnections();
+    }
+
+
+    @Test
+    public void testSubtreeSearchPerfAsNonAdmin() throws Exception
+    {
+        LdapConnection adminConnection = getAdminConnection();
+
+        for ( int i = 0; i < NB_ENTRIES; i++ )
+        {
+            adminConnection.add( new DefaultEntry( getService().getSchemaManager(),
+                "cn=user" + i + ",ou=tests,ou=system",
+                "objectClass: top",
+                "objectClass: person",
+                "objectClass: organizationalPerson",
+                "objectClass: inetOrgPerson",
+                "cn", "user" + i,
+                "sn", "user" + i,
+                "description", "A test user",
+                "telephoneNumber", "+1 555 " + i,
+                "mail", "user" + i + "@example.com" ) );
+        }
+
+        createUser( "billyd", "billyd" );
+
+        createAccessControlSubentry( "anybodySearch",
+            "{ " +
+                "  identificationTag \"searchAci\", " +
+                "  precedence 14, " +
+                "  authenticationLevel none, " +
+                "  itemOrUserFirst userFirst: " +
+                "  { " +
+                "    userClasses { allUsers }, " +
+                "    userPermissions " +
+                "    { " +
+                "      { " +
+                "        protectedItems {entry, allUserAttributeTypesAndValues}, " +
+                "        grantsAndDenials { grantRead, grantReturnDN, grantBrowse } " +
+                "      } " +
+                "    } " +
+                "  } " +
+                "}" );
+
+        AciAuthorizationInterceptor interceptor = ( AciAuthorizationInterceptor ) getService()
+            .getInterceptor( InterceptorEnum.ACI_AUTHORIZATION_INTERCEPTOR.getName() );
+        LdapConnection connection = getConnectionAs( "uid=billyd,ou=users,ou=system", "billyd" );
+
+        // Once to warm up the server, then for real
+        for ( int i = 0; i < 2; i++ )
+        {
+            interceptor.setAciDecisionCacheSize( 0 );
+            runSearches( connection, "without the decision cache" );
+
+            interceptor.setAciDecisionCacheSize( AciAuthorizationInterceptor.DEFAULT_ACI_DECISION_CACHE_SIZE );
+            runSearches( connection, "with the decision cache" );
+        }
+    }
+
+
+    private void runSearches( LdapConnection connection, String name ) throws Exception
+    {
+        long t0 = System.currentTimeMillis();
+
+        for ( int i = 0; i < NB_SEARCHES; i++ )
+        {
+            int count = 0;
+
+            try ( EntryCursor cursor = connection.search( "ou=tests,ou=system", "(objectClass=person)",
+                SearchScope.SUBTREE, "*" ) )
+            {
+                while ( cursor.next() )
+                {
+                    cursor.get();
+                    count++;
+                }
+            }
+
+            assertEquals( NB_ENTRIES, count );
+        }
+
+        long t1 = System.currentTimeMillis();
+
+        System.out.println( "Subtree search as a non admin user, " + name + ", " + NB_SEARCHES + " searches on "
+            + NB_ENTRIES + " entries" );
+        System.out.println( "Delta : " + ( t1 - t0 ) + "ms, "
+            + ( NB_SEARCHES * NB_ENTRIES * 1000L / Math.max( 1L, t1 - t0 ) ) + " entries/s" );
+    }
+}
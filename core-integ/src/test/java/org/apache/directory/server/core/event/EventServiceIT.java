@@ -38,8 +38,17 @@ import javax.naming.event.ObjectChangeListener;
 
 import org.apache.directory.api.ldap.model.entry.DefaultEntry;
 import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.ldap.client.api.LdapConnection;
 import org.apache.directory.server.core.annotations.CreateDS;
+import org.apache.directory.server.core.api.event.DirectoryListenerAdapter;
+import org.apache.directory.server.core.api.event.EventService;
+import org.apache.directory.server.core.api.event.EventType;
+import org.apache.directory.server.core.api.event.NotificationCriteria;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
 import org.apache.directory.server.core.integ.AbstractLdapTestUnit;
 import org.apache.directory.server.core.integ.ApacheDSTestExtension;
 import org.junit.jupiter.api.Test;
@@ -159,7 +168,122 @@ public class EventServiceIT extends AbstractLdapTestUnit
         rec = ( EventRecord ) listener.getEventRecords().get( 0 );
         assertEquals( "objectAdded", rec.method );
     }
-    
+
+
+
+    /**
+     * Test that the listeners are only notified of the changes on the entries in
+     * their scope, and selected by their filter.
+     */
+    @Test
+    public void testScopedAndFilteredListeners() throws Exception
+    {
+        LdapConnection connection = getConnectionAs( getService(), "uid=admin,ou=system", "secret" );
+        EventService eventService = getService().getEventService();
+        SchemaManager schemaManager = getService().getSchemaManager();
+
+        CountingListener subtree = addListener( eventService, schemaManager, "ou=system", SearchScope.SUBTREE,
+            "(objectClass=*)" );
+        CountingListener oneLevel = addListener( eventService, schemaManager, "ou=system", SearchScope.ONELEVEL,
+            "(objectClass=*)" );
+        CountingListener object = addListener( eventService, schemaManager, "ou=Scoped,ou=system",
+            SearchScope.OBJECT, "(objectClass=*)" );
+        CountingListener ou = addListener( eventService, schemaManager, "ou=system", SearchScope.SUBTREE,
+            "(ou=CHILD)" );
+        CountingListener and = addListener( eventService, schemaManager, "ou=system", SearchScope.SUBTREE,
+            "(&(objectClass=organizationalUnit)(description=indexed))" );
+        CountingListener objectClass = addListener( eventService, schemaManager, "ou=system", SearchScope.SUBTREE,
+            "(objectClass=OrganizationalUnit)" );
+        CountingListener other = addListener( eventService, schemaManager, "ou=users,ou=system",
+            SearchScope.SUBTREE, "(objectClass=*)" );
+
+        try
+        {
+            connection.add( new DefaultEntry( "ou=scoped,ou=system",
+                "objectClass: top",
+                "objectClass: organizationalUnit",
+                "ou: scoped" ) );
+            connection.add( new DefaultEntry( "ou=child,ou=scoped,ou=system",
+                "objectClass: top",
+                "objectClass: organizationalUnit",
+                "ou: child",
+                "description: indexed" ) );
+
+            assertEquals( 2, subtree.count );
+            assertEquals( 1, oneLevel.count );
+            assertEquals( 1, object.count );
+            assertEquals( 1, ou.count );
+            assertEquals( 1, and.count );
+            assertEquals( 2, objectClass.count );
+            assertEquals( 0, other.count );
+
+            eventService.removeListener( subtree );
+            connection.delete( "ou=child,ou=scoped,ou=system" );
+            connection.delete( "ou=scoped,ou=system" );
+
+            assertEquals( 2, subtree.count );
+            assertEquals( 2, oneLevel.count );
+            assertEquals( 2, object.count );
+            assertEquals( 2, ou.count );
+            assertEquals( 2, and.count );
+            assertEquals( 4, objectClass.count );
+            assertEquals( 0, other.count );
+        }
+        finally
+        {
+            for ( CountingListener listener : new CountingListener[]
+                { oneLevel, object, ou, and, objectClass, other } )
+            {
+                eventService.removeListener( listener );
+            }
+        }
+    }
+
+
+    private CountingListener addListener( EventService eventService, SchemaManager schemaManager, String base,
+        SearchScope scope, String filter ) throws Exception
+    {
+        CountingListener listener = new CountingListener();
+        NotificationCriteria criteria = new NotificationCriteria( schemaManager );
+        criteria.setBase( new Dn( schemaManager, base ) );
+        criteria.setScope( scope );
+        criteria.setFilter( filter );
+        criteria.setEventMask( EventType.ADD, EventType.DELETE );
+        eventService.addListener( listener, criteria );
+
+        return listener;
+    }
+
+
+    /**
+     * A synchronous listener counting the added and deleted entries
+     */
+    private static class CountingListener extends DirectoryListenerAdapter
+    {
+        private int count;
+
+
+        @Override
+        public void entryAdded( AddOperationContext addContext )
+        {
+            count++;
+        }
+
+
+        @Override
+        public void entryDeleted( DeleteOperationContext deleteContext )
+        {
+            count++;
+        }
+
+
+        @Override
+        public boolean isSynchronous()
+        {
+            return true;
+        }
+    }
+
 
     public class TestListener implements ObjectChangeListener, NamespaceChangeListener
     {
@@ -0,0 +1,157 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.core.event;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.apache.directory.server.core.annotations.CreateDS;
+import org.apache.directory.server.core.api.event.DirectoryListenerAdapter;
+import org.apache.directory.server.core.api.event.EventService;
+import org.apache.directory.server.core.api.event.EventType;
+import org.apache.directory.server.core.api.event.NotificationCriteria;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.integ.AbstractLdapTestUnit;
+import org.apache.directory.server.core.integ.ApacheDSTestExtension;
+import org.apache.directory.server.core.integ.IntegrationUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+
+/**
+ * Test the modify operation performances when many listeners are registered, each one
+ * watching a single entry.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@ExtendWith( { ApacheDSTestExtension.class } )
+@CreateDS(name = "EventServicePerfDS", enableChangeLog = false)
+public class EventServicePerfIT extends AbstractLdapTestUnit
+{
+    /** The number of entries, and of listeners of each kind */
+    private static final int NB_ENTRIES = 1000;
+
+
+    /**
+     * Test the modify operation performance with 2000 listeners
+     */
+    @Test
+    public void testModifyPerfWithListeners() throws Exception
+    {
+        LdapConnection connection = IntegrationUtils.getAdminConnection( getService() );
+        EventService eventService = getService().getEventService();
+        SchemaManager schemaManager = getService().getSchemaManager();
+        CountingListener[] listeners = new CountingListener[NB_ENTRIES];
+
+        for ( int i = 0; i < NB_ENTRIES; i++ )
+        {
+            connection.add( new DefaultEntry( "uid=user" + i + ",ou=system",
+                "objectClass: top",
+                "objectClass: person",
+                "objectClass: uidObject",
+                "uid", "user" + i,
+                "cn", "user" + i,
+                "sn: user" ) );
+        }
+
+        long t0 = System.currentTimeMillis();
+
+        for ( int i = 0; i < NB_ENTRIES; i++ )
+        {
+            // One listener on the entry, and one on its uid in the whole tree
+            listeners[i] = new CountingListener();
+            NotificationCriteria criteria = new NotificationCriteria( schemaManager );
+            criteria.setBase( new Dn( schemaManager, "uid=user" + i + ",ou=system" ) );
+            criteria.setScope( SearchScope.OBJECT );
+            criteria.setEventMask( EventType.MODIFY );
+            eventService.addListener( listeners[i], criteria );
+
+            criteria = new NotificationCriteria( schemaManager );
+            criteria.setBase( new Dn( schemaManager, "ou=system" ) );
+            criteria.setScope( SearchScope.SUBTREE );
+            criteria.setFilter( "(uid=user" + i + ")" );
+            criteria.setEventMask( EventType.MODIFY );
+            eventService.addListener( listeners[i], criteria );
+        }
+
+        long t1 = System.currentTimeMillis();
+
+        System.out.println( "Added " + ( 2 * NB_ENTRIES ) + " listeners in " + ( t1 - t0 ) + "ms" );
+
+        int nbIterations = 20000;
+        long t00 = 0L;
+        t0 = System.currentTimeMillis();
+
+        for ( int i = 0; i < nbIterations; i++ )
+        {
+            if ( i == 10000 )
+            {
+                t00 = System.currentTimeMillis();
+            }
+
+            connection.modify( "uid=user" + ( i % NB_ENTRIES ) + ",ou=system",
+                new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE, "sn", "user" + i ) );
+        }
+
+        t1 = System.currentTimeMillis();
+
+        Long deltaWarmed = ( t1 - t00 );
+        System.out.println( "Delta : " + deltaWarmed + "( " + ( ( ( nbIterations - 10000 ) * 1000 ) / deltaWarmed )
+            + " per s ) /" + ( t1 - t0 ) );
+
+        for ( CountingListener listener : listeners )
+        {
+            assertEquals( 2 * nbIterations / NB_ENTRIES, listener.count );
+            eventService.removeListener( listener );
+        }
+
+        connection.close();
+    }
+
+
+    /**
+     * A synchronous listener counting the modified entries
+     */
+    private static class CountingListener extends DirectoryListenerAdapter
+    {
+        private int count;
+
+
+        @Override
+        public void entryModified( ModifyOperationContext modifyContext )
+        {
+            count++;
+        }
+
+
+        @Override
+        public boolean isSynchronous()
+        {
+            return true;
+        }
+    }
+}
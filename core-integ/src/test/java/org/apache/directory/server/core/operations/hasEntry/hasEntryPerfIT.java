@@ -46,7 +46,7 @@ public class hasEntryPerfIT extends AbstractLdapTestUnit
     {
         Dn adminDn = new Dn( "uid=admin, ou=system" );
         HasEntryOperationContext hasEntryContext = new HasEntryOperationContext( getService().getAdminSession(), adminDn );
-        hasEntryContext.setInterceptors( getService().getInterceptors( OperationEnum.HAS_ENTRY ) );
+        hasEntryContext.setInterceptorChain( getService().getInterceptorChain( OperationEnum.HAS_ENTRY ) );
         boolean hasEntry = getService().getOperationManager().hasEntry( hasEntryContext );
 
         assertTrue( hasEntry );
@@ -0,0 +1,188 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.operations.modify;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.apache.directory.server.core.annotations.ContextEntry;
+import org.apache.directory.server.core.annotations.CreateDS;
+import org.apache.directory.server.core.annotations.CreateIndex;
+import org.apache.directory.server.core.annotations.CreatePartition;
+import org.apache.directory.server.core.integ.AbstractLdapTestUnit;
+import org.apache.directory.server.core.integ.ApacheDSTestExtension;
+import org.apache.directory.server.core.integ.IntegrationUtils;
+import org.apache.directory.server.core.partition.impl.btree.mavibot.MavibotIndex;
+import org.apache.directory.server.core.partition.impl.btree.mavibot.MavibotPartition;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+
+/**
+ * Measure the modify throughput when many threads modify distinct entries, on a
+ * partition which supports concurrent writers (Mavibot) and on a partition which
+ * does not (JDBM).
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@ExtendWith( { ApacheDSTestExtension.class } )
+@CreateDS(
+    name = "ConcurrentModifyPerfDS",
+    partitions =
+    {
+        @CreatePartition(
+            type = MavibotPartition.class,
+            name = "example",
+            suffix = "dc=example,dc=com",
+            contextEntry = @ContextEntry(entryLdif = "dn: dc=example,dc=com\n"
+        + "dc: example\n" + "objectClass: top\n" + "objectClass: domain\n\n"), indexes =
+        {
+                @CreateIndex(type = MavibotIndex.class, attribute = "objectClass"),
+                @CreateIndex(type = MavibotIndex.class, attribute = "sn"),
+                @CreateIndex(type = MavibotIndex.class, attribute = "cn") }),
+        @CreatePartition(
+            name = "test",
+            suffix = "dc=test,dc=com",
+            contextEntry = @ContextEntry(entryLdif = "dn: dc=test,dc=com\n"
+        + "dc: test\n" + "objectClass: top\n" + "objectClass: domain\n\n"), indexes =
+        {
+                @CreateIndex(attribute = "objectClass"),
+                @CreateIndex(attribute = "sn"),
+                @CreateIndex(attribute = "cn") })
+
+    }, enableChangeLog = false)
+public class ConcurrentModifyPerfIT extends AbstractLdapTestUnit
+{
+    private static final int NB_ENTRIES = 1024;
+    private static final int[] NB_WRITERS = { 1, 2, 4, 8, 16 };
+    private static final long DURATION = 10000L;
+
+
+    private void injectEntries( LdapConnection connection, String suffix ) throws Exception
+    {
+        for ( int i = 0; i < NB_ENTRIES; i++ )
+        {
+            Entry entry = new DefaultEntry( getService().getSchemaManager(), "cn=test" + i + "," + suffix,
+                "ObjectClass: top",
+                "ObjectClass: person",
+                "sn: TEST",
+                "cn: test" + i );
+
+            connection.add( entry );
+        }
+    }
+
+
+    /**
+     * Each writer modifies its own slice of entries, so that two writers never
+     * modify the same entry
+     */
+    private Thread writer( String suffix, int start, int nbWriters, AtomicBoolean stop, AtomicLong counter )
+    {
+        return new Thread( () ->
+        {
+            try ( LdapConnection connection = IntegrationUtils.getAdminConnection( getService() ) )
+            {
+                int i = start;
+
+                while ( !stop.get() )
+                {
+                    connection.modify( new Dn( "cn=test" + ( i % NB_ENTRIES ) + "," + suffix ),
+                        new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE, "sn", "test" + i ) );
+                    counter.incrementAndGet();
+                    i += nbWriters;
+                }
+            }
+            catch ( Exception e )
+            {
+                e.printStackTrace();
+            }
+        } );
+    }
+
+
+    private void runModifies( String suffix, int nbWriters ) throws Exception
+    {
+        AtomicBoolean stop = new AtomicBoolean( false );
+        AtomicLong nbModifies = new AtomicLong();
+        List<Thread> threads = new ArrayList<>();
+
+        for ( int i = 0; i < nbWriters; i++ )
+        {
+            threads.add( writer( suffix, i, nbWriters, stop, nbModifies ) );
+        }
+
+        long t0 = System.currentTimeMillis();
+
+        for ( Thread thread : threads )
+        {
+            thread.start();
+        }
+
+        Thread.sleep( DURATION );
+        stop.set( true );
+
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+
+        long delta = System.currentTimeMillis() - t0;
+
+        System.out.println( "Modifies on " + suffix + " with " + nbWriters + " writers : "
+            + ( nbModifies.get() * 1000 ) / delta + " modifies per s" );
+    }
+
+
+    /**
+     * Modify distinct entries with an increasing number of writers
+     */
+    @Test
+    public void testConcurrentModifyPerf() throws Exception
+    {
+        LdapConnection connection = IntegrationUtils.getAdminConnection( getService() );
+
+        injectEntries( connection, "dc=example,dc=com" );
+        injectEntries( connection, "dc=test,dc=com" );
+        connection.close();
+
+        // Warm up
+        runModifies( "dc=example,dc=com", 4 );
+
+        for ( int nbWriters : NB_WRITERS )
+        {
+            runModifies( "dc=example,dc=com", nbWriters );
+        }
+
+        for ( int nbWriters : NB_WRITERS )
+        {
+            runModifies( "dc=test,dc=com", nbWriters );
+        }
+    }
+}
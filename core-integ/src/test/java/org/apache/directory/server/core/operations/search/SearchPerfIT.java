@@ -44,6 +44,8 @@ import org.apache.directory.server.core.annotations.CreatePartition;
 import org.apache.directory.server.core.integ.AbstractLdapTestUnit;
 import org.apache.directory.server.core.integ.ApacheDSTestExtension;
 import org.apache.directory.server.core.integ.IntegrationUtils;
+import org.apache.directory.server.core.partition.impl.btree.mavibot.MavibotIndex;
+import org.apache.directory.server.core.partition.impl.btree.mavibot.MavibotPartition;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 
@@ -74,6 +76,23 @@ import org.junit.jupiter.api.extension.ExtendWith;
                         @CreateIndex(attribute = "sn", cacheSize = 2000),
                         @CreateIndex(attribute = "cn", cacheSize = 2000),
                         @CreateIndex(attribute = "displayName", cacheSize = 2000)
+                }),
+            @CreatePartition(
+                type = MavibotPartition.class,
+                cacheSize = 12000,
+                name = "mavibot",
+                suffix = "dc=mavibot,dc=com",
+                contextEntry = @ContextEntry(
+                    entryLdif =
+                    "dn: dc=mavibot,dc=com\n" +
+                        "dc: mavibot\n" +
+                        "objectClass: top\n" +
+                        "objectClass: domain\n\n"),
+                indexes =
+                    {
+                        @CreateIndex(type = MavibotIndex.class, attribute = "objectClass", cacheSize = 2000),
+                        @CreateIndex(type = MavibotIndex.class, attribute = "sn", cacheSize = 2000),
+                        @CreateIndex(type = MavibotIndex.class, attribute = "cn", cacheSize = 2000)
                 })
 
     },
@@ -437,6 +456,103 @@ public class SearchPerfIT extends AbstractLdapTestUnit
     }
     
     
+    private void injectUsers( LdapConnection connection, String suffix, int nbUsers ) throws Exception
+    {
+        connection.add( new DefaultEntry(
+            connection.getSchemaManager(),
+            "ou=Users," + suffix,
+            "objectClass: top",
+            "objectClass: organizationalUnit",
+            "ou: Users" ) );
+
+        for ( int i = 0; i < nbUsers; i++ )
+        {
+            connection.add( new DefaultEntry(
+                connection.getSchemaManager(),
+                "uid=user." + i + ",ou=Users," + suffix,
+                "objectClass: top",
+                "objectClass: person",
+                "objectClass: organizationalPerson",
+                "objectClass: inetOrgPerson",
+                "sn: Amar",
+                "cn", "user" + i,
+                "uid", "user." + i ) );
+        }
+    }
+
+
+    /**
+     * Measures the time needed to get the first entry of a subtree search, the time
+     * needed to get all the entries, and the heap used while the search is running.
+     */
+    private void searchTimeToFirstEntry( LdapConnection connection, String suffix, int nbUsers ) throws Exception
+    {
+        SearchRequest searchRequest = new SearchRequestImpl();
+
+        searchRequest.setBase( new Dn( "ou=Users," + suffix ) );
+        searchRequest.setScope( SearchScope.SUBTREE );
+        searchRequest.setFilter( "(objectClass=person)" );
+        searchRequest.addAttributes( "cn" );
+        searchRequest.setDerefAliases( AliasDerefMode.NEVER_DEREF_ALIASES );
+
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long heap0 = runtime.totalMemory() - runtime.freeMemory();
+        long t0 = System.nanoTime();
+
+        SearchCursor cursor = connection.search( searchRequest );
+        boolean hasNext = cursor.next();
+        long t1 = System.nanoTime();
+        long heap1 = runtime.totalMemory() - runtime.freeMemory();
+        int count = 0;
+
+        while ( hasNext )
+        {
+            count++;
+            hasNext = cursor.next();
+        }
+
+        cursor.close();
+        long t2 = System.nanoTime();
+
+        assertEquals( nbUsers, count );
+
+        System.out.println( suffix + " : first entry after " + ( t1 - t0 ) / 1000L + " us, "
+            + count + " entries in " + ( t2 - t0 ) / 1000000L + " ms, heap used by the search : "
+            + ( heap1 - heap0 ) / 1024L + " kB" );
+    }
+
+
+    /**
+     * Compares the time to first entry on a JDBM partition, where the candidates are gathered
+     * before the first entry is returned, and on a Mavibot partition, where they are streamed
+     */
+    @Test
+    public void testSearchTimeToFirstEntry() throws Exception
+    {
+        LdapConnection connection = IntegrationUtils.getAdminConnection( getService() );
+        int nbUsers = 20000;
+
+        injectUsers( connection, "dc=example,dc=com", nbUsers );
+        injectUsers( connection, "dc=mavibot,dc=com", nbUsers );
+
+        // Warm up
+        for ( int i = 0; i < 5; i++ )
+        {
+            searchTimeToFirstEntry( connection, "dc=example,dc=com", nbUsers );
+            searchTimeToFirstEntry( connection, "dc=mavibot,dc=com", nbUsers );
+        }
+
+        for ( int i = 0; i < 5; i++ )
+        {
+            searchTimeToFirstEntry( connection, "dc=example,dc=com", nbUsers );
+            searchTimeToFirstEntry( connection, "dc=mavibot,dc=com", nbUsers );
+        }
+
+        connection.close();
+    }
+
+
     private boolean firstNext( SearchCursor cursor ) throws LdapException, CursorException
     {
         return cursor.next();
@@ -283,6 +283,53 @@ public class SortedSearchIT extends AbstractLdapTestUnit
     }
 
 
+    @Test
+    public void testSortBySnOnDisk() throws Exception
+    {
+        long maxSortMemory = getService().getMaxSortMemory();
+
+        // Each entry will be written in its own sorted file
+        getService().setMaxSortMemory( 1L );
+
+        try
+        {
+            sk.setAttributeTypeDesc( "sn" );
+            SearchCursor cursor = connection.search( req );
+
+            List<String> expectedOrder = new ArrayList<String>();
+            expectedOrder.add( "uid=person1,ou=parent,ou=system" );
+            expectedOrder.add( "uid=person2,ou=parent,ou=system" );
+            expectedOrder.add( "uid=person3,ou=parent,ou=system" );
+            expectedOrder.add( "uid=user0,ou=parent,ou=system" );
+            expectedOrder.add( "uid=user1,ou=parent,ou=system" );
+            expectedOrder.add( "uid=user2,ou=children,ou=parent,ou=system" );
+            expectedOrder.add( "uid=user3,ou=children,ou=parent,ou=system" );
+            expectedOrder.add( "uid=user4,ou=grandchildren,ou=children,ou=parent,ou=system" );
+            expectedOrder.add( "uid=user5,ou=grandchildren,ou=children,ou=parent,ou=system" );
+            expectedOrder.add( "uid=user6,ou=parent,ou=system" );
+            expectedOrder.add( "uid=user7,ou=parent,ou=system" );
+
+            List<String> actualOrder = new ArrayList<String>();
+
+            while ( cursor.next() )
+            {
+                SearchResultEntry se = ( SearchResultEntry ) cursor.get();
+                actualOrder.add( se.getEntry().getDn().getName() );
+            }
+
+            cursor.close();
+
+            // The 3 entries without "sn" attribute are at the end
+            assertEquals( expectedOrder.size() + 3, actualOrder.size() );
+            assertEquals( expectedOrder, actualOrder.subList( 0, expectedOrder.size() ) );
+        }
+        finally
+        {
+            getService().setMaxSortMemory( maxSortMemory );
+        }
+    }
+
+
     // though "sn" is also multi-valued, the test data has only one value for "sn" in each entry
     // so using "cn" for this test
     @Test
@@ -0,0 +1,178 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.operations.search;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+
+import org.apache.directory.api.ldap.model.cursor.EntryCursor;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.message.SearchRequestImpl;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.message.controls.SortKey;
+import org.apache.directory.api.ldap.model.message.controls.SortRequest;
+import org.apache.directory.api.ldap.model.message.controls.SortRequestImpl;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.ldap.client.api.EntryCursorImpl;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.apache.directory.server.core.annotations.ContextEntry;
+import org.apache.directory.server.core.annotations.CreateDS;
+import org.apache.directory.server.core.annotations.CreateIndex;
+import org.apache.directory.server.core.annotations.CreatePartition;
+import org.apache.directory.server.core.integ.AbstractLdapTestUnit;
+import org.apache.directory.server.core.integ.ApacheDSTestExtension;
+import org.apache.directory.server.core.integ.IntegrationUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+
+/**
+ * Compares the sorted searches on an indexed attribute, which are driven by the index, with
+ * the sorted searches on an attribute without index, which fetch and sort all the entries.
+ * Both attributes have the same values. We read the first page of entries only, as a client
+ * using the paged results control would do, and then the whole result.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@ExtendWith( { ApacheDSTestExtension.class } )
+@CreateDS(
+    name = "SortedSearchPerfDS",
+    partitions =
+        {
+            @CreatePartition(
+                cacheSize = 12000,
+                name = "example",
+                suffix = "dc=example,dc=com",
+                contextEntry = @ContextEntry(
+                    entryLdif =
+                    "dn: dc=example,dc=com\n" +
+                        "dc: example\n" +
+                        "objectClass: top\n" +
+                        "objectClass: domain\n\n"),
+                indexes =
+                    {
+                        @CreateIndex(attribute = "objectClass", cacheSize = 2000),
+                        @CreateIndex(attribute = "sn", cacheSize = 2000)
+                })
+    },
+    enableChangeLog = false)
+public class SortedSearchPerfIT extends AbstractLdapTestUnit
+{
+    /** The number of entries to inject */
+    private static final int NB_ENTRIES = 20000;
+
+    /** The number of entries in a page */
+    private static final int PAGE_SIZE = 50;
+
+    /** The number of searches */
+    private static final int NB_SEARCHES = 200;
+
+
+    private void addEntries( LdapConnection connection ) throws Exception
+    {
+        Random random = new Random( 42L );
+
+        for ( int i = 0; i < NB_ENTRIES; i++ )
+        {
+            // sn is indexed, description is not
+            String name = "user" + random.nextInt( NB_ENTRIES );
+
+            Entry entry = new DefaultEntry( getService().getSchemaManager(),
+                "cn=user" + i + ",dc=example,dc=com",
+                "objectClass: person",
+                "cn: user" + i,
+                "sn", name,
+                "description", name );
+
+            connection.add( entry );
+        }
+    }
+
+
+    /**
+     * Runs the sorted searches, reading only the first entries if pageSize is not 0,
+     * and returns the time it took
+     */
+    private long search( LdapConnection connection, String attribute, int pageSize ) throws Exception
+    {
+        SearchRequest searchRequest = new SearchRequestImpl();
+        searchRequest.setBase( new Dn( "dc=example,dc=com" ) );
+        searchRequest.setFilter( "(objectClass=person)" );
+        searchRequest.setScope( SearchScope.ONELEVEL );
+        searchRequest.addAttributes( "*" );
+
+        SortRequest sortRequest = new SortRequestImpl();
+        sortRequest.addSortKey( new SortKey( attribute ) );
+        searchRequest.addControl( sortRequest );
+
+        long t0 = System.currentTimeMillis();
+
+        for ( int i = 0; i < NB_SEARCHES; i++ )
+        {
+            EntryCursor cursor = new EntryCursorImpl( connection.search( searchRequest ) );
+            int count = 0;
+
+            while ( ( ( pageSize == 0 ) || ( count < pageSize ) ) && cursor.next() )
+            {
+                cursor.get();
+                count++;
+            }
+
+            cursor.close();
+
+            assertEquals( pageSize == 0 ? NB_ENTRIES : pageSize, count );
+        }
+
+        return System.currentTimeMillis() - t0;
+    }
+
+
+    @Test
+    public void testSortedSearchPerf() throws Exception
+    {
+        LdapConnection connection = IntegrationUtils.getAdminConnection( getService() );
+
+        long t0 = System.currentTimeMillis();
+        addEntries( connection );
+        long t1 = System.currentTimeMillis();
+
+        System.out.println( "Added " + NB_ENTRIES + " entries in " + ( t1 - t0 ) + "ms" );
+
+        // Warm up
+        search( connection, "sn", PAGE_SIZE );
+        search( connection, "description", PAGE_SIZE );
+
+        for ( int pageSize : new int[] { PAGE_SIZE, 0 } )
+        {
+            long indexed = search( connection, "sn", pageSize );
+            long sorted = search( connection, "description", pageSize );
+
+            System.out.println( "Sorted search, " + ( pageSize == 0 ? "all the entries" : pageSize + " entries" )
+                + " - indexed : " + indexed + "ms (" + ( NB_SEARCHES * 1000L / Math.max( indexed, 1L ) ) + " per s), "
+                + "not indexed : " + sorted + "ms (" + ( NB_SEARCHES * 1000L / Math.max( sorted, 1L ) ) + " per s)" );
+        }
+
+        connection.close();
+    }
+}
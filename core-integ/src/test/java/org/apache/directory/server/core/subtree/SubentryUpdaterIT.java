@@ -0,0 +1,347 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.subtree;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.exception.LdapServiceUnavailableException;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.apache.directory.server.core.annotations.ApplyLdifs;
+import org.apache.directory.server.core.annotations.CreateDS;
+import org.apache.directory.server.core.api.InterceptorEnum;
+import org.apache.directory.server.core.integ.AbstractLdapTestUnit;
+import org.apache.directory.server.core.integ.ApacheDSTestExtension;
+import org.apache.directory.server.core.integ.IntegrationUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+
+/**
+ * Testcases for the background updates of the entries selected by a subentry.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@ExtendWith( ApacheDSTestExtension.class )
+@CreateDS(name = "SubentryUpdaterIT-class")
+@ApplyLdifs(
+    {
+        // A test branch
+        "dn: dc=test,ou=system",
+        "objectClass: top",
+        "objectClass: domain",
+        "dc: test",
+        "",
+        // The AP
+        "dn: dc=AP-A,dc=test,ou=system",
+        "objectClass: top",
+        "objectClass: domain",
+        "administrativeRole: collectiveAttributeSpecificArea",
+        "dc: AP-A",
+        "",
+        // entry A1
+        "dn: cn=A1,dc=AP-A,dc=test,ou=system",
+        "objectClass: top",
+        "objectClass: person",
+        "cn: A1",
+        "sn: a1",
+        "",
+        // entry A1-1
+        "dn: cn=A1-1,cn=A1,dc=AP-A,dc=test,ou=system",
+        "objectClass: top",
+        "objectClass: person",
+        "cn: A1-1",
+        "sn: a1-1",
+        "",
+        // entry A1-2
+        "dn: cn=A1-2,cn=A1,dc=AP-A,dc=test,ou=system",
+        "objectClass: top",
+        "objectClass: person",
+        "cn: A1-2",
+        "sn: a1-2",
+        "",
+        // entry A2
+        "dn: cn=A2,dc=AP-A,dc=test,ou=system",
+        "objectClass: top",
+        "objectClass: person",
+        "cn: A2",
+        "sn: a2",
+        "",
+        // entry A2-1
+        "dn: cn=A2-1,cn=A2,dc=AP-A,dc=test,ou=system",
+        "objectClass: top",
+        "objectClass: person",
+        "cn: A2-1",
+        "sn: a2-1",
+        "",
+        // entry A2-2
+        "dn: cn=A2-2,cn=A2,dc=AP-A,dc=test,ou=system",
+        "objectClass: top",
+        "objectClass: person",
+        "cn: A2-2",
+        "sn: a2-2",
+        "",
+        // An entry outside of the AP
+        "dn: cn=C,dc=test,ou=system",
+        "objectClass: top",
+        "objectClass: person",
+        "cn: C",
+        "sn: entry-C",
+        "" })
+public class SubentryUpdaterIT extends AbstractLdapTestUnit
+{
+    private static final String A1 = "cn=A1,dc=AP-A,dc=test,ou=system";
+    private static final String A1_1 = "cn=A1-1,cn=A1,dc=AP-A,dc=test,ou=system";
+    private static final String A1_2 = "cn=A1-2,cn=A1,dc=AP-A,dc=test,ou=system";
+    private static final String A2 = "cn=A2,dc=AP-A,dc=test,ou=system";
+    private static final String A2_1 = "cn=A2-1,cn=A2,dc=AP-A,dc=test,ou=system";
+    private static final String A2_2 = "cn=A2-2,cn=A2,dc=AP-A,dc=test,ou=system";
+    private static final String C = "cn=C,dc=test,ou=system";
+
+    /** The maximum time to wait for the background updates */
+    private static final long TIMEOUT = 30000L;
+
+    /** The subentry interceptor */
+    private SubentryInterceptor interceptor;
+
+
+    @BeforeEach
+    public void enableBackgroundUpdates() throws Exception
+    {
+        interceptor = ( SubentryInterceptor ) getService().getInterceptor(
+            InterceptorEnum.SUBENTRY_INTERCEPTOR.getName() );
+        interceptor.setUpdateBatchSize( 1000 );
+        interceptor.setUpdateRate( 0 );
+        interceptor.setBackgroundUpdates( true );
+    }
+
+
+    @AfterEach
+    public void disableBackgroundUpdates() throws Exception
+    {
+        interceptor.setUpdateRate( 0 );
+        assertTrue( interceptor.awaitSubentryUpdates( TIMEOUT ) );
+        interceptor.setBackgroundUpdates( false );
+    }
+
+
+    private Entry getSubentry( String cn, String subtreeSpecification ) throws Exception
+    {
+        return new DefaultEntry(
+            "cn=" + cn + ",dc=AP-A,dc=test,ou=system",
+            "objectClass: top",
+            "objectClass: subentry",
+            "objectClass: collectiveAttributeSubentry",
+            "subtreeSpecification", subtreeSpecification,
+            "c-o: Test Org",
+            "cn", cn );
+    }
+
+
+    /**
+     * @return true if the entry references the subentry
+     */
+    private boolean isMarked( LdapConnection connection, String dn, String subentryDn ) throws Exception
+    {
+        Entry entry = connection.lookup( dn, "+" );
+        assertNotNull( entry );
+
+        Attribute attribute = entry.get( "collectiveAttributeSubentries" );
+
+        return ( attribute != null ) && attribute.contains( subentryDn );
+    }
+
+
+    private void checkMarked( LdapConnection connection, String subentryDn, String... dns ) throws Exception
+    {
+        for ( String dn : dns )
+        {
+            assertTrue( isMarked( connection, dn, subentryDn ), dn + " should be marked" );
+        }
+    }
+
+
+    private void checkNotMarked( LdapConnection connection, String subentryDn, String... dns ) throws Exception
+    {
+        for ( String dn : dns )
+        {
+            assertFalse( isMarked( connection, dn, subentryDn ), dn + " should not be marked" );
+        }
+    }
+
+
+    /**
+     * The entries selected by an added subentry are marked once the update is done
+     */
+    @Test
+    public void testSubentryAdd() throws Exception
+    {
+        try ( LdapConnection connection = IntegrationUtils.getAdminConnection( getService() ) )
+        {
+            connection.add( getSubentry( "subentryAdd", "{ base \"cn=A1\" }" ) );
+            String subentryDn = "2.5.4.3=subentryadd,0.9.2342.19200300.100.1.25=ap-a,"
+                + "0.9.2342.19200300.100.1.25=test,2.5.4.11=system";
+
+            assertTrue( interceptor.awaitSubentryUpdates( TIMEOUT ) );
+
+            checkMarked( connection, subentryDn, A1, A1_1, A1_2 );
+            checkNotMarked( connection, subentryDn, A2, A2_1, A2_2, C );
+        }
+    }
+
+
+    /**
+     * The references to a deleted subentry are removed once the update is done
+     */
+    @Test
+    public void testSubentryDelete() throws Exception
+    {
+        try ( LdapConnection connection = IntegrationUtils.getAdminConnection( getService() ) )
+        {
+            connection.add( getSubentry( "subentryDelete", "{}" ) );
+            String subentryDn = "2.5.4.3=subentrydelete,0.9.2342.19200300.100.1.25=ap-a,"
+                + "0.9.2342.19200300.100.1.25=test,2.5.4.11=system";
+
+            assertTrue( interceptor.awaitSubentryUpdates( TIMEOUT ) );
+            checkMarked( connection, subentryDn, A1, A1_1, A1_2, A2, A2_1, A2_2 );
+
+            connection.delete( "cn=subentryDelete,dc=AP-A,dc=test,ou=system" );
+
+            assertTrue( interceptor.awaitSubentryUpdates( TIMEOUT ) );
+            checkNotMarked( connection, subentryDn, A1, A1_1, A1_2, A2, A2_1, A2_2 );
+        }
+    }
+
+
+    /**
+     * When the subtree specification is modified, only the entries which are selected by one of
+     * the specifications are updated : the entries selected by both keep their references all along
+     */
+    @Test
+    public void testSubentrySpecificationModify() throws Exception
+    {
+        try ( LdapConnection connection = IntegrationUtils.getAdminConnection( getService() ) )
+        {
+            connection.add( getSubentry( "subentryModify", "{ base \"cn=A1\" }" ) );
+            String subentryDn = "2.5.4.3=subentrymodify,0.9.2342.19200300.100.1.25=ap-a,"
+                + "0.9.2342.19200300.100.1.25=test,2.5.4.11=system";
+
+            assertTrue( interceptor.awaitSubentryUpdates( TIMEOUT ) );
+            checkMarked( connection, subentryDn, A1, A1_1, A1_2 );
+
+            // Select all the AP but A1-2, one entry per second
+            interceptor.setUpdateBatchSize( 1 );
+            interceptor.setUpdateRate( 1 );
+
+            connection.modify( "cn=subentryModify,dc=AP-A,dc=test,ou=system",
+                new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE, "subtreeSpecification",
+                    "{ specificExclusions { chopBefore:\"cn=A1-2,cn=A1\" } }" ) );
+
+            List<SubentryUpdate> pending = interceptor.getPendingSubentryUpdates();
+            assertEquals( 1, pending.size() );
+            assertTrue( pending.get( 0 ).isModification() );
+
+            // The entries selected by both specifications are never updated
+            while ( !interceptor.getPendingSubentryUpdates().isEmpty() )
+            {
+                checkMarked( connection, subentryDn, A1, A1_1 );
+                Thread.sleep( 100L );
+            }
+
+            checkMarked( connection, subentryDn, A1, A1_1, A2, A2_1, A2_2 );
+            checkNotMarked( connection, subentryDn, A1_2, C );
+        }
+    }
+
+
+    /**
+     * The updates are done at most at the configured rate, and a subentry can't be renamed
+     * while its entries are being updated
+     */
+    @Test
+    public void testThrottling() throws Exception
+    {
+        try ( LdapConnection connection = IntegrationUtils.getAdminConnection( getService() ) )
+        {
+            interceptor.setUpdateBatchSize( 1 );
+            interceptor.setUpdateRate( 1 );
+
+            long start = System.currentTimeMillis();
+            connection.add( getSubentry( "subentryThrottled", "{ base \"cn=A2\" }" ) );
+            String subentryDn = "2.5.4.3=subentrythrottled,0.9.2342.19200300.100.1.25=ap-a,"
+                + "0.9.2342.19200300.100.1.25=test,2.5.4.11=system";
+
+            assertThrows( LdapServiceUnavailableException.class, () -> connection.rename(
+                "cn=subentryThrottled,dc=AP-A,dc=test,ou=system", "cn=renamed" ) );
+
+            assertTrue( interceptor.awaitSubentryUpdates( TIMEOUT ) );
+
+            // 3 entries, one per second
+            assertTrue( System.currentTimeMillis() - start >= 2000L );
+            checkMarked( connection, subentryDn, A2, A2_1, A2_2 );
+        }
+    }
+
+
+    /**
+     * The pending updates are resumed when the background updates are enabled again
+     */
+    @Test
+    public void testResumePendingUpdates() throws Exception
+    {
+        try ( LdapConnection connection = IntegrationUtils.getAdminConnection( getService() ) )
+        {
+            interceptor.setUpdateBatchSize( 1 );
+            interceptor.setUpdateRate( 1 );
+
+            connection.add( getSubentry( "subentryResumed", "{}" ) );
+            String subentryDn = "2.5.4.3=subentryresumed,0.9.2342.19200300.100.1.25=ap-a,"
+                + "0.9.2342.19200300.100.1.25=test,2.5.4.11=system";
+
+            // Stop the updater after the first batch
+            Thread.sleep( 500L );
+            interceptor.setBackgroundUpdates( false );
+            assertTrue( interceptor.getPendingSubentryUpdates().isEmpty() );
+
+            // The pending update is read back from the disk, and completed
+            interceptor.setUpdateRate( 0 );
+            interceptor.setBackgroundUpdates( true );
+            List<SubentryUpdate> pending = interceptor.getPendingSubentryUpdates();
+            assertEquals( 1, pending.size() );
+            assertTrue( pending.get( 0 ).isAddition() );
+
+            assertTrue( interceptor.awaitSubentryUpdates( TIMEOUT ) );
+            checkMarked( connection, subentryDn, A1, A1_1, A1_2, A2, A2_1, A2_2 );
+        }
+    }
+}
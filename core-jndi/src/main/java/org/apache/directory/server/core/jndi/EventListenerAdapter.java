@@ -109,6 +109,28 @@ public class EventListenerAdapter implements DirectoryListener
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void eventsDropped( int nbDropped, boolean disconnected )
+    {
+        String message;
+
+        if ( disconnected )
+        {
+            message = I18n.err( I18n.ERR_06023_LISTENER_DISCONNECTED, nbDropped );
+        }
+        else
+        {
+            message = I18n.err( I18n.ERR_06022_NOTIFICATIONS_DROPPED, nbDropped );
+        }
+
+        LOG.warn( message );
+        listener.namingExceptionThrown( new NamingExceptionEvent( source, new NamingException( message ) ) );
+    }
+
+
     /* (non-Javadoc)
      * @see org.apache.directory.server.core.event.DirectoryListener#entryAdded(org.apache.directory.server.core.interceptor.context.AddOperationContext)
      */
@@ -0,0 +1,493 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.shared;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Sorts the entries returned by a search, as requested by the Sort control
+ * (<a href="http://tools.ietf.org/html/rfc2891">RFC 2891</a>).
+ * <p>
+ * The entries are sorted in memory. When the number of returned entries is limited, we
+ * only keep the first entries in a bounded heap. Otherwise, as soon as the entries don't
+ * fit in the memory budget, they are sorted and written in a temporary file (a run). The
+ * runs are merged in a single file when all the entries have been added, which is then
+ * read by the {@link SortedEntryCursor}.
+ * <p>
+ * The sort is stable : entries which have the same sort key are returned in the order
+ * they have been added. This class is not thread safe.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class EntrySorter
+{
+    private static final Logger LOG = LoggerFactory.getLogger( EntrySorter.class );
+
+    /** The estimated size of an entry, without its values */
+    private static final long ENTRY_OVERHEAD = 256L;
+
+    /** The estimated size of a value, without its content */
+    private static final long VALUE_OVERHEAD = 64L;
+
+    /** The comparator used to sort the entries */
+    private final SortedEntryComparator comparator;
+
+    /** The serializer used to write the entries on disk */
+    private final SortedEntrySerializer serializer;
+
+    /** The maximum number of entries to return */
+    private final long limit;
+
+    /** The maximum memory to use before writing the entries on disk */
+    private final long maxMemory;
+
+    /** The order of the entries : the sort key first, then the order they have been added in */
+    private final Comparator<SortedEntry> order;
+
+    /** The heap containing the first entries, when the number of returned entries is limited */
+    private PriorityQueue<SortedEntry> heap;
+
+    /** The entries which haven't been written on disk yet */
+    private List<SortedEntry> entries = new ArrayList<>();
+
+    /** The runs already written on disk */
+    private List<Run> runs = new ArrayList<>();
+
+    /** The estimated memory used by the entries in memory */
+    private long memory;
+
+    /** The number of added entries */
+    private long nbEntries;
+
+
+    /**
+     * An entry, with its sort key and its position in the added entries
+     */
+    private static class SortedEntry
+    {
+        private final Entry entry;
+        private final Object key;
+        private final long sequence;
+        private final long size;
+
+
+        SortedEntry( Entry entry, Object key, long sequence, long size )
+        {
+            this.entry = entry;
+            this.key = key;
+            this.sequence = sequence;
+            this.size = size;
+        }
+    }
+
+
+    /**
+     * A sorted file, containing the serialized entries, each one preceded by its length
+     */
+    private static class Run
+    {
+        private final File file;
+        private final long count;
+
+
+        Run( File file, long count )
+        {
+            this.file = file;
+            this.count = count;
+        }
+    }
+
+
+    /**
+     * Creates a new instance of EntrySorter.
+     *
+     * @param comparator the comparator used to sort the entries
+     * @param serializer the serializer used to write the entries on disk
+     * @param limit the maximum number of entries to return, or 0 if there is no limit
+     * @param maxMemory the maximum memory to use before writing the entries on disk
+     */
+    EntrySorter( SortedEntryComparator comparator, SortedEntrySerializer serializer, long limit, long maxMemory )
+    {
+        this.comparator = comparator;
+        this.serializer = serializer;
+        this.limit = limit <= 0 ? Long.MAX_VALUE : limit;
+        this.maxMemory = maxMemory <= 0 ? Long.MAX_VALUE : maxMemory;
+
+        order = ( entry1, entry2 ) ->
+        {
+            int result = comparator.compareKeys( entry1.key, entry2.key );
+
+            if ( result != 0 )
+            {
+                return result;
+            }
+
+            return Long.compare( entry1.sequence, entry2.sequence );
+        };
+
+        if ( limit > 0 )
+        {
+            heap = new PriorityQueue<>( ( int ) Math.min( limit, 1024L ), Collections.reverseOrder( order ) );
+        }
+    }
+
+
+    /**
+     * Adds an entry to sort
+     *
+     * @param entry the entry
+     * @throws IOException if we weren't able to write the entries on disk
+     */
+    void add( Entry entry ) throws IOException
+    {
+        SortedEntry sortedEntry = new SortedEntry( entry, comparator.getSortKey( entry ), nbEntries, estimateSize( entry ) );
+        nbEntries++;
+
+        if ( heap != null )
+        {
+            if ( heap.size() < limit )
+            {
+                heap.add( sortedEntry );
+                memory += sortedEntry.size;
+            }
+            else if ( order.compare( sortedEntry, heap.peek() ) < 0 )
+            {
+                // The last entry in the heap won't be returned
+                memory -= heap.poll().size;
+                heap.add( sortedEntry );
+                memory += sortedEntry.size;
+            }
+
+            if ( memory > maxMemory )
+            {
+                // The heap is too big, switch to the sorted runs
+                entries.addAll( heap );
+                heap = null;
+                spill();
+            }
+
+            return;
+        }
+
+        entries.add( sortedEntry );
+        memory += sortedEntry.size;
+
+        if ( memory > maxMemory )
+        {
+            spill();
+        }
+    }
+
+
+    /**
+     * Sorts the added entries.
+     *
+     * @return a cursor on the sorted entries
+     * @throws IOException if we weren't able to write the entries on disk
+     */
+    SortedEntryCursor sort() throws IOException
+    {
+        if ( heap != null )
+        {
+            entries.addAll( heap );
+            heap = null;
+        }
+
+        if ( runs.isEmpty() )
+        {
+            // Everything fits in memory
+            Collections.sort( entries, order );
+
+            int size = ( int ) Math.min( entries.size(), limit );
+            List<Entry> sorted = new ArrayList<>( size );
+
+            for ( int i = 0; i < size; i++ )
+            {
+                sorted.add( entries.get( i ).entry );
+            }
+
+            entries = null;
+
+            return new SortedEntryCursor( sorted );
+        }
+
+        if ( !entries.isEmpty() )
+        {
+            spill();
+        }
+
+        try
+        {
+            return merge();
+        }
+        finally
+        {
+            clear();
+        }
+    }
+
+
+    /**
+     * @return the number of runs written on disk so far
+     */
+    int getRunCount()
+    {
+        return runs.size();
+    }
+
+
+    /**
+     * Deletes the runs written on disk
+     */
+    void clear()
+    {
+        for ( Run run : runs )
+        {
+            if ( !run.file.delete() )
+            {
+                LOG.warn( "Failed to delete the sorted entry data file {}", run.file );
+            }
+        }
+
+        runs.clear();
+    }
+
+
+    /**
+     * Sorts the entries in memory, and writes them in a new run
+     */
+    private void spill() throws IOException
+    {
+        Collections.sort( entries, order );
+
+        long count = Math.min( entries.size(), limit );
+        File file = createTempFile();
+        runs.add( new Run( file, count ) );
+
+        try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( file ) ) ) )
+        {
+            for ( int i = 0; i < count; i++ )
+            {
+                write( out, entries.get( i ).entry );
+            }
+        }
+
+        entries.clear();
+        memory = 0L;
+    }
+
+
+    /**
+     * Merges the runs in a single file, and keeps the position of each entry in this file
+     */
+    private SortedEntryCursor merge() throws IOException
+    {
+        List<RunReader> readers = new ArrayList<>( runs.size() );
+
+        // The next entry of each run, the first runs first when the entries are equal
+        PriorityQueue<RunReader> next = new PriorityQueue<>( runs.size(), ( reader1, reader2 ) ->
+        {
+            int result = comparator.compareKeys( reader1.current.key, reader2.current.key );
+
+            if ( result != 0 )
+            {
+                return result;
+            }
+
+            return Integer.compare( reader1.index, reader2.index );
+        } );
+
+        File file = createTempFile();
+        long[] offsets = new long[1024];
+        long position = 0L;
+        int size = 0;
+        boolean done = false;
+
+        try
+        {
+            for ( Run run : runs )
+            {
+                RunReader reader = new RunReader( run, readers.size() );
+                readers.add( reader );
+
+                if ( reader.next() )
+                {
+                    next.add( reader );
+                }
+            }
+
+            try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( file ) ) ) )
+            {
+                while ( !next.isEmpty() && ( size < limit ) )
+                {
+                    RunReader reader = next.poll();
+
+                    if ( size == offsets.length )
+                    {
+                        offsets = Arrays.copyOf( offsets, size * 2 );
+                    }
+
+                    offsets[size] = position;
+                    size++;
+                    position += write( out, reader.current.entry );
+
+                    if ( reader.next() )
+                    {
+                        next.add( reader );
+                    }
+                }
+            }
+
+            done = true;
+        }
+        finally
+        {
+            for ( RunReader reader : readers )
+            {
+                reader.close();
+            }
+
+            if ( !done && !file.delete() )
+            {
+                LOG.warn( "Failed to delete the sorted entry data file {}", file );
+            }
+        }
+
+        return new SortedEntryCursor( file, offsets, size, serializer );
+    }
+
+
+    /**
+     * Reads the entries of a run
+     */
+    private class RunReader
+    {
+        private final DataInputStream in;
+        private final int index;
+        private long remaining;
+        private SortedEntry current;
+
+
+        RunReader( Run run, int index ) throws IOException
+        {
+            this.index = index;
+            remaining = run.count;
+            in = new DataInputStream( new BufferedInputStream( new FileInputStream( run.file ) ) );
+        }
+
+
+        boolean next() throws IOException
+        {
+            if ( remaining == 0 )
+            {
+                current = null;
+
+                return false;
+            }
+
+            remaining--;
+
+            byte[] data = new byte[in.readInt()];
+            in.readFully( data );
+            Entry entry = ( Entry ) serializer.deserialize( data );
+            current = new SortedEntry( entry, comparator.getSortKey( entry ), 0L, 0L );
+
+            return true;
+        }
+
+
+        void close() throws IOException
+        {
+            in.close();
+        }
+    }
+
+
+    /**
+     * Writes an entry, preceded by its length, and returns the number of written bytes
+     */
+    private int write( DataOutputStream out, Entry entry ) throws IOException
+    {
+        byte[] data = serializer.serialize( entry );
+        out.writeInt( data.length );
+        out.write( data );
+
+        return 4 + data.length;
+    }
+
+
+    /**
+     * Roughly estimates the memory used by an entry : each value is stored as an User
+     * Provided value and a normalized value
+     */
+    private static long estimateSize( Entry entry )
+    {
+        long size = ENTRY_OVERHEAD + 2L * entry.getDn().getName().length();
+
+        for ( Attribute attribute : entry )
+        {
+            for ( Value value : attribute )
+            {
+                size += VALUE_OVERHEAD + 4L * value.length();
+            }
+        }
+
+        return size;
+    }
+
+
+    private static File createTempFile() throws IOException
+    {
+        try
+        {
+            // see DIRSERVER-2007
+            return Files.createTempFile( "sorted", ".sorted-data" ).toFile();
+        }
+        catch ( IOException e )
+        {
+            // see DIRSERVER-2091
+            LOG.error( "Error creating temp file in directory {} for sorting: {}",
+                System.getProperty( "java.io.tmpdir" ), e.getMessage(), e );
+            throw e;
+        }
+    }
+}
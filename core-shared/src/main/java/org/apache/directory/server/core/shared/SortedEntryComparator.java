@@ -113,72 +113,89 @@ class SortedEntryComparator implements Comparator<Entry>, Serializable
     @Override
     public int compare( Entry entry1, Entry entry2 )
     {
-        Attribute at1 = entry1.get( type );
+        return compareKeys( getSortKey( entry1 ), getSortKey( entry2 ) );
+    }
 
-        Attribute at2 = entry2.get( type );
 
-        // as per section 2.2 of the spec null values are considered larger
-        if ( at1 == null )
-        {
-            return reverse ? -1 : 1;
-        }
-        else if ( at2 == null )
+    /**
+     * Gets the value used to sort an entry. For human readable attributes, this is the
+     * normalized value, so that we don't have to normalize it again for each comparison.
+     * 
+     * @param entry the entry
+     * @return the value used to sort the entry, or <code>null</code> if the entry
+     * does not have the sorted attribute
+     */
+    Object getSortKey( Entry entry )
+    {
+        Attribute at = entry.get( type );
+
+        if ( at == null )
         {
-            return reverse ? 1 : -1;
+            return null;
         }
 
-        Object o1;
-        Object o2;
+        Object key;
 
         if ( multivalued )
         {
-            TreeSet ts = new TreeSet( comparator );
-
-            o1 = sortAndGetFirst( at1, ts );
-
-            ts.clear();
-            o2 = sortAndGetFirst( at2, ts );
+            key = sortAndGetFirst( at, new TreeSet( comparator ) );
+        }
+        else if ( hr )
+        {
+            key = at.get().getString();
         }
         else
         {
-            Value v1 = at1.get();
-            Value v2 = at2.get();
+            key = at.get().getBytes();
+        }
 
-            if ( hr )
+        if ( hr && ( comparator.getNormalizer() != null ) )
+        {
+            try
             {
-                o1 = v1.getString();
-                o2 = v2.getString();
+                key = comparator.getNormalizer().normalize( ( String ) key );
             }
-            else
+            catch ( LdapException le )
             {
-                o1 = v1.getBytes();
-                o2 = v2.getBytes();
+                // Keep the value as is
             }
         }
 
-        int c;
+        return key;
+    }
+
 
-        try
+    /**
+     * Compares two values returned by {@link #getSortKey(Entry)}
+     * 
+     * @param key1 the first value
+     * @param key2 the second value
+     * @return a negative number if the first entry comes first, 0 if the entries are equal
+     */
+    int compareKeys( Object key1, Object key2 )
+    {
+        // as per section 2.2 of the spec null values are considered larger
+        if ( key1 == null )
         {
-            if ( reverse )
-            {
-                c = comparator.compare( comparator.getNormalizer().normalize( ( String ) o2 ), o1 );
-            }
-            else
-            {
-                c = comparator.compare( comparator.getNormalizer().normalize( ( String ) o1 ), o2 );
-            }
-    
-            if ( c == 0 )
+            if ( key2 == null )
             {
-                return 1;
+                return 0;
             }
 
-            return c;
+            return reverse ? -1 : 1;
+        }
+        else if ( key2 == null )
+        {
+            return reverse ? 1 : -1;
+        }
+
+        if ( reverse )
+        {
+            return comparator.compare( key2, key1 );
         }
-        catch ( LdapException le )
+        else
         {
-            return 0;
+            return comparator.compare( key1, key2 );
         }
     }
 
@@ -22,13 +22,8 @@ package org.apache.directory.server.core.shared;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.util.List;
-import java.util.NoSuchElementException;
-
-import jdbm.RecordManager;
-import jdbm.btree.BTree;
-import jdbm.helper.Tuple;
-import jdbm.helper.TupleBrowser;
 
 import org.apache.directory.api.ldap.model.cursor.AbstractCursor;
 import org.apache.directory.api.ldap.model.cursor.CursorException;
@@ -45,8 +40,8 @@ import org.slf4j.LoggerFactory;
 /**
  * Cursor for sorted entries.
  * 
- * Note: This currently uses JDBM, but will be migrated to use Mavibot
- *       when ready.
+ * The entries are either kept in memory, or stored in a file produced by the
+ * {@link EntrySorter}, in which case we keep the position of each entry in the file.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -54,31 +49,69 @@ public class SortedEntryCursor extends AbstractCursor<Entry> implements EntryFil
 {
 
     private static final Logger LOG = LoggerFactory.getLogger( SortedEntryCursor.class );
-    
-    private TupleBrowser browser;
-
-    private final Tuple tuple = new Tuple();
 
-    private RecordManager recMan;
+    /** The sorted entries, when they are kept in memory */
+    private List<Entry> entries;
 
+    /** The file containing the sorted entries */
     private File dataFile;
-    
-    private BTree<Entry, String> btree;
-    
 
-    public SortedEntryCursor( BTree<Entry, String> btree, RecordManager recMan, File dataFile ) throws IOException
+    /** The opened data file */
+    private RandomAccessFile data;
+
+    /** The position of each entry in the data file */
+    private long[] offsets;
+
+    /** The serializer used to read the entries from the data file */
+    private SortedEntrySerializer serializer;
+
+    /** The number of entries */
+    private final int size;
+
+    /** The current position, -1 before the first entry, size after the last one */
+    private int position = -1;
+
+    /** The current entry */
+    private Entry current;
+
+
+    /**
+     * Creates a new instance of SortedEntryCursor, on entries sorted in memory.
+     *
+     * @param entries the sorted entries
+     */
+    public SortedEntryCursor( List<Entry> entries )
+    {
+        this.entries = entries;
+        size = entries.size();
+    }
+
+
+    /**
+     * Creates a new instance of SortedEntryCursor, on entries sorted in a file. The file
+     * is deleted when the cursor is closed.
+     *
+     * @param dataFile the file containing the serialized entries, each one preceded by its length
+     * @param offsets the position of each entry in the file
+     * @param size the number of entries
+     * @param serializer the serializer used to read the entries
+     * @throws IOException if the file can't be opened
+     */
+    public SortedEntryCursor( File dataFile, long[] offsets, int size, SortedEntrySerializer serializer )
+        throws IOException
     {
-        this.recMan = recMan;
         this.dataFile = dataFile;
-        this.btree = btree;
-        browser = btree.browse();
+        this.offsets = offsets;
+        this.size = size;
+        this.serializer = serializer;
+        data = new RandomAccessFile( dataFile, "r" );
     }
 
 
     @Override
     public boolean available()
     {
-        return tuple.getKey() != null;
+        return current != null;
     }
 
 
@@ -99,31 +132,18 @@ public class SortedEntryCursor extends AbstractCursor<Entry> implements EntryFil
     @Override
     public void beforeFirst() throws LdapException, CursorException
     {
-        try
-        {
-            clearValue();
-            browser = btree.browse();
-        }
-        catch ( IOException e )
-        {
-            throw new CursorException( e );
-        }
+        checkNotClosed();
+        position = -1;
+        current = null;
     }
 
 
     @Override
     public void afterLast() throws LdapException, CursorException
     {
-        try
-        {
-            clearValue();
-            browser = btree.browse( null );
-        }
-        catch ( IOException e )
-        {
-            throw new CursorException( e );
-        }
-
+        checkNotClosed();
+        position = size;
+        current = null;
     }
 
 
@@ -146,73 +166,40 @@ public class SortedEntryCursor extends AbstractCursor<Entry> implements EntryFil
     @Override
     public boolean previous() throws LdapException, CursorException
     {
-        try
-        {
+        checkNotClosed();
 
-            if ( browser == null )
-            {
-                browser = btree.browse( null );
-            }
-            
-            if ( browser.getPrevious( tuple ) )
-            {
-                return true;
-            }
-        }
-        catch ( IOException e )
+        if ( position >= 0 )
         {
-            throw new CursorException( e );
-        }
-        catch ( NoSuchElementException e )
-        {
-            // ignore this is due to the call wrapped.prev()
-            // instead of doing a check like if(wrapped.hasPrev())
+            position--;
         }
 
-        clearValue();
-        return false;
+        return fetch();
     }
 
 
     @Override
     public boolean next() throws LdapException, CursorException
     {
-        try
-        {
-            if ( browser == null )
-            {
-                browser = btree.browse();
-            }
-            
-            if ( browser.getNext( tuple ) )
-            {
-                return true;
-            }
-        }
-        catch ( IOException e )
-        {
-            throw new CursorException( e );
-        }
-        catch ( NoSuchElementException e )
+        checkNotClosed();
+
+        if ( position < size )
         {
-            // ignore, this is due to the call wrapped.prev()
-            // instead of doing a check like if(wrapped.hasNext())
+            position++;
         }
 
-        clearValue();
-        return false;
+        return fetch();
     }
 
 
     @Override
     public Entry get() throws CursorException
     {
-        if ( tuple.getKey() == null )
+        if ( current == null )
         {
             throw new InvalidCursorPositionException();
         }
 
-        return ( Entry ) tuple.getKey();
+        return current;
     }
 
 
@@ -252,25 +239,56 @@ public class SortedEntryCursor extends AbstractCursor<Entry> implements EntryFil
         return null;
     }
 
-    
-    private void clearValue()
+
+    private boolean fetch() throws CursorException
     {
-        tuple.setKey( null );
-        tuple.setValue( null );
+        if ( ( position < 0 ) || ( position >= size ) )
+        {
+            current = null;
+            return false;
+        }
+
+        if ( entries != null )
+        {
+            current = entries.get( position );
+            return true;
+        }
+
+        try
+        {
+            data.seek( offsets[position] );
+            byte[] serialized = new byte[data.readInt()];
+            data.readFully( serialized );
+            current = ( Entry ) serializer.deserialize( serialized );
+        }
+        catch ( IOException e )
+        {
+            throw new CursorException( e );
+        }
+
+        return true;
     }
 
-    
+
     private void deleteFile()
     {
-        if ( recMan == null )
+        entries = null;
+        current = null;
+
+        if ( data == null )
         {
             return;
         }
 
         try
         {
-            recMan.close();
-            dataFile.delete();
+            data.close();
+            data = null;
+
+            if ( !dataFile.delete() )
+            {
+                LOG.warn( "Failed to delete the sorted entry data file {}", dataFile );
+            }
         }
         catch ( IOException e )
         {
@@ -0,0 +1,226 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.shared;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+
+
+/**
+ * Tests the {@link EntrySorter} class, in memory, with a bounded heap, and when the
+ * entries are written on disk.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@Execution(ExecutionMode.CONCURRENT)
+public class EntrySorterTest
+{
+    /** The number of sorted entries */
+    private static final int NB_ENTRIES = 20;
+
+    /** A memory budget small enough to write a run every few entries */
+    private static final long SMALL_MEMORY = 2000L;
+
+    /** A memory budget big enough to keep all the entries in memory */
+    private static final long LARGE_MEMORY = 1024L * 1024L;
+
+    private static SchemaManager schemaManager;
+
+    private static SortedEntryComparator comparator;
+
+
+    @BeforeAll
+    public static void setup() throws Exception
+    {
+        schemaManager = new DefaultSchemaManager();
+        SortedEntrySerializer.setSchemaManager( schemaManager );
+        comparator = new SortedEntryComparator( schemaManager.getAttributeType( "sn" ), null, false, schemaManager );
+    }
+
+
+    /**
+     * Adds the entries, their sn being a permutation of 0 to NB_ENTRIES - 1
+     */
+    private static void addEntries( EntrySorter sorter ) throws Exception
+    {
+        for ( int i = 0; i < NB_ENTRIES; i++ )
+        {
+            sorter.add( createEntry( i, toSn( ( i * 7 ) % NB_ENTRIES ) ) );
+        }
+    }
+
+
+    /**
+     * The sn of the entries, on two digits so that its order is the numeric order
+     */
+    private static String toSn( int i )
+    {
+        return ( i < 10 ? "0" : "" ) + i;
+    }
+
+
+    private static Entry createEntry( int i, String sn ) throws Exception
+    {
+        return new DefaultEntry( schemaManager, "cn=user" + i + ",ou=system",
+            "objectClass: person",
+            "cn: user" + i,
+            "sn: " + sn );
+    }
+
+
+    /**
+     * Reads the given attribute of all the sorted entries, and closes the cursor
+     */
+    private static List<String> read( SortedEntryCursor cursor, String attribute ) throws Exception
+    {
+        List<String> values = new ArrayList<>();
+
+        try
+        {
+            while ( cursor.next() )
+            {
+                values.add( cursor.get().get( attribute ).getString() );
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+
+        return values;
+    }
+
+
+    private static List<String> expected( int count )
+    {
+        List<String> values = new ArrayList<>();
+
+        for ( int i = 0; i < count; i++ )
+        {
+            values.add( toSn( i ) );
+        }
+
+        return values;
+    }
+
+
+    @Test
+    public void testSortInMemory() throws Exception
+    {
+        EntrySorter sorter = new EntrySorter( comparator, new SortedEntrySerializer(), 0L, LARGE_MEMORY );
+        addEntries( sorter );
+
+        assertEquals( 0, sorter.getRunCount() );
+        assertEquals( expected( NB_ENTRIES ), read( sorter.sort(), "sn" ) );
+    }
+
+
+    /**
+     * Only the first entries are kept when the number of entries is limited. The search
+     * asks for one more entry than the size limit, so that it knows the limit is exceeded
+     */
+    @Test
+    public void testBoundedHeap() throws Exception
+    {
+        long sizeLimit = 5L;
+        EntrySorter sorter = new EntrySorter( comparator, new SortedEntrySerializer(), sizeLimit + 1, LARGE_MEMORY );
+        addEntries( sorter );
+
+        assertEquals( 0, sorter.getRunCount() );
+        assertEquals( expected( 6 ), read( sorter.sort(), "sn" ) );
+    }
+
+
+    @Test
+    public void testBoundedHeapWithFewerEntries() throws Exception
+    {
+        EntrySorter sorter = new EntrySorter( comparator, new SortedEntrySerializer(), NB_ENTRIES + 1,
+            LARGE_MEMORY );
+        addEntries( sorter );
+
+        assertEquals( expected( NB_ENTRIES ), read( sorter.sort(), "sn" ) );
+    }
+
+
+    @Test
+    public void testSpillAndMerge() throws Exception
+    {
+        EntrySorter sorter = new EntrySorter( comparator, new SortedEntrySerializer(), 0L, SMALL_MEMORY );
+        addEntries( sorter );
+
+        assertTrue( sorter.getRunCount() > 1 );
+        assertEquals( expected( NB_ENTRIES ), read( sorter.sort(), "sn" ) );
+        assertEquals( 0, sorter.getRunCount() );
+    }
+
+
+    /**
+     * The heap is written on disk when it doesn't fit in memory, the following entries
+     * being sorted in runs too
+     */
+    @Test
+    public void testBoundedHeapSwitchToRuns() throws Exception
+    {
+        EntrySorter sorter = new EntrySorter( comparator, new SortedEntrySerializer(), 11L, SMALL_MEMORY );
+        addEntries( sorter );
+
+        assertTrue( sorter.getRunCount() > 1 );
+        assertEquals( expected( 11 ), read( sorter.sort(), "sn" ) );
+        assertEquals( 0, sorter.getRunCount() );
+    }
+
+
+    /**
+     * The entries having the same sort key are returned in the order they have been
+     * added, even when they are in different runs
+     */
+    @Test
+    public void testStableMerge() throws Exception
+    {
+        EntrySorter sorter = new EntrySorter( comparator, new SortedEntrySerializer(), 0L, SMALL_MEMORY );
+        List<String> first = new ArrayList<>();
+        List<String> second = new ArrayList<>();
+
+        for ( int i = 0; i < NB_ENTRIES; i++ )
+        {
+            String sn = ( i % 3 == 0 ) ? "b" : "a";
+            sorter.add( createEntry( i, sn ) );
+            ( "a".equals( sn ) ? first : second ).add( "user" + i );
+        }
+
+        assertTrue( sorter.getRunCount() > 1 );
+
+        first.addAll( second );
+        assertEquals( first, read( sorter.sort(), "cn" ) );
+    }
+}
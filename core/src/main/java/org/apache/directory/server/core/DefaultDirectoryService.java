@@ -31,6 +31,7 @@ import java.nio.channels.FileLock;
 import java.nio.channels.OverlappingFileLockException;
 import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -201,6 +202,9 @@ public class DefaultDirectoryService implements DirectoryService
     /** The default delay to wait between sync on disk : 15 seconds */
     private static final long DEFAULT_SYNC_PERIOD = 15000;
 
+    /** The default memory used to sort the search results : 16 MB */
+    private static final long DEFAULT_MAX_SORT_MEMORY = 16L * 1024L * 1024L;
+
     /** The default timeLimit : 100 entries */
     public static final int MAX_SIZE_LIMIT_DEFAULT = 100;
 
@@ -243,8 +247,8 @@ public class DefaultDirectoryService implements DirectoryService
     private Lock readLock = interceptorsLock.readLock();
     private Lock writeLock = interceptorsLock.writeLock();
 
-    /** A map associating a list of interceptor to each operation */
-    private Map<OperationEnum, List<String>> operationInterceptors;
+    /** A map associating the chain of interceptors to call to each operation. It's never modified, but replaced */
+    private volatile Map<OperationEnum, Interceptor[]> operationInterceptors;
 
     /** The System partition */
     private Partition systemPartition;
@@ -261,6 +265,9 @@ public class DefaultDirectoryService implements DirectoryService
     /** The maximum size for an incoming PDU */
     private int maxPDUSize = Integer.MAX_VALUE;
 
+    /** The maximum number of bytes used to sort the search results in memory */
+    private long maxSortMemory = DEFAULT_MAX_SORT_MEMORY;
+
     /** lock file for directory service's working directory */
     private RandomAccessFile lockFile = null;
 
@@ -453,51 +460,50 @@ public class DefaultDirectoryService implements DirectoryService
      */
     public List<String> getInterceptors( OperationEnum operation )
     {
-        List<String> cloned = new ArrayList<>();
-
-        readLock.lock();
-
-        try
-        {
-            cloned.addAll( operationInterceptors.get( operation ) );
+        Interceptor[] chain = operationInterceptors.get( operation );
+        List<String> names = new ArrayList<>( chain.length );
 
-            return cloned;
-        }
-        finally
+        for ( Interceptor interceptor : chain )
         {
-            readLock.unlock();
+            names.add( interceptor.getName() );
         }
 
+        return names;
     }
 
 
     /**
-     * Compute the list of  to call for each operation
+     * {@inheritDoc}
+     */
+    @Override
+    public Interceptor[] getInterceptorChain( OperationEnum operation )
+    {
+        return operationInterceptors.get( operation );
+    }
+
+
+    /**
+     * Compute the chain of interceptors to call for each operation. The chains are
+     * replaced all at once, so an operation which has already got its chain won't see
+     * the change. This method must be called with the write lock held.
      */
     private void initOperationsList()
     {
-        writeLock.lock();
+        Map<OperationEnum, Interceptor[]> chains = new EnumMap<>( OperationEnum.class );
 
-        try
+        for ( OperationEnum operation : OperationEnum.getOperations() )
         {
-            operationInterceptors = new ConcurrentHashMap<>();
+            List<Interceptor> operationList = new ArrayList<>();
 
-            for ( OperationEnum operation : OperationEnum.getOperations() )
+            for ( Interceptor interceptor : interceptors )
             {
-                List<String> operationList = new ArrayList<>();
-
-                for ( Interceptor interceptor : interceptors )
-                {
-                    gatherInterceptors( interceptor, interceptor.getClass(), operation, operationList );
-                }
-
-                operationInterceptors.put( operation, operationList );
+                gatherInterceptors( interceptor, interceptor.getClass(), operation, operationList );
             }
+
+            chains.put( operation, operationList.toArray( new Interceptor[operationList.size()] ) );
         }
-        finally
-        {
-            writeLock.unlock();
-        }
+
+        operationInterceptors = chains;
     }
 
 
@@ -511,7 +517,7 @@ public class DefaultDirectoryService implements DirectoryService
      * @param selectedInterceptorList the list of selected interceptors
      */
     private void gatherInterceptors( Interceptor interceptor, Class<?> interceptorClz, OperationEnum operation,
-        List<String> selectedInterceptorList )
+        List<Interceptor> selectedInterceptorList )
     {
         // We stop recursing when we reach the Base class
         if ( ( interceptorClz == null ) || ( interceptorClz == BaseInterceptor.class ) )
@@ -531,9 +537,9 @@ public class DefaultDirectoryService implements DirectoryService
             if ( ( param != null ) && ( param.length == 1 ) 
                     && OperationContext.class.isAssignableFrom( param[0] ) && method.getName().equals( operation.getMethodName() ) )
             {
-                if ( !selectedInterceptorList.contains( interceptor.getName() ) )
+                if ( !selectedInterceptorList.contains( interceptor ) )
                 {
-                    selectedInterceptorList.add( interceptor.getName() );
+                    selectedInterceptorList.add( interceptor );
                 }
 
                 break;
@@ -558,30 +564,6 @@ public class DefaultDirectoryService implements DirectoryService
 
         try
         {
-            for ( OperationEnum operation : OperationEnum.getOperations() )
-            {
-                List<String> operationList = operationInterceptors.get( operation );
-
-                Method[] methods = interceptor.getClass().getDeclaredMethods();
-
-                for ( Method method : methods )
-                {
-                    if ( method.getName().equals( operation.getMethodName() ) )
-                    {
-                        if ( position == -1 )
-                        {
-                            operationList.add( interceptor.getName() );
-                        }
-                        else
-                        {
-                            operationList.add( position, interceptor.getName() );
-                        }
-
-                        break;
-                    }
-                }
-            }
-
             interceptorNames.put( interceptor.getName(), interceptor );
 
             if ( position == -1 )
@@ -592,6 +574,8 @@ public class DefaultDirectoryService implements DirectoryService
             {
                 interceptors.add( position, interceptor );
             }
+
+            initOperationsList();
         }
         finally
         {
@@ -605,31 +589,17 @@ public class DefaultDirectoryService implements DirectoryService
      */
     private void removeOperationsList( String interceptorName )
     {
-        Interceptor interceptor = interceptorNames.get( interceptorName );
-
         writeLock.lock();
 
         try
         {
-            for ( OperationEnum operation : OperationEnum.getOperations() )
-            {
-                List<String> operationList = operationInterceptors.get( operation );
-
-                Method[] methods = interceptor.getClass().getDeclaredMethods();
-
-                for ( Method method : methods )
-                {
-                    if ( method.getName().equals( operation.getMethodName() ) )
-                    {
-                        operationList.remove( interceptor.getName() );
+            Interceptor interceptor = interceptorNames.remove( interceptorName );
 
-                        break;
-                    }
-                }
+            if ( interceptor != null )
+            {
+                interceptors.remove( interceptor );
+                initOperationsList();
             }
-
-            interceptorNames.remove( interceptorName );
-            interceptors.remove( interceptor );
         }
         finally
         {
@@ -659,11 +629,20 @@ public class DefaultDirectoryService implements DirectoryService
             interceptorNames.put( interceptor.getName(), interceptor );
         }
 
-        this.interceptors = interceptors;
-        this.interceptorNames = interceptorNames;
+        writeLock.lock();
+
+        try
+        {
+            this.interceptors = interceptors;
+            this.interceptorNames = interceptorNames;
 
-        // Now update the Map that connect each operation with the list of interceptors.
-        initOperationsList();
+            // Now update the Map that connect each operation with the list of interceptors.
+            initOperationsList();
+        }
+        finally
+        {
+            writeLock.unlock();
+        }
     }
 
 
@@ -964,7 +943,7 @@ public class DefaultDirectoryService implements DirectoryService
             bindContext.setDn( new Dn( schemaManager, principalDn ) );
         }
         
-        bindContext.setInterceptors( getInterceptors( OperationEnum.BIND ) );
+        bindContext.setInterceptorChain( getInterceptorChain( OperationEnum.BIND ) );
 
         operationManager.bind( bindContext );
 
@@ -1001,7 +980,7 @@ public class DefaultDirectoryService implements DirectoryService
         }
 
         bindContext.setSaslMechanism( saslMechanism );
-        bindContext.setInterceptors( getInterceptors( OperationEnum.BIND ) );
+        bindContext.setInterceptorChain( getInterceptorChain( OperationEnum.BIND ) );
 
         operationManager.bind( bindContext );
 
@@ -1260,11 +1239,27 @@ public class DefaultDirectoryService implements DirectoryService
             return;
         }
 
+        flushPwdPolicyState();
         this.changeLog.sync();
         this.partitionNexus.sync();
     }
 
 
+    /**
+     * Writes the password policy state the AuthenticationInterceptor keeps in memory, if any
+     */
+    private void flushPwdPolicyState()
+    {
+        AuthenticationInterceptor authenticationInterceptor = ( AuthenticationInterceptor ) getInterceptor( InterceptorEnum.AUTHENTICATION_INTERCEPTOR
+            .getName() );
+
+        if ( authenticationInterceptor != null )
+        {
+            authenticationInterceptor.flushPwdPolicyState();
+        }
+    }
+
+
     public synchronized void shutdown() throws LdapException
     {
         LOG.debug( "+++ DirectoryService Shutdown required" );
@@ -1279,6 +1274,7 @@ public class DefaultDirectoryService implements DirectoryService
         // --------------------------------------------------------------------
         LOG.debug( "--- Syncing the nexus " );
         LOG.debug( "--- Flushing everything before quitting" );
+        flushPwdPolicyState();
         operationManager.lockWrite();
         partitionNexus.sync();
         operationManager.unlockWrite();
@@ -2193,6 +2189,31 @@ public class DefaultDirectoryService implements DirectoryService
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getMaxSortMemory()
+    {
+        return maxSortMemory;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setMaxSortMemory( long maxSortMemory )
+    {
+        if ( maxSortMemory <= 0 )
+        {
+            maxSortMemory = Long.MAX_VALUE;
+        }
+
+        this.maxSortMemory = maxSortMemory;
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -2250,6 +2271,9 @@ public class DefaultDirectoryService implements DirectoryService
             {
                 interceptors.add( position + 1, interceptor );
             }
+
+            interceptorNames.put( interceptor.getName(), interceptor );
+            initOperationsList();
         }
         finally
         {
@@ -24,7 +24,6 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.directory.api.ldap.extras.controls.ad.TreeDelete;
 import org.apache.directory.api.ldap.model.constants.Loggers;
@@ -101,8 +100,8 @@ public class DefaultOperationManager implements OperationManager
     /** The directory service instance */
     private final DirectoryService directoryService;
 
-    /** A lock used to protect against concurrent operations */
-    private ReadWriteLock rwLock = new ReentrantReadWriteLock( true );
+    /** The locks used to protect the partitions against concurrent operations */
+    private final PartitionLockManager lockManager;
 
     /** A reference to the ObjectClass AT */
     protected AttributeType objectClassAT;
@@ -113,6 +112,7 @@ public class DefaultOperationManager implements OperationManager
     public DefaultOperationManager( DirectoryService directoryService )
     {
         this.directoryService = directoryService;
+        lockManager = new PartitionLockManager( directoryService );
     }
 
 
@@ -121,43 +121,52 @@ public class DefaultOperationManager implements OperationManager
      */
     public ReadWriteLock getRWLock()
     {
-        return rwLock;
+        return lockManager.getGlobalLock();
     }
 
 
     /**
-     * Acquires a ReadLock
+     * {@inheritDoc}
+     */
+    public ReadWriteLock getRWLock( Partition partition )
+    {
+        return lockManager.getLock( partition );
+    }
+
+
+    /**
+     * Acquires the server-wide ReadLock
      */
     public void lockRead()
     {
-        rwLock.readLock().lock();
+        lockManager.lockRead();
     }
 
 
     /**
-     * Acquires a WriteLock
+     * Acquires the server-wide WriteLock
      */
-    public void lockWrite()
+    public void lockWrite() throws LdapException
     {
-        rwLock.writeLock().lock();
+        lockManager.lockWrite();
     }
 
 
     /**
-     * Releases a WriteLock
+     * Releases the server-wide WriteLock
      */
     public void unlockWrite()
     {
-        rwLock.writeLock().unlock();
+        lockManager.unlockWrite();
     }
 
 
     /**
-     * Releases a ReadLock
+     * Releases the server-wide ReadLock
      */
     public void unlockRead()
     {
-        rwLock.readLock().unlock();
+        lockManager.unlockRead();
     }
 
 
@@ -407,9 +416,9 @@ public class DefaultOperationManager implements OperationManager
         }
 
         // Call the Add method
-        Interceptor head = directoryService.getInterceptor( addContext.getNextInterceptor() );
+        Interceptor head = addContext.getNextInterceptorInChain();
 
-        lockWrite();
+        lockManager.lockWrite( partition );
 
         // Start a Write transaction right away
         PartitionTxn transaction = addContext.getSession().getTransaction( partition ); 
@@ -466,7 +475,7 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockWrite();
+            lockManager.unlockWrite( partition );
         }
 
         if ( IS_DEBUG )
@@ -501,7 +510,7 @@ public class DefaultOperationManager implements OperationManager
         ensureStarted();
 
         // Call the Delete method
-        Interceptor head = directoryService.getInterceptor( bindContext.getNextInterceptor() );
+        Interceptor head = bindContext.getNextInterceptorInChain();
 
         // Normalize the addContext Dn
         Dn dn = bindContext.getDn();
@@ -512,12 +521,10 @@ public class DefaultOperationManager implements OperationManager
             bindContext.setDn( dn );
         }
 
-        lockRead();
+        Partition partition = lockManager.lockRead( dn );
 
         try
         {
-            Partition partition = directoryService.getPartitionNexus().getPartition( dn );
-            
             try ( PartitionTxn partitionTxn = partition.beginReadTransaction() )
             {
                 bindContext.setPartition( partition );
@@ -532,7 +539,7 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockRead();
+            lockManager.unlockRead( partition );
         }
 
         if ( IS_DEBUG )
@@ -623,16 +630,14 @@ public class DefaultOperationManager implements OperationManager
         compareContext.setOriginalEntry( getOriginalEntry( compareContext ) );
 
         // Call the Compare method
-        Interceptor head = directoryService.getInterceptor( compareContext.getNextInterceptor() );
+        Interceptor head = compareContext.getNextInterceptorInChain();
 
         boolean result = false;
 
-        lockRead();
+        Partition partition = lockManager.lockRead( dn );
 
         try
         {
-            Partition partition = directoryService.getPartitionNexus().getPartition( dn );
-            
             try ( PartitionTxn partitionTxn = partition.beginReadTransaction() )
             {
                 compareContext.setPartition( partition );
@@ -647,7 +652,7 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockRead();
+            lockManager.unlockRead( partition );
         }
 
         if ( IS_DEBUG )
@@ -673,7 +678,7 @@ public class DefaultOperationManager implements OperationManager
         eagerlyPopulateFields( entryDeleteContext );
         
         // Call the Delete method
-        Interceptor head = directoryService.getInterceptor( deleteContext.getNextInterceptor() );
+        Interceptor head = deleteContext.getNextInterceptorInChain();
 
         head.delete( entryDeleteContext );
     }
@@ -795,7 +800,7 @@ public class DefaultOperationManager implements OperationManager
         }
 
         // populate the context with the old entry
-        lockWrite();
+        lockManager.lockWrite( partition );
 
         // Start a Write transaction right away
         PartitionTxn transaction = deleteContext.getSession().getTransaction( partition ); 
@@ -848,7 +853,7 @@ public class DefaultOperationManager implements OperationManager
                 eagerlyPopulateFields( deleteContext );
     
                 // Call the Delete method
-                Interceptor head = directoryService.getInterceptor( deleteContext.getNextInterceptor() );
+                Interceptor head = deleteContext.getNextInterceptorInChain();
     
                 head.delete( deleteContext );
     
@@ -889,7 +894,7 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockWrite();
+            lockManager.unlockWrite( partition );
         }
 
         if ( IS_DEBUG )
@@ -923,15 +928,13 @@ public class DefaultOperationManager implements OperationManager
 
         ensureStarted();
 
-        Interceptor head = directoryService.getInterceptor( getRootDseContext.getNextInterceptor() );
+        Interceptor head = getRootDseContext.getNextInterceptorInChain();
         Entry root;
 
+        Partition partition = lockManager.lockRead( Dn.ROOT_DSE );
+
         try
         {
-            lockRead();
-            
-            Partition partition = directoryService.getPartitionNexus().getPartition( Dn.ROOT_DSE );
-            
             try ( PartitionTxn partitionTxn = partition.beginReadTransaction() )
             {
                 getRootDseContext.setPartition( partition );
@@ -946,7 +949,7 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockRead();
+            lockManager.unlockRead( partition );
         }
 
         if ( IS_DEBUG )
@@ -982,12 +985,10 @@ public class DefaultOperationManager implements OperationManager
 
         ensureStarted();
 
-        Interceptor head = directoryService.getInterceptor( hasEntryContext.getNextInterceptor() );
+        Interceptor head = hasEntryContext.getNextInterceptorInChain();
 
         boolean result = false;
 
-        lockRead();
-
         // Normalize the addContext Dn
         Dn dn = hasEntryContext.getDn();
         
@@ -997,10 +998,10 @@ public class DefaultOperationManager implements OperationManager
             hasEntryContext.setDn( dn );
         }
 
+        Partition partition = lockManager.lockRead( dn );
+
         try
         {
-            Partition partition = directoryService.getPartitionNexus().getPartition( dn );
-
             try ( PartitionTxn partitionTxn = partition.beginReadTransaction() )
             {
                 hasEntryContext.setPartition( partition );
@@ -1015,7 +1016,7 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockRead();
+            lockManager.unlockRead( partition );
         }
 
         if ( IS_DEBUG )
@@ -1051,7 +1052,7 @@ public class DefaultOperationManager implements OperationManager
 
         ensureStarted();
 
-        Interceptor head = directoryService.getInterceptor( lookupContext.getNextInterceptor() );
+        Interceptor head = lookupContext.getNextInterceptorInChain();
 
         Entry entry = null;
 
@@ -1072,7 +1073,7 @@ public class DefaultOperationManager implements OperationManager
         {
             lookupContext.setTransaction( transaction );
 
-            lockRead();
+            lockManager.lockRead( partition );
     
             try
             {
@@ -1080,7 +1081,7 @@ public class DefaultOperationManager implements OperationManager
             }
             finally
             {
-                unlockRead();
+                lockManager.unlockRead( partition );
             }
         }
         catch ( IOException ioe )
@@ -1187,7 +1188,7 @@ public class DefaultOperationManager implements OperationManager
         Partition partition = directoryService.getPartitionNexus().getPartition( dn );
         modifyContext.setPartition( partition );
         
-        lockWrite();
+        boolean entryLocked = lockManager.lockModify( partition, dn );
         
         // Start a Write transaction right away
         PartitionTxn transaction = modifyContext.getSession().getTransaction( partition ); 
@@ -1210,7 +1211,7 @@ public class DefaultOperationManager implements OperationManager
             eagerlyPopulateFields( modifyContext );
 
             // Call the Modify method
-            Interceptor head = directoryService.getInterceptor( modifyContext.getNextInterceptor() );
+            Interceptor head = modifyContext.getNextInterceptorInChain();
 
             head.modify( modifyContext );
             
@@ -1250,7 +1251,7 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockWrite();
+            lockManager.unlockModify( partition, dn, entryLocked );
         }
 
         if ( IS_DEBUG )
@@ -1358,12 +1359,12 @@ public class DefaultOperationManager implements OperationManager
             directoryService.getReferralManager().unlock();
         }
 
-        lockWrite();
-        
         // Find the working partition
         Partition partition = directoryService.getPartitionNexus().getPartition( dn );
         moveContext.setPartition( partition );
 
+        lockManager.lockWrite( partition );
+
         // Start a Write transaction right away
         PartitionTxn transaction = moveContext.getSession().getTransaction( partition ); 
         
@@ -1385,7 +1386,7 @@ public class DefaultOperationManager implements OperationManager
             moveContext.setOriginalEntry( originalEntry );
 
             // Call the Move method
-            Interceptor head = directoryService.getInterceptor( moveContext.getNextInterceptor() );
+            Interceptor head = moveContext.getNextInterceptorInChain();
 
             head.move( moveContext );
             
@@ -1428,7 +1429,7 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockWrite();
+            lockManager.unlockWrite( partition );
         }
 
         if ( IS_DEBUG )
@@ -1541,7 +1542,7 @@ public class DefaultOperationManager implements OperationManager
         Partition partition = directoryService.getPartitionNexus().getPartition( dn );
         moveAndRenameContext.setPartition( partition );
 
-        lockWrite();
+        lockManager.lockWrite( partition );
         
         // Start a Write transaction right away
         PartitionTxn transaction = moveAndRenameContext.getSession().getTransaction( partition ); 
@@ -1563,7 +1564,7 @@ public class DefaultOperationManager implements OperationManager
             moveAndRenameContext.setTransaction( transaction );
 
             // Call the MoveAndRename method
-            Interceptor head = directoryService.getInterceptor( moveAndRenameContext.getNextInterceptor() );
+            Interceptor head = moveAndRenameContext.getNextInterceptorInChain();
 
             head.moveAndRename( moveAndRenameContext );
 
@@ -1603,7 +1604,7 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockWrite();
+            lockManager.unlockWrite( partition );
         }
 
         if ( IS_DEBUG )
@@ -1709,9 +1710,7 @@ public class DefaultOperationManager implements OperationManager
             directoryService.getReferralManager().unlock();
         }
 
-        lockWrite();
-
-        Partition partition = directoryService.getPartitionNexus().getPartition( dn );
+        Partition partition = lockManager.lockWrite( dn );
 
         // Start a Write transaction right away
         PartitionTxn transaction = renameContext.getSession().getTransaction( partition ); 
@@ -1761,7 +1760,7 @@ public class DefaultOperationManager implements OperationManager
             Entry originalEntry = getOriginalEntry( renameContext );
             renameContext.setOriginalEntry( originalEntry );
             renameContext.setModifiedEntry( originalEntry.clone() );
-            Interceptor head = directoryService.getInterceptor( renameContext.getNextInterceptor() );
+            Interceptor head = renameContext.getNextInterceptorInChain();
 
             // Start a Write transaction right away
             transaction = renameContext.getSession().getTransaction( partition ); 
@@ -1823,7 +1822,7 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockWrite();
+            lockManager.unlockWrite( partition );
         }
 
         if ( IS_DEBUG )
@@ -1913,7 +1912,7 @@ public class DefaultOperationManager implements OperationManager
         }
 
         // Call the Search method
-        Interceptor head = directoryService.getInterceptor( searchContext.getNextInterceptor() );
+        Interceptor head = searchContext.getNextInterceptorInChain();
 
         EntryFilteringCursor cursor = null;
         Partition partition = directoryService.getPartitionNexus().getPartition( dn );
@@ -1922,7 +1921,7 @@ public class DefaultOperationManager implements OperationManager
         {
             searchContext.setPartition( partition );
             searchContext.setTransaction( partitionTxn );
-            lockRead();
+            lockManager.lockRead( partition );
     
             try
             {
@@ -1930,7 +1929,7 @@ public class DefaultOperationManager implements OperationManager
             }
             finally
             {
-                unlockRead();
+                lockManager.unlockRead( partition );
             }
         }
         catch ( IOException ioe )
@@ -1972,7 +1971,7 @@ public class DefaultOperationManager implements OperationManager
         ensureStarted();
 
         // Call the Unbind method
-        Interceptor head = directoryService.getInterceptor( unbindContext.getNextInterceptor() );
+        Interceptor head = unbindContext.getNextInterceptorInChain();
 
         head.unbind( unbindContext );
 
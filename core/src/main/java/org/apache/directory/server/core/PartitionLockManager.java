@@ -0,0 +1,580 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core;
+
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapServiceUnavailableException;
+import org.apache.directory.api.ldap.model.exception.LdapUnwillingToPerformException;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.i18n.I18n;
+
+
+/**
+ * Manages the locks protecting the partitions against concurrent operations.
+ * <p>
+ * Each partition has its own fair ReadWrite lock, so that a write on a partition
+ * does not block the readers and the writers of any other partition. On top of those
+ * locks, a server-wide lock is used :
+ * <ul>
+ *   <li>any partition lock is acquired while holding the server-wide read lock</li>
+ *   <li>taking the server-wide write lock (see {@link #lockWrite()}) excludes every
+ *   other operation, on every partition. This is used for operations that have an
+ *   impact on the whole server, like a schema modification or a shutdown</li>
+ * </ul>
+ * An operation may trigger some nested operations on another partition (for instance
+ * an interceptor reading an entry stored in <em>ou=system</em>). As we can't know in
+ * advance which partitions will be involved, we can't order the lock acquisitions. To
+ * avoid a deadlock, a nested acquisition on a partition the current thread does not
+ * already hold is bounded by a timeout, after which a BUSY error is returned.
+ * <p>
+ * Partitions supporting concurrent writers (see {@link Partition#isConcurrentModifySupported()})
+ * can be modified while holding the partition read lock plus an entry lock, so that two
+ * modifications of distinct entries don't wait for each other. The entry locks are striped :
+ * two entries may share the same lock, which is harmless, as long as a thread does not wait
+ * for a second stripe while holding a first one. Such a nested acquisition is also bounded
+ * by the timeout.
+ * <p>
+ * A thread holding a read lock can't acquire the matching write lock : such an upgrade
+ * is rejected right away with an UNWILLING_TO_PERFORM error.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class PartitionLockManager
+{
+    /** The default time we wait for a nested partition lock, in milliseconds */
+    public static final long DEFAULT_NESTED_LOCK_TIMEOUT = 10000L;
+
+    /** The number of entry locks. Must be a power of 2 */
+    private static final int NB_ENTRY_LOCKS = 1024;
+
+    /** The key used for the RootDSE, which has no ID */
+    private static final String ROOT_DSE_KEY = "";
+
+    /** The directory service, used to get the schema partition */
+    private final DirectoryService directoryService;
+
+    /** The server-wide lock */
+    private final ReentrantReadWriteLock globalLock = new ReentrantReadWriteLock( true );
+
+    /** The per partition locks, indexed by the partition ID */
+    private final ConcurrentMap<String, ReentrantReadWriteLock> partitionLocks = new ConcurrentHashMap<>();
+
+    /** The partition locks held by the thread which owns the server-wide write lock */
+    private List<ReentrantReadWriteLock> exclusiveLocks;
+
+    /** The number of partition locks held by each thread, per partition ID */
+    private final ThreadLocal<Map<String, Integer>> heldLocks = ThreadLocal.withInitial( HashMap::new );
+
+    /** The striped entry locks */
+    private final ReentrantLock[] entryLocks = new ReentrantLock[NB_ENTRY_LOCKS];
+
+    /** The number of entry locks held by each thread, per stripe */
+    private final ThreadLocal<Map<Integer, Integer>> heldEntryLocks = ThreadLocal.withInitial( HashMap::new );
+
+    /** The time we wait for a nested partition lock, in milliseconds */
+    private long nestedLockTimeout = DEFAULT_NESTED_LOCK_TIMEOUT;
+
+
+    /**
+     * Creates a new instance of PartitionLockManager, using the default nested lock timeout.
+     *
+     * @param directoryService The directory service, may be null
+     */
+    public PartitionLockManager( DirectoryService directoryService )
+    {
+        this( directoryService, DEFAULT_NESTED_LOCK_TIMEOUT );
+    }
+
+
+    /**
+     * Creates a new instance of PartitionLockManager.
+     *
+     * @param directoryService The directory service, may be null
+     * @param nestedLockTimeout The time we wait for a nested partition lock, in milliseconds
+     */
+    public PartitionLockManager( DirectoryService directoryService, long nestedLockTimeout )
+    {
+        this.directoryService = directoryService;
+        this.nestedLockTimeout = nestedLockTimeout;
+
+        for ( int i = 0; i < NB_ENTRY_LOCKS; i++ )
+        {
+            entryLocks[i] = new ReentrantLock();
+        }
+    }
+
+
+    /**
+     * @return The server-wide ReadWrite lock
+     */
+    public ReadWriteLock getGlobalLock()
+    {
+        return globalLock;
+    }
+
+
+    /**
+     * Get the ReadWrite lock associated with a partition, creating it if needed.
+     *
+     * @param partition The partition
+     * @return The partition's ReadWrite lock
+     */
+    public ReadWriteLock getLock( Partition partition )
+    {
+        return getPartitionLock( getKey( partition ) );
+    }
+
+
+    /**
+     * Acquires the server-wide write lock. No other operation can be processed on any
+     * partition until it's released.
+     *
+     * @throws LdapException If the current thread already holds a read lock
+     */
+    public void lockWrite() throws LdapException
+    {
+        if ( !globalLock.isWriteLockedByCurrentThread() && ( globalLock.getReadHoldCount() > 0 ) )
+        {
+            // The thread is processing an operation, and tries to upgrade its lock :
+            // this would never succeed
+            throw new LdapUnwillingToPerformException( I18n.err( I18n.ERR_00027_GLOBAL_LOCK_UPGRADE ) );
+        }
+
+        globalLock.writeLock().lock();
+
+        if ( globalLock.getWriteHoldCount() == 1 )
+        {
+            // Wait for the cursors still reading the partitions to be done. A cursor
+            // never holds more than one partition lock, so we can't deadlock here.
+            List<ReentrantReadWriteLock> locks = new ArrayList<>( new TreeMap<>( partitionLocks ).values() );
+
+            for ( ReentrantReadWriteLock lock : locks )
+            {
+                lock.writeLock().lock();
+            }
+
+            exclusiveLocks = locks;
+        }
+    }
+
+
+    /**
+     * Releases the server-wide write lock.
+     */
+    public void unlockWrite()
+    {
+        if ( globalLock.getWriteHoldCount() == 1 )
+        {
+            for ( int i = exclusiveLocks.size() - 1; i >= 0; i-- )
+            {
+                exclusiveLocks.get( i ).writeLock().unlock();
+            }
+
+            exclusiveLocks = null;
+        }
+
+        globalLock.writeLock().unlock();
+    }
+
+
+    /**
+     * Acquires the server-wide read lock.
+     */
+    public void lockRead()
+    {
+        globalLock.readLock().lock();
+    }
+
+
+    /**
+     * Releases the server-wide read lock.
+     */
+    public void unlockRead()
+    {
+        globalLock.readLock().unlock();
+    }
+
+
+    /**
+     * Acquires a read lock on a partition.
+     *
+     * @param partition The partition to lock
+     * @throws LdapException If the lock can't be acquired
+     */
+    public void lockRead( Partition partition ) throws LdapException
+    {
+        String key = getKey( partition );
+
+        acquire( key, getPartitionLock( key ).readLock() );
+    }
+
+
+    /**
+     * Finds the partition containing an entry, and acquires a read lock on it.
+     *
+     * @param dn The entry's Dn
+     * @return The locked partition
+     * @throws LdapException If the partition can't be found or locked
+     */
+    public Partition lockRead( Dn dn ) throws LdapException
+    {
+        Partition partition = directoryService.getPartitionNexus().getPartition( dn );
+
+        lockRead( partition );
+
+        return partition;
+    }
+
+
+    /**
+     * Releases a read lock on a partition.
+     *
+     * @param partition The partition to unlock
+     */
+    public void unlockRead( Partition partition )
+    {
+        String key = getKey( partition );
+
+        release( key, getPartitionLock( key ).readLock() );
+    }
+
+
+    /**
+     * Acquires a write lock on a partition. A modification of the schema partition
+     * impacts every partition, so in this case we take the server-wide lock.
+     *
+     * @param partition The partition to lock
+     * @throws LdapException If the lock can't be acquired
+     */
+    public void lockWrite( Partition partition ) throws LdapException
+    {
+        if ( isServerWide( partition ) )
+        {
+            lockWrite();
+
+            return;
+        }
+
+        String key = getKey( partition );
+
+        acquire( key, getPartitionLock( key ).writeLock() );
+    }
+
+
+    /**
+     * Finds the partition containing an entry, and acquires a write lock on it.
+     *
+     * @param dn The entry's Dn
+     * @return The locked partition
+     * @throws LdapException If the partition can't be found or locked
+     */
+    public Partition lockWrite( Dn dn ) throws LdapException
+    {
+        Partition partition = directoryService.getPartitionNexus().getPartition( dn );
+
+        lockWrite( partition );
+
+        return partition;
+    }
+
+
+    /**
+     * Releases a write lock on a partition.
+     *
+     * @param partition The partition to unlock
+     */
+    public void unlockWrite( Partition partition )
+    {
+        if ( isServerWide( partition ) )
+        {
+            unlockWrite();
+
+            return;
+        }
+
+        String key = getKey( partition );
+
+        release( key, getPartitionLock( key ).writeLock() );
+    }
+
+
+    /**
+     * Acquires the locks needed to modify an entry. If the partition supports concurrent
+     * writers, we only take a ReadLock on the partition, plus a lock on the entry, so that
+     * distinct entries can be modified in parallel. Otherwise, the whole partition is locked.
+     *
+     * @param partition The partition containing the entry
+     * @param dn The modified entry's Dn
+     * @return <code>true</code> if the entry has been locked, <code>false</code> if the partition has
+     * been write locked
+     * @throws LdapException If the locks can't be acquired
+     */
+    public boolean lockModify( Partition partition, Dn dn ) throws LdapException
+    {
+        if ( ( partition == null ) || !partition.isConcurrentModifySupported() || isServerWide( partition ) )
+        {
+            lockWrite( partition );
+
+            return false;
+        }
+
+        lockRead( partition );
+
+        try
+        {
+            lockEntry( partition, dn );
+        }
+        catch ( LdapException le )
+        {
+            unlockRead( partition );
+
+            throw le;
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Releases the locks acquired by {@link #lockModify(Partition, Dn)}
+     *
+     * @param partition The partition containing the entry
+     * @param dn The modified entry's Dn
+     * @param entryLocked <code>true</code> if the entry has been locked
+     */
+    public void unlockModify( Partition partition, Dn dn, boolean entryLocked )
+    {
+        if ( entryLocked )
+        {
+            unlockEntry( partition, dn );
+            unlockRead( partition );
+        }
+        else
+        {
+            unlockWrite( partition );
+        }
+    }
+
+
+    /**
+     * Acquires the lock protecting an entry against concurrent modifications. The caller
+     * must already hold a lock on the entry's partition.
+     *
+     * @param partition The partition containing the entry
+     * @param dn The entry's Dn
+     * @throws LdapException If the lock can't be acquired
+     */
+    public void lockEntry( Partition partition, Dn dn ) throws LdapException
+    {
+        Integer stripe = getStripe( partition, dn );
+        Map<Integer, Integer> held = heldEntryLocks.get();
+        ReentrantLock lock = entryLocks[stripe];
+
+        if ( held.isEmpty() || held.containsKey( stripe ) )
+        {
+            lock.lock();
+        }
+        else
+        {
+            boolean acquired;
+
+            try
+            {
+                acquired = lock.tryLock( nestedLockTimeout, TimeUnit.MILLISECONDS );
+            }
+            catch ( InterruptedException ie )
+            {
+                Thread.currentThread().interrupt();
+                acquired = false;
+            }
+
+            if ( !acquired )
+            {
+                throw new LdapServiceUnavailableException( ResultCodeEnum.BUSY,
+                    I18n.err( I18n.ERR_00025_ENTRY_LOCK_TIMEOUT, dn, nestedLockTimeout ) );
+            }
+        }
+
+        held.merge( stripe, 1, Integer::sum );
+    }
+
+
+    /**
+     * Releases the lock protecting an entry against concurrent modifications.
+     *
+     * @param partition The partition containing the entry
+     * @param dn The entry's Dn
+     */
+    public void unlockEntry( Partition partition, Dn dn )
+    {
+        Integer stripe = getStripe( partition, dn );
+        Map<Integer, Integer> held = heldEntryLocks.get();
+        Integer count = held.get( stripe );
+
+        if ( ( count == null ) || ( count == 1 ) )
+        {
+            held.remove( stripe );
+        }
+        else
+        {
+            held.put( stripe, count - 1 );
+        }
+
+        entryLocks[stripe].unlock();
+    }
+
+
+    /**
+     * @return The time we wait for a nested partition lock, in milliseconds
+     */
+    public long getNestedLockTimeout()
+    {
+        return nestedLockTimeout;
+    }
+
+
+    /**
+     * @param nestedLockTimeout The time we wait for a nested partition lock, in milliseconds
+     */
+    public void setNestedLockTimeout( long nestedLockTimeout )
+    {
+        this.nestedLockTimeout = nestedLockTimeout;
+    }
+
+
+    private boolean isServerWide( Partition partition )
+    {
+        return ( partition != null ) && ( directoryService != null )
+            && ( partition == directoryService.getSchemaPartition() );
+    }
+
+
+    private String getKey( Partition partition )
+    {
+        if ( ( partition == null ) || ( partition.getId() == null ) )
+        {
+            return ROOT_DSE_KEY;
+        }
+
+        return partition.getId();
+    }
+
+
+    private Integer getStripe( Partition partition, Dn dn )
+    {
+        int hash = getKey( partition ).hashCode() * 31 + dn.getNormName().hashCode();
+
+        // Spread the high bits, as the normalized names often share a long suffix
+        hash ^= hash >>> 16;
+
+        return hash & ( NB_ENTRY_LOCKS - 1 );
+    }
+
+
+    private ReentrantReadWriteLock getPartitionLock( String key )
+    {
+        return partitionLocks.computeIfAbsent( key, k -> new ReentrantReadWriteLock( true ) );
+    }
+
+
+    private void acquire( String key, Lock lock ) throws LdapException
+    {
+        Map<String, Integer> held = heldLocks.get();
+
+        globalLock.readLock().lock();
+
+        if ( ( lock instanceof ReentrantReadWriteLock.WriteLock ) && !( ( ReentrantReadWriteLock.WriteLock ) lock )
+            .isHeldByCurrentThread() && ( getPartitionLock( key ).getReadHoldCount() > 0 ) )
+        {
+            // The thread is modifying an entry while holding the partition read lock, and
+            // tries to upgrade it : this would never succeed
+            globalLock.readLock().unlock();
+
+            throw new LdapUnwillingToPerformException( I18n.err( I18n.ERR_00026_PARTITION_LOCK_UPGRADE, key ) );
+        }
+
+        if ( held.isEmpty() || held.containsKey( key ) )
+        {
+            // First lock for this thread, or a reentrant one : no risk of deadlock
+            lock.lock();
+        }
+        else
+        {
+            // Nested lock on another partition : we may be part of a cycle
+            boolean acquired;
+
+            try
+            {
+                acquired = lock.tryLock( nestedLockTimeout, TimeUnit.MILLISECONDS );
+            }
+            catch ( InterruptedException ie )
+            {
+                Thread.currentThread().interrupt();
+                acquired = false;
+            }
+
+            if ( !acquired )
+            {
+                globalLock.readLock().unlock();
+
+                throw new LdapServiceUnavailableException( ResultCodeEnum.BUSY,
+                    I18n.err( I18n.ERR_00024_PARTITION_LOCK_TIMEOUT, key, nestedLockTimeout ) );
+            }
+        }
+
+        held.merge( key, 1, Integer::sum );
+    }
+
+
+    private void release( String key, Lock lock )
+    {
+        Map<String, Integer> held = heldLocks.get();
+        Integer count = held.get( key );
+
+        if ( ( count == null ) || ( count == 1 ) )
+        {
+            held.remove( key );
+        }
+        else
+        {
+            held.put( key, count - 1 );
+        }
+
+        lock.unlock();
+        globalLock.readLock().unlock();
+    }
+}
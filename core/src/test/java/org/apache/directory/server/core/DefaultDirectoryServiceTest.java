@@ -20,12 +20,21 @@
 package org.apache.directory.server.core;
 
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.server.core.api.InterceptorEnum;
+import org.apache.directory.server.core.api.OperationEnum;
 import org.apache.directory.server.core.api.interceptor.BaseInterceptor;
 import org.apache.directory.server.core.api.interceptor.Interceptor;
+import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
 import org.junit.jupiter.api.Test;
 
 
@@ -70,6 +79,57 @@ public class DefaultDirectoryServiceTest
         assertEquals( "foo", lastInterceptor.getName() );
     }
 
+    @Test
+    public void testInterceptorChains() throws LdapException
+    {
+        DefaultDirectoryService service = new DefaultDirectoryService();
+        Interceptor[] lookupChain = service.getInterceptorChain( OperationEnum.LOOKUP );
+        Interceptor[] searchChain = service.getInterceptorChain( OperationEnum.SEARCH );
+
+        // The chain contains the same interceptors than the list of names
+        List<String> names = service.getInterceptors( OperationEnum.LOOKUP );
+        assertEquals( names.size(), lookupChain.length );
+
+        for ( int i = 0; i < lookupChain.length; i++ )
+        {
+            assertEquals( names.get( i ), lookupChain[i].getName() );
+            assertSame( service.getInterceptor( names.get( i ) ), lookupChain[i] );
+        }
+
+        // Adding an interceptor replaces the chains of the operations it implements
+        FooInterceptor foo = new FooInterceptor();
+        service.addAfter( InterceptorEnum.AUTHENTICATION_INTERCEPTOR.getName(), foo );
+
+        Interceptor[] newLookupChain = service.getInterceptorChain( OperationEnum.LOOKUP );
+        assertNotSame( lookupChain, newLookupChain );
+        assertEquals( lookupChain.length + 1, newLookupChain.length );
+        assertSame( foo, service.getInterceptor( "foo" ) );
+        assertSame( newLookupChain[indexOf( newLookupChain, InterceptorEnum.AUTHENTICATION_INTERCEPTOR.getName() ) + 1],
+            foo );
+        assertEquals( searchChain.length, service.getInterceptorChain( OperationEnum.SEARCH ).length );
+
+        // And removing it too
+        service.remove( "foo" );
+
+        assertArrayEquals( lookupChain, service.getInterceptorChain( OperationEnum.LOOKUP ) );
+        assertNull( service.getInterceptor( "foo" ) );
+    }
+
+
+    private int indexOf( Interceptor[] chain, String name )
+    {
+        for ( int i = 0; i < chain.length; i++ )
+        {
+            if ( chain[i].getName().equals( name ) )
+            {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+
     static class FooInterceptor extends BaseInterceptor
     {
 
@@ -78,5 +138,12 @@ public class DefaultDirectoryServiceTest
         {
             return "foo";
         }
+
+
+        @Override
+        public Entry lookup( LookupOperationContext lookupContext ) throws LdapException
+        {
+            return next( lookupContext );
+        }
     }
 }
\ No newline at end of file
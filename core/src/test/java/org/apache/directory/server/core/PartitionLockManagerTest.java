@@ -0,0 +1,108 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.directory.api.ldap.model.exception.LdapUnwillingToPerformException;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.junit.jupiter.api.Test;
+
+
+/**
+ * Tests the PartitionLockManager class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class PartitionLockManagerTest
+{
+    @Test
+    public void testGlobalLockUpgradeFailsFast() throws Exception
+    {
+        PartitionLockManager lockManager = new PartitionLockManager( null );
+
+        lockManager.lockRead();
+
+        try
+        {
+            assertThrows( LdapUnwillingToPerformException.class, () -> lockManager.lockWrite() );
+        }
+        finally
+        {
+            lockManager.unlockRead();
+        }
+
+        assertEquals( 0, ( ( ReentrantReadWriteLock ) lockManager.getGlobalLock() ).getReadLockCount() );
+    }
+
+
+    @Test
+    public void testGlobalLockUpgradeFromPartitionLockFailsFast() throws Exception
+    {
+        PartitionLockManager lockManager = new PartitionLockManager( null );
+
+        lockManager.lockRead( ( Partition ) null );
+
+        try
+        {
+            assertThrows( LdapUnwillingToPerformException.class, () -> lockManager.lockWrite() );
+            assertThrows( LdapUnwillingToPerformException.class, () -> lockManager.lockWrite( ( Partition ) null ) );
+        }
+        finally
+        {
+            lockManager.unlockRead( ( Partition ) null );
+        }
+
+        // Once released, the write lock can be acquired
+        lockManager.lockWrite();
+        assertTrue( ( ( ReentrantReadWriteLock ) lockManager.getGlobalLock() ).isWriteLockedByCurrentThread() );
+        lockManager.unlockWrite();
+    }
+
+
+    @Test
+    public void testNestedLocksUnderGlobalWriteLock() throws Exception
+    {
+        PartitionLockManager lockManager = new PartitionLockManager( null );
+
+        lockManager.lockWrite();
+
+        try
+        {
+            // A server-wide operation can read and write any partition
+            lockManager.lockRead( ( Partition ) null );
+            lockManager.unlockRead( ( Partition ) null );
+            lockManager.lockWrite();
+            lockManager.unlockWrite();
+        }
+        finally
+        {
+            lockManager.unlockWrite();
+        }
+
+        assertFalse( ( ( ReentrantReadWriteLock ) lockManager.getGlobalLock() ).isWriteLocked() );
+    }
+}
@@ -59,6 +59,10 @@ public enum I18n
     ERR_00021_CANNOT_BUILD_ENTRY("ERR_00021_CANNOT_BUILD_ENTRY"),
     ERR_00022_BAD_REPLICA_ID("ERR_00022_BAD_REPLICA_ID"),
     ERR_00023_NEGATIVE_REVISION("ERR_00023_NEGATIVE_REVISION"),
+    ERR_00024_PARTITION_LOCK_TIMEOUT("ERR_00024_PARTITION_LOCK_TIMEOUT"),
+    ERR_00025_ENTRY_LOCK_TIMEOUT("ERR_00025_ENTRY_LOCK_TIMEOUT"),
+    ERR_00026_PARTITION_LOCK_UPGRADE("ERR_00026_PARTITION_LOCK_UPGRADE"),
+    ERR_00027_GLOBAL_LOCK_UPGRADE("ERR_00027_GLOBAL_LOCK_UPGRADE"),
 
     // apacheds-core-annotation errors       1000 - 1999
     ERR_01000_SCHEMA_LOAD_FAILED("ERR_01000_SCHEMA_LOAD_FAILED"),
@@ -248,6 +252,8 @@ public enum I18n
     ERR_06019_ABJ_AND_ATTRS_ARGS_ARE_NULL("ERR_06019_ABJ_AND_ATTRS_ARGS_ARE_NULL"),
     ERR_06020_PARSE_EXCEPTION_ENCOUNTERED("ERR_06020_PARSE_EXCEPTION_ENCOUNTERED"),
     ERR_06021_COULD_NOT_PARSE_FILTER("ERR_06021_COULD_NOT_PARSE_FILTER"),
+    ERR_06022_NOTIFICATIONS_DROPPED("ERR_06022_NOTIFICATIONS_DROPPED"),
+    ERR_06023_LISTENER_DISCONNECTED("ERR_06023_LISTENER_DISCONNECTED"),
 
     // apacheds-core-shared errors                   7000 - 7999
     ERR_07000_CANNOT_DESERIALIZE_ENTRY("ERR_07000_CANNOT_DESERIALIZE_ENTRY"),
@@ -399,6 +405,7 @@ public enum I18n
     ERR_29002_AMINISTRATION_POINT_WITHOUT_ADMINISTRATIVE_ROLE("ERR_29002_AMINISTRATION_POINT_WITHOUT_ADMINISTRATIVE_ROLE"),
     ERR_29003_CANNOT_PARSE_SUBTREE_SPECIFICATION_FOR("ERR_29003_CANNOT_PARSE_SUBTREE_SPECIFICATION_FOR"),
     ERR_29004_CANNOT_RENAME_ENTRIES_WITH_ADMINISTRATIVE_DESCENDANTS("ERR_29004_CANNOT_RENAME_ENTRIES_WITH_ADMINISTRATIVE_DESCENDANTS"),
+    ERR_29005_SUBENTRY_UPDATE_PENDING("ERR_29005_SUBENTRY_UPDATE_PENDING"),
 
     // apacheds-interceptors-trigger errors          30000 - 30999
     ERR_30000_FAOLED_TO_PARSE_ENTRY_TRIGGER("ERR_30000_FAOLED_TO_PARSE_ENTRY_TRIGGER"),
@@ -503,6 +510,8 @@ public enum I18n
     ERR_38031_UNEXPECTED_BASE_SCOPE("ERR_38031_UNEXPECTED_BASE_SCOPE"),
     ERR_38032_TIME_UNIT_NOT_SUPPORTED("ERR_38032_TIME_UNIT_NOT_SUPPORTED"),
     ERR_38033_CANNOT_PROCESS_REQUEST_WHILE_BINDING("ERR_38033_CANNOT_PROCESS_REQUEST_WHILE_BINDING"),
+    ERR_38034_TOO_MANY_PENDING_BINDS("ERR_38034_TOO_MANY_PENDING_BINDS"),
+    ERR_38035_WRITE_QUEUE_TIME_LIMIT("ERR_38035_WRITE_QUEUE_TIME_LIMIT"),
 
     // apacheds-protocol-ntp errors                  39000 - 39999
     // No error
@@ -182,6 +182,15 @@ public abstract class AbstractAuthenticator implements Authenticator
     }
 
 
+    /**
+     * Does nothing leaving it so subclasses can override.
+     */
+    @Override
+    public void invalidateSubtreeCache( Dn baseDn )
+    {
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -276,6 +285,9 @@ public abstract class AbstractAuthenticator implements Authenticator
             InterceptorEnum.AUTHENTICATION_INTERCEPTOR.getName() );
         PasswordPolicyConfiguration pPolicyConfig = authenticationInterceptor.getPwdPolicy( userEntry );
 
+        // The latest state may not have been written yet
+        authenticationInterceptor.getPwdPolicyStateWriter().apply( userEntry );
+
         // check for locked out account
         if ( pPolicyConfig.isPwdLockout() )
         {
@@ -310,12 +322,17 @@ public abstract class AbstractAuthenticator implements Authenticator
                         // remove pwdAccountLockedTime attribute
                         Modification pwdAccountLockMod = new DefaultModification(
                             ModificationOperation.REMOVE_ATTRIBUTE, accountLockAttr );
-                        ModifyOperationContext modContext = new ModifyOperationContext(
-                            directoryService.getAdminSession() );
-                        modContext.setDn( userEntry.getDn() );
-                        modContext.setModItems( Collections.singletonList( pwdAccountLockMod ) );
 
-                        internalModify( modContext );
+                        if ( !authenticationInterceptor.getPwdPolicyStateWriter().defer( userEntry.getDn(),
+                            Collections.singletonList( pwdAccountLockMod ) ) )
+                        {
+                            ModifyOperationContext modContext = new ModifyOperationContext(
+                                directoryService.getAdminSession() );
+                            modContext.setDn( userEntry.getDn() );
+                            modContext.setModItems( Collections.singletonList( pwdAccountLockMod ) );
+
+                            internalModify( modContext );
+                        }
                     }
                 }
             }
@@ -36,7 +36,6 @@ import static org.apache.directory.api.ldap.model.entry.ModificationOperation.AD
 import static org.apache.directory.api.ldap.model.entry.ModificationOperation.REMOVE_ATTRIBUTE;
 import static org.apache.directory.api.ldap.model.entry.ModificationOperation.REPLACE_ATTRIBUTE;
 
-import java.io.IOException;
 import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -65,7 +64,6 @@ import org.apache.directory.api.ldap.model.exception.LdapAuthenticationException
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.exception.LdapNoPermissionException;
 import org.apache.directory.api.ldap.model.exception.LdapOperationException;
-import org.apache.directory.api.ldap.model.exception.LdapOtherException;
 import org.apache.directory.api.ldap.model.exception.LdapUnwillingToPerformException;
 import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
 import org.apache.directory.api.ldap.model.name.Dn;
@@ -100,8 +98,6 @@ import org.apache.directory.server.core.api.interceptor.context.OperationContext
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
-import org.apache.directory.server.core.api.partition.Partition;
-import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.core.authn.ppolicy.PpolicyConfigContainer;
 import org.apache.directory.server.core.shared.DefaultCoreSession;
 import org.apache.directory.server.i18n.I18n;
@@ -155,6 +151,12 @@ public class AuthenticationInterceptor extends BaseInterceptor
     /** a container to hold all the ppolicies */
     private PpolicyConfigContainer pwdPolicyContainer;
 
+    /** The maximum delay, in milliseconds, before the password policy state updated by a bind is written */
+    private long pwdPolicyStateFlushDelay;
+
+    /** Writes the password policy state */
+    private PasswordPolicyStateWriter pwdPolicyStateWriter;
+
 
     /**
      * Creates an authentication service interceptor.
@@ -187,6 +189,7 @@ public class AuthenticationInterceptor extends BaseInterceptor
         }
 
         loadPwdPolicyStateAttributeTypes();
+        pwdPolicyStateWriter = new PasswordPolicyStateWriter( directoryService, pwdPolicyStateFlushDelay );
     }
 
 
@@ -262,6 +265,11 @@ public class AuthenticationInterceptor extends BaseInterceptor
     @Override
     public void destroy()
     {
+        if ( pwdPolicyStateWriter != null )
+        {
+            pwdPolicyStateWriter.stop();
+        }
+
         authenticatorsMapByType.clear();
         Set<Authenticator> copy = new HashSet<>( authenticators );
         authenticators = new HashSet<>();
@@ -477,50 +485,25 @@ public class AuthenticationInterceptor extends BaseInterceptor
     }
     
     
-    private void internalModify( OperationContext opContext, ModifyOperationContext bindModCtx ) throws LdapException
+    /**
+     * Writes the password policy state which has not been written yet. This is called
+     * when the server is synced or stopped.
+     */
+    public void flushPwdPolicyState()
     {
-        Partition partition = opContext.getPartition();
-        bindModCtx.setPartition( partition );
-        PartitionTxn partitionTxn = null;
-
-        try
+        if ( pwdPolicyStateWriter != null )
         {
-            partitionTxn = partition.beginWriteTransaction();
-            bindModCtx.setTransaction( partitionTxn );
+            pwdPolicyStateWriter.flush();
+        }
+    }
 
-            directoryService.getPartitionNexus().modify( bindModCtx );
 
-            partitionTxn.commit();
-        }
-        catch ( LdapException le )
-        {
-            try 
-            {
-                if ( partitionTxn != null )
-                {
-                    partitionTxn.abort();
-                }
-                
-                throw le;
-            }
-            catch ( IOException ioe )
-            {
-                throw new LdapOtherException( ioe.getMessage(), ioe );
-            }
-        }
-        catch ( IOException ioe )
-        {
-            try 
-            {
-                partitionTxn.abort();
-                
-                throw new LdapOtherException( ioe.getMessage(), ioe );
-            }
-            catch ( IOException ioe2 )
-            {
-                throw new LdapOtherException( ioe2.getMessage(), ioe2 );
-            }
-        }
+    /**
+     * @return The instance writing the password policy state
+     */
+    PasswordPolicyStateWriter getPwdPolicyStateWriter()
+    {
+        return pwdPolicyStateWriter;
     }
 
 
@@ -625,6 +608,11 @@ public class AuthenticationInterceptor extends BaseInterceptor
             lookupContext.setTransaction( bindContext.getTransaction() );
             
             userEntry = directoryService.getPartitionNexus().lookup( lookupContext );
+
+            if ( userEntry != null )
+            {
+                pwdPolicyStateWriter.apply( userEntry );
+            }
         }
 
         // check if the user entry is null, it will be null
@@ -712,17 +700,7 @@ public class AuthenticationInterceptor extends BaseInterceptor
 
                 if ( !mods.isEmpty() )
                 {
-                    String csnVal = directoryService.getCSN().toString();
-                    Modification csnMod = new DefaultModification( REPLACE_ATTRIBUTE, directoryService.getAtProvider()
-                        .getEntryCSN(), csnVal );
-                    mods.add( csnMod );
-                    ModifyOperationContext bindModCtx = new ModifyOperationContext( adminSession );
-                    bindModCtx.setDn( bindDn );
-                    bindModCtx.setEntry( userEntry );
-                    bindModCtx.setModItems( mods );
-                    bindModCtx.setPushToEvtInterceptor( true );
-
-                    internalModify( bindContext, bindModCtx );
+                    pwdPolicyStateWriter.update( bindContext, userEntry, mods );
                 }
             }
 
@@ -753,7 +731,10 @@ public class AuthenticationInterceptor extends BaseInterceptor
 
             if ( pwdAccLockedTimeAt != null )
             {
-                Modification pwdAccLockedTimeMod = new DefaultModification( REMOVE_ATTRIBUTE, pwdAccLockedTimeAt );
+                // Remove the attribute without its values : the values can't be compared when the
+                // account is locked forever (000001010000Z isn't a valid GeneralizedTime)
+                Modification pwdAccLockedTimeMod = new DefaultModification( REMOVE_ATTRIBUTE,
+                    new DefaultAttribute( pwdAccountLockedTimeAT ) );
                 mods.add( pwdAccLockedTimeMod );
             }
 
@@ -793,18 +774,7 @@ public class AuthenticationInterceptor extends BaseInterceptor
 
             if ( !mods.isEmpty() )
             {
-                String csnVal = directoryService.getCSN().toString();
-                Modification csnMod = new DefaultModification( REPLACE_ATTRIBUTE, directoryService.getAtProvider()
-                    .getEntryCSN(), csnVal );
-                mods.add( csnMod );
-
-                ModifyOperationContext bindModCtx = new ModifyOperationContext( adminSession );
-                bindModCtx.setDn( bindDn );
-                bindModCtx.setEntry( userEntry );
-                bindModCtx.setModItems( mods );
-                bindModCtx.setPushToEvtInterceptor( true );
-                
-                internalModify( bindContext, bindModCtx );
+                pwdPolicyStateWriter.update( bindContext, userEntry, mods );
             }
 
             if ( isPPolicyReqCtrlPresent )
@@ -864,6 +834,7 @@ public class AuthenticationInterceptor extends BaseInterceptor
         
         // if the deleted entry contains a password, then invalidate the associated caches
         invalidateAuthenticatorCaches( deleteContext.getDn() );
+        pwdPolicyStateWriter.discard( deleteContext.getDn() );
     }
 
 
@@ -933,6 +904,19 @@ public class AuthenticationInterceptor extends BaseInterceptor
         }
     }
 
+
+    private void invalidateAuthenticatorSubtreeCaches( Dn baseDn )
+    {
+        for ( AuthenticationLevel authMech : authenticatorsMapByType.keySet() )
+        {
+            // try each authenticator
+            for ( Authenticator authenticator : getAuthenticators( authMech ) )
+            {
+                authenticator.invalidateSubtreeCache( baseDn );
+            }
+        }
+    }
+
     
     /**
      * {@inheritDoc}
@@ -946,6 +930,7 @@ public class AuthenticationInterceptor extends BaseInterceptor
         }
 
         checkAuthenticated( modifyContext );
+        pwdPolicyStateWriter.flush( modifyContext, false );
 
         if ( !directoryService.isPwdPolicyEnabled() || modifyContext.isReplEvent() )
         {
@@ -959,12 +944,22 @@ public class AuthenticationInterceptor extends BaseInterceptor
 
     
     /**
-     * Proceed with the Modification operation when the PasswordPolicy is not activated.
+     * Proceed with the Modification operation when the PasswordPolicy is not activated, or
+     * when the modification comes from a replication provider.
      */
     private void processStandardModify( ModifyOperationContext modifyContext ) throws LdapException
     {
         next( modifyContext );
 
+        if ( modifyContext.isReplEvent() )
+        {
+            // The passwords may be stored in the attribute of any password policy : we don't
+            // check which policy applies to the entry, it's cheaper to drop its credentials
+            invalidateAuthenticatorCaches( modifyContext.getDn() );
+
+            return;
+        }
+
         List<Modification> modifications = modifyContext.getModItems();
 
         for ( Modification modification : modifications )
@@ -1126,18 +1121,7 @@ public class AuthenticationInterceptor extends BaseInterceptor
             // Add the attributes that have been modified following a Add/Replace password
             processModifyAddPwdAttributes( entry, mods, pwdModDetails );
 
-            String csnVal = directoryService.getCSN().toString();
-            Modification csnMod = new DefaultModification( REPLACE_ATTRIBUTE, directoryService.getAtProvider()
-                .getEntryCSN(), csnVal );
-            mods.add( csnMod );
-
-            ModifyOperationContext internalModifyCtx = new ModifyOperationContext( adminSession );
-            internalModifyCtx.setPushToEvtInterceptor( true );
-            internalModifyCtx.setDn( modifyContext.getDn() );
-            internalModifyCtx.setEntry( entry );
-            internalModifyCtx.setModItems( mods );
-
-            internalModify( modifyContext, internalModifyCtx );
+            pwdPolicyStateWriter.write( modifyContext, entry, mods );
 
             if ( removePwdReset || pwdModDetails.isDelete() )
             {
@@ -1247,7 +1231,8 @@ public class AuthenticationInterceptor extends BaseInterceptor
             
             if ( pwdAccountLockedTimeAt != null )
             {
-                mods.add( new DefaultModification( REMOVE_ATTRIBUTE, pwdAccountLockedTimeAt ) );
+                // Remove the attribute without its values : 000001010000Z can't be compared
+                mods.add( new DefaultModification( REMOVE_ATTRIBUTE, new DefaultAttribute( pwdAccountLockedTimeAT ) ) );
             }
         }
     }
@@ -1336,8 +1321,11 @@ public class AuthenticationInterceptor extends BaseInterceptor
 
         checkAuthenticated( moveContext );
         checkPwdReset( moveContext );
+        pwdPolicyStateWriter.flush( moveContext, true );
         next( moveContext );
-        invalidateAuthenticatorCaches( moveContext.getDn() );
+
+        // The entries below the moved entry have a new Dn too
+        invalidateAuthenticatorSubtreeCaches( moveContext.getDn() );
     }
 
 
@@ -1354,8 +1342,11 @@ public class AuthenticationInterceptor extends BaseInterceptor
 
         checkAuthenticated( moveAndRenameContext );
         checkPwdReset( moveAndRenameContext );
+        pwdPolicyStateWriter.flush( moveAndRenameContext, true );
         next( moveAndRenameContext );
-        invalidateAuthenticatorCaches( moveAndRenameContext.getDn() );
+
+        // The entries below the moved entry have a new Dn too
+        invalidateAuthenticatorSubtreeCaches( moveAndRenameContext.getDn() );
     }
 
 
@@ -1372,8 +1363,11 @@ public class AuthenticationInterceptor extends BaseInterceptor
 
         checkAuthenticated( renameContext );
         checkPwdReset( renameContext );
+        pwdPolicyStateWriter.flush( renameContext, true );
         next( renameContext );
-        invalidateAuthenticatorCaches( renameContext.getDn() );
+
+        // The entries below the moved entry have a new Dn too
+        invalidateAuthenticatorSubtreeCaches( renameContext.getDn() );
     }
 
 
@@ -1894,6 +1888,35 @@ public class AuthenticationInterceptor extends BaseInterceptor
     }
 
 
+    /**
+     * @return The maximum delay, in milliseconds, before the password policy state updated
+     * by a bind is written. 0 if it's written by the bind.
+     */
+    public long getPwdPolicyStateFlushDelay()
+    {
+        return pwdPolicyStateFlushDelay;
+    }
+
+
+    /**
+     * Set the maximum delay before the password policy state updated by a bind (failure
+     * times, lockout, last success and grace logins) is written. The updates done in
+     * between are written at once, and the binds see them immediately.
+     *
+     * @param pwdPolicyStateFlushDelay The maximum delay, in milliseconds. 0 disables it :
+     * the state is written by each bind
+     */
+    public void setPwdPolicyStateFlushDelay( long pwdPolicyStateFlushDelay )
+    {
+        this.pwdPolicyStateFlushDelay = pwdPolicyStateFlushDelay;
+
+        if ( pwdPolicyStateWriter != null )
+        {
+            pwdPolicyStateWriter.setFlushDelay( pwdPolicyStateFlushDelay );
+        }
+    }
+
+
     /**
      * purges failure timestamps which are older than the configured interval
      * (section 7.6 in the draft)
@@ -86,6 +86,16 @@ public interface Authenticator
     void invalidateCache( Dn bindDn );
 
 
+    /**
+     * Callback used when an entry is moved or renamed, to invalidate the cached
+     * passwords of this entry and of all the entries below it, if a cache is
+     * implemented. An empty implementation is sufficient.
+     * 
+     * @param baseDn the already normalized distinguished name of the moved entry
+     */
+    void invalidateSubtreeCache( Dn baseDn );
+
+
     /**
      * Performs authentication and returns the principal if succeeded.
      * 
@@ -0,0 +1,519 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.authn;
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapNoSuchObjectException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.OperationManager;
+import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.OperationContext;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Keeps in memory the password policy state attributes (pwdFailureTime, pwdAccountLockedTime,
+ * pwdLastSuccess, pwdGraceUseTime) updated by the binds, and writes them in batches, at most
+ * maxDelay milliseconds after they have been updated. This way, a burst of binds does not
+ * generate a burst of writes : all the updates of an entry done in between two flushes
+ * are written at once, and all the entries of a partition are written in a single transaction.
+ * <p>
+ * The pending state is applied on the entries read by the binds, so that the lockout
+ * decisions are based on the latest state. A modification, a move or a rename of an entry
+ * first writes its pending state in the operation transaction, and a deletion discards it.
+ * The other operations may see the state as it was before the last flush.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class PasswordPolicyStateStore
+{
+    private static final Logger LOG = LoggerFactory.getLogger( PasswordPolicyStateStore.class );
+
+    /** The DirectoryService instance */
+    private final DirectoryService directoryService;
+
+    /** The session used to write the state */
+    private final CoreSession adminSession;
+
+    /** The maximum delay, in milliseconds, before an update is written */
+    private final long maxDelay;
+
+    /** The pending state, per normalized Dn */
+    private final Map<String, PendingState> pending = new ConcurrentHashMap<>();
+
+    /** The thread writing the pending state */
+    private final ScheduledExecutorService flusher;
+
+    /** Tells if a flush has already been scheduled */
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    /** Protects the closed flag : the updates hold the read lock, the close holds the write lock */
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+
+    /** Tells if the store has been closed, and doesn't accept updates anymore */
+    private boolean closed;
+
+
+    /**
+     * The state attributes of an entry which have not been written yet
+     */
+    private static class PendingState
+    {
+        /** The entry Dn */
+        private final Dn dn;
+
+        /** The new attributes. An attribute without value has to be removed */
+        private final Map<AttributeType, Attribute> attributes = new HashMap<>();
+
+
+        PendingState( Dn dn )
+        {
+            this.dn = dn;
+        }
+    }
+
+
+    /**
+     * Creates a new instance of PasswordPolicyStateStore.
+     *
+     * @param directoryService The DirectoryService instance
+     * @param maxDelay The maximum delay, in milliseconds, before an update is written
+     */
+    PasswordPolicyStateStore( DirectoryService directoryService, long maxDelay )
+    {
+        this.directoryService = directoryService;
+        this.adminSession = directoryService.getAdminSession();
+        this.maxDelay = maxDelay;
+
+        flusher = Executors.newSingleThreadScheduledExecutor( runnable ->
+        {
+            Thread thread = new Thread( runnable, "pwdpolicy-state-flusher" );
+            thread.setDaemon( true );
+
+            return thread;
+        } );
+    }
+
+
+    /**
+     * Replaces the state attributes of an entry by their pending values, if any.
+     *
+     * @param entry The entry to update
+     * @throws LdapException If the entry cannot be updated
+     */
+    void apply( Entry entry ) throws LdapException
+    {
+        PendingState state = pending.get( entry.getDn().getNormName() );
+
+        if ( state == null )
+        {
+            return;
+        }
+
+        synchronized ( state )
+        {
+            for ( Attribute attribute : state.attributes.values() )
+            {
+                entry.removeAttributes( attribute.getAttributeType() );
+
+                if ( attribute.size() > 0 )
+                {
+                    entry.put( attribute.clone() );
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Stores some state modifications, which will be written later. The added and replaced
+     * attributes must contain all their values, a removal removes the whole attribute.
+     *
+     * @param dn The entry Dn
+     * @param modifications The state modifications
+     * @return <code>false</code> if the store has been closed, and the modifications have
+     * to be written now
+     */
+    boolean update( Dn dn, List<Modification> modifications )
+    {
+        closeLock.readLock().lock();
+
+        try
+        {
+            if ( closed )
+            {
+                return false;
+            }
+
+            store( dn, modifications );
+
+            if ( flushScheduled.compareAndSet( false, true ) )
+            {
+                flusher.schedule( () -> flush(), maxDelay, TimeUnit.MILLISECONDS );
+            }
+
+            return true;
+        }
+        finally
+        {
+            closeLock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Stores some state modifications in the pending state of an entry
+     */
+    private void store( Dn dn, List<Modification> modifications )
+    {
+        pending.compute( dn.getNormName(), ( key, state ) ->
+        {
+            PendingState newState = state == null ? new PendingState( dn ) : state;
+
+            synchronized ( newState )
+            {
+                for ( Modification modification : modifications )
+                {
+                    AttributeType attributeType = modification.getAttribute().getAttributeType();
+
+                    if ( modification.getOperation() == ModificationOperation.REMOVE_ATTRIBUTE )
+                    {
+                        newState.attributes.put( attributeType, new DefaultAttribute( attributeType ) );
+                    }
+                    else
+                    {
+                        newState.attributes.put( attributeType, modification.getAttribute().clone() );
+                    }
+                }
+            }
+
+            return newState;
+        } );
+    }
+
+
+    /**
+     * Removes the pending state of an entry, and adds it to some modifications which will
+     * be written by the caller. The attributes already modified are left untouched. The
+     * caller must hold the lock on the entry partition, so that the state isn't written by
+     * a flush meanwhile.
+     *
+     * @param dn The entry Dn
+     * @param modifications The modifications to complete
+     */
+    void take( Dn dn, List<Modification> modifications )
+    {
+        PendingState state = pending.remove( dn.getNormName() );
+
+        if ( state == null )
+        {
+            return;
+        }
+
+        Set<AttributeType> modified = new HashSet<>();
+
+        for ( Modification modification : modifications )
+        {
+            modified.add( modification.getAttribute().getAttributeType() );
+        }
+
+        synchronized ( state )
+        {
+            for ( Attribute attribute : state.attributes.values() )
+            {
+                if ( !modified.contains( attribute.getAttributeType() ) )
+                {
+                    // A replace without value removes the attribute, if it exists
+                    modifications.add( new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE,
+                        attribute.clone() ) );
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Closes the store : the following updates are rejected, so that a flush writes all
+     * the state stored so far.
+     */
+    void close()
+    {
+        closeLock.writeLock().lock();
+
+        try
+        {
+            closed = true;
+        }
+        finally
+        {
+            closeLock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Discards the pending state of a deleted entry
+     *
+     * @param dn The entry Dn
+     */
+    void discard( Dn dn )
+    {
+        pending.remove( dn.getNormName() );
+    }
+
+
+    /**
+     * Writes the pending state of the entry an operation is applied on, in the operation
+     * transaction. The operation must hold the lock on the entry.
+     *
+     * @param opContext The operation context
+     * @param subtree <code>true</code> if the pending state of the entries below the entry
+     * must be written too
+     * @return <code>true</code> if some state has been written
+     * @throws LdapException If the state cannot be written
+     */
+    boolean flush( OperationContext opContext, boolean subtree ) throws LdapException
+    {
+        if ( pending.isEmpty() )
+        {
+            return false;
+        }
+
+        Dn dn = opContext.getDn();
+        List<PendingState> states = new ArrayList<>();
+
+        if ( subtree )
+        {
+            for ( PendingState state : pending.values() )
+            {
+                if ( ( state.dn.equals( dn ) || state.dn.isDescendantOf( dn ) )
+                    && ( pending.remove( state.dn.getNormName() ) != null ) )
+                {
+                    states.add( state );
+                }
+            }
+        }
+        else
+        {
+            PendingState state = pending.remove( dn.getNormName() );
+
+            if ( state != null )
+            {
+                states.add( state );
+            }
+        }
+
+        for ( PendingState state : states )
+        {
+            write( opContext.getPartition(), opContext.getTransaction(), state );
+        }
+
+        return !states.isEmpty();
+    }
+
+
+    /**
+     * Writes all the pending state, one transaction per partition.
+     */
+    void flush()
+    {
+        flushScheduled.set( false );
+
+        Map<Partition, List<String>> keysByPartition = new HashMap<>();
+
+        for ( Map.Entry<String, PendingState> entry : pending.entrySet() )
+        {
+            try
+            {
+                Partition partition = directoryService.getPartitionNexus().getPartition( entry.getValue().dn );
+                keysByPartition.computeIfAbsent( partition, p -> new ArrayList<>() ).add( entry.getKey() );
+            }
+            catch ( LdapException le )
+            {
+                // The partition has been removed
+                pending.remove( entry.getKey() );
+            }
+        }
+
+        for ( Map.Entry<Partition, List<String>> keys : keysByPartition.entrySet() )
+        {
+            try
+            {
+                write( keys.getKey(), keys.getValue() );
+            }
+            catch ( Exception e )
+            {
+                LOG.error( "Failed to write the password policy state in the {} partition : {}",
+                    keys.getKey().getId(), e.getMessage(), e );
+            }
+        }
+    }
+
+
+    /**
+     * Stops the flushing thread. The pending state which has not been written is lost.
+     */
+    void stop()
+    {
+        flusher.shutdownNow();
+    }
+
+
+    /**
+     * Writes the pending state of some entries of a partition, in a single transaction
+     */
+    private void write( Partition partition, List<String> keys ) throws LdapException, IOException
+    {
+        OperationManager operationManager = directoryService.getOperationManager();
+        Lock lock = operationManager.getRWLock( partition ).writeLock();
+
+        // Lock the partition before reading the pending state, so that no operation can
+        // see it between the time we take it and the time it is committed
+        operationManager.lockRead();
+        lock.lock();
+
+        try
+        {
+            PartitionTxn partitionTxn = partition.beginWriteTransaction();
+
+            try
+            {
+                for ( String key : keys )
+                {
+                    PendingState state = pending.remove( key );
+
+                    if ( state != null )
+                    {
+                        write( partition, partitionTxn, state );
+                    }
+                }
+
+                partitionTxn.commit();
+            }
+            catch ( LdapException | IOException e )
+            {
+                partitionTxn.abort();
+
+                throw e;
+            }
+        }
+        finally
+        {
+            lock.unlock();
+            operationManager.unlockRead();
+        }
+    }
+
+
+    /**
+     * Writes the pending state of an entry in a transaction
+     */
+    private void write( Partition partition, PartitionTxn partitionTxn, PendingState state ) throws LdapException
+    {
+        LookupOperationContext lookupContext = new LookupOperationContext( adminSession, state.dn,
+            SchemaConstants.ALL_ATTRIBUTES_ARRAY );
+        lookupContext.setPartition( partition );
+        lookupContext.setTransaction( partitionTxn );
+
+        Entry entry;
+
+        try
+        {
+            entry = directoryService.getPartitionNexus().lookup( lookupContext );
+        }
+        catch ( LdapNoSuchObjectException lnsoe )
+        {
+            // The entry has been deleted or moved meanwhile
+            return;
+        }
+
+        if ( entry == null )
+        {
+            return;
+        }
+
+        List<Modification> mods = new ArrayList<>();
+
+        synchronized ( state )
+        {
+            for ( Attribute attribute : state.attributes.values() )
+            {
+                if ( attribute.size() > 0 )
+                {
+                    mods.add( new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE, attribute ) );
+                }
+                else if ( entry.containsAttribute( attribute.getAttributeType() ) )
+                {
+                    mods.add( new DefaultModification( ModificationOperation.REMOVE_ATTRIBUTE,
+                        attribute.getAttributeType() ) );
+                }
+            }
+        }
+
+        if ( mods.isEmpty() )
+        {
+            return;
+        }
+
+        mods.add( new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE, directoryService
+            .getAtProvider().getEntryCSN(), directoryService.getCSN().toString() ) );
+
+        ModifyOperationContext modifyContext = new ModifyOperationContext( adminSession );
+        modifyContext.setDn( state.dn );
+        modifyContext.setEntry( entry );
+        modifyContext.setModItems( mods );
+        modifyContext.setPushToEvtInterceptor( true );
+        modifyContext.setPartition( partition );
+        modifyContext.setTransaction( partitionTxn );
+
+        directoryService.getPartitionNexus().modify( modifyContext );
+    }
+}
@@ -0,0 +1,349 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.authn;
+
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.OperationContext;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+
+
+/**
+ * Writes the password policy state attributes updated by the binds and by the password
+ * modifications. The state updated by a bind is written immediately, or stored in a
+ * {@link PasswordPolicyStateStore} until the next flush if the writes are delayed.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class PasswordPolicyStateWriter
+{
+    /** The DirectoryService instance */
+    private final DirectoryService directoryService;
+
+    /** The session used to write the state */
+    private final CoreSession adminSession;
+
+    /** The store keeping the state until it's written, if the writes are delayed */
+    private volatile PasswordPolicyStateStore store;
+
+    /** The store replaced by a change of the delay, while its state is being written */
+    private volatile PasswordPolicyStateStore closingStore;
+
+
+    /**
+     * Creates a new instance of PasswordPolicyStateWriter.
+     *
+     * @param directoryService The DirectoryService instance
+     * @param flushDelay The maximum delay, in milliseconds, before the state updated by a bind
+     * is written. 0 if it's written by the bind
+     */
+    PasswordPolicyStateWriter( DirectoryService directoryService, long flushDelay )
+    {
+        this.directoryService = directoryService;
+        this.adminSession = directoryService.getAdminSession();
+
+        if ( flushDelay > 0 )
+        {
+            store = new PasswordPolicyStateStore( directoryService, flushDelay );
+        }
+    }
+
+
+    /**
+     * Changes the maximum delay before the state updated by a bind is written. What has
+     * been stored so far is written.
+     * <p>
+     * The binds running meanwhile may still use the previous store. Until it has been
+     * written, its state is applied on the entries read by the binds, and the binds take
+     * it along with their own modifications. Once it has been closed, the binds which
+     * still try to store their state in it write it immediately.
+     *
+     * @param flushDelay The maximum delay, in milliseconds. 0 if the state is written by the bind
+     */
+    synchronized void setFlushDelay( long flushDelay )
+    {
+        PasswordPolicyStateStore oldStore = store;
+        closingStore = oldStore;
+
+        if ( flushDelay > 0 )
+        {
+            store = new PasswordPolicyStateStore( directoryService, flushDelay );
+        }
+        else
+        {
+            store = null;
+        }
+
+        // Write what has been stored by the previous store, then stop its thread
+        if ( oldStore != null )
+        {
+            oldStore.close();
+            oldStore.flush();
+            closingStore = null;
+            oldStore.stop();
+        }
+    }
+
+
+    /**
+     * Stops the flush thread, if any.
+     */
+    synchronized void stop()
+    {
+        PasswordPolicyStateStore oldStore = store;
+
+        if ( oldStore != null )
+        {
+            store = null;
+            oldStore.close();
+            oldStore.stop();
+        }
+    }
+
+
+    /**
+     * Writes the password policy state updated by a bind, or stores it until the next flush
+     * if the writes are delayed.
+     *
+     * @param opContext The bind operation context
+     * @param userEntry The user entry
+     * @param mods The state modifications, each one containing all the attribute values
+     * @throws LdapException If the state cannot be written
+     */
+    void update( OperationContext opContext, Entry userEntry, List<Modification> mods ) throws LdapException
+    {
+        if ( !defer( opContext.getDn(), mods ) )
+        {
+            write( opContext, userEntry, mods );
+        }
+    }
+
+
+    /**
+     * Writes some modifications of the target of an operation, with a new entryCSN, in
+     * a transaction of its own.
+     *
+     * @param opContext The operation context
+     * @param entry The modified entry
+     * @param mods The modifications
+     * @throws LdapException If the modifications cannot be written
+     */
+    void write( OperationContext opContext, Entry entry, List<Modification> mods ) throws LdapException
+    {
+        String csnVal = directoryService.getCSN().toString();
+        Modification csnMod = new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE, directoryService
+            .getAtProvider().getEntryCSN(), csnVal );
+        mods.add( csnMod );
+
+        ModifyOperationContext modifyContext = new ModifyOperationContext( adminSession );
+        modifyContext.setDn( opContext.getDn() );
+        modifyContext.setEntry( entry );
+        modifyContext.setModItems( mods );
+        modifyContext.setPushToEvtInterceptor( true );
+
+        Partition partition = opContext.getPartition();
+        modifyContext.setPartition( partition );
+        PartitionTxn partitionTxn = null;
+
+        try
+        {
+            partitionTxn = partition.beginWriteTransaction();
+            modifyContext.setTransaction( partitionTxn );
+
+            directoryService.getPartitionNexus().modify( modifyContext );
+
+            partitionTxn.commit();
+        }
+        catch ( LdapException le )
+        {
+            try 
+            {
+                if ( partitionTxn != null )
+                {
+                    partitionTxn.abort();
+                }
+                
+                throw le;
+            }
+            catch ( IOException ioe )
+            {
+                throw new LdapOtherException( ioe.getMessage(), ioe );
+            }
+        }
+        catch ( IOException ioe )
+        {
+            try 
+            {
+                partitionTxn.abort();
+                
+                throw new LdapOtherException( ioe.getMessage(), ioe );
+            }
+            catch ( IOException ioe2 )
+            {
+                throw new LdapOtherException( ioe2.getMessage(), ioe2 );
+            }
+        }
+    }
+
+
+    /**
+     * Stores some password policy state modifications until the next flush, if the writes
+     * are delayed.
+     *
+     * @param dn The modified entry Dn
+     * @param mods The state modifications, each one containing all the attribute values
+     * @return <code>false</code> if the writes are not delayed, and the modifications
+     * have to be written now
+     */
+    boolean defer( Dn dn, List<Modification> mods )
+    {
+        PasswordPolicyStateStore currentStore = store;
+        PasswordPolicyStateStore oldStore = closingStore;
+
+        if ( oldStore != null )
+        {
+            // The state stored before the delay was changed is applied on the entry, so
+            // it has to be written along with the new state
+            oldStore.take( dn, mods );
+        }
+
+        if ( currentStore == null )
+        {
+            return false;
+        }
+
+        if ( !currentStore.update( dn, mods ) )
+        {
+            // The store has been closed by a change of the delay, and may have been flushed
+            currentStore.take( dn, mods );
+
+            return false;
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Replaces the password policy state attributes of an entry by the values which have
+     * not been written yet, if any.
+     *
+     * @param userEntry The entry to update
+     * @throws LdapException If the entry cannot be updated
+     */
+    void apply( Entry userEntry ) throws LdapException
+    {
+        PasswordPolicyStateStore currentStore = store;
+        PasswordPolicyStateStore oldStore = closingStore;
+
+        if ( oldStore != null )
+        {
+            oldStore.apply( userEntry );
+        }
+
+        if ( currentStore != null )
+        {
+            currentStore.apply( userEntry );
+        }
+    }
+
+
+    /**
+     * Writes the password policy state which has not been written yet.
+     */
+    void flush()
+    {
+        PasswordPolicyStateStore currentStore = store;
+
+        if ( currentStore != null )
+        {
+            currentStore.flush();
+        }
+    }
+
+
+    /**
+     * Writes the pending password policy state of the target of an operation in the
+     * operation transaction, so that the operation applies on the latest state.
+     *
+     * @param opContext The operation context
+     * @param subtree <code>true</code> if the state of the entries below the target must be written too
+     * @throws LdapException If the state cannot be written
+     */
+    void flush( OperationContext opContext, boolean subtree ) throws LdapException
+    {
+        PasswordPolicyStateStore currentStore = store;
+        PasswordPolicyStateStore oldStore = closingStore;
+        boolean written = ( oldStore != null ) && oldStore.flush( opContext, subtree );
+
+        if ( ( currentStore != null ) && currentStore.flush( opContext, subtree ) )
+        {
+            written = true;
+        }
+
+        if ( written )
+        {
+            // The entry read before the operation is not up to date anymore
+            LookupOperationContext lookupContext = new LookupOperationContext( adminSession, opContext.getDn(),
+                SchemaConstants.ALL_ATTRIBUTES_ARRAY );
+            lookupContext.setPartition( opContext.getPartition() );
+            lookupContext.setTransaction( opContext.getTransaction() );
+
+            opContext.setEntry( directoryService.getPartitionNexus().lookup( lookupContext ) );
+        }
+    }
+
+
+    /**
+     * Discards the pending password policy state of a deleted entry.
+     *
+     * @param dn The deleted entry Dn
+     */
+    void discard( Dn dn )
+    {
+        PasswordPolicyStateStore currentStore = store;
+        PasswordPolicyStateStore oldStore = closingStore;
+
+        if ( oldStore != null )
+        {
+            oldStore.discard( dn );
+        }
+
+        if ( currentStore != null )
+        {
+            currentStore.discard( dn );
+        }
+    }
+}
@@ -20,9 +20,10 @@
 package org.apache.directory.server.core.authn;
 
 
+import java.util.Iterator;
+
 import javax.naming.Context;
 
-import org.apache.commons.collections4.map.LRUMap;
 import org.apache.directory.api.ldap.model.constants.AuthenticationLevel;
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.Attribute;
@@ -42,6 +43,9 @@ import org.apache.directory.server.core.api.interceptor.context.BindOperationCon
 import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
 import org.apache.directory.server.i18n.I18n;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
 
 /**
  * A simple {@link Authenticator} that authenticates clear text passwords
@@ -49,7 +53,7 @@ import org.apache.directory.server.i18n.I18n;
  * password is stored with a one-way encryption applied (e.g. SHA), the password
  * is hashed the same way before comparison.
  *
- * We use a cache to speedup authentication, where the Dn/password are stored.
+ * We use a cache to speedup authentication, where the Dn/passwords are stored.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -71,13 +75,30 @@ public class SimpleAuthenticator extends AbstractAuthenticator
      * The update of the backend and partition cache is already correctly handled, so we will
      * just have to offer an access to refresh the local cache.
      *
-     * We need to be sure that frequently used passwords be always in cache, and not discarded.
-     * We will use a LRU cache for this purpose.
+     * The cache is keyed by the normalized Dn. It's a concurrent cache, so that many binds
+     * can be processed at the same time, which discards the least recently used passwords.
      */
-    private final LRUMap credentialCache;
+    private final Cache<String, CachedPasswords> credentialCache;
 
-    /** Declare a default for this cache. 100 entries seems to be enough */
-    private static final int DEFAULT_CACHE_SIZE = 100;
+    /** Declare a default for this cache */
+    private static final int DEFAULT_CACHE_SIZE = 10000;
+
+
+    /**
+     * The passwords stored in an entry, and the attribute they have been read from
+     */
+    private static class CachedPasswords
+    {
+        private final String passwordAttribute;
+        private final byte[][] passwords;
+
+
+        CachedPasswords( String passwordAttribute, byte[][] passwords )
+        {
+            this.passwordAttribute = passwordAttribute;
+            this.passwords = passwords;
+        }
+    }
 
 
     /**
@@ -86,7 +107,7 @@ public class SimpleAuthenticator extends AbstractAuthenticator
     public SimpleAuthenticator()
     {
         super( AuthenticationLevel.SIMPLE );
-        credentialCache = new LRUMap( DEFAULT_CACHE_SIZE );
+        credentialCache = createCache( DEFAULT_CACHE_SIZE );
     }
 
 
@@ -99,7 +120,7 @@ public class SimpleAuthenticator extends AbstractAuthenticator
     public SimpleAuthenticator( Dn baseDn )
     {
         super( AuthenticationLevel.SIMPLE, baseDn );
-        credentialCache = new LRUMap( DEFAULT_CACHE_SIZE );
+        credentialCache = createCache( DEFAULT_CACHE_SIZE );
     }
 
 
@@ -111,7 +132,7 @@ public class SimpleAuthenticator extends AbstractAuthenticator
     {
         super( AuthenticationLevel.SIMPLE, Dn.ROOT_DSE );
 
-        credentialCache = new LRUMap( cacheSize > 0 ? cacheSize : DEFAULT_CACHE_SIZE );
+        credentialCache = createCache( cacheSize > 0 ? cacheSize : DEFAULT_CACHE_SIZE );
     }
 
 
@@ -125,62 +146,81 @@ public class SimpleAuthenticator extends AbstractAuthenticator
     {
         super( AuthenticationLevel.SIMPLE, baseDn );
 
-        credentialCache = new LRUMap( cacheSize > 0 ? cacheSize : DEFAULT_CACHE_SIZE );
+        credentialCache = createCache( cacheSize > 0 ? cacheSize : DEFAULT_CACHE_SIZE );
+    }
+
+
+    private static Cache<String, CachedPasswords> createCache( int cacheSize )
+    {
+        return Caffeine.newBuilder().maximumSize( cacheSize ).build();
     }
 
 
     /**
      * Get the password either from cache or from backend.
-     * @param principalDN The Dn from which we want the password
+     *
+     * When the password policy is enabled, the entry has to be read for each bind, as it contains
+     * the state of the policy (failure times, lock, etc). In this case, we only avoid to read the
+     * user attributes, including the password attribute, if the passwords are in the cache.
+     *
+     * @param bindContext The Bind context
      * @return A byte array which can be empty if the password was not found
-     * @throws Exception If we have a problem during the lookup operation
+     * @throws LdapException If we have a problem during the lookup operation
      */
     private LdapPrincipal getStoredPassword( BindOperationContext bindContext ) throws LdapException
     {
-        LdapPrincipal principal = null;
+        String key = bindContext.getDn().getNormName();
+        CachedPasswords cached = credentialCache.getIfPresent( key );
+        byte[][] storedPasswords = null;
 
-        // use cache only if pwdpolicy is not enabled
         if ( !getDirectoryService().isPwdPolicyEnabled() )
         {
-            synchronized ( credentialCache )
+            if ( cached != null )
             {
-                principal = ( LdapPrincipal ) credentialCache.get( bindContext.getDn() );
+                storedPasswords = cached.passwords;
+
+                if ( bindContext.getPrincipal() != null )
+                {
+                    // The entry has already been read by the caller
+                    bindContext.setEntry( new ClonedServerEntry( bindContext.getPrincipal() ) );
+                }
+            }
+            else
+            {
+                // Not found in the cache
+                // Get the user password from the backend
+                Entry userEntry = lookupUser( bindContext, true );
+                storedPasswords = getPasswords( userEntry, SchemaConstants.USER_PASSWORD_AT );
+                credentialCache.put( key, new CachedPasswords( SchemaConstants.USER_PASSWORD_AT, storedPasswords ) );
             }
         }
-
-        byte[][] storedPasswords;
-
-        if ( principal == null )
+        else
         {
-            // Not found in the cache
-            // Get the user password from the backend
-            storedPasswords = lookupUserPassword( bindContext );
-
-            // Deal with the special case where the user didn't enter a password
-            // We will compare the empty array with the credentials. Sometime,
-            // a user does not set a password. This is bad, but there is nothing
-            // we can do against that, except education ...
-            if ( storedPasswords == null )
+            Entry userEntry = lookupUser( bindContext, cached == null );
+            String passwordAttribute = getPasswordAttribute( userEntry );
+
+            if ( ( cached != null ) && cached.passwordAttribute.equals( passwordAttribute ) )
             {
-                storedPasswords = new byte[][]
-                    {};
+                storedPasswords = cached.passwords;
             }
-
-            // Create the new principal before storing it in the cache
-            principal = new LdapPrincipal( getDirectoryService().getSchemaManager(), bindContext.getDn(),
-                AuthenticationLevel.SIMPLE );
-            principal.setUserPassword( storedPasswords );
-
-            // Now, update the local cache ONLY if pwdpolicy is not enabled.
-            if ( !getDirectoryService().isPwdPolicyEnabled() )
+            else
             {
-                synchronized ( credentialCache )
+                if ( cached != null )
                 {
-                    credentialCache.put( bindContext.getDn().getNormName(), principal );
+                    // The password policy has changed, we need the user attributes
+                    userEntry = lookupUser( bindContext, true );
                 }
+
+                storedPasswords = getPasswords( userEntry, passwordAttribute );
+                credentialCache.put( key, new CachedPasswords( passwordAttribute, storedPasswords ) );
             }
         }
 
+        // Create a new principal for each bind, as it will be modified
+        LdapPrincipal principal = new LdapPrincipal( getDirectoryService().getSchemaManager(), bindContext.getDn(),
+            AuthenticationLevel.SIMPLE );
+        principal.setUserPassword( storedPasswords );
+
         return principal;
     }
 
@@ -248,12 +288,16 @@ public class SimpleAuthenticator extends AbstractAuthenticator
 
 
     /**
-     * Local function which request the password from the backend
+     * Local function which request the user entry from the backend, if it has not
+     * already been read. The entry is stored in the bind context.
+     *
      * @param bindContext the Bind operation context
-     * @return the credentials from the backend
-     * @throws Exception if there are problems accessing backend
+     * @param allAttributes <code>true</code> if we need the user attributes, otherwise we only
+     * need the operational attributes
+     * @return the user entry
+     * @throws LdapException if there are problems accessing backend
      */
-    private byte[][] lookupUserPassword( BindOperationContext bindContext ) throws LdapException
+    private Entry lookupUser( BindOperationContext bindContext, boolean allAttributes ) throws LdapException
     {
         // ---- lookup the principal entry's userPassword attribute
         Entry userEntry;
@@ -272,8 +316,19 @@ public class SimpleAuthenticator extends AbstractAuthenticator
             
             if ( userEntry == null )
             {
-                LookupOperationContext lookupContext = new LookupOperationContext( getDirectoryService().getAdminSession(),
-                    bindContext.getDn(), SchemaConstants.ALL_USER_ATTRIBUTES, SchemaConstants.ALL_OPERATIONAL_ATTRIBUTES );
+                LookupOperationContext lookupContext;
+
+                if ( allAttributes )
+                {
+                    lookupContext = new LookupOperationContext( getDirectoryService().getAdminSession(),
+                        bindContext.getDn(), SchemaConstants.ALL_USER_ATTRIBUTES,
+                        SchemaConstants.ALL_OPERATIONAL_ATTRIBUTES );
+                }
+                else
+                {
+                    lookupContext = new LookupOperationContext( getDirectoryService().getAdminSession(),
+                        bindContext.getDn(), SchemaConstants.ALL_OPERATIONAL_ATTRIBUTES );
+                }
     
                 lookupContext.setPartition( bindContext.getPartition() );
                 lookupContext.setTransaction( bindContext.getTransaction() );
@@ -297,24 +352,38 @@ public class SimpleAuthenticator extends AbstractAuthenticator
             throw e;
         }
 
+        bindContext.setEntry( new ClonedServerEntry( userEntry ) );
+
+        return userEntry;
+    }
+
+
+    /**
+     * @return the attribute containing the passwords, accordingly to the user password policy
+     */
+    private String getPasswordAttribute( Entry userEntry ) throws LdapException
+    {
         DirectoryService directoryService = getDirectoryService();
-        String userPasswordAttribute = SchemaConstants.USER_PASSWORD_AT;
+        AuthenticationInterceptor authenticationInterceptor = ( AuthenticationInterceptor ) directoryService
+            .getInterceptor(
+            InterceptorEnum.AUTHENTICATION_INTERCEPTOR.getName() );
+        PasswordPolicyConfiguration pPolicyConfig = authenticationInterceptor.getPwdPolicy( userEntry );
 
-        if ( directoryService.isPwdPolicyEnabled() )
-        {
-            AuthenticationInterceptor authenticationInterceptor = ( AuthenticationInterceptor ) directoryService
-                .getInterceptor(
-                InterceptorEnum.AUTHENTICATION_INTERCEPTOR.getName() );
-            PasswordPolicyConfiguration pPolicyConfig = authenticationInterceptor.getPwdPolicy( userEntry );
-            userPasswordAttribute = pPolicyConfig.getPwdAttribute();
+        return pPolicyConfig.getPwdAttribute();
+    }
 
-        }
 
+    /**
+     * @return the passwords stored in the user entry
+     */
+    private byte[][] getPasswords( Entry userEntry, String userPasswordAttribute )
+    {
         Attribute userPasswordAttr = userEntry.get( userPasswordAttribute );
 
-        bindContext.setEntry( new ClonedServerEntry( userEntry ) );
-
-        // ---- assert that credentials match
+        // Deal with the special case where the user didn't enter a password
+        // We will compare the empty array with the credentials. Sometime,
+        // a user does not set a password. This is bad, but there is nothing
+        // we can do against that, except education ...
         if ( userPasswordAttr == null )
         {
             return new byte[][]
@@ -343,9 +412,37 @@ public class SimpleAuthenticator extends AbstractAuthenticator
     @Override
     public void invalidateCache( Dn bindDn )
     {
-        synchronized ( credentialCache )
+        credentialCache.invalidate( bindDn.getNormName() );
+    }
+
+
+    /**
+     * Remove the principals which Dn is, or is below, the given Dn from the cache.
+     * This is used when an entry is moved or renamed.
+     */
+    @Override
+    public void invalidateSubtreeCache( Dn baseDn )
+    {
+        if ( baseDn.isRootDse() )
         {
-            credentialCache.remove( bindDn.getNormName() );
+            credentialCache.invalidateAll();
+
+            return;
+        }
+
+        String baseName = baseDn.getNormName();
+        String suffix = "," + baseName;
+        Iterator<String> keys = credentialCache.asMap().keySet().iterator();
+
+        while ( keys.hasNext() )
+        {
+            String key = keys.next();
+
+            // An escaped comma in a Rdn may select too many keys, which is harmless
+            if ( key.equals( baseName ) || key.endsWith( suffix ) )
+            {
+                keys.remove();
+            }
         }
     }
 }
@@ -35,6 +35,9 @@ import org.apache.directory.api.ldap.aci.ACIItem;
 import org.apache.directory.api.ldap.aci.ACIItemParser;
 import org.apache.directory.api.ldap.aci.ACITuple;
 import org.apache.directory.api.ldap.aci.MicroOperation;
+import org.apache.directory.api.ldap.aci.ProtectedItem;
+import org.apache.directory.api.ldap.aci.protectedItem.RangeOfValuesItem;
+import org.apache.directory.api.ldap.aci.protectedItem.RestrictedByItem;
 import org.apache.directory.api.ldap.model.constants.Loggers;
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.Attribute;
@@ -113,6 +116,9 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
     private static final Collection<MicroOperation> IMPORT_PERMS;
     private static final Collection<MicroOperation> MOVERENAME_PERMS;
 
+    /** The default maximum number of cached search filtering decisions */
+    public static final int DEFAULT_ACI_DECISION_CACHE_SIZE = 10000;
+
     static
     {
         Set<MicroOperation> set = new HashSet<>( 2 );
@@ -158,6 +164,12 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
     /** use and instance of the ACDF engine */
     private ACDFEngine engine;
 
+    /** The maximum number of cached search filtering decisions, 0 if they are not cached */
+    private int aciDecisionCacheSize = DEFAULT_ACI_DECISION_CACHE_SIZE;
+
+    /** The search filtering decisions cache, null if disabled */
+    private AciDecisionCache decisionCache;
+
     /** the system wide subschemaSubentryDn */
     private Dn subschemaSubentryDn;
 
@@ -301,6 +313,11 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
         aciParser = new ACIItemParser( new ConcreteNameComponentNormalizer( schemaManager ), schemaManager );
         engine = new ACDFEngine( schemaManager );
 
+        if ( aciDecisionCacheSize > 0 )
+        {
+            decisionCache = new AciDecisionCache( aciDecisionCacheSize );
+        }
+
         // stuff for dealing with subentries (garbage for now)
         Value subschemaSubentry = directoryService.getPartitionNexus().getRootDseValue(
             directoryService.getAtProvider().getSubschemaSubentry() );
@@ -1350,25 +1367,10 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
          * tests.  If we hasPermission() returns false we immediately short the
          * process and return false.
          */
+        Entry originalEntry = ( ( ClonedServerEntry ) clonedEntry ).getOriginalEntry();
+        EntryDecisions decisions = new EntryDecisions( opContext, normName, originalEntry );
 
-        LdapPrincipal principal = opContext.getSession().getEffectivePrincipal();
-        Dn userDn = principal.getDn();
-        Set<String> userGroups = groupCache.getGroups( userDn.getNormName() );
-        Collection<ACITuple> tuples = new HashSet<>();
-        addPerscriptiveAciTuples( opContext, tuples, normName, clonedEntry );
-        addEntryAciTuples( tuples, ( ( ClonedServerEntry ) clonedEntry ).getOriginalEntry() );
-        addSubentryAciTuples( opContext, tuples, normName, ( ( ClonedServerEntry ) clonedEntry ).getOriginalEntry() );
-
-        AciContext aciContext = new AciContext( schemaManager, opContext );
-        aciContext.setUserGroupNames( userGroups );
-        aciContext.setUserDn( userDn );
-        aciContext.setAuthenticationLevel( principal.getAuthenticationLevel() );
-        aciContext.setEntryDn( normName );
-        aciContext.setMicroOperations( SEARCH_ENTRY_PERMS );
-        aciContext.setAciTuples( tuples );
-        aciContext.setEntry( ( ( ClonedServerEntry ) clonedEntry ).getOriginalEntry() );
-
-        if ( !engine.hasPermission( aciContext ) )
+        if ( !decisions.hasPermission( SEARCH_ENTRY_PERMS, null, null, originalEntry ) )
         {
             return false;
         }
@@ -1388,17 +1390,7 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
             AttributeType attributeType = attribute.getAttributeType();
             Attribute attr = clonedEntry.get( attributeType );
 
-            aciContext = new AciContext( schemaManager, opContext );
-            aciContext.setUserGroupNames( userGroups );
-            aciContext.setUserDn( userDn );
-            aciContext.setAuthenticationLevel( principal.getAuthenticationLevel() );
-            aciContext.setEntryDn( normName );
-            aciContext.setAttributeType( attributeType );
-            aciContext.setMicroOperations( SEARCH_ATTRVAL_PERMS );
-            aciContext.setAciTuples( tuples );
-            aciContext.setEntry( clonedEntry );
-
-            if ( !engine.hasPermission( aciContext ) )
+            if ( !decisions.hasPermission( SEARCH_ATTRVAL_PERMS, attributeType, null, clonedEntry ) )
             {
                 attributeToRemove.add( attributeType );
 
@@ -1410,18 +1402,24 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
             // attribute type scope is ok now let's determine value level scope
             for ( Value value : attr )
             {
-                aciContext = new AciContext( schemaManager, opContext );
-                aciContext.setUserGroupNames( userGroups );
-                aciContext.setUserDn( userDn );
-                aciContext.setAuthenticationLevel( principal.getAuthenticationLevel() );
-                aciContext.setEntryDn( normName );
-                aciContext.setAttributeType( attr.getAttributeType() );
-                aciContext.setAttrValue( value );
-                aciContext.setMicroOperations( SEARCH_ATTRVAL_PERMS );
-                aciContext.setAciTuples( tuples );
-                aciContext.setEntry( clonedEntry );
+                boolean granted = decisions.hasPermission( SEARCH_ATTRVAL_PERMS, attr.getAttributeType(), value,
+                    clonedEntry );
 
-                if ( !engine.hasPermission( aciContext ) )
+                if ( decisions.isCacheable() )
+                {
+                    // The decision is the same for all the values
+                    if ( !granted )
+                    {
+                        for ( Value attrValue : attr )
+                        {
+                            valueToRemove.add( attrValue );
+                        }
+                    }
+
+                    break;
+                }
+
+                if ( !granted )
                 {
                     valueToRemove.add( value );
                 }
@@ -1446,6 +1444,216 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
         return true;
     }
 
+
+    /**
+     * The access control decisions taken when filtering an entry returned by a search. They
+     * are read from the decision cache when possible, otherwise the user groups and the
+     * ACI tuples are gathered once, and the decisions computed by the ACDF engine.
+     */
+    private final class EntryDecisions
+    {
+        private final OperationContext opContext;
+        private final LdapPrincipal principal;
+        private final Dn normName;
+        private final Entry originalEntry;
+
+        /** The decision cache, if enabled */
+        private final AciDecisionCache cache;
+
+        /** The decision keys context, null if the decisions can't be cached */
+        private String context;
+
+        /** The user groups, computed on the first decision not found in the cache */
+        private Set<String> userGroups;
+
+        /** The tuples, computed on the first decision not found in the cache */
+        private Collection<ACITuple> tuples;
+
+        /** The whole entry, read if the tuples check attributes which may not have been fetched */
+        private Entry wholeEntry;
+
+
+        private EntryDecisions( OperationContext opContext, Dn normName, Entry originalEntry ) throws LdapException
+        {
+            this.opContext = opContext;
+            this.normName = normName;
+            this.originalEntry = originalEntry;
+            principal = opContext.getSession().getEffectivePrincipal();
+            cache = decisionCache;
+
+            // The ACIs protecting a subentry are read from its administrative point
+            if ( ( cache != null )
+                && !originalEntry.contains( directoryService.getAtProvider().getObjectClass(), SchemaConstants.SUBENTRY_OC ) )
+            {
+                // Read the versions before the groups and the tuples
+                long tupleVersion = tupleCache.getVersion();
+                long groupVersion = groupCache.getVersion();
+
+                context = cache.createContext( principal.getDn(), principal.getAuthenticationLevel(),
+                    tupleVersion, groupVersion, originalEntry.get( directoryService.getAtProvider()
+                        .getAccessControlSubentries() ), originalEntry.get( directoryService.getAtProvider()
+                        .getEntryACI() ) );
+            }
+        }
+
+
+        /**
+         * @return <code>true</code> if the decisions are cached, in which case the decisions on the
+         * values of an attribute don't depend on the values
+         */
+        private boolean isCacheable()
+        {
+            return context != null;
+        }
+
+
+        private boolean hasPermission( Collection<MicroOperation> microOperations, AttributeType attributeType,
+            Value value, Entry entry ) throws LdapException
+        {
+            AciDecisionCache.Key key = null;
+
+            if ( context != null )
+            {
+                if ( attributeType == null )
+                {
+                    key = AciDecisionCache.entryKey( context, microOperations );
+                }
+                else
+                {
+                    key = AciDecisionCache.attributeKey( context, microOperations, attributeType, value != null );
+                }
+
+                Boolean granted = cache.get( key );
+
+                if ( granted != null )
+                {
+                    return granted;
+                }
+            }
+
+            if ( tuples == null )
+            {
+                Dn userDn = principal.getDn();
+                userGroups = groupCache.getGroups( userDn.getNormName() );
+                tuples = new HashSet<>();
+                addPerscriptiveAciTuples( opContext, tuples, normName, originalEntry );
+                addEntryAciTuples( tuples, originalEntry );
+                addSubentryAciTuples( opContext, tuples, normName, originalEntry );
+
+                if ( ( context != null ) && !AciDecisionCache.isCacheable( tuples ) )
+                {
+                    context = null;
+                }
+
+                if ( isPartial() && checksOtherAttributes( tuples ) )
+                {
+                    LookupOperationContext lookupContext = new LookupOperationContext( opContext.getSession(),
+                        normName, SchemaConstants.ALL_ATTRIBUTES_ARRAY );
+                    lookupContext.setPartition( opContext.getPartition() );
+                    lookupContext.setTransaction( opContext.getTransaction() );
+
+                    wholeEntry = directoryService.getPartitionNexus().lookup( lookupContext );
+                }
+            }
+
+            AciContext aciContext = new AciContext( schemaManager, opContext );
+            aciContext.setUserGroupNames( userGroups );
+            aciContext.setUserDn( principal.getDn() );
+            aciContext.setAuthenticationLevel( principal.getAuthenticationLevel() );
+            aciContext.setEntryDn( normName );
+            aciContext.setAttributeType( attributeType );
+            aciContext.setAttrValue( value );
+            aciContext.setMicroOperations( microOperations );
+            aciContext.setAciTuples( tuples );
+            aciContext.setEntry( wholeEntry != null ? wholeEntry : entry );
+
+            boolean granted = engine.hasPermission( aciContext );
+
+            if ( context != null )
+            {
+                cache.put( key, granted );
+            }
+
+            return granted;
+        }
+
+
+        /**
+         * @return <code>true</code> if the partition may have skipped the attributes which
+         * have not been requested by the search
+         */
+        private boolean isPartial()
+        {
+            if ( !( opContext instanceof SearchOperationContext ) )
+            {
+                return false;
+            }
+
+            SearchOperationContext searchContext = ( SearchOperationContext ) opContext;
+
+            return !searchContext.isAllUserAttributes() && !searchContext.isAllOperationalAttributes();
+        }
+
+
+        /**
+         * @return <code>true</code> if some tuples check the values of attributes other than
+         * the one they protect
+         */
+        private boolean checksOtherAttributes( Collection<ACITuple> tuples )
+        {
+            for ( ACITuple tuple : tuples )
+            {
+                for ( ProtectedItem item : tuple.getProtectedItems() )
+                {
+                    if ( ( item instanceof RestrictedByItem ) || ( item instanceof RangeOfValuesItem ) )
+                    {
+                        return true;
+                    }
+                }
+            }
+
+            return false;
+        }
+    }
+
+
+    /**
+     * @return The maximum number of access control decisions cached to filter the entries
+     * returned by the searches, 0 if they are not cached
+     */
+    public int getAciDecisionCacheSize()
+    {
+        return aciDecisionCacheSize;
+    }
+
+
+    /**
+     * Sets the maximum number of access control decisions cached to filter the entries
+     * returned by the searches. Only the decisions which don't depend on the entry name,
+     * content or on the values are cached.
+     *
+     * @param aciDecisionCacheSize The maximum number of cached decisions, 0 to disable the cache
+     */
+    public void setAciDecisionCacheSize( int aciDecisionCacheSize )
+    {
+        this.aciDecisionCacheSize = aciDecisionCacheSize;
+
+        if ( engine == null )
+        {
+            // Not initialized yet
+            return;
+        }
+
+        if ( aciDecisionCacheSize > 0 )
+        {
+            decisionCache = new AciDecisionCache( aciDecisionCacheSize );
+        }
+        else
+        {
+            decisionCache = null;
+        }
+    }
+
     /**
      * WARNING: create one of these filters fresh every time for each new search.
      */
@@ -0,0 +1,331 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.authz;
+
+
+import java.util.Collection;
+import java.util.Objects;
+
+import org.apache.directory.api.ldap.aci.ACITuple;
+import org.apache.directory.api.ldap.aci.MicroOperation;
+import org.apache.directory.api.ldap.aci.ProtectedItem;
+import org.apache.directory.api.ldap.aci.UserClass;
+import org.apache.directory.api.ldap.aci.protectedItem.AllAttributeValuesItem;
+import org.apache.directory.api.ldap.aci.protectedItem.AttributeTypeItem;
+import org.apache.directory.api.ldap.model.constants.AuthenticationLevel;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.subtree.SubtreeSpecification;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+
+/**
+ * A bounded cache of the access control decisions taken when filtering the entries
+ * returned by a search. A search returning many entries protected by the same
+ * subentries asks the same questions again and again : can this user browse the entry,
+ * read this attribute, read its values...
+ * <p>
+ * A decision is only cached when it depends on nothing else than :
+ * <ul>
+ *   <li>the user Dn, its groups and its authentication level</li>
+ *   <li>the ACI tuples, which are known from the entry's accessControlSubentries and entryACI values</li>
+ *   <li>the requested micro-operations, the scope and the attributeType</li>
+ * </ul>
+ * This is the case when none of the tuples use a user class or a protected item which
+ * depends on the entry Dn, on its content or on the attribute values (see {@link #isCacheable(Collection)}).
+ * <p>
+ * The groups and the prescriptive tuples are not in the key : their {@link GroupCache} and
+ * {@link TupleCache} versions are. Any change in those caches makes the cached decisions
+ * unreachable, and they are dropped.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class AciDecisionCache
+{
+    /** The cached decisions */
+    private final Cache<Key, Boolean> decisions;
+
+    /** The TupleCache version of the cached decisions */
+    private volatile long tupleVersion = -1L;
+
+    /** The GroupCache version of the cached decisions */
+    private volatile long groupVersion = -1L;
+
+
+    /**
+     * A key in the decision cache
+     */
+    static final class Key
+    {
+        /** The user, the versions and the ACIs protecting the entry */
+        private final String context;
+
+        /** The requested micro-operations */
+        private final Collection<MicroOperation> microOperations;
+
+        /** The attributeType OID, null for an entry level decision */
+        private final String oid;
+
+        /** true for a decision on the attribute values */
+        private final boolean values;
+
+        private final int hashCode;
+
+
+        Key( String context, Collection<MicroOperation> microOperations, String oid, boolean values )
+        {
+            this.context = context;
+            this.microOperations = microOperations;
+            this.oid = oid;
+            this.values = values;
+            hashCode = Objects.hash( context, System.identityHashCode( microOperations ), oid, values );
+        }
+
+
+        @Override
+        public int hashCode()
+        {
+            return hashCode;
+        }
+
+
+        @Override
+        public boolean equals( Object o )
+        {
+            if ( this == o )
+            {
+                return true;
+            }
+
+            if ( !( o instanceof Key ) )
+            {
+                return false;
+            }
+
+            Key that = ( Key ) o;
+
+            // The micro-operations are constants
+            return ( hashCode == that.hashCode ) && ( microOperations == that.microOperations )
+                && ( values == that.values ) && context.equals( that.context ) && Objects.equals( oid, that.oid );
+        }
+    }
+
+
+    /**
+     * Creates a new instance of AciDecisionCache.
+     *
+     * @param maxSize The maximum number of cached decisions
+     */
+    AciDecisionCache( int maxSize )
+    {
+        decisions = Caffeine.newBuilder().maximumSize( maxSize ).build();
+    }
+
+
+    /**
+     * Creates the context of the decisions on an entry. The versions must have been read
+     * <b>before</b> the groups and the tuples used to compute the decisions : a decision
+     * computed with an old state must not be stored with a newer version.
+     *
+     * @param userDn The user Dn
+     * @param authenticationLevel The user's authentication level
+     * @param tupleVersion The version of the {@link TupleCache}
+     * @param groupVersion The version of the {@link GroupCache}
+     * @param subentries The entry's accessControlSubentries attribute, if any
+     * @param entryAci The entry's entryACI attribute, if any
+     * @return The context to use in the decisions keys
+     */
+    String createContext( Dn userDn, AuthenticationLevel authenticationLevel, long tupleVersion, long groupVersion,
+        Attribute subentries, Attribute entryAci )
+    {
+        if ( ( tupleVersion != this.tupleVersion ) || ( groupVersion != this.groupVersion ) )
+        {
+            resetVersions( tupleVersion, groupVersion );
+        }
+
+        StringBuilder sb = new StringBuilder();
+
+        sb.append( tupleVersion ).append( '/' ).append( groupVersion ).append( '/' );
+        sb.append( authenticationLevel.getLevel() ).append( '/' ).append( userDn.getNormName() );
+
+        // The values are separated by a character which can't appear in a Dn or an ACIItem
+        if ( subentries != null )
+        {
+            for ( Value value : subentries )
+            {
+                sb.append( '\u0000' ).append( value.getString() );
+            }
+        }
+
+        sb.append( '\u0001' );
+
+        if ( entryAci != null )
+        {
+            for ( Value value : entryAci )
+            {
+                sb.append( '\u0000' ).append( value.getString() );
+            }
+        }
+
+        return sb.toString();
+    }
+
+
+    /**
+     * Drops the decisions when a newer version of the tuples or the groups is used
+     */
+    private synchronized void resetVersions( long tupleVersion, long groupVersion )
+    {
+        if ( ( tupleVersion > this.tupleVersion ) || ( groupVersion > this.groupVersion ) )
+        {
+            this.tupleVersion = Math.max( tupleVersion, this.tupleVersion );
+            this.groupVersion = Math.max( groupVersion, this.groupVersion );
+            decisions.invalidateAll();
+        }
+    }
+
+
+    /**
+     * Gets a cached decision
+     *
+     * @param key The decision key
+     * @return The decision, or null if it's not cached
+     */
+    Boolean get( Key key )
+    {
+        return decisions.getIfPresent( key );
+    }
+
+
+    /**
+     * Stores a decision
+     *
+     * @param key The decision key
+     * @param granted The decision
+     */
+    void put( Key key, boolean granted )
+    {
+        decisions.put( key, granted );
+    }
+
+
+    /**
+     * Tells if the decisions made with a set of tuples can be cached : the tuples' user
+     * classes must only depend on the user Dn and groups, and their protected items must not
+     * depend on the entry Dn, on its content or on the attribute values. The decisions on
+     * the attribute values are then the same for all the values of an attribute.
+     *
+     * @param tuples The tuples
+     * @return <code>true</code> if the decisions can be cached
+     */
+    static boolean isCacheable( Collection<ACITuple> tuples )
+    {
+        for ( ACITuple tuple : tuples )
+        {
+            for ( UserClass userClass : tuple.getUserClasses() )
+            {
+                if ( !isCacheable( userClass ) )
+                {
+                    return false;
+                }
+            }
+
+            for ( ProtectedItem item : tuple.getProtectedItems() )
+            {
+                if ( !isCacheable( item ) )
+                {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+
+    private static boolean isCacheable( UserClass userClass )
+    {
+        if ( ( userClass == UserClass.ALL_USERS ) || ( userClass instanceof UserClass.Name )
+            || ( userClass instanceof UserClass.UserGroup ) )
+        {
+            return true;
+        }
+
+        if ( userClass instanceof UserClass.Subtree )
+        {
+            // A refinement is evaluated on the user entry, which may change
+            for ( SubtreeSpecification subtreeSpecification : ( ( UserClass.Subtree ) userClass )
+                .getSubtreeSpecifications() )
+            {
+                if ( subtreeSpecification.getRefinement() != null )
+                {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        // thisEntry and parentOfEntry depend on the entry Dn
+        return false;
+    }
+
+
+    private static boolean isCacheable( ProtectedItem item )
+    {
+        // The other items depend on the entry content or on the values
+        return ( item == ProtectedItem.ENTRY ) || ( item == ProtectedItem.ALL_USER_ATTRIBUTE_TYPES )
+            || ( item == ProtectedItem.ALL_USER_ATTRIBUTE_TYPES_AND_VALUES ) || ( item instanceof AllAttributeValuesItem )
+            || ( item instanceof AttributeTypeItem );
+    }
+
+
+    /**
+     * Creates the key of an entry level decision
+     *
+     * @param context The decisions context
+     * @param microOperations The requested micro-operations
+     * @return The key
+     */
+    static Key entryKey( String context, Collection<MicroOperation> microOperations )
+    {
+        return new Key( context, microOperations, null, false );
+    }
+
+
+    /**
+     * Creates the key of an attributeType or attribute values level decision
+     *
+     * @param context The decisions context
+     * @param microOperations The requested micro-operations
+     * @param attributeType The attributeType
+     * @param values true for a decision on the attribute values
+     * @return The key
+     */
+    static Key attributeKey( String context, Collection<MicroOperation> microOperations, AttributeType attributeType,
+        boolean values )
+    {
+        return new Key( context, microOperations, attributeType.getOid(), values );
+    }
+}
@@ -25,6 +25,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.naming.directory.SearchControls;
 
@@ -95,6 +96,9 @@ public class GroupCache
     /** String key for the Dn of a group to a Set (HashSet) for the Strings of member DNs */
     private final Map<String, Set<String>> groups = new ConcurrentHashMap<>();
 
+    /** The version of the groups, incremented each time they change */
+    private final AtomicLong version = new AtomicLong();
+
 
     /**
      * Creates a static group cache.
@@ -310,6 +314,7 @@ public class GroupCache
         addMembers( memberSet, members );
 
         groups.put( name, memberSet );
+        version.incrementAndGet();
 
         if ( IS_DEBUG )
         {
@@ -336,6 +341,7 @@ public class GroupCache
         }
 
         groups.remove( name.getNormName() );
+        version.incrementAndGet();
 
         if ( IS_DEBUG )
         {
@@ -425,6 +431,7 @@ public class GroupCache
                 if ( memberSet != null )
                 {
                     modify( memberSet, modification.getOperation(), modification.getAttribute() );
+                    version.incrementAndGet();
                 }
 
                 break;
@@ -461,6 +468,7 @@ public class GroupCache
         if ( memberSet != null )
         {
             modify( memberSet, modOp, members );
+            version.incrementAndGet();
         }
 
         if ( IS_DEBUG )
@@ -549,6 +557,7 @@ public class GroupCache
             groups.remove( oldName.getNormName() );
 
             groups.put( newName.getNormName(), members );
+            version.incrementAndGet();
 
             if ( IS_DEBUG )
             {
@@ -560,4 +569,15 @@ public class GroupCache
 
         return false;
     }
+
+
+    /**
+     * Gets the version of the cached groups. It is incremented <b>after</b> each change.
+     *
+     * @return The version of the groups
+     */
+    public long getVersion()
+    {
+        return version.get();
+    }
 }
@@ -27,6 +27,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.naming.directory.SearchControls;
 
@@ -77,6 +78,9 @@ public class TupleCache
     /** a map of strings to ACITuple collections */
     private final Map<String, List<ACITuple>> tuples = new HashMap<>();
 
+    /** The version of the tuples, incremented each time they change */
+    private final AtomicLong version = new AtomicLong();
+
     /** the directory service */
     private final DirectoryService directoryService;
 
@@ -235,6 +239,7 @@ public class TupleCache
         }
 
         tuples.put( dn.getNormName(), entryTuples );
+        version.incrementAndGet();
     }
 
 
@@ -246,6 +251,7 @@ public class TupleCache
         }
 
         tuples.remove( dn.getNormName() );
+        version.incrementAndGet();
     }
 
 
@@ -298,5 +304,19 @@ public class TupleCache
     public void subentryRenamed( Dn oldName, Dn newName )
     {
         tuples.put( newName.getNormName(), tuples.remove( oldName.getNormName() ) );
+        version.incrementAndGet();
+    }
+
+
+    /**
+     * Gets the version of the cached tuples. It is incremented <b>after</b> each change,
+     * so a decision computed from tuples read after having read the version can't be
+     * associated with a version newer than the tuples it used.
+     *
+     * @return The version of the tuples
+     */
+    public long getVersion()
+    {
+        return version.get();
     }
 }
@@ -0,0 +1,140 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.authz;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.aci.ACITuple;
+import org.apache.directory.api.ldap.aci.MicroOperation;
+import org.apache.directory.api.ldap.aci.ProtectedItem;
+import org.apache.directory.api.ldap.aci.UserClass;
+import org.apache.directory.api.ldap.aci.protectedItem.AttributeTypeItem;
+import org.apache.directory.api.ldap.aci.protectedItem.ClassesItem;
+import org.apache.directory.api.ldap.model.constants.AuthenticationLevel;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
+import org.apache.directory.api.ldap.model.filter.PresenceNode;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.subtree.BaseSubtreeSpecification;
+import org.apache.directory.api.ldap.model.subtree.SubtreeSpecification;
+import org.junit.jupiter.api.Test;
+
+
+/**
+ * Tests {@link AciDecisionCache}.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class AciDecisionCacheTest
+{
+    private static final Collection<MicroOperation> READ = Collections.singleton( MicroOperation.READ );
+
+
+    @Test
+    public void testCacheableTuples()
+    {
+        assertTrue( AciDecisionCache.isCacheable( Collections.<ACITuple> emptyList() ) );
+        assertTrue( AciDecisionCache.isCacheable( getTuples( UserClass.ALL_USERS, ProtectedItem.ENTRY ) ) );
+        assertTrue( AciDecisionCache.isCacheable( getTuples( new UserClass.Name( Collections.singleton( "cn=test" ) ),
+            ProtectedItem.ALL_USER_ATTRIBUTE_TYPES_AND_VALUES ) ) );
+        assertTrue( AciDecisionCache.isCacheable( getTuples( UserClass.ALL_USERS,
+            new AttributeTypeItem( Collections.emptySet() ) ) ) );
+
+        Set<SubtreeSpecification> subtrees = new HashSet<>();
+        subtrees.add( new BaseSubtreeSpecification( Dn.EMPTY_DN ) );
+        assertTrue( AciDecisionCache.isCacheable( getTuples( new UserClass.Subtree( subtrees ),
+            ProtectedItem.ENTRY ) ) );
+    }
+
+
+    @Test
+    public void testNotCacheableTuples()
+    {
+        // Depend on the entry Dn
+        assertFalse( AciDecisionCache.isCacheable( getTuples( UserClass.THIS_ENTRY, ProtectedItem.ENTRY ) ) );
+        assertFalse( AciDecisionCache.isCacheable( getTuples( UserClass.PARENT_OF_ENTRY, ProtectedItem.ENTRY ) ) );
+
+        // Depends on the user entry
+        Set<SubtreeSpecification> subtrees = new HashSet<>();
+        subtrees.add( new BaseSubtreeSpecification( new PresenceNode( "cn" ) ) );
+        assertFalse( AciDecisionCache.isCacheable( getTuples( new UserClass.Subtree( subtrees ),
+            ProtectedItem.ENTRY ) ) );
+
+        // Depends on the entry content
+        assertFalse( AciDecisionCache.isCacheable( getTuples( UserClass.ALL_USERS,
+            new ClassesItem( new PresenceNode( "cn" ) ) ) ) );
+    }
+
+
+    @Test
+    public void testKeys()
+    {
+        AciDecisionCache cache = new AciDecisionCache( 10 );
+        Attribute subentries = new DefaultAttribute( "accessControlSubentries", "cn=acl,ou=system" );
+        String context = cache.createContext( Dn.EMPTY_DN, AuthenticationLevel.SIMPLE, 0L, 0L, subentries, null );
+
+        assertEquals( context, cache.createContext( Dn.EMPTY_DN, AuthenticationLevel.SIMPLE, 0L, 0L, subentries,
+            null ) );
+        assertNotEquals( context, cache.createContext( Dn.EMPTY_DN, AuthenticationLevel.NONE, 0L, 0L, subentries,
+            null ) );
+        assertNotEquals( context, cache.createContext( Dn.EMPTY_DN, AuthenticationLevel.SIMPLE, 0L, 0L, null,
+            subentries ) );
+
+        cache.put( AciDecisionCache.entryKey( context, READ ), true );
+
+        assertTrue( cache.get( AciDecisionCache.entryKey( context, READ ) ) );
+        assertNull( cache.get( AciDecisionCache.entryKey( context, Collections.singleton( MicroOperation.READ ) ) ) );
+    }
+
+
+    @Test
+    public void testVersionChangeDropsDecisions()
+    {
+        AciDecisionCache cache = new AciDecisionCache( 10 );
+        String context = cache.createContext( Dn.EMPTY_DN, AuthenticationLevel.NONE, 0L, 0L, null, null );
+        cache.put( AciDecisionCache.entryKey( context, READ ), false );
+
+        assertFalse( cache.get( AciDecisionCache.entryKey( context, READ ) ) );
+
+        // A group has changed
+        String newContext = cache.createContext( Dn.EMPTY_DN, AuthenticationLevel.NONE, 0L, 1L, null, null );
+
+        assertNotEquals( context, newContext );
+        assertNull( cache.get( AciDecisionCache.entryKey( context, READ ) ) );
+        assertNull( cache.get( AciDecisionCache.entryKey( newContext, READ ) ) );
+    }
+
+
+    private static Collection<ACITuple> getTuples( UserClass userClass, ProtectedItem protectedItem )
+    {
+        return Collections.singletonList( new ACITuple( Collections.singletonList( userClass ),
+            AuthenticationLevel.NONE, Collections.singletonList( protectedItem ), READ, true, 0 ) );
+    }
+}
@@ -48,6 +48,9 @@ class DefaultEventService implements EventService
     /** The list of RegistrationEntries being registered */
     private List<RegistrationEntry> registrations = new CopyOnWriteArrayList<>();
 
+    /** The index of the registrations, rebuilt when needed after a listener has been added or removed */
+    private volatile RegistrationIndex index = RegistrationIndex.EMPTY;
+
     /** The DirectoryService instance */
     private DirectoryService directoryService;
 
@@ -82,7 +85,12 @@ class DefaultEventService implements EventService
 
         ExprNode result = ( ExprNode ) criteria.getFilter().accept( filterNormalizer );
         criteria.setFilter( result );
-        registrations.add( new RegistrationEntry( listener, criteria ) );
+
+        synchronized ( this )
+        {
+            registrations.add( new RegistrationEntry( listener, criteria ) );
+            index = null;
+        }
     }
 
 
@@ -90,15 +98,23 @@ class DefaultEventService implements EventService
      * {@inheritDoc}
      */
     @Override
-    public void removeListener( DirectoryListener listener )
+    public synchronized void removeListener( DirectoryListener listener )
     {
+        boolean removed = false;
+
         for ( RegistrationEntry entry : registrations )
         {
             if ( entry.getListener() == listener )
             {
                 registrations.remove( entry );
+                removed = true;
             }
         }
+
+        if ( removed )
+        {
+            index = null;
+        }
     }
 
 
@@ -110,4 +126,28 @@ class DefaultEventService implements EventService
     {
         return Collections.unmodifiableList( registrations );
     }
+
+
+    /**
+     * @return The index of the registrations
+     */
+    RegistrationIndex getRegistrationIndex()
+    {
+        RegistrationIndex current = index;
+
+        if ( current != null )
+        {
+            return current;
+        }
+
+        synchronized ( this )
+        {
+            if ( index == null )
+            {
+                index = new RegistrationIndex( directoryService.getSchemaManager(), registrations );
+            }
+
+            return index;
+        }
+    }
 }
@@ -0,0 +1,435 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.event;
+
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.server.core.api.event.DirectoryListener;
+import org.apache.directory.server.core.api.event.EventService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Delivers the notifications to the asynchronous listeners. Each listener has its own
+ * bounded queue, so the notifications are delivered in order, and a slow listener does
+ * not delay the other ones. When a queue is full, the {@link EventOverflowPolicy} is applied.
+ * <p>
+ * The queues are processed by a pool of threads, a queue being processed by only one thread
+ * at a time. A queue exists only while it contains some notifications.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class EventDispatcher
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( EventDispatcher.class );
+
+    /** The number of notifications delivered to a listener before giving a chance to the other ones */
+    private static final int BATCH_SIZE = 64;
+
+    /** The EventService the slow listeners are removed from */
+    private final EventService eventService;
+
+    /** The threads delivering the notifications */
+    private final ThreadPoolExecutor executor;
+
+    /** The maximum number of pending notifications per listener */
+    private final int maxQueueSize;
+
+    /** What to do when a queue is full */
+    private final EventOverflowPolicy overflowPolicy;
+
+    /** The queues containing some notifications */
+    private final Map<DirectoryListener, ListenerQueue> queues = new ConcurrentHashMap<>();
+
+    /** The listeners which have been disconnected */
+    private final Map<DirectoryListener, Boolean> disconnectedListeners = Collections
+        .synchronizedMap( new WeakHashMap<DirectoryListener, Boolean>() );
+
+    /** The number of pending notifications, for all the listeners */
+    private final AtomicInteger queueDepth = new AtomicInteger();
+
+    /** The maximum number of pending notifications seen for a listener */
+    private final AtomicInteger peakQueueDepth = new AtomicInteger();
+
+    /** The number of delivered notifications */
+    private final AtomicLong dispatchedEvents = new AtomicLong();
+
+    /** The number of dropped notifications */
+    private final AtomicLong droppedEvents = new AtomicLong();
+
+    /** The number of listeners disconnected because they were too slow */
+    private final AtomicLong disconnections = new AtomicLong();
+
+    /** The cumulated time the delivered notifications have been waiting in the queues, in nanoseconds */
+    private final AtomicLong dispatchLatency = new AtomicLong();
+
+    /** The maximum time a notification has been waiting in a queue, in nanoseconds */
+    private final AtomicLong maxDispatchLatency = new AtomicLong();
+
+
+    /**
+     * A pending notification
+     */
+    private static class Notification
+    {
+        /** The call to the listener */
+        private final Runnable call;
+
+        /** The number of notifications dropped just before this one */
+        private final int droppedBefore;
+
+        /** The time this notification has been queued */
+        private final long queued = System.nanoTime();
+
+
+        Notification( Runnable call, int droppedBefore )
+        {
+            this.call = call;
+            this.droppedBefore = droppedBefore;
+        }
+    }
+
+
+    /**
+     * Creates a new instance of EventDispatcher.
+     *
+     * @param eventService The EventService the slow listeners are removed from
+     * @param nbThreads The number of threads delivering the notifications
+     * @param maxQueueSize The maximum number of pending notifications per listener
+     * @param overflowPolicy What to do when a queue is full
+     */
+    EventDispatcher( EventService eventService, int nbThreads, int maxQueueSize, EventOverflowPolicy overflowPolicy )
+    {
+        this.eventService = eventService;
+        this.maxQueueSize = maxQueueSize;
+        this.overflowPolicy = overflowPolicy;
+
+        ThreadFactory threadFactory = new ThreadFactory()
+        {
+            @Override
+            public Thread newThread( Runnable runnable )
+            {
+                Thread newThread = Executors.defaultThreadFactory().newThread( runnable );
+                newThread.setDaemon( true );
+
+                return newThread;
+            }
+        };
+
+        executor = new ThreadPoolExecutor( nbThreads, nbThreads, 1000, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<Runnable>(), threadFactory );
+        executor.allowCoreThreadTimeOut( true );
+    }
+
+
+    /**
+     * Queues a notification for an asynchronous listener
+     *
+     * @param listener The listener
+     * @param call The call to the listener
+     */
+    void dispatch( DirectoryListener listener, Runnable call )
+    {
+        while ( true )
+        {
+            ListenerQueue queue = queues.get( listener );
+
+            if ( queue == null )
+            {
+                if ( disconnectedListeners.containsKey( listener ) )
+                {
+                    // The listener has been disconnected, but was still registered when the
+                    // operation started
+                    droppedEvents.incrementAndGet();
+
+                    return;
+                }
+
+                queue = queues.computeIfAbsent( listener, ListenerQueue::new );
+            }
+
+            if ( queue.offer( call ) )
+            {
+                return;
+            }
+
+            // The queue has been emptied and removed in the meantime, use a new one
+        }
+    }
+
+
+    /**
+     * Stops the threads delivering the notifications
+     */
+    void shutdown()
+    {
+        executor.shutdown();
+    }
+
+
+    /**
+     * @return The number of pending notifications, for all the listeners
+     */
+    int getQueueDepth()
+    {
+        return queueDepth.get();
+    }
+
+
+    /**
+     * @return The maximum number of pending notifications seen for a listener
+     */
+    int getPeakQueueDepth()
+    {
+        return peakQueueDepth.get();
+    }
+
+
+    /**
+     * @return The number of delivered notifications
+     */
+    long getDispatchedEvents()
+    {
+        return dispatchedEvents.get();
+    }
+
+
+    /**
+     * @return The number of dropped notifications
+     */
+    long getDroppedEvents()
+    {
+        return droppedEvents.get();
+    }
+
+
+    /**
+     * @return The number of listeners disconnected because they were too slow
+     */
+    long getDisconnections()
+    {
+        return disconnections.get();
+    }
+
+
+    /**
+     * @return The average time the delivered notifications have been waiting in the queues, in microseconds
+     */
+    long getAverageDispatchLatency()
+    {
+        long dispatched = dispatchedEvents.get();
+
+        return dispatched == 0L ? 0L : dispatchLatency.get() / dispatched / 1000L;
+    }
+
+
+    /**
+     * @return The maximum time a notification has been waiting in a queue, in microseconds
+     */
+    long getMaxDispatchLatency()
+    {
+        return maxDispatchLatency.get() / 1000L;
+    }
+
+
+    /**
+     * The pending notifications of a listener. The queue is processed by one thread at a time,
+     * and is removed when it's empty.
+     */
+    private class ListenerQueue implements Runnable
+    {
+        private final DirectoryListener listener;
+        private final ArrayDeque<Notification> notifications = new ArrayDeque<>();
+
+        /** Tells if a thread is processing this queue, or will */
+        private boolean scheduled;
+
+        /** Set when this queue is empty and has been removed */
+        private boolean closed;
+
+        /** Set when the listener is disconnected */
+        private boolean disconnected;
+
+        /** The number of notifications dropped since the last queued one */
+        private int dropped;
+
+
+        ListenerQueue( DirectoryListener listener )
+        {
+            this.listener = listener;
+        }
+
+
+        /**
+         * Queues a notification, or applies the overflow policy if the queue is full.
+         *
+         * @return false if the queue has been closed
+         */
+        synchronized boolean offer( Runnable call )
+        {
+            if ( closed )
+            {
+                return false;
+            }
+
+            if ( disconnected )
+            {
+                droppedEvents.incrementAndGet();
+
+                return true;
+            }
+
+            if ( notifications.size() >= maxQueueSize )
+            {
+                overflow();
+            }
+            else
+            {
+                notifications.add( new Notification( call, dropped ) );
+                dropped = 0;
+                queueDepth.incrementAndGet();
+                peakQueueDepth.accumulateAndGet( notifications.size(), Math::max );
+            }
+
+            if ( !scheduled )
+            {
+                scheduled = true;
+                executor.execute( this );
+            }
+
+            return true;
+        }
+
+
+        /**
+         * Applies the overflow policy, when the queue is full
+         */
+        private void overflow()
+        {
+            droppedEvents.incrementAndGet();
+
+            if ( overflowPolicy == EventOverflowPolicy.DROP )
+            {
+                if ( dropped == 0 )
+                {
+                    LOG.warn( "The listener {} is too slow, its notifications are dropped", listener );
+                }
+
+                dropped++;
+
+                return;
+            }
+
+            // Drop all the pending notifications, the listener will be removed
+            LOG.warn( "The listener {} is too slow, it's disconnected", listener );
+            droppedEvents.addAndGet( notifications.size() );
+            queueDepth.addAndGet( -notifications.size() );
+            dropped += notifications.size() + 1;
+            notifications.clear();
+            disconnected = true;
+            disconnections.incrementAndGet();
+            disconnectedListeners.put( listener, Boolean.TRUE );
+        }
+
+
+        /**
+         * Delivers the pending notifications
+         */
+        @Override
+        public void run()
+        {
+            for ( int i = 0; i < BATCH_SIZE; i++ )
+            {
+                Notification notification;
+                int nbDropped;
+                boolean disconnect;
+
+                synchronized ( this )
+                {
+                    notification = notifications.poll();
+
+                    if ( notification != null )
+                    {
+                        queueDepth.decrementAndGet();
+                        nbDropped = notification.droppedBefore;
+                    }
+                    else if ( dropped > 0 )
+                    {
+                        nbDropped = dropped;
+                        dropped = 0;
+                    }
+                    else
+                    {
+                        closed = true;
+                        queues.remove( listener, this );
+
+                        return;
+                    }
+
+                    disconnect = disconnected;
+                }
+
+                try
+                {
+                    if ( disconnect )
+                    {
+                        eventService.removeListener( listener );
+                    }
+
+                    if ( nbDropped > 0 )
+                    {
+                        listener.eventsDropped( nbDropped, disconnect );
+                    }
+
+                    if ( notification != null )
+                    {
+                        long latency = System.nanoTime() - notification.queued;
+                        dispatchLatency.addAndGet( latency );
+                        maxDispatchLatency.accumulateAndGet( latency, Math::max );
+                        dispatchedEvents.incrementAndGet();
+
+                        notification.call.run();
+                    }
+                }
+                catch ( RuntimeException re )
+                {
+                    LOG.error( "Error while notifying the listener {}", listener, re );
+                }
+            }
+
+            // Let the other listeners be notified
+            executor.execute( this );
+        }
+    }
+}
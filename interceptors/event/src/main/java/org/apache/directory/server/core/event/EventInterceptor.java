@@ -27,12 +27,6 @@ import static org.apache.directory.api.ldap.model.message.SearchScope.SUBTREE;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.Entry;
@@ -45,6 +39,7 @@ import org.apache.directory.server.core.api.InterceptorEnum;
 import org.apache.directory.server.core.api.entry.ClonedServerEntry;
 import org.apache.directory.server.core.api.event.DirectoryListener;
 import org.apache.directory.server.core.api.event.Evaluator;
+import org.apache.directory.server.core.api.event.EventService;
 import org.apache.directory.server.core.api.event.EventType;
 import org.apache.directory.server.core.api.event.ExpressionEvaluator;
 import org.apache.directory.server.core.api.event.NotificationCriteria;
@@ -72,8 +67,25 @@ public class EventInterceptor extends BaseInterceptor
     /** A logger for this class */
     private static final Logger LOG = LoggerFactory.getLogger( EventInterceptor.class );
 
+    /** The default number of threads delivering the notifications to the asynchronous listeners */
+    public static final int DEFAULT_NB_THREADS = 10;
+
+    /** The default maximum number of pending notifications per asynchronous listener */
+    public static final int DEFAULT_MAX_QUEUE_SIZE = 1000;
+
     private Evaluator evaluator;
-    private ExecutorService executor;
+
+    /** Delivers the notifications to the asynchronous listeners */
+    private EventDispatcher dispatcher;
+
+    /** The number of threads delivering the notifications */
+    private int nbThreads = DEFAULT_NB_THREADS;
+
+    /** The maximum number of pending notifications per asynchronous listener */
+    private int maxQueueSize = DEFAULT_MAX_QUEUE_SIZE;
+
+    /** What to do when an asynchronous listener is too slow */
+    private EventOverflowPolicy overflowPolicy = EventOverflowPolicy.DROP;
 
 
     /**
@@ -86,8 +98,8 @@ public class EventInterceptor extends BaseInterceptor
 
 
     /**
-     * Initialize the event interceptor. It creates a pool of executor which will be used
-     * to call the listeners in separate threads.
+     * Initialize the event interceptor. It creates a pool of threads which will be used
+     * to call the asynchronous listeners, each one having its own queue of notifications.
      */
     @Override
     public void init( DirectoryService directoryService ) throws LdapException
@@ -96,152 +108,185 @@ public class EventInterceptor extends BaseInterceptor
         super.init( directoryService );
 
         evaluator = new ExpressionEvaluator( schemaManager );
-        executor = new ThreadPoolExecutor( 1, 10, 1000, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>( 100 ) );
-        
-        ThreadFactory threadFactory = new ThreadFactory() 
-        {
-            @Override
-            public Thread newThread( Runnable runnable ) 
-            {
-                Thread newThread = Executors.defaultThreadFactory().newThread( runnable );
-                newThread.setDaemon( true );
-                
-                return newThread;
-            }
-        };
-        
-        executor = new ThreadPoolExecutor( 1, 10, 1000, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>( 100 ),
-            threadFactory );
+        EventService eventService = new DefaultEventService( directoryService );
+        dispatcher = new EventDispatcher( eventService, nbThreads, maxQueueSize, overflowPolicy );
 
-        this.directoryService.setEventService( new DefaultEventService( directoryService ) );
+        this.directoryService.setEventService( eventService );
         LOG.info( "Initialization complete." );
     }
 
 
+    /**
+     * @return The number of threads delivering the notifications to the asynchronous listeners
+     */
+    public int getNbThreads()
+    {
+        return nbThreads;
+    }
+
+
+    /**
+     * Sets the number of threads delivering the notifications to the asynchronous listeners.
+     * It must be set before the interceptor is initialized.
+     *
+     * @param nbThreads The number of threads
+     */
+    public void setNbThreads( int nbThreads )
+    {
+        this.nbThreads = nbThreads;
+    }
+
+
+    /**
+     * @return The maximum number of pending notifications per asynchronous listener
+     */
+    public int getMaxQueueSize()
+    {
+        return maxQueueSize;
+    }
+
+
+    /**
+     * Sets the maximum number of pending notifications per asynchronous listener. It must
+     * be set before the interceptor is initialized.
+     *
+     * @param maxQueueSize The maximum number of pending notifications
+     */
+    public void setMaxQueueSize( int maxQueueSize )
+    {
+        this.maxQueueSize = maxQueueSize;
+    }
+
+
+    /**
+     * @return What to do when an asynchronous listener is too slow
+     */
+    public EventOverflowPolicy getOverflowPolicy()
+    {
+        return overflowPolicy;
+    }
+
+
+    /**
+     * Sets what to do when an asynchronous listener is too slow. It must be set before the
+     * interceptor is initialized.
+     *
+     * @param overflowPolicy The overflow policy
+     */
+    public void setOverflowPolicy( EventOverflowPolicy overflowPolicy )
+    {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+
+    /**
+     * @return The number of notifications waiting to be delivered to the asynchronous listeners
+     */
+    public int getQueueDepth()
+    {
+        return dispatcher.getQueueDepth();
+    }
+
+
+    /**
+     * @return The maximum number of notifications seen waiting for one asynchronous listener
+     */
+    public int getPeakQueueDepth()
+    {
+        return dispatcher.getPeakQueueDepth();
+    }
+
+
+    /**
+     * @return The number of notifications delivered to the asynchronous listeners
+     */
+    public long getDispatchedEvents()
+    {
+        return dispatcher.getDispatchedEvents();
+    }
+
+
+    /**
+     * @return The number of notifications dropped because a listener was too slow
+     */
+    public long getDroppedEvents()
+    {
+        return dispatcher.getDroppedEvents();
+    }
+
+
+    /**
+     * @return The number of listeners removed because they were too slow
+     */
+    public long getDisconnections()
+    {
+        return dispatcher.getDisconnections();
+    }
+
+
+    /**
+     * @return The average time the notifications have been waiting before being delivered, in microseconds
+     */
+    public long getAverageDispatchLatency()
+    {
+        return dispatcher.getAverageDispatchLatency();
+    }
+
+
+    /**
+     * @return The maximum time a notification has been waiting before being delivered, in microseconds
+     */
+    public long getMaxDispatchLatency()
+    {
+        return dispatcher.getMaxDispatchLatency();
+    }
+
+
     /**
      * Call the listener passing it the context.
      */
     private void fire( final OperationContext opContext, EventType type, final DirectoryListener listener )
     {
+        Runnable call;
+
         switch ( type )
         {
             case ADD:
-                if ( listener.isSynchronous() )
-                {
-                    listener.entryAdded( ( AddOperationContext ) opContext );
-                }
-                else
-                {
-                    executor.execute( new Runnable()
-                    {
-                        @Override
-                        public void run()
-                        {
-                            listener.entryAdded( ( AddOperationContext ) opContext );
-                        }
-                    } );
-                }
-
+                call = () -> listener.entryAdded( ( AddOperationContext ) opContext );
                 break;
 
             case DELETE:
-                if ( listener.isSynchronous() )
-                {
-                    listener.entryDeleted( ( DeleteOperationContext ) opContext );
-                }
-                else
-                {
-                    executor.execute( new Runnable()
-                    {
-                        @Override
-                        public void run()
-                        {
-                            listener.entryDeleted( ( DeleteOperationContext ) opContext );
-                        }
-                    } );
-                }
-
+                call = () -> listener.entryDeleted( ( DeleteOperationContext ) opContext );
                 break;
 
             case MODIFY:
-                if ( listener.isSynchronous() )
-                {
-                    listener.entryModified( ( ModifyOperationContext ) opContext );
-                }
-                else
-                {
-                    executor.execute( new Runnable()
-                    {
-                        @Override
-                        public void run()
-                        {
-                            listener.entryModified( ( ModifyOperationContext ) opContext );
-                        }
-                    } );
-                }
-
+                call = () -> listener.entryModified( ( ModifyOperationContext ) opContext );
                 break;
 
             case MOVE:
-                if ( listener.isSynchronous() )
-                {
-                    listener.entryMoved( ( MoveOperationContext ) opContext );
-                }
-                else
-                {
-                    executor.execute( new Runnable()
-                    {
-                        @Override
-                        public void run()
-                        {
-                            listener.entryMoved( ( MoveOperationContext ) opContext );
-                        }
-                    } );
-                }
-
+                call = () -> listener.entryMoved( ( MoveOperationContext ) opContext );
                 break;
 
             case RENAME:
-                if ( listener.isSynchronous() )
-                {
-                    listener.entryRenamed( ( RenameOperationContext ) opContext );
-                }
-                else
-                {
-                    executor.execute( new Runnable()
-                    {
-                        @Override
-                        public void run()
-                        {
-                            listener.entryRenamed( ( RenameOperationContext ) opContext );
-                        }
-                    } );
-                }
-
+                call = () -> listener.entryRenamed( ( RenameOperationContext ) opContext );
                 break;
 
             case MOVE_AND_RENAME:
-                if ( listener.isSynchronous() )
-                {
-                    listener.entryMovedAndRenamed( ( MoveAndRenameOperationContext ) opContext );
-                }
-                else
-                {
-                    executor.execute( new Runnable()
-                    {
-                        @Override
-                        public void run()
-                        {
-                            listener.entryMovedAndRenamed( ( MoveAndRenameOperationContext ) opContext );
-                        }
-                    } );
-                }
-
+                call = () -> listener.entryMovedAndRenamed( ( MoveAndRenameOperationContext ) opContext );
                 break;
 
             default:
                 throw new IllegalArgumentException( "Unexpected event type " + type );
         }
+
+        if ( listener.isSynchronous() )
+        {
+            call.run();
+        }
+        else
+        {
+            dispatcher.dispatch( listener, call );
+        }
     }
 
 
@@ -432,7 +477,15 @@ public class EventInterceptor extends BaseInterceptor
      */
     private List<RegistrationEntry> getSelectingRegistrations( Dn name, Entry entry ) throws LdapException
     {
-        List<RegistrationEntry> registrations = directoryService.getEventService().getRegistrationEntries();
+        EventService eventService = directoryService.getEventService();
+
+        if ( eventService instanceof DefaultEventService )
+        {
+            return getIndexedSelectingRegistrations( ( ( DefaultEventService ) eventService ).getRegistrationIndex(),
+                name, entry );
+        }
+
+        List<RegistrationEntry> registrations = eventService.getRegistrationEntries();
 
         if ( registrations.isEmpty() )
         {
@@ -464,6 +517,42 @@ public class EventInterceptor extends BaseInterceptor
         return selecting;
     }
 
+
+    /**
+     * Find the registrationEntries selecting an entry, using the registrations index. We
+     * only evaluate the filter of the registrations the entry is in the scope of, and
+     * which may match the filter.
+     */
+    private List<RegistrationEntry> getIndexedSelectingRegistrations( RegistrationIndex index, Dn name, Entry entry )
+        throws LdapException
+    {
+        if ( index.isEmpty() )
+        {
+            return Collections.emptyList();
+        }
+
+        List<RegistrationEntry> candidates = index.getCandidates( name, entry );
+
+        if ( candidates.isEmpty() )
+        {
+            return candidates;
+        }
+
+        List<RegistrationEntry> selecting = new ArrayList<>( candidates.size() );
+
+        for ( RegistrationEntry candidate : candidates )
+        {
+            NotificationCriteria criteria = candidate.getCriteria();
+
+            if ( evaluator.evaluate( criteria.getFilter(), criteria.getBase(), entry ) )
+            {
+                selecting.add( candidate );
+            }
+        }
+
+        return selecting;
+    }
+
     
     /**
      * {@inheritDoc}
@@ -471,6 +560,6 @@ public class EventInterceptor extends BaseInterceptor
     @Override
     public void destroy()
     {
-       executor.shutdown();
+        dispatcher.shutdown();
     }
 }
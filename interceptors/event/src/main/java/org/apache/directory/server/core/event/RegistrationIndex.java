@@ -0,0 +1,393 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.event;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.filter.AndNode;
+import org.apache.directory.api.ldap.model.filter.EqualityNode;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.core.api.event.NotificationCriteria;
+import org.apache.directory.server.core.api.event.RegistrationEntry;
+
+
+/**
+ * An immutable index of the registered listeners, used to find the listeners which may be
+ * interested by a change on an entry without checking all of them.
+ * <p>
+ * The listeners are stored in a tree of the Rdns of their base Dn, and in each node,
+ * by scope. When the filter is an equality, or an AND containing an equality, the
+ * listener is also indexed by the attribute and the normalized value of this equality :
+ * the entry must contain this value to be selected by the filter.
+ * <p>
+ * The index only selects candidates : their filter still has to be evaluated.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class RegistrationIndex
+{
+    /** An empty index */
+    static final RegistrationIndex EMPTY = new RegistrationIndex( null, Collections.<RegistrationEntry> emptyList() );
+
+    /** The SchemaManager, used to get the objectClasses OIDs */
+    private final SchemaManager schemaManager;
+
+    /** The node associated with the RootDSE */
+    private final Node root = new Node();
+
+    /** The number of indexed registrations */
+    private final int size;
+
+
+    /**
+     * A registration, with its position in the list of registrations
+     */
+    private static final class Registration
+    {
+        private final RegistrationEntry entry;
+        private final int order;
+
+
+        Registration( RegistrationEntry entry, int order )
+        {
+            this.entry = entry;
+            this.order = order;
+        }
+    }
+
+
+    /**
+     * The registrations of a node for a given scope
+     */
+    private static final class Registrations
+    {
+        /** The registrations without any equality in their filter */
+        private List<Registration> unindexed;
+
+        /** The registrations, by attributeType and by normalized value */
+        private Map<AttributeType, Map<String, List<Registration>>> indexed;
+    }
+
+
+    /**
+     * A node in the Dn tree
+     */
+    private static final class Node
+    {
+        private final Map<String, Node> children = new HashMap<>();
+        private final Registrations object = new Registrations();
+        private final Registrations oneLevel = new Registrations();
+        private final Registrations subtree = new Registrations();
+    }
+
+
+    /**
+     * Creates a new instance of RegistrationIndex.
+     *
+     * @param schemaManager The SchemaManager
+     * @param registrations The registrations to index
+     */
+    RegistrationIndex( SchemaManager schemaManager, List<RegistrationEntry> registrations )
+    {
+        this.schemaManager = schemaManager;
+        int order = 0;
+
+        for ( RegistrationEntry entry : registrations )
+        {
+            add( new Registration( entry, order++ ) );
+        }
+
+        size = order;
+    }
+
+
+    /**
+     * @return <code>true</code> if there is no registration
+     */
+    boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+
+    /**
+     * Finds the registrations which may select a change on an entry. The entry is in the
+     * scope of all the returned registrations, but their filter still has to be evaluated.
+     *
+     * @param name The entry Dn
+     * @param entry The entry
+     * @return The candidates, in the order they have been registered
+     */
+    List<RegistrationEntry> getCandidates( Dn name, Entry entry )
+    {
+        List<Registration> candidates = new ArrayList<>();
+        Node node = root;
+        int depth = 0;
+        int nameSize = name.size();
+
+        while ( node != null )
+        {
+            collect( node.subtree, entry, candidates );
+
+            if ( depth == nameSize - 1 )
+            {
+                collect( node.oneLevel, entry, candidates );
+            }
+
+            if ( depth == nameSize )
+            {
+                collect( node.object, entry, candidates );
+
+                break;
+            }
+
+            // The Rdns are stored from the right
+            node = node.children.get( name.getRdn( nameSize - 1 - depth ).getNormName() );
+            depth++;
+        }
+
+        if ( candidates.isEmpty() )
+        {
+            return Collections.emptyList();
+        }
+
+        if ( candidates.size() > 1 )
+        {
+            // Keep the registration order, the listeners are called in this order
+            Collections.sort( candidates, ( r1, r2 ) -> Integer.compare( r1.order, r2.order ) );
+        }
+
+        List<RegistrationEntry> entries = new ArrayList<>( candidates.size() );
+
+        for ( Registration candidate : candidates )
+        {
+            entries.add( candidate.entry );
+        }
+
+        return entries;
+    }
+
+
+    /**
+     * Adds the registrations of a node which may select the entry
+     */
+    private void collect( Registrations registrations, Entry entry, List<Registration> candidates )
+    {
+        if ( registrations.unindexed != null )
+        {
+            candidates.addAll( registrations.unindexed );
+        }
+
+        if ( registrations.indexed == null )
+        {
+            return;
+        }
+
+        for ( Map.Entry<AttributeType, Map<String, List<Registration>>> indexed : registrations.indexed.entrySet() )
+        {
+            Attribute attribute = entry.get( indexed.getKey() );
+
+            if ( attribute == null )
+            {
+                continue;
+            }
+
+            for ( Value value : attribute )
+            {
+                if ( value.isHumanReadable() )
+                {
+                    List<Registration> selected = indexed.getValue().get( getKey( indexed.getKey(), value ) );
+
+                    if ( selected != null )
+                    {
+                        candidates.addAll( selected );
+                    }
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Stores a registration in the node associated with its base, and with its scope.
+     */
+    private void add( Registration registration )
+    {
+        NotificationCriteria criteria = registration.entry.getCriteria();
+        Dn base = criteria.getBase();
+        Node node = root;
+
+        for ( int i = base.size() - 1; i >= 0; i-- )
+        {
+            node = node.children.computeIfAbsent( base.getRdn( i ).getNormName(), rdn -> new Node() );
+        }
+
+        Registrations registrations;
+
+        switch ( criteria.getScope() )
+        {
+            case OBJECT:
+                registrations = node.object;
+                break;
+
+            case ONELEVEL:
+                registrations = node.oneLevel;
+                break;
+
+            default:
+                registrations = node.subtree;
+                break;
+        }
+
+        EqualityNode<?> equality = getEquality( criteria.getFilter() );
+
+        if ( equality == null )
+        {
+            if ( registrations.unindexed == null )
+            {
+                registrations.unindexed = new ArrayList<>();
+            }
+
+            registrations.unindexed.add( registration );
+
+            return;
+        }
+
+        if ( registrations.indexed == null )
+        {
+            registrations.indexed = new HashMap<>();
+        }
+
+        registrations.indexed.computeIfAbsent( equality.getAttributeType(), attributeType -> new HashMap<>() )
+            .computeIfAbsent( getKey( equality.getAttributeType(), equality.getValue() ), key -> new ArrayList<>() )
+            .add( registration );
+    }
+
+
+    /**
+     * Gets an equality the entry must match for the filter to be true. We prefer
+     * an equality on any attribute to an equality on the ObjectClass, which is generally
+     * less selective.
+     */
+    private EqualityNode<?> getEquality( ExprNode filter )
+    {
+        if ( isIndexable( filter ) )
+        {
+            return ( EqualityNode<?> ) filter;
+        }
+
+        if ( !( filter instanceof AndNode ) )
+        {
+            return null;
+        }
+
+        EqualityNode<?> objectClassEquality = null;
+
+        for ( ExprNode child : ( ( AndNode ) filter ).getChildren() )
+        {
+            if ( isIndexable( child ) )
+            {
+                EqualityNode<?> equality = ( EqualityNode<?> ) child;
+
+                if ( !isObjectClass( equality.getAttributeType() ) )
+                {
+                    return equality;
+                }
+
+                objectClassEquality = equality;
+            }
+        }
+
+        return objectClassEquality;
+    }
+
+
+    /**
+     * Tells if an equality can be used to index the registration
+     */
+    private boolean isIndexable( ExprNode node )
+    {
+        if ( !( node instanceof EqualityNode ) )
+        {
+            return false;
+        }
+
+        EqualityNode<?> equality = ( EqualityNode<?> ) node;
+        AttributeType attributeType = equality.getAttributeType();
+
+        if ( ( attributeType == null ) || ( equality.getValue() == null ) || !equality.getValue().isHumanReadable() )
+        {
+            return false;
+        }
+
+        try
+        {
+            // The filter also selects the entries containing the value in a sub-type
+            return !schemaManager.getAttributeTypeRegistry().hasDescendants( attributeType );
+        }
+        catch ( LdapException le )
+        {
+            return false;
+        }
+    }
+
+
+    /**
+     * Computes the key of a value in the index : its normalized value, or the OID for
+     * an ObjectClass, which can be named in many ways.
+     */
+    private String getKey( AttributeType attributeType, Value value )
+    {
+        String normalized = value.getNormalized();
+
+        if ( isObjectClass( attributeType ) )
+        {
+            try
+            {
+                return schemaManager.getObjectClassRegistry().getOidByName( normalized );
+            }
+            catch ( LdapException le )
+            {
+                // Unknown ObjectClass : use the normalized value
+            }
+        }
+
+        return normalized;
+    }
+
+
+    private boolean isObjectClass( AttributeType attributeType )
+    {
+        return SchemaConstants.OBJECT_CLASS_AT_OID.equals( attributeType.getOid() );
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.event;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.server.core.api.event.DirectoryListener;
+import org.apache.directory.server.core.api.event.DirectoryListenerAdapter;
+import org.apache.directory.server.core.api.event.EventService;
+import org.apache.directory.server.core.api.event.NotificationCriteria;
+import org.apache.directory.server.core.api.event.RegistrationEntry;
+import org.junit.jupiter.api.Test;
+
+
+/**
+ * Tests the delivery of the notifications to the asynchronous listeners.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class EventDispatcherTest
+{
+    /**
+     * A listener recording the notifications it receives
+     */
+    private static class RecordingListener extends DirectoryListenerAdapter
+    {
+        private final List<String> received = Collections.synchronizedList( new ArrayList<String>() );
+        private final CountDownLatch done = new CountDownLatch( 1 );
+
+
+        @Override
+        public void eventsDropped( int nbDropped, boolean disconnected )
+        {
+            received.add( ( disconnected ? "disconnected " : "dropped " ) + nbDropped );
+        }
+    }
+
+
+    /**
+     * An EventService recording the removed listeners
+     */
+    private static class RecordingEventService implements EventService
+    {
+        private final List<DirectoryListener> removed = Collections.synchronizedList(
+            new ArrayList<DirectoryListener>() );
+
+
+        @Override
+        public void addListener( DirectoryListener listener, NotificationCriteria criteria )
+        {
+        }
+
+
+        @Override
+        public void removeListener( DirectoryListener listener )
+        {
+            removed.add( listener );
+        }
+
+
+        @Override
+        public List<RegistrationEntry> getRegistrationEntries()
+        {
+            return Collections.emptyList();
+        }
+    }
+
+
+    @Test
+    public void testOrderPerListener() throws Exception
+    {
+        EventDispatcher dispatcher = new EventDispatcher( new RecordingEventService(), 4, 1000,
+            EventOverflowPolicy.DROP );
+        RecordingListener[] listeners = new RecordingListener[5];
+
+        try
+        {
+            for ( int i = 0; i < listeners.length; i++ )
+            {
+                listeners[i] = new RecordingListener();
+            }
+
+            for ( int i = 0; i < 500; i++ )
+            {
+                for ( RecordingListener listener : listeners )
+                {
+                    String event = Integer.toString( i );
+                    dispatcher.dispatch( listener, () -> listener.received.add( event ) );
+                }
+            }
+
+            for ( RecordingListener listener : listeners )
+            {
+                dispatcher.dispatch( listener, () -> listener.done.countDown() );
+            }
+
+            for ( RecordingListener listener : listeners )
+            {
+                assertTrue( listener.done.await( 5, TimeUnit.SECONDS ) );
+                assertEquals( 500, listener.received.size() );
+
+                for ( int i = 0; i < 500; i++ )
+                {
+                    assertEquals( Integer.toString( i ), listener.received.get( i ) );
+                }
+            }
+
+            assertEquals( 2505L, dispatcher.getDispatchedEvents() );
+            assertEquals( 0L, dispatcher.getDroppedEvents() );
+            assertEquals( 0, dispatcher.getQueueDepth() );
+        }
+        finally
+        {
+            dispatcher.shutdown();
+        }
+    }
+
+
+    @Test
+    public void testSlowListenerDoesNotBlockOthers() throws Exception
+    {
+        EventDispatcher dispatcher = new EventDispatcher( new RecordingEventService(), 2, 10,
+            EventOverflowPolicy.DROP );
+        RecordingListener slow = new RecordingListener();
+        RecordingListener fast = new RecordingListener();
+        CountDownLatch started = new CountDownLatch( 1 );
+        CountDownLatch blocked = new CountDownLatch( 1 );
+
+        try
+        {
+            dispatcher.dispatch( slow, () -> block( started, blocked ) );
+            assertTrue( started.await( 5, TimeUnit.SECONDS ) );
+
+            for ( int i = 0; i < 100; i++ )
+            {
+                String event = Integer.toString( i );
+                dispatcher.dispatch( slow, () -> slow.received.add( event ) );
+
+                if ( i < 5 )
+                {
+                    dispatcher.dispatch( fast, () -> fast.received.add( event ) );
+                }
+            }
+
+            dispatcher.dispatch( fast, () -> fast.done.countDown() );
+
+            // The fast listener gets its notifications while the slow one is blocked
+            assertTrue( fast.done.await( 5, TimeUnit.SECONDS ) );
+            assertEquals( 5, fast.received.size() );
+            assertEquals( 0, slow.received.size() );
+
+            // Only 10 notifications can wait for the slow listener, the first one is running
+            dispatcher.dispatch( slow, () -> slow.done.countDown() );
+            blocked.countDown();
+            assertTrue( waitFor( () -> slow.received.size() == 11 ) );
+
+            assertEquals( "0", slow.received.get( 0 ) );
+            assertEquals( "9", slow.received.get( 9 ) );
+            assertEquals( "dropped 91", slow.received.get( 10 ) );
+            assertEquals( 91L, dispatcher.getDroppedEvents() );
+            assertEquals( 0L, dispatcher.getDisconnections() );
+            assertEquals( 10, dispatcher.getPeakQueueDepth() );
+        }
+        finally
+        {
+            blocked.countDown();
+            dispatcher.shutdown();
+        }
+    }
+
+
+    @Test
+    public void testDisconnectSlowListener() throws Exception
+    {
+        RecordingEventService eventService = new RecordingEventService();
+        EventDispatcher dispatcher = new EventDispatcher( eventService, 2, 10, EventOverflowPolicy.DISCONNECT );
+        RecordingListener slow = new RecordingListener();
+        CountDownLatch started = new CountDownLatch( 1 );
+        CountDownLatch blocked = new CountDownLatch( 1 );
+
+        try
+        {
+            dispatcher.dispatch( slow, () -> block( started, blocked ) );
+            assertTrue( started.await( 5, TimeUnit.SECONDS ) );
+
+            for ( int i = 0; i < 20; i++ )
+            {
+                String event = Integer.toString( i );
+                dispatcher.dispatch( slow, () -> slow.received.add( event ) );
+            }
+
+            blocked.countDown();
+            assertTrue( waitFor( () -> !slow.received.isEmpty() ) );
+
+            // The notifications sent after the disconnection are ignored
+            dispatcher.dispatch( slow, () -> slow.received.add( "after" ) );
+            Thread.sleep( 100L );
+
+            assertEquals( 1, slow.received.size() );
+            assertEquals( "disconnected 11", slow.received.get( 0 ) );
+            assertEquals( 1, eventService.removed.size() );
+            assertEquals( slow, eventService.removed.get( 0 ) );
+            assertEquals( 21L, dispatcher.getDroppedEvents() );
+            assertEquals( 1L, dispatcher.getDisconnections() );
+            assertEquals( 0, dispatcher.getQueueDepth() );
+        }
+        finally
+        {
+            blocked.countDown();
+            dispatcher.shutdown();
+        }
+    }
+
+
+    private static void block( CountDownLatch started, CountDownLatch blocked )
+    {
+        started.countDown();
+
+        try
+        {
+            blocked.await( 10, TimeUnit.SECONDS );
+        }
+        catch ( InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    private interface Condition
+    {
+        boolean isTrue();
+    }
+
+
+    private static boolean waitFor( Condition condition ) throws InterruptedException
+    {
+        for ( int i = 0; i < 500; i++ )
+        {
+            if ( condition.isTrue() )
+            {
+                return true;
+            }
+
+            Thread.sleep( 10L );
+        }
+
+        return false;
+    }
+}
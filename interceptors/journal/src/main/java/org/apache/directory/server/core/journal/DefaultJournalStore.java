@@ -20,30 +20,49 @@
 package org.apache.directory.server.core.journal;
 
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.Writer;
-import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
 
-import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.ldif.LdifEntry;
-import org.apache.directory.api.ldap.model.ldif.LdifUtils;
 import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.LdapPrincipal;
 import org.apache.directory.server.core.api.journal.JournalStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 
 /**
  * The default Journal Store implementation. It creates a file on disk in which
  * the logs will be appended.
+ * <p>
+ * The records are stored in a binary format (see {@link JournalCodec}), which can be
+ * exported as LDIF with the {@link JournalLdifExporter}. They are encoded by the threads
+ * logging the changes, then queued : a single thread writes all the queued records at once,
+ * forces them on disk if {@link #setSyncOnWrite(boolean)} has been set, and then releases
+ * all the waiting threads together.
  *  
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
 */
 public class DefaultJournalStore implements JournalStore
 {
+    /** The class logger */
+    private static final Logger LOG = LoggerFactory.getLogger( DefaultJournalStore.class );
+
+    /** The default journal file name */
+    public static final String DEFAULT_FILE_NAME = "journal.bin";
+
     /** The directory where the journal is stored */
     private File workingDirectory;
 
@@ -53,8 +72,70 @@ public class DefaultJournalStore implements JournalStore
     /** The file containing the journal */
     private File journal;
 
-    /** The stream used to write data into the journal */
-    private Writer writer;
+    /** The channel used to write data into the journal */
+    private FileChannel channel;
+
+    /** Tells if the records are forced on disk before the logging threads are released */
+    private volatile boolean syncOnWrite = false;
+
+    /** The records waiting to be written */
+    private final LinkedBlockingQueue<PendingRecord> queue = new LinkedBlockingQueue<>();
+
+    /** Tells if the store has been destroyed. Protected by the queue */
+    private boolean closed = true;
+
+    /** The thread writing the records */
+    private Thread writerThread;
+
+    /** Tells if the journal can't be written anymore. Only used by the writer thread */
+    private boolean failed = false;
+
+
+    /**
+     * A record waiting to be written
+     */
+    private static final class PendingRecord
+    {
+        /** The encoded record, null to stop the writer */
+        private final byte[] data;
+
+        /** Tells if the journal must be forced on disk after this record has been written */
+        private final boolean sync;
+
+        /** Completed when the record has been written */
+        private final CompletableFuture<Boolean> written = new CompletableFuture<>();
+
+
+        PendingRecord( byte[] data, boolean sync )
+        {
+            this.data = data;
+            this.sync = sync;
+        }
+
+
+        /**
+         * Waits until the record has been written
+         *
+         * @return <code>true</code> if the record has been written successfully
+         */
+        boolean await()
+        {
+            try
+            {
+                return written.get();
+            }
+            catch ( InterruptedException ie )
+            {
+                Thread.currentThread().interrupt();
+
+                return false;
+            }
+            catch ( ExecutionException ee )
+            {
+                return false;
+            }
+        }
+    }
 
 
     /**
@@ -63,10 +144,32 @@ public class DefaultJournalStore implements JournalStore
     @Override
     public void destroy() throws IOException
     {
-        if ( writer != null )
+        PendingRecord stop = new PendingRecord( null, true );
+
+        synchronized ( queue )
         {
-            writer.close();
+            if ( closed )
+            {
+                return;
+            }
+
+            closed = true;
+            queue.add( stop );
         }
+
+        // All the records queued before have been written
+        stop.await();
+
+        try
+        {
+            writerThread.join();
+        }
+        catch ( InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        channel.close();
     }
 
 
@@ -84,125 +187,291 @@ public class DefaultJournalStore implements JournalStore
         /** Load or create the journal file */
         if ( fileName == null )
         {
-            fileName = "journal.ldif";
+            fileName = DEFAULT_FILE_NAME;
         }
 
         journal = new File( workingDirectory, fileName );
 
         // The new requests are added at the end of the existing journal
-        writer = new PrintWriter(
-            Files.newBufferedWriter( journal.toPath(), StandardCharsets.UTF_8, StandardOpenOption.APPEND ) );
+        long end = checkJournal();
+        channel = FileChannel.open( journal.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE );
+
+        if ( channel.size() > end )
+        {
+            LOG.warn( "Removing the last {} bytes of the journal {}, the record is incomplete", channel.size() - end,
+                journal );
+            channel.truncate( end );
+        }
+
+        channel.position( end );
+
+        if ( end == 0L )
+        {
+            channel.write( ByteBuffer.wrap( JournalCodec.encodeHeader() ) );
+        }
+
+        synchronized ( queue )
+        {
+            closed = false;
+        }
+
+        writerThread = new Thread( this::writeRecords, "journal-writer" );
+        writerThread.setDaemon( true );
+        writerThread.start();
     }
 
 
     /**
-     * Stores an event into the journal.
-     * 
-     * @param principal The principal who is logging the change
-     * @param revision The operation revision
-     * @param forward The change to log
+     * Checks the existing journal. A journal which is not in the binary format is renamed,
+     * and an incomplete record at the end of the journal is removed.
+     *
+     * @return The position at which the new records will be written
      */
-    @Override
-    public boolean log( LdapPrincipal principal, long revision, LdifEntry forward )
+    private long checkJournal() throws IOException
     {
-        synchronized ( writer )
+        if ( !journal.exists() || ( journal.length() == 0L ) )
         {
-            try
-            {
-                // Write the LdapPrincipal
-                writer.write( "# principal: " );
-                writer.write( principal.getName() );
-                writer.write( '\n' );
+            return 0L;
+        }
 
-                // Write the timestamp
-                writer.write( "# timestamp: " );
-                writer.write( Long.toString( System.currentTimeMillis() ) );
-                writer.write( '\n' );
+        long end = JournalCodec.HEADER_SIZE;
 
-                // Write the revision
-                writer.write( "# revision: " );
-                writer.write( Long.toString( revision ) );
-                writer.write( "\n" );
+        try ( DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( journal ) ) ) )
+        {
+            if ( !JournalCodec.readHeader( in ) )
+            {
+                File old = new File( journal.getPath() + "." + System.currentTimeMillis() + ".old" );
+                LOG.warn( "The journal {} is not in the binary format, it is renamed {}", journal, old );
+                Files.move( journal.toPath(), old.toPath() );
 
-                // Write the entry
-                writer.write( LdifUtils.convertToLdif( forward, 80 ) );
-                writer.flush();
+                return 0L;
             }
-            catch ( LdapException | IOException e )
+
+            int size = JournalCodec.skip( in );
+
+            while ( size > 0 )
             {
-                return false;
+                end += size;
+                size = JournalCodec.skip( in );
             }
         }
 
-        return true;
+        return end;
     }
 
 
     /**
-     * Records a ack for a change
-     *
-     * @param revision The change revision which is acked
-     * @return <code>true</code> if the ack has been written
+     * The loop of the writer thread
      */
-    @Override
-    public boolean ack( long revision )
+    private void writeRecords()
     {
-        synchronized ( writer )
+        List<PendingRecord> batch = new ArrayList<>();
+        boolean stop = false;
+
+        while ( !stop )
         {
             try
             {
-                // Write the revision
-                writer.write( "# ack-revision: " );
-                writer.write( Long.toString( revision ) );
-                writer.write( "\n\n" );
+                batch.add( queue.take() );
+            }
+            catch ( InterruptedException ie )
+            {
+                // Keep going, the queued records have to be written
+                continue;
+            }
+
+            queue.drainTo( batch );
 
-                writer.flush();
+            int size = 0;
+            boolean sync = syncOnWrite;
+
+            for ( PendingRecord record : batch )
+            {
+                if ( record.data == null )
+                {
+                    stop = true;
+                }
+                else
+                {
+                    size += record.data.length;
+                    sync |= record.sync;
+                }
+            }
+
+            boolean success = !failed;
+            long start = -1L;
+
+            try
+            {
+                if ( failed )
+                {
+                    // Don't add records after a broken batch, the journal would not be readable
+                    throw new IOException( "The journal " + journal + " can't be written anymore" );
+                }
+
+                start = channel.position();
+                ByteBuffer buffer = ByteBuffer.allocate( size );
+
+                for ( PendingRecord record : batch )
+                {
+                    if ( record.data != null )
+                    {
+                        buffer.put( record.data );
+                    }
+                }
+
+                buffer.flip();
+
+                while ( buffer.hasRemaining() )
+                {
+                    channel.write( buffer );
+                }
+
+                if ( sync )
+                {
+                    channel.force( false );
+                }
             }
             catch ( IOException ioe )
             {
-                return false;
+                if ( !failed )
+                {
+                    LOG.error( "Failed to write {} records in the journal {}", batch.size(), journal, ioe );
+                    rollback( start );
+                }
+
+                success = false;
+            }
+
+            for ( PendingRecord record : batch )
+            {
+                record.written.complete( success );
             }
-        }
 
-        return true;
+            batch.clear();
+        }
     }
 
 
     /**
-     * Records a nack for a change
+     * Removes the part of a batch which has been written before a failure, so that the
+     * next records are not appended after an incomplete one. The journal is not written
+     * anymore if it can't be truncated.
      *
-     * @param revision The change revision which is nacked
-     * @return <code>true</code> if the nack has been written
+     * @param start The position of the batch in the journal, or -1 if it is not known
      */
-    @Override
-    public boolean nack( long revision )
+    private void rollback( long start )
     {
-        synchronized ( writer )
+        if ( start >= 0L )
         {
             try
             {
-                // Write the revision
-                writer.write( "# nack-revision: " );
-                writer.write( Long.toString( revision ) );
-                writer.write( "\n\n" );
+                channel.truncate( start );
+                channel.position( start );
 
-                writer.flush();
+                return;
             }
             catch ( IOException ioe )
+            {
+                LOG.error( "Failed to truncate the journal {} at {}", journal, start, ioe );
+            }
+        }
+
+        LOG.error( "The journal {} is in an unknown state, no more records will be written", journal );
+        failed = true;
+    }
+
+
+    /**
+     * Queues a record, and waits until it has been written
+     */
+    private boolean write( byte[] data, boolean sync )
+    {
+        PendingRecord record = new PendingRecord( data, sync );
+
+        synchronized ( queue )
+        {
+            if ( closed )
             {
                 return false;
             }
+
+            queue.add( record );
         }
 
-        return true;
+        return record.await();
     }
 
 
+    /**
+     * Stores an event into the journal.
+     * 
+     * @param principal The principal who is logging the change
+     * @param revision The operation revision
+     * @param forward The change to log
+     */
+    @Override
+    public boolean log( LdapPrincipal principal, long revision, LdifEntry forward )
+    {
+        byte[] data;
+
+        try
+        {
+            data = JournalCodec.encodeLog( principal.getName(), revision, System.currentTimeMillis(), forward );
+        }
+        catch ( IOException ioe )
+        {
+            return false;
+        }
+
+        return write( data, false );
+    }
+
+
+    /**
+     * Records a ack for a change
+     *
+     * @param revision The change revision which is acked
+     * @return <code>true</code> if the ack has been written
+     */
+    @Override
+    public boolean ack( long revision )
+    {
+        return write( JournalCodec.encodeAck( JournalCodec.ACK, revision ), false );
+    }
+
+
+    /**
+     * Records a nack for a change
+     *
+     * @param revision The change revision which is nacked
+     * @return <code>true</code> if the nack has been written
+     */
+    @Override
+    public boolean nack( long revision )
+    {
+        return write( JournalCodec.encodeAck( JournalCodec.NACK, revision ), false );
+    }
+
+
+    /**
+     * Forces the records written so far on disk
+     */
     @Override
     public void sync() throws IOException
     {
-        // TODO Auto-generated method stub
+        synchronized ( queue )
+        {
+            if ( closed )
+            {
+                return;
+            }
+        }
 
+        if ( !write( new byte[0], true ) )
+        {
+            throw new IOException( "Failed to sync the journal " + journal );
+        }
     }
 
 
@@ -241,4 +510,27 @@ public class DefaultJournalStore implements JournalStore
     {
         this.workingDirectory = new File( workingDirectoryName );
     }
+
+
+    /**
+     * @return <code>true</code> if the records are forced on disk before the logging
+     * threads are released
+     */
+    public boolean isSyncOnWrite()
+    {
+        return syncOnWrite;
+    }
+
+
+    /**
+     * Forces the records on disk before releasing the threads which have logged them. As
+     * the records are written by batches, one force is done for all the records of a batch.
+     * The default is <code>false</code> : the records are only written in the file.
+     *
+     * @param syncOnWrite <code>true</code> to force the records on disk
+     */
+    public void setSyncOnWrite( boolean syncOnWrite )
+    {
+        this.syncOnWrite = syncOnWrite;
+    }
 }
@@ -0,0 +1,461 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.journal;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.ldif.ChangeType;
+import org.apache.directory.api.ldap.model.ldif.LdifEntry;
+import org.apache.directory.api.ldap.model.name.Dn;
+
+
+/**
+ * The binary format of the journal. The file starts with a header (a magic number and
+ * a version), followed by the records. Each record is stored as :
+ * <pre>
+ * [length : int][CRC32 of the data : int][data : length bytes]
+ * </pre>
+ * The data starts with the record type and the revision. A logged change also contains
+ * the timestamp, the principal and the change itself : its type, its Dn, and depending
+ * on the type, its attributes, its modifications or its new Rdn and superior.
+ * <p>
+ * The controls of the changes are not stored.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class JournalCodec
+{
+    /** The magic number at the beginning of the journal : "ADSJ" */
+    static final int MAGIC = 0x4144534A;
+
+    /** The version of the format */
+    static final int VERSION = 1;
+
+    /** The size of the header */
+    static final int HEADER_SIZE = 8;
+
+    /** The size of the length and CRC preceding each record */
+    static final int FRAME_SIZE = 8;
+
+    /** A logged change */
+    static final byte LOG = 1;
+
+    /** An acked change */
+    static final byte ACK = 2;
+
+    /** A nacked change */
+    static final byte NACK = 3;
+
+
+    /**
+     * A record read from the journal
+     */
+    static final class Record
+    {
+        byte type;
+        long revision;
+        long timestamp;
+        String principal;
+        LdifEntry change;
+    }
+
+
+    private JournalCodec()
+    {
+    }
+
+
+    /**
+     * @return The header of a new journal
+     */
+    static byte[] encodeHeader()
+    {
+        return new byte[]
+            { 'A', 'D', 'S', 'J', 0, 0, 0, VERSION };
+    }
+
+
+    /**
+     * Encodes a logged change, with its frame
+     *
+     * @param principal The name of the principal who has done the change
+     * @param revision The change revision
+     * @param timestamp The time the change has been logged at
+     * @param change The change
+     * @return The encoded record
+     * @throws IOException If the change can't be encoded
+     */
+    static byte[] encodeLog( String principal, long revision, long timestamp, LdifEntry change ) throws IOException
+    {
+        ByteArrayOutputStream data = new ByteArrayOutputStream( 256 );
+        DataOutputStream out = new DataOutputStream( data );
+
+        out.writeByte( LOG );
+        out.writeLong( revision );
+        out.writeLong( timestamp );
+        writeString( out, principal );
+        writeChange( out, change );
+
+        return frame( data.toByteArray() );
+    }
+
+
+    /**
+     * Encodes an ack or a nack, with its frame
+     *
+     * @param type {@link #ACK} or {@link #NACK}
+     * @param revision The change revision
+     * @return The encoded record
+     */
+    static byte[] encodeAck( byte type, long revision )
+    {
+        byte[] data = new byte[9];
+        data[0] = type;
+
+        for ( int i = 0; i < 8; i++ )
+        {
+            data[8 - i] = ( byte ) ( revision >>> ( i * 8 ) );
+        }
+
+        return frame( data );
+    }
+
+
+    /**
+     * Reads the header of a journal
+     *
+     * @param in The journal
+     * @return <code>true</code> if the header is valid
+     * @throws IOException If the journal can't be read
+     */
+    static boolean readHeader( DataInputStream in ) throws IOException
+    {
+        try
+        {
+            return ( in.readInt() == MAGIC ) && ( in.readInt() == VERSION );
+        }
+        catch ( EOFException eofe )
+        {
+            return false;
+        }
+    }
+
+
+    /**
+     * Reads the next record of a journal
+     *
+     * @param in The journal, positioned on a record
+     * @return The record, or null if the end of the journal, or an incomplete or corrupted
+     * record, has been reached
+     * @throws IOException If the journal can't be read
+     */
+    static Record read( DataInputStream in ) throws IOException
+    {
+        byte[] data = readFrame( in );
+
+        if ( data == null )
+        {
+            return null;
+        }
+
+        DataInputStream record = new DataInputStream( new ByteArrayInputStream( data ) );
+        Record result = new Record();
+        result.type = record.readByte();
+        result.revision = record.readLong();
+
+        if ( result.type == LOG )
+        {
+            result.timestamp = record.readLong();
+            result.principal = readString( record );
+
+            try
+            {
+                result.change = readChange( record );
+            }
+            catch ( LdapException le )
+            {
+                throw new IOException( le.getMessage(), le );
+            }
+        }
+
+        return result;
+    }
+
+
+    /**
+     * Skips the next record of a journal, without decoding it
+     *
+     * @param in The journal, positioned on a record
+     * @return The size of the record and its frame, or -1 if the end of the journal, or an
+     * incomplete or corrupted record, has been reached
+     * @throws IOException If the journal can't be read
+     */
+    static int skip( DataInputStream in ) throws IOException
+    {
+        byte[] data = readFrame( in );
+
+        return data == null ? -1 : FRAME_SIZE + data.length;
+    }
+
+
+    /**
+     * Reads the data of a record, and checks its CRC
+     */
+    private static byte[] readFrame( DataInputStream in ) throws IOException
+    {
+        try
+        {
+            int length = in.readInt();
+            int crc = in.readInt();
+
+            // Don't trust the length of an incomplete record
+            if ( ( length <= 0 ) || ( length > in.available() ) )
+            {
+                return null;
+            }
+
+            byte[] data = new byte[length];
+            in.readFully( data );
+
+            return crc == crc( data ) ? data : null;
+        }
+        catch ( EOFException eofe )
+        {
+            return null;
+        }
+    }
+
+
+    private static byte[] frame( byte[] data )
+    {
+        int crc = crc( data );
+        byte[] frame = new byte[FRAME_SIZE + data.length];
+
+        for ( int i = 0; i < 4; i++ )
+        {
+            frame[3 - i] = ( byte ) ( data.length >>> ( i * 8 ) );
+            frame[7 - i] = ( byte ) ( crc >>> ( i * 8 ) );
+        }
+
+        System.arraycopy( data, 0, frame, FRAME_SIZE, data.length );
+
+        return frame;
+    }
+
+
+    private static int crc( byte[] data )
+    {
+        CRC32 crc = new CRC32();
+        crc.update( data, 0, data.length );
+
+        return ( int ) crc.getValue();
+    }
+
+
+    private static void writeChange( DataOutputStream out, LdifEntry change ) throws IOException
+    {
+        out.writeByte( change.getChangeType().getChangeType() );
+        writeString( out, change.getDn().getName() );
+
+        switch ( change.getChangeType() )
+        {
+            case Add:
+                out.writeInt( change.getEntry().size() );
+
+                for ( Attribute attribute : change.getEntry() )
+                {
+                    writeAttribute( out, attribute );
+                }
+
+                break;
+
+            case Modify:
+                out.writeInt( change.getModifications().size() );
+
+                for ( Modification modification : change.getModifications() )
+                {
+                    out.writeByte( modification.getOperation().getValue() );
+                    writeAttribute( out, modification.getAttribute() );
+                }
+
+                break;
+
+            case ModDn:
+            case ModRdn:
+                writeString( out, change.getNewRdn() );
+                out.writeBoolean( change.isDeleteOldRdn() );
+                writeString( out, change.getNewSuperior() );
+
+                break;
+
+            default:
+                break;
+        }
+    }
+
+
+    private static LdifEntry readChange( DataInputStream in ) throws IOException, LdapException
+    {
+        LdifEntry change = new LdifEntry();
+        ChangeType changeType = ChangeType.getChangeType( in.readByte() );
+        change.setChangeType( changeType );
+        change.setDn( new Dn( readString( in ) ) );
+
+        switch ( changeType )
+        {
+            case Add:
+                int nbAttributes = in.readInt();
+
+                for ( int i = 0; i < nbAttributes; i++ )
+                {
+                    change.addAttribute( readAttribute( in ) );
+                }
+
+                break;
+
+            case Modify:
+                int nbModifications = in.readInt();
+
+                for ( int i = 0; i < nbModifications; i++ )
+                {
+                    ModificationOperation operation = ModificationOperation.getOperation( in.readByte() );
+                    change.addModification( operation, readAttribute( in ) );
+                }
+
+                break;
+
+            case ModDn:
+            case ModRdn:
+                change.setNewRdn( readString( in ) );
+                change.setDeleteOldRdn( in.readBoolean() );
+                change.setNewSuperior( readString( in ) );
+
+                break;
+
+            default:
+                break;
+        }
+
+        return change;
+    }
+
+
+    private static void writeAttribute( DataOutputStream out, Attribute attribute ) throws IOException
+    {
+        writeString( out, attribute.getUpId() );
+        out.writeInt( attribute.size() );
+
+        for ( Value value : attribute )
+        {
+            out.writeBoolean( value.isHumanReadable() );
+
+            if ( value.isHumanReadable() )
+            {
+                writeString( out, value.getString() );
+            }
+            else
+            {
+                writeBytes( out, value.getBytes() );
+            }
+        }
+    }
+
+
+    private static Attribute readAttribute( DataInputStream in ) throws IOException, LdapException
+    {
+        Attribute attribute = new DefaultAttribute( readString( in ) );
+        int nbValues = in.readInt();
+
+        for ( int i = 0; i < nbValues; i++ )
+        {
+            if ( in.readBoolean() )
+            {
+                attribute.add( readString( in ) );
+            }
+            else
+            {
+                attribute.add( readBytes( in ) );
+            }
+        }
+
+        return attribute;
+    }
+
+
+    /**
+     * Writes a String, which may be null or longer than what writeUTF accepts
+     */
+    private static void writeString( DataOutputStream out, String value ) throws IOException
+    {
+        writeBytes( out, value == null ? null : value.getBytes( StandardCharsets.UTF_8 ) );
+    }
+
+
+    private static String readString( DataInputStream in ) throws IOException
+    {
+        byte[] bytes = readBytes( in );
+
+        return bytes == null ? null : new String( bytes, StandardCharsets.UTF_8 );
+    }
+
+
+    private static void writeBytes( DataOutputStream out, byte[] bytes ) throws IOException
+    {
+        if ( bytes == null )
+        {
+            out.writeInt( -1 );
+        }
+        else
+        {
+            out.writeInt( bytes.length );
+            out.write( bytes );
+        }
+    }
+
+
+    private static byte[] readBytes( DataInputStream in ) throws IOException
+    {
+        int length = in.readInt();
+
+        if ( length < 0 )
+        {
+            return null;
+        }
+
+        byte[] bytes = new byte[length];
+        in.readFully( bytes );
+
+        return bytes;
+    }
+}
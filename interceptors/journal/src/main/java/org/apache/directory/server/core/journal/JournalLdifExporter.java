@@ -0,0 +1,172 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.journal;
+
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.ldif.LdifUtils;
+
+
+/**
+ * Exports a journal written by the {@link DefaultJournalStore} as LDIF. Each change is
+ * preceded by comments containing the principal who has done it, its timestamp and its
+ * revision, and the acks and nacks are written as comments :
+ * <pre>
+ * # principal: uid=admin,ou=system
+ * # timestamp: 1293840000000
+ * # revision: 1293840000001
+ * dn: cn=test,ou=system
+ * changetype: add
+ * ...
+ *
+ * # ack-revision: 1293840000001
+ * </pre>
+ * It can be used from the command line :
+ * <pre>
+ * java org.apache.directory.server.core.journal.JournalLdifExporter &lt;journal&gt; [&lt;ldif file&gt;]
+ * </pre>
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public final class JournalLdifExporter
+{
+    private JournalLdifExporter()
+    {
+    }
+
+
+    /**
+     * Writes the content of a journal as LDIF
+     *
+     * @param journal The journal file
+     * @param writer The writer the LDIF is written to
+     * @return The number of exported changes
+     * @throws IOException If the journal can't be read, or the LDIF written
+     */
+    public static int export( File journal, Writer writer ) throws IOException
+    {
+        int nbChanges = 0;
+
+        try ( DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( journal ) ) ) )
+        {
+            if ( !JournalCodec.readHeader( in ) )
+            {
+                throw new IOException( "The file " + journal + " is not a journal" );
+            }
+
+            JournalCodec.Record record = JournalCodec.read( in );
+
+            while ( record != null )
+            {
+                switch ( record.type )
+                {
+                    case JournalCodec.LOG:
+                        writer.write( "# principal: " );
+                        writer.write( record.principal );
+                        writer.write( '\n' );
+                        writer.write( "# timestamp: " );
+                        writer.write( Long.toString( record.timestamp ) );
+                        writer.write( '\n' );
+                        writer.write( "# revision: " );
+                        writer.write( Long.toString( record.revision ) );
+                        writer.write( '\n' );
+
+                        try
+                        {
+                            String ldif = LdifUtils.convertToLdif( record.change, 80 );
+                            writer.write( ldif );
+
+                            if ( !ldif.endsWith( "\n\n" ) )
+                            {
+                                writer.write( '\n' );
+                            }
+                        }
+                        catch ( LdapException le )
+                        {
+                            throw new IOException( le.getMessage(), le );
+                        }
+
+                        nbChanges++;
+                        break;
+
+                    case JournalCodec.ACK:
+                        writer.write( "# ack-revision: " );
+                        writer.write( Long.toString( record.revision ) );
+                        writer.write( "\n\n" );
+                        break;
+
+                    default:
+                        writer.write( "# nack-revision: " );
+                        writer.write( Long.toString( record.revision ) );
+                        writer.write( "\n\n" );
+                        break;
+                }
+
+                record = JournalCodec.read( in );
+            }
+        }
+
+        writer.flush();
+
+        return nbChanges;
+    }
+
+
+    /**
+     * Exports a journal from the command line
+     *
+     * @param args The journal file, and the LDIF file to create. The LDIF is written on the
+     * standard output if no LDIF file is given
+     * @throws IOException If the journal can't be exported
+     */
+    public static void main( String[] args ) throws IOException
+    {
+        if ( ( args.length < 1 ) || ( args.length > 2 ) )
+        {
+            System.err.println( "Usage : JournalLdifExporter <journal> [<ldif file>]" );
+            System.exit( 1 );
+        }
+
+        File journal = new File( args[0] );
+
+        if ( args.length == 1 )
+        {
+            export( journal, new OutputStreamWriter( System.out, StandardCharsets.UTF_8 ) );
+        }
+        else
+        {
+            try ( Writer writer = Files.newBufferedWriter( Paths.get( args[1] ), StandardCharsets.UTF_8 ) )
+            {
+                export( journal, writer );
+            }
+        }
+    }
+}
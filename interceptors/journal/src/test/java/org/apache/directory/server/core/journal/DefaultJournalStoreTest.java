@@ -0,0 +1,274 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.journal;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.directory.api.ldap.model.constants.AuthenticationLevel;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.server.core.api.LdapPrincipal;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+
+/**
+ * Tests the DefaultJournalStore.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class DefaultJournalStoreTest
+{
+    @TempDir
+    File workingDirectory;
+
+    /** The principal logging the changes */
+    private static LdapPrincipal principal;
+
+    private DefaultJournalStore store;
+
+
+    @BeforeAll
+    public static void createPrincipal() throws Exception
+    {
+        SchemaManager schemaManager = new DefaultSchemaManager();
+        principal = new LdapPrincipal( schemaManager, new Dn( schemaManager, "uid=admin,ou=system" ),
+            AuthenticationLevel.SIMPLE );
+    }
+
+
+    @BeforeEach
+    public void setUp() throws Exception
+    {
+        store = createStore();
+    }
+
+
+    @AfterEach
+    public void tearDown() throws Exception
+    {
+        store.destroy();
+    }
+
+
+    private DefaultJournalStore createStore()
+    {
+        DefaultJournalStore journalStore = new DefaultJournalStore();
+        journalStore.setWorkingDirectory( workingDirectory.getPath() );
+
+        return journalStore;
+    }
+
+
+    private File getJournal()
+    {
+        return new File( workingDirectory, DefaultJournalStore.DEFAULT_FILE_NAME );
+    }
+
+
+    /**
+     * Reads all the records of the journal
+     */
+    private List<JournalCodec.Record> readJournal() throws Exception
+    {
+        List<JournalCodec.Record> records = new ArrayList<>();
+
+        try ( DataInputStream in = new DataInputStream(
+            new BufferedInputStream( new FileInputStream( getJournal() ) ) ) )
+        {
+            assertTrue( JournalCodec.readHeader( in ) );
+            JournalCodec.Record record = JournalCodec.read( in );
+
+            while ( record != null )
+            {
+                records.add( record );
+                record = JournalCodec.read( in );
+            }
+        }
+
+        return records;
+    }
+
+
+    @Test
+    public void testLogAckNack() throws Exception
+    {
+        store.init( null );
+
+        assertTrue( store.log( principal, 1L, JournalCodecTest.addChange( "cn=test,ou=system" ) ) );
+        assertTrue( store.ack( 1L ) );
+        assertTrue( store.nack( 2L ) );
+        store.sync();
+
+        List<JournalCodec.Record> records = readJournal();
+        assertEquals( 3, records.size() );
+        assertEquals( JournalCodec.LOG, records.get( 0 ).type );
+        assertEquals( principal.getName(), records.get( 0 ).principal );
+        assertEquals( JournalCodec.ACK, records.get( 1 ).type );
+        assertEquals( JournalCodec.NACK, records.get( 2 ).type );
+        assertEquals( 2L, records.get( 2 ).revision );
+    }
+
+
+    @Test
+    public void testLogAfterDestroy() throws Exception
+    {
+        store.init( null );
+        store.destroy();
+
+        assertFalse( store.ack( 1L ) );
+    }
+
+
+    /**
+     * The records logged by concurrent threads are all written, and all the threads
+     * are released
+     */
+    @Test
+    public void testConcurrentLogs() throws Exception
+    {
+        store.setSyncOnWrite( true );
+        store.init( null );
+
+        int nbThreads = 8;
+        int nbRecords = 50;
+        ExecutorService executor = Executors.newFixedThreadPool( nbThreads );
+        List<Future<Boolean>> results = new ArrayList<>();
+
+        try
+        {
+            for ( int i = 0; i < nbThreads; i++ )
+            {
+                long first = i * nbRecords;
+
+                Callable<Boolean> logger = () ->
+                {
+                    boolean success = true;
+
+                    for ( long revision = first; revision < first + nbRecords; revision++ )
+                    {
+                        success &= store.log( principal, revision,
+                            JournalCodecTest.addChange( "cn=test" + revision + ",ou=system" ) );
+                    }
+
+                    return success;
+                };
+
+                results.add( executor.submit( logger ) );
+            }
+
+            for ( Future<Boolean> result : results )
+            {
+                assertTrue( result.get() );
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+
+        Set<Long> revisions = new HashSet<>();
+
+        for ( JournalCodec.Record record : readJournal() )
+        {
+            revisions.add( record.revision );
+        }
+
+        assertEquals( nbThreads * nbRecords, revisions.size() );
+    }
+
+
+    /**
+     * An incomplete record at the end of the journal is removed, the new records are
+     * written after the last complete one
+     */
+    @Test
+    public void testIncompleteTailTruncated() throws Exception
+    {
+        store.init( null );
+        assertTrue( store.ack( 1L ) );
+        assertTrue( store.ack( 2L ) );
+        store.destroy();
+
+        long length = getJournal().length();
+
+        try ( RandomAccessFile file = new RandomAccessFile( getJournal(), "rw" ) )
+        {
+            file.setLength( length - 3 );
+        }
+
+        store = createStore();
+        store.init( null );
+        assertEquals( length - JournalCodec.encodeAck( JournalCodec.ACK, 2L ).length, getJournal().length() );
+
+        assertTrue( store.ack( 3L ) );
+        store.sync();
+
+        List<JournalCodec.Record> records = readJournal();
+        assertEquals( 2, records.size() );
+        assertEquals( 1L, records.get( 0 ).revision );
+        assertEquals( 3L, records.get( 1 ).revision );
+    }
+
+
+    /**
+     * A journal written in the old text format is kept aside
+     */
+    @Test
+    public void testOldFormatRenamed() throws Exception
+    {
+        String oldJournal = "dn: cn=test,ou=system\nchangetype: delete\n\n";
+        Files.write( getJournal().toPath(), oldJournal.getBytes( StandardCharsets.UTF_8 ) );
+
+        store.init( null );
+        assertTrue( store.ack( 1L ) );
+        store.sync();
+
+        File[] old = workingDirectory.listFiles( ( dir, name ) -> name.endsWith( ".old" ) );
+        assertEquals( 1, old.length );
+        assertTrue( old[0].getName().startsWith( DefaultJournalStore.DEFAULT_FILE_NAME + "." ) );
+        assertEquals( oldJournal, new String( Files.readAllBytes( old[0].toPath() ), StandardCharsets.UTF_8 ) );
+
+        assertEquals( 1, readJournal().size() );
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.journal;
+
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.ldif.ChangeType;
+import org.apache.directory.api.ldap.model.ldif.LdifEntry;
+import org.junit.jupiter.api.Test;
+
+
+/**
+ * Tests the encoding and the decoding of the journal records.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class JournalCodecTest
+{
+    private static DataInputStream stream( byte[]... chunks ) throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        for ( byte[] chunk : chunks )
+        {
+            out.write( chunk );
+        }
+
+        return new DataInputStream( new ByteArrayInputStream( out.toByteArray() ) );
+    }
+
+
+    static LdifEntry addChange( String dn ) throws Exception
+    {
+        return new LdifEntry( dn,
+            "changetype: add",
+            "objectClass: top",
+            "objectClass: person",
+            "cn: test",
+            "sn: test" );
+    }
+
+
+    @Test
+    public void testHeader() throws Exception
+    {
+        byte[] header = JournalCodec.encodeHeader();
+
+        assertEquals( JournalCodec.HEADER_SIZE, header.length );
+        assertTrue( JournalCodec.readHeader( stream( header ) ) );
+        assertFalse( JournalCodec.readHeader( stream( "dn: ou=system\n".getBytes( StandardCharsets.UTF_8 ) ) ) );
+        assertFalse( JournalCodec.readHeader( stream( new byte[] { 'A', 'D' } ) ) );
+    }
+
+
+    @Test
+    public void testLogRoundTrip() throws Exception
+    {
+        LdifEntry add = addChange( "cn=test,ou=system" );
+        byte[] data = JournalCodec.encodeLog( "uid=admin,ou=system", 12L, 1234L, add );
+
+        JournalCodec.Record record = JournalCodec.read( stream( data ) );
+
+        assertEquals( JournalCodec.LOG, record.type );
+        assertEquals( 12L, record.revision );
+        assertEquals( 1234L, record.timestamp );
+        assertEquals( "uid=admin,ou=system", record.principal );
+        assertEquals( ChangeType.Add, record.change.getChangeType() );
+        assertEquals( "cn=test,ou=system", record.change.getDn().getName() );
+        assertEquals( add.getEntry(), record.change.getEntry() );
+    }
+
+
+    @Test
+    public void testModifyAndModDnRoundTrip() throws Exception
+    {
+        LdifEntry modify = new LdifEntry();
+        modify.setChangeType( ChangeType.Modify );
+        modify.setDn( "cn=test,ou=system" );
+        modify.addModification( ModificationOperation.REPLACE_ATTRIBUTE, new DefaultAttribute( "sn", "other" ) );
+        modify.addModification( ModificationOperation.ADD_ATTRIBUTE, new DefaultAttribute( "userPassword", new byte[]
+            { 0x00, 0x01, ( byte ) 0xFF } ) );
+
+        LdifEntry modDn = new LdifEntry();
+        modDn.setChangeType( ChangeType.ModDn );
+        modDn.setDn( "cn=test,ou=system" );
+        modDn.setNewRdn( "cn=moved" );
+        modDn.setDeleteOldRdn( true );
+
+        DataInputStream in = stream( JournalCodec.encodeLog( "uid=admin,ou=system", 1L, 0L, modify ),
+            JournalCodec.encodeLog( "uid=admin,ou=system", 2L, 0L, modDn ) );
+
+        LdifEntry read = JournalCodec.read( in ).change;
+        assertEquals( ChangeType.Modify, read.getChangeType() );
+        assertEquals( 2, read.getModifications().size() );
+        assertEquals( ModificationOperation.REPLACE_ATTRIBUTE, read.getModifications().get( 0 ).getOperation() );
+        assertEquals( "other", read.getModifications().get( 0 ).getAttribute().getString() );
+        assertArrayEquals( new byte[]
+            { 0x00, 0x01, ( byte ) 0xFF }, read.getModifications().get( 1 ).getAttribute().getBytes() );
+
+        read = JournalCodec.read( in ).change;
+        assertEquals( ChangeType.ModDn, read.getChangeType() );
+        assertEquals( "cn=moved", read.getNewRdn() );
+        assertTrue( read.isDeleteOldRdn() );
+        assertNull( read.getNewSuperior() );
+
+        assertNull( JournalCodec.read( in ) );
+    }
+
+
+    @Test
+    public void testAckRoundTrip() throws Exception
+    {
+        DataInputStream in = stream( JournalCodec.encodeAck( JournalCodec.ACK, 0x0102030405060708L ),
+            JournalCodec.encodeAck( JournalCodec.NACK, 3L ) );
+
+        JournalCodec.Record record = JournalCodec.read( in );
+        assertEquals( JournalCodec.ACK, record.type );
+        assertEquals( 0x0102030405060708L, record.revision );
+
+        record = JournalCodec.read( in );
+        assertEquals( JournalCodec.NACK, record.type );
+        assertEquals( 3L, record.revision );
+        assertNull( record.change );
+    }
+
+
+    @Test
+    public void testSkip() throws Exception
+    {
+        byte[] log = JournalCodec.encodeLog( "uid=admin,ou=system", 1L, 0L, addChange( "cn=test,ou=system" ) );
+        byte[] ack = JournalCodec.encodeAck( JournalCodec.ACK, 1L );
+        DataInputStream in = stream( log, ack );
+
+        assertEquals( log.length, JournalCodec.skip( in ) );
+        assertEquals( ack.length, JournalCodec.skip( in ) );
+        assertEquals( -1, JournalCodec.skip( in ) );
+    }
+
+
+    @Test
+    public void testCorruptedRecord() throws Exception
+    {
+        byte[] ack = JournalCodec.encodeAck( JournalCodec.ACK, 1L );
+        byte[] corrupted = ack.clone();
+        corrupted[corrupted.length - 1] ^= 0x01;
+
+        DataInputStream in = stream( ack, corrupted );
+
+        assertEquals( ack.length, JournalCodec.skip( in ) );
+        assertEquals( -1, JournalCodec.skip( in ) );
+    }
+
+
+    @Test
+    public void testIncompleteRecord() throws Exception
+    {
+        byte[] log = JournalCodec.encodeLog( "uid=admin,ou=system", 1L, 0L, addChange( "cn=test,ou=system" ) );
+
+        // The frame alone, then a part of the data
+        assertNull( JournalCodec.read( stream( Arrays.copyOf( log, 6 ) ) ) );
+        assertNull( JournalCodec.read( stream( Arrays.copyOf( log, log.length - 1 ) ) ) );
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.journal;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.ldif.ChangeType;
+import org.apache.directory.api.ldap.model.ldif.LdifEntry;
+import org.apache.directory.api.ldap.model.ldif.LdifReader;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+
+/**
+ * Tests the JournalLdifExporter.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class JournalLdifExporterTest
+{
+    @TempDir
+    File workingDirectory;
+
+
+    @Test
+    public void testExport() throws Exception
+    {
+        File journal = new File( workingDirectory, "journal.bin" );
+        Files.write( journal.toPath(), JournalCodec.encodeHeader() );
+        Files.write( journal.toPath(),
+            JournalCodec.encodeLog( "uid=admin,ou=system", 1L, 1234L, JournalCodecTest.addChange( "cn=test,ou=system" ) ),
+            StandardOpenOption.APPEND );
+        Files.write( journal.toPath(), JournalCodec.encodeAck( JournalCodec.ACK, 1L ),
+            StandardOpenOption.APPEND );
+
+        StringWriter writer = new StringWriter();
+        assertEquals( 1, JournalLdifExporter.export( journal, writer ) );
+
+        String ldif = writer.toString();
+        assertTrue( ldif.contains( "# principal: uid=admin,ou=system\n" ) );
+        assertTrue( ldif.contains( "# timestamp: 1234\n" ) );
+        assertTrue( ldif.contains( "# ack-revision: 1\n" ) );
+
+        try ( LdifReader reader = new LdifReader() )
+        {
+            List<LdifEntry> entries = reader.parseLdif( ldif );
+            assertEquals( 1, entries.size() );
+            assertEquals( ChangeType.Add, entries.get( 0 ).getChangeType() );
+            assertEquals( "cn=test,ou=system", entries.get( 0 ).getDn().getName() );
+        }
+    }
+
+
+    @Test
+    public void testExportNotAJournal() throws Exception
+    {
+        File journal = new File( workingDirectory, "journal.ldif" );
+        Files.write( journal.toPath(), "dn: ou=system\n\n".getBytes( StandardCharsets.UTF_8 ) );
+
+        assertThrows( IOException.class, () -> JournalLdifExporter.export( journal, new StringWriter() ) );
+    }
+}
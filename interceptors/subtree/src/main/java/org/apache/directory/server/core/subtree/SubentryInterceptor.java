@@ -20,7 +20,9 @@
 package org.apache.directory.server.core.subtree;
 
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -43,6 +45,7 @@ import org.apache.directory.api.ldap.model.exception.LdapOperationErrorException
 import org.apache.directory.api.ldap.model.exception.LdapOperationException;
 import org.apache.directory.api.ldap.model.exception.LdapOtherException;
 import org.apache.directory.api.ldap.model.exception.LdapSchemaViolationException;
+import org.apache.directory.api.ldap.model.exception.LdapServiceUnavailableException;
 import org.apache.directory.api.ldap.model.filter.EqualityNode;
 import org.apache.directory.api.ldap.model.filter.ExprNode;
 import org.apache.directory.api.ldap.model.filter.ObjectClassNode;
@@ -105,6 +108,21 @@ public class SubentryInterceptor extends BaseInterceptor
     /** A reference to the nexus for direct backend operations */
     private PartitionNexus nexus;
 
+    /** The default number of entries modified in a transaction by a background update */
+    public static final int DEFAULT_UPDATE_BATCH_SIZE = 1000;
+
+    /** Tells if the entries selected by a subentry are updated in the background */
+    private boolean backgroundUpdates;
+
+    /** The number of entries modified in a transaction by a background update */
+    private int updateBatchSize = DEFAULT_UPDATE_BATCH_SIZE;
+
+    /** The maximum number of entries updated per second in the background, 0 for no limit */
+    private int updateRate;
+
+    /** The background updater, when the updates are done in the background */
+    private SubentryUpdater updater;
+
     /** An enum used for the entries update */
     private enum OperationEnum
     {
@@ -282,6 +300,36 @@ public class SubentryInterceptor extends BaseInterceptor
                 }
             }
         }
+
+        if ( backgroundUpdates )
+        {
+            // Resumes the updates which were pending when the server has been stopped
+            updater = createUpdater();
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void destroy()
+    {
+        if ( updater != null )
+        {
+            updater.stop();
+            updater = null;
+        }
+
+        super.destroy();
+    }
+
+
+    private SubentryUpdater createUpdater() throws LdapException
+    {
+        File directory = new File( directoryService.getInstanceLayout().getRunDirectory(), "subentry-updates" );
+
+        return new SubentryUpdater( this, directoryService, directory, updateBatchSize, updateRate );
     }
 
 
@@ -430,6 +478,20 @@ public class SubentryInterceptor extends BaseInterceptor
     }
 
 
+    /**
+     * Checks that the entries selected by a subentry are not being updated in the background,
+     * before moving or renaming it : the pending updates reference the subentry Dn.
+     */
+    private void checkNoPendingUpdate( Dn subentryDn ) throws LdapException
+    {
+        if ( ( updater != null ) && updater.isPending( subentryDn ) )
+        {
+            throw new LdapServiceUnavailableException( ResultCodeEnum.BUSY,
+                I18n.err( I18n.ERR_29005_SUBENTRY_UPDATE_PENDING, subentryDn ) );
+        }
+    }
+
+
     /**
      * Checks if the given Dn is a namingContext
      */
@@ -560,10 +622,23 @@ public class SubentryInterceptor extends BaseInterceptor
         SubentryCache subentryCache = directoryService.getSubentryCache();
         SubtreeEvaluator evaluator = directoryService.getEvaluator();
 
-        for ( Dn subentryDn : subentryCache )
+        // Only the subentries stored in the ancestors of the old or of the new name,
+        // or in the entry itself, may select it
+        Set<Dn> subentryDns = new HashSet<>( subentryCache.getSubentries( oldName ) );
+        subentryDns.addAll( subentryCache.getSubentries( newName ) );
+
+        for ( Dn subentryDn : subentryDns )
         {
             Dn apDn = subentryDn.getParent();
-            SubtreeSpecification ss = subentryCache.getSubentry( subentryDn ).getSubtreeSpecification();
+            Subentry subentry = subentryCache.getSubentry( subentryDn );
+
+            if ( subentry == null )
+            {
+                // Removed in the meantime
+                continue;
+            }
+
+            SubtreeSpecification ss = subentry.getSubtreeSpecification();
             boolean isOldNameSelected = evaluator.evaluate( ss, apDn, oldName, entry );
             boolean isNewNameSelected = evaluator.evaluate( ss, apDn, newName, entry );
 
@@ -715,7 +790,7 @@ public class SubentryInterceptor extends BaseInterceptor
      * Gets the subschema operational attributes to be added to or removed from
      * an entry selected by a subentry's subtreeSpecification.
      */
-    private List<Attribute> getSubentryOperationalAttributes( Dn dn, Subentry subentry ) throws LdapException
+    List<Attribute> getSubentryOperationalAttributes( Dn dn, Subentry subentry ) throws LdapException
     {
         List<Attribute> attributes = new ArrayList<>();
 
@@ -764,7 +839,7 @@ public class SubentryInterceptor extends BaseInterceptor
      * @return the set of modifications required to remove an entry's reference to
      * a subentry
      */
-    private List<Modification> getOperationalModsForRemove( Dn subentryDn, Entry candidate ) throws LdapException
+    List<Modification> getOperationalModsForRemove( Dn subentryDn, Entry candidate ) throws LdapException
     {
         List<Modification> modifications = new ArrayList<>();
         String dn = subentryDn.getName();
@@ -793,7 +868,7 @@ public class SubentryInterceptor extends BaseInterceptor
      * selected by the subtree specification.  This method calculates the
      * modify operation to be performed on the entry.
      */
-    private List<Modification> getOperationalModsForAdd( Entry entry, List<Attribute> operationalAttributes )
+    List<Modification> getOperationalModsForAdd( Entry entry, List<Attribute> operationalAttributes )
         throws LdapException
     {
         List<Modification> modifications = new ArrayList<>();
@@ -833,11 +908,20 @@ public class SubentryInterceptor extends BaseInterceptor
     {
         List<Modification> modList = new ArrayList<>();
 
-        for ( Dn subentryDn : directoryService.getSubentryCache() )
+        SubentryCache subentryCache = directoryService.getSubentryCache();
+
+        for ( Dn subentryDn : subentryCache.getSubentries( name ) )
         {
             Dn apDn = subentryDn.getParent();
-            SubtreeSpecification ss = directoryService.getSubentryCache().getSubentry( subentryDn )
-                .getSubtreeSpecification();
+            Subentry subentry = subentryCache.getSubentry( subentryDn );
+
+            if ( subentry == null )
+            {
+                // Removed in the meantime
+                continue;
+            }
+
+            SubtreeSpecification ss = subentry.getSubtreeSpecification();
             boolean isOldEntrySelected = directoryService.getEvaluator().evaluate( ss, apDn, name, oldEntry );
             boolean isNewEntrySelected = directoryService.getEvaluator().evaluate( ss, apDn, name, newEntry );
 
@@ -969,8 +1053,16 @@ public class SubentryInterceptor extends BaseInterceptor
             Dn baseDn = apDn;
             baseDn = baseDn.add( subentry.getSubtreeSpecification().getBase() );
 
-            updateEntries( addContext, OperationEnum.ADD, apDn, subentry.getSubtreeSpecification(),
-                baseDn, operationalAttributes );
+            if ( updater != null )
+            {
+                String subtree = entry.get( directoryService.getAtProvider().getSubtreeSpecification() ).getString();
+                updater.schedule( true, dn, baseDn, subtree, subentry.getAdministrativeRoles() );
+            }
+            else
+            {
+                updateEntries( addContext, OperationEnum.ADD, apDn, subentry.getSubtreeSpecification(),
+                    baseDn, operationalAttributes );
+            }
 
             // Store the newly modified entry into the context for later use in interceptor
             // just in case
@@ -981,17 +1073,15 @@ public class SubentryInterceptor extends BaseInterceptor
             // The added entry is not a Subentry.
             // Nevertheless, we have to check if the entry is added into an AdministrativePoint
             // and is associated with some SubtreeSpecification
-            // We brutally check *all* the subentries, as we don't hold a hierarchy
-            // of AP
-            // TODO : add a hierarchy of subentries
-            for ( Dn subentryDn : directoryService.getSubentryCache() )
+            // Only the subentries stored in the entry's ancestors are checked
+            for ( Dn subentryDn : directoryService.getSubentryCache().getSubentries( dn ) )
             {
                 Dn apDn = subentryDn.getParent();
+                Subentry subentry = directoryService.getSubentryCache().getSubentry( subentryDn );
 
-                // No need to evaluate the entry if it's not below an AP.
-                if ( dn.isDescendantOf( apDn ) )
+                // No need to evaluate the entry if the subentry has been removed in the meantime
+                if ( subentry != null )
                 {
-                    Subentry subentry = directoryService.getSubentryCache().getSubentry( subentryDn );
                     SubtreeSpecification ss = subentry.getSubtreeSpecification();
 
                     // Now, evaluate the entry wrt the subentry ss
@@ -1064,8 +1154,15 @@ public class SubentryInterceptor extends BaseInterceptor
             baseDn = baseDn.add( removedSubentry.getSubtreeSpecification().getBase() );
 
             // Remove all the references to this removed subentry from all the selected entries
-            updateEntries( deleteContext, OperationEnum.REMOVE, apDn,
-                removedSubentry.getSubtreeSpecification(), baseDn, null );
+            if ( updater != null )
+            {
+                updater.schedule( false, dn, baseDn, null, null );
+            }
+            else
+            {
+                updateEntries( deleteContext, OperationEnum.REMOVE, apDn,
+                    removedSubentry.getSubtreeSpecification(), baseDn, null );
+            }
 
             // Update the cache
             directoryService.getSubentryCache().removeSubentry( dn );
@@ -1122,6 +1219,7 @@ public class SubentryInterceptor extends BaseInterceptor
         {
             Subentry subentry = directoryService.getSubentryCache().removeSubentry( dn );
             SubtreeSpecification ssOld = subentry.getSubtreeSpecification();
+            String oldSubtree = entry.get( directoryService.getAtProvider().getSubtreeSpecification() ).getString();
             SubtreeSpecification ssNew;
 
             try
@@ -1146,6 +1244,18 @@ public class SubentryInterceptor extends BaseInterceptor
             Dn oldBaseDn = apName;
             oldBaseDn = oldBaseDn.add( ssOld.getBase() );
 
+            if ( updater != null )
+            {
+                // Only update the entries which are selected by one SS and not by the other one
+                Dn newBaseDn = apName;
+                newBaseDn = newBaseDn.add( ssNew.getBase() );
+
+                updater.scheduleModification( dn, oldBaseDn, oldSubtree, newBaseDn,
+                    subtreeMod.getAttribute().getString(), subentry.getAdministrativeRoles() );
+
+                return;
+            }
+
             ExprNode filter = new PresenceNode( directoryService.getAtProvider().getObjectClass() );
             SearchControls controls = new SearchControls();
             controls.setSearchScope( SearchControls.SUBTREE_SCOPE );
@@ -1302,6 +1412,8 @@ public class SubentryInterceptor extends BaseInterceptor
 
         if ( entry.contains( directoryService.getAtProvider().getObjectClass(), SchemaConstants.SUBENTRY_OC ) )
         {
+            checkNoPendingUpdate( oldDn );
+
             // This is a subentry. Moving a subentry means we have to:
             // o Check that there is a new AP where we move the subentry
             // o Remove the op Attr from all the entry selected by the subentry
@@ -1432,6 +1544,8 @@ public class SubentryInterceptor extends BaseInterceptor
 
         if ( entry.contains( directoryService.getAtProvider().getObjectClass(), SchemaConstants.SUBENTRY_OC ) )
         {
+            checkNoPendingUpdate( oldDn );
+
             Subentry subentry = directoryService.getSubentryCache().removeSubentry( oldDn );
             SubtreeSpecification ss = subentry.getSubtreeSpecification();
             Dn apName = oldDn.getParent();
@@ -1543,6 +1657,8 @@ public class SubentryInterceptor extends BaseInterceptor
 
         if ( entry.contains( directoryService.getAtProvider().getObjectClass(), SchemaConstants.SUBENTRY_OC ) )
         {
+            checkNoPendingUpdate( oldDn );
+
             // @Todo To be reviewed !!!
             Subentry subentry = directoryService.getSubentryCache().removeSubentry( oldDn );
             SubtreeSpecification ss = subentry.getSubtreeSpecification();
@@ -1675,4 +1791,128 @@ public class SubentryInterceptor extends BaseInterceptor
 
         return cursor;
     }
+
+
+    //-------------------------------------------------------------------------------------------
+    // Background updates
+    //-------------------------------------------------------------------------------------------
+    /**
+     * @return <code>true</code> if the entries selected by an added, modified or deleted subentry
+     * are updated in the background
+     */
+    public boolean isBackgroundUpdates()
+    {
+        return backgroundUpdates;
+    }
+
+
+    /**
+     * Tells if the entries selected by an added, modified or deleted subentry are updated in
+     * the background, by batches, instead of in the subentry operation transaction. The
+     * references to the subentry are then eventually consistent, and a subentry can't be
+     * moved or renamed while its entries are being updated. The pending updates are resumed
+     * when the server is restarted.
+     *
+     * @param backgroundUpdates <code>true</code> to update the entries in the background
+     * @throws LdapException If the pending updates can't be resumed
+     */
+    public void setBackgroundUpdates( boolean backgroundUpdates ) throws LdapException
+    {
+        this.backgroundUpdates = backgroundUpdates;
+
+        if ( nexus == null )
+        {
+            // Not initialized yet
+            return;
+        }
+
+        if ( backgroundUpdates && ( updater == null ) )
+        {
+            updater = createUpdater();
+        }
+        else if ( !backgroundUpdates && ( updater != null ) )
+        {
+            // The pending updates will be resumed when enabled again
+            updater.stop();
+            updater = null;
+        }
+    }
+
+
+    /**
+     * @return The number of entries modified in a transaction by a background update
+     */
+    public int getUpdateBatchSize()
+    {
+        return updateBatchSize;
+    }
+
+
+    /**
+     * @param updateBatchSize The number of entries modified in a transaction by a background update
+     */
+    public void setUpdateBatchSize( int updateBatchSize )
+    {
+        this.updateBatchSize = updateBatchSize;
+
+        if ( updater != null )
+        {
+            updater.setBatchSize( updateBatchSize );
+        }
+    }
+
+
+    /**
+     * @return The maximum number of entries updated per second in the background, 0 for no limit
+     */
+    public int getUpdateRate()
+    {
+        return updateRate;
+    }
+
+
+    /**
+     * @param updateRate The maximum number of entries updated per second in the background, 0 for no limit
+     */
+    public void setUpdateRate( int updateRate )
+    {
+        this.updateRate = updateRate;
+
+        if ( updater != null )
+        {
+            updater.setRate( updateRate );
+        }
+    }
+
+
+    /**
+     * @return The pending background updates, with their progress. The first one is being processed.
+     */
+    public List<SubentryUpdate> getPendingSubentryUpdates()
+    {
+        if ( updater == null )
+        {
+            return Collections.emptyList();
+        }
+
+        return updater.getPending();
+    }
+
+
+    /**
+     * Waits for the pending background updates to be done.
+     *
+     * @param timeout The maximum time to wait, in milliseconds
+     * @return <code>true</code> if there is no more pending update
+     * @throws InterruptedException If the thread is interrupted while waiting
+     */
+    public boolean awaitSubentryUpdates( long timeout ) throws InterruptedException
+    {
+        if ( updater == null )
+        {
+            return true;
+        }
+
+        return updater.await( timeout );
+    }
 }
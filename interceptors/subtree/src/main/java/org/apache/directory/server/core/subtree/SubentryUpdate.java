@@ -0,0 +1,257 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.subtree;
+
+
+import java.util.Set;
+
+
+/**
+ * A pending update of the entries selected by a subentry, applied in background by the
+ * {@link SubentryInterceptor} when the background updates are enabled : the references to
+ * the subentry are added to (or removed from) the entries' subentry operational attributes
+ * by batches.
+ * <p>
+ * When the subtree specification of a subentry is modified, a single update adds the
+ * references to the newly selected entries and removes them from the entries which aren't
+ * selected anymore, leaving the entries selected by both specifications untouched.
+ * <p>
+ * The update first scans the entries below the subtree base and stores the names of the
+ * entries to update. It then updates them, batch by batch. The progress is stored on disk,
+ * so the update can be resumed when the server is restarted.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SubentryUpdate
+{
+    /** The update sequence number, which is also its file name */
+    private final long id;
+
+    /** true if the references are added, false if they are removed */
+    private final boolean addition;
+
+    /** The subentry Dn */
+    private final String subentryDn;
+
+    /** The base of the scanned entries */
+    private final String baseDn;
+
+    /** The subtree specification selecting the entries, for an addition */
+    private final String subtreeSpecification;
+
+    /** The subentry administrative roles, for an addition */
+    private final Set<String> roles;
+
+    /** The base of the entries selected by the previous subtree specification, for a modification */
+    private final String oldBaseDn;
+
+    /** The previous subtree specification, for a modification */
+    private final String oldSubtreeSpecification;
+
+    /** The number of entries to update, -1 until the scan is done */
+    private volatile long total = -1L;
+
+    /** The number of entries already processed */
+    private volatile long processed;
+
+
+    /**
+     * Creates a new instance of SubentryUpdate.
+     *
+     * @param id The update sequence number
+     * @param addition true if the references are added, false if they are removed
+     * @param subentryDn The subentry Dn
+     * @param baseDn The base of the scanned entries
+     * @param subtreeSpecification The subtree specification, for an addition
+     * @param roles The subentry administrative roles, for an addition
+     */
+    SubentryUpdate( long id, boolean addition, String subentryDn, String baseDn, String subtreeSpecification,
+        Set<String> roles )
+    {
+        this.id = id;
+        this.addition = addition;
+        this.subentryDn = subentryDn;
+        this.baseDn = baseDn;
+        this.subtreeSpecification = subtreeSpecification;
+        this.roles = roles;
+        oldBaseDn = null;
+        oldSubtreeSpecification = null;
+    }
+
+
+    /**
+     * Creates a new instance of SubentryUpdate, for a modified subtree specification.
+     *
+     * @param id The update sequence number
+     * @param subentryDn The subentry Dn
+     * @param oldBaseDn The base of the entries selected by the previous subtree specification
+     * @param oldSubtreeSpecification The previous subtree specification
+     * @param baseDn The base of the entries selected by the new subtree specification
+     * @param subtreeSpecification The new subtree specification
+     * @param roles The subentry administrative roles
+     */
+    SubentryUpdate( long id, String subentryDn, String oldBaseDn, String oldSubtreeSpecification, String baseDn,
+        String subtreeSpecification, Set<String> roles )
+    {
+        this.id = id;
+        addition = true;
+        this.subentryDn = subentryDn;
+        this.oldBaseDn = oldBaseDn;
+        this.oldSubtreeSpecification = oldSubtreeSpecification;
+        this.baseDn = baseDn;
+        this.subtreeSpecification = subtreeSpecification;
+        this.roles = roles;
+    }
+
+
+    /**
+     * @return The update sequence number
+     */
+    public long getId()
+    {
+        return id;
+    }
+
+
+    /**
+     * @return true if the references to the subentry are added, false if they are removed
+     */
+    public boolean isAddition()
+    {
+        return addition;
+    }
+
+
+    /**
+     * @return The subentry Dn
+     */
+    public String getSubentryDn()
+    {
+        return subentryDn;
+    }
+
+
+    /**
+     * @return The base of the scanned entries
+     */
+    public String getBaseDn()
+    {
+        return baseDn;
+    }
+
+
+    /**
+     * @return The subtree specification selecting the entries, null for a removal
+     */
+    public String getSubtreeSpecification()
+    {
+        return subtreeSpecification;
+    }
+
+
+    /**
+     * @return The subentry administrative roles, null for a removal
+     */
+    public Set<String> getRoles()
+    {
+        return roles;
+    }
+
+
+    /**
+     * @return true if the subtree specification of the subentry has been modified : the references
+     * are added to the entries it now selects, and removed from the entries it doesn't select anymore
+     */
+    public boolean isModification()
+    {
+        return oldSubtreeSpecification != null;
+    }
+
+
+    /**
+     * @return The base of the entries selected by the previous subtree specification, null if
+     * it's not a modification
+     */
+    public String getOldBaseDn()
+    {
+        return oldBaseDn;
+    }
+
+
+    /**
+     * @return The previous subtree specification, null if it's not a modification
+     */
+    public String getOldSubtreeSpecification()
+    {
+        return oldSubtreeSpecification;
+    }
+
+
+    /**
+     * @return The number of entries to update, or -1 if they are still being scanned
+     */
+    public long getTotal()
+    {
+        return total;
+    }
+
+
+    void setTotal( long total )
+    {
+        this.total = total;
+    }
+
+
+    /**
+     * @return The number of entries already processed
+     */
+    public long getProcessed()
+    {
+        return processed;
+    }
+
+
+    void setProcessed( long processed )
+    {
+        this.processed = processed;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        String operation;
+
+        if ( isModification() )
+        {
+            operation = "Modify ";
+        }
+        else
+        {
+            operation = addition ? "Add " : "Remove ";
+        }
+
+        return operation + "the references to " + subentryDn + " : "
+            + ( total < 0 ? "scanning " + baseDn : processed + "/" + total + " entries" );
+    }
+}
@@ -0,0 +1,968 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.subtree;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import javax.naming.directory.SearchControls;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.filter.ObjectClassNode;
+import org.apache.directory.api.ldap.model.message.AliasDerefMode;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.subtree.AdministrativeRole;
+import org.apache.directory.api.ldap.model.subtree.Subentry;
+import org.apache.directory.api.ldap.model.subtree.SubtreeSpecification;
+import org.apache.directory.api.ldap.model.subtree.SubtreeSpecificationParser;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.OperationManager;
+import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
+import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.api.partition.PartitionNexus;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Applies the {@link SubentryUpdate}s in a background thread, one after the other, in the
+ * order they have been scheduled.
+ * <p>
+ * An update is done in two phases :
+ * <ul>
+ *   <li>the entries below the subtree base are scanned, and the names of the entries which
+ *   have to be updated are written in a file. The partition is only read locked, like for a
+ *   search</li>
+ *   <li>the entries are modified by batches. Each batch is done in its own transaction,
+ *   holding the partition write lock, and the number of entries modified per second
+ *   can be limited, so that the server keeps on processing the other operations.</li>
+ * </ul>
+ * When the subtree specification of a subentry is modified, the entries selected by the old
+ * and the new specifications are scanned together, and only the entries which are selected by
+ * one of them are modified : the entries selected by both keep their references all along.
+ * <p>
+ * The updates and their progress are stored in a directory, and resumed when the
+ * server is restarted. As the modifications are computed from the current state of
+ * the entries, processing a batch again is harmless.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class SubentryUpdater implements Runnable
+{
+    /** The logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( SubentryUpdater.class );
+
+    /** The extension of the files describing the updates */
+    private static final String UPDATE_EXTENSION = ".update";
+
+    /** The extension of the files listing the entries to update */
+    private static final String ENTRIES_EXTENSION = ".entries";
+
+    /** The delay before retrying a failed update, in milliseconds */
+    private static final long RETRY_DELAY = 10000L;
+
+    /** The subentry interceptor, which computes the modifications */
+    private final SubentryInterceptor interceptor;
+
+    /** The directory service */
+    private final DirectoryService directoryService;
+
+    /** The partition nexus */
+    private final PartitionNexus nexus;
+
+    /** The SubtreeSpecification parser */
+    private final SubtreeSpecificationParser ssParser;
+
+    /** The directory where the updates are stored */
+    private final File directory;
+
+    /** The pending updates, the first one being processed */
+    private final LinkedList<SubentryUpdate> updates = new LinkedList<>();
+
+    /** The next update sequence number */
+    private long nextId;
+
+    /** The maximum number of entries modified in a transaction */
+    private volatile int batchSize;
+
+    /** The maximum number of entries processed per second, 0 for no limit */
+    private volatile int rate;
+
+    /** The background thread, created when an update is scheduled */
+    private Thread thread;
+
+    /** Tells the thread to stop */
+    private volatile boolean stopped;
+
+
+    /**
+     * Creates a new instance of SubentryUpdater, and resumes the pending updates.
+     *
+     * @param interceptor The subentry interceptor
+     * @param directoryService The directory service
+     * @param directory The directory where the updates are stored
+     * @param batchSize The maximum number of entries modified in a transaction
+     * @param rate The maximum number of entries processed per second, 0 for no limit
+     * @throws LdapException If the pending updates can't be read
+     */
+    SubentryUpdater( SubentryInterceptor interceptor, DirectoryService directoryService, File directory,
+        int batchSize, int rate ) throws LdapException
+    {
+        this.interceptor = interceptor;
+        this.directoryService = directoryService;
+        this.directory = directory;
+        this.batchSize = batchSize;
+        this.rate = rate;
+        nexus = directoryService.getPartitionNexus();
+        ssParser = new SubtreeSpecificationParser( directoryService.getSchemaManager() );
+
+        if ( !directory.exists() && !directory.mkdirs() )
+        {
+            throw new LdapOtherException( "Cannot create the directory " + directory );
+        }
+
+        // Resume the pending updates, in their order
+        TreeMap<Long, SubentryUpdate> pending = new TreeMap<>();
+        File[] files = directory.listFiles( ( dir, name ) -> name.endsWith( UPDATE_EXTENSION ) );
+
+        if ( files != null )
+        {
+            for ( File file : files )
+            {
+                SubentryUpdate update = load( file );
+                pending.put( update.getId(), update );
+            }
+        }
+
+        if ( !pending.isEmpty() )
+        {
+            nextId = pending.lastKey() + 1L;
+            updates.addAll( pending.values() );
+            LOG.info( "Resuming {} subentry updates", updates.size() );
+            start();
+        }
+    }
+
+
+    void setBatchSize( int batchSize )
+    {
+        this.batchSize = batchSize;
+    }
+
+
+    void setRate( int rate )
+    {
+        this.rate = rate;
+    }
+
+
+    /**
+     * Schedules an update. It's stored before being queued, so that it's not lost if the
+     * server is stopped.
+     *
+     * @param addition true if the references are added, false if they are removed
+     * @param subentryDn The subentry Dn
+     * @param baseDn The base of the entries to scan
+     * @param subtreeSpecification The subtree specification, for an addition
+     * @param roles The subentry administrative roles, for an addition
+     * @return The scheduled update
+     * @throws LdapException If the update can't be stored
+     */
+    synchronized SubentryUpdate schedule( boolean addition, Dn subentryDn, Dn baseDn, String subtreeSpecification,
+        Set<AdministrativeRole> roles ) throws LdapException
+    {
+        return queue( new SubentryUpdate( nextId++, addition, subentryDn.getName(), baseDn.getName(),
+            subtreeSpecification, getRoleNames( roles ) ) );
+    }
+
+
+    /**
+     * Schedules the update of the entries selected by a subentry which subtree specification has
+     * been modified : the references are added to the entries selected by the new specification,
+     * and removed from the entries only selected by the old one, in one pass.
+     *
+     * @param subentryDn The subentry Dn
+     * @param oldBaseDn The base of the entries selected by the old subtree specification
+     * @param oldSubtreeSpecification The old subtree specification
+     * @param baseDn The base of the entries selected by the new subtree specification
+     * @param subtreeSpecification The new subtree specification
+     * @param roles The subentry administrative roles
+     * @return The scheduled update
+     * @throws LdapException If the update can't be stored
+     */
+    synchronized SubentryUpdate scheduleModification( Dn subentryDn, Dn oldBaseDn, String oldSubtreeSpecification,
+        Dn baseDn, String subtreeSpecification, Set<AdministrativeRole> roles ) throws LdapException
+    {
+        return queue( new SubentryUpdate( nextId++, subentryDn.getName(), oldBaseDn.getName(),
+            oldSubtreeSpecification, baseDn.getName(), subtreeSpecification, getRoleNames( roles ) ) );
+    }
+
+
+    private static Set<String> getRoleNames( Set<AdministrativeRole> roles )
+    {
+        if ( roles == null )
+        {
+            return null;
+        }
+
+        Set<String> roleNames = new HashSet<>();
+
+        for ( AdministrativeRole role : roles )
+        {
+            roleNames.add( role.name() );
+        }
+
+        return roleNames;
+    }
+
+
+    /**
+     * Stores an update before queuing it, so that it's not lost if the server is stopped
+     */
+    private SubentryUpdate queue( SubentryUpdate update ) throws LdapException
+    {
+        try
+        {
+            store( update );
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+
+        updates.add( update );
+        LOG.debug( "Scheduled : {}", update );
+
+        if ( thread == null )
+        {
+            start();
+        }
+
+        notifyAll();
+
+        return update;
+    }
+
+
+    /**
+     * Tells if an update of the entries selected by a subentry is pending
+     *
+     * @param subentryDn The subentry Dn
+     * @return true if an update is pending
+     * @throws LdapException If a stored Dn is invalid
+     */
+    synchronized boolean isPending( Dn subentryDn ) throws LdapException
+    {
+        for ( SubentryUpdate update : updates )
+        {
+            if ( subentryDn.equals( directoryService.getDnFactory().create( update.getSubentryDn() ) ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    /**
+     * @return The pending updates, the first one being processed
+     */
+    synchronized List<SubentryUpdate> getPending()
+    {
+        return Collections.unmodifiableList( new ArrayList<>( updates ) );
+    }
+
+
+    /**
+     * Waits for all the pending updates to be done
+     *
+     * @param timeout The maximum time to wait, in milliseconds
+     * @return true if there is no more pending update
+     * @throws InterruptedException If the thread is interrupted while waiting
+     */
+    synchronized boolean await( long timeout ) throws InterruptedException
+    {
+        long end = System.currentTimeMillis() + timeout;
+
+        while ( !updates.isEmpty() )
+        {
+            long remaining = end - System.currentTimeMillis();
+
+            if ( remaining <= 0L )
+            {
+                return false;
+            }
+
+            wait( remaining );
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Stops the background thread, once the current batch is done. The pending updates
+     * will be resumed on restart.
+     */
+    void stop()
+    {
+        Thread current;
+
+        synchronized ( this )
+        {
+            stopped = true;
+            current = thread;
+            notifyAll();
+        }
+
+        if ( current != null )
+        {
+            current.interrupt();
+
+            try
+            {
+                current.join();
+            }
+            catch ( InterruptedException ie )
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+
+    private void start()
+    {
+        thread = new Thread( this, "subentry-updater" );
+        thread.setDaemon( true );
+        thread.start();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void run()
+    {
+        while ( !stopped )
+        {
+            SubentryUpdate update;
+
+            synchronized ( this )
+            {
+                while ( updates.isEmpty() && !stopped )
+                {
+                    try
+                    {
+                        wait();
+                    }
+                    catch ( InterruptedException ie )
+                    {
+                        return;
+                    }
+                }
+
+                if ( stopped )
+                {
+                    return;
+                }
+
+                update = updates.getFirst();
+            }
+
+            try
+            {
+                if ( process( update ) )
+                {
+                    done( update );
+                }
+            }
+            catch ( Exception e )
+            {
+                if ( stopped )
+                {
+                    return;
+                }
+
+                LOG.error( "Failed to process the subentry update '{}', retrying in {}ms", update, RETRY_DELAY, e );
+
+                try
+                {
+                    Thread.sleep( RETRY_DELAY );
+                }
+                catch ( InterruptedException ie )
+                {
+                    return;
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Removes a processed update
+     */
+    private synchronized void done( SubentryUpdate update )
+    {
+        updates.remove( update );
+        getFile( update, UPDATE_EXTENSION ).delete();
+        getFile( update, ENTRIES_EXTENSION ).delete();
+        LOG.debug( "Done : {}", update );
+        notifyAll();
+    }
+
+
+    /**
+     * Processes an update
+     *
+     * @return true if the update is done, false if the thread has been stopped
+     */
+    private boolean process( SubentryUpdate update ) throws Exception
+    {
+        Dn subentryDn = directoryService.getDnFactory().create( update.getSubentryDn() );
+        Dn baseDn = directoryService.getDnFactory().create( update.getBaseDn() );
+        boolean deleted = directoryService.getSubentryCache().getSubentry( subentryDn ) == null;
+
+        if ( update.isAddition() && !update.isModification() && deleted )
+        {
+            // The subentry has been deleted in the meantime : nothing to add
+            return true;
+        }
+
+        // The references added to the entries selected by the old specification of a deleted
+        // subentry have still to be removed : the deletion only updates the new selection
+        Selection selection = new Selection( update, subentryDn, update.isAddition() && !deleted );
+
+        if ( update.getTotal() < 0L )
+        {
+            scan( update, getScannedBases( update, baseDn ), selection );
+        }
+
+        return apply( update, baseDn, selection );
+    }
+
+
+    /**
+     * @return The bases of the entries to scan : for a modification, the entries selected by
+     * the old and the new specifications, without scanning an entry twice
+     */
+    private List<Dn> getScannedBases( SubentryUpdate update, Dn baseDn ) throws LdapException
+    {
+        if ( !update.isModification() )
+        {
+            return Collections.singletonList( baseDn );
+        }
+
+        Dn oldBaseDn = directoryService.getDnFactory().create( update.getOldBaseDn() );
+
+        if ( baseDn.isDescendantOf( oldBaseDn ) )
+        {
+            return Collections.singletonList( oldBaseDn );
+        }
+        else if ( oldBaseDn.isDescendantOf( baseDn ) )
+        {
+            return Collections.singletonList( baseDn );
+        }
+        else
+        {
+            return Arrays.asList( oldBaseDn, baseDn );
+        }
+    }
+
+
+    /**
+     * Stores the names of the entries to update
+     */
+    private void scan( SubentryUpdate update, List<Dn> baseDns, Selection selection ) throws Exception
+    {
+        File entriesFile = getFile( update, ENTRIES_EXTENSION );
+        File tmpFile = new File( entriesFile.getPath() + ".tmp" );
+        long total = 0L;
+
+        try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream(
+            Files.newOutputStream( tmpFile.toPath() ) ) ) )
+        {
+            for ( Dn baseDn : baseDns )
+            {
+                long scanned = scan( baseDn, selection, out );
+
+                if ( scanned < 0L )
+                {
+                    // The scan will be done again
+                    return;
+                }
+
+                total += scanned;
+            }
+        }
+
+        Files.move( tmpFile.toPath(), entriesFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE );
+        update.setTotal( total );
+        store( update );
+        LOG.info( "{}", update );
+    }
+
+
+    /**
+     * Writes the names of the entries to update below a base
+     *
+     * @return The number of entries to update, or -1 if the thread has been stopped
+     */
+    private long scan( Dn baseDn, Selection selection, DataOutputStream out ) throws Exception
+    {
+        Partition partition = nexus.getPartition( baseDn );
+        OperationManager operationManager = directoryService.getOperationManager();
+        ReadWriteLock partitionLock = operationManager.getRWLock( partition );
+        long total = 0L;
+
+        operationManager.getRWLock().readLock().lock();
+        partitionLock.readLock().lock();
+
+        try ( PartitionTxn transaction = partition.beginReadTransaction() )
+        {
+            SearchControls controls = new SearchControls();
+            controls.setSearchScope( SearchControls.SUBTREE_SCOPE );
+            controls.setReturningAttributes( new String[]
+                { SchemaConstants.ALL_OPERATIONAL_ATTRIBUTES, SchemaConstants.ALL_USER_ATTRIBUTES } );
+
+            SearchOperationContext searchContext = new SearchOperationContext( getSession(), baseDn,
+                ObjectClassNode.OBJECT_CLASS_NODE, controls );
+            searchContext.setAliasDerefMode( AliasDerefMode.NEVER_DEREF_ALIASES );
+            searchContext.setPartition( partition );
+            searchContext.setTransaction( transaction );
+
+            try ( EntryFilteringCursor cursor = nexus.search( searchContext ) )
+            {
+                while ( cursor.next() )
+                {
+                    if ( stopped )
+                    {
+                        return -1L;
+                    }
+
+                    Entry candidate = cursor.get();
+
+                    if ( !selection.getModifications( candidate.getDn(), candidate ).isEmpty() )
+                    {
+                        out.writeUTF( candidate.getDn().getName() );
+                        total++;
+                    }
+                }
+            }
+        }
+        finally
+        {
+            partitionLock.readLock().unlock();
+            operationManager.getRWLock().readLock().unlock();
+        }
+
+        return total;
+    }
+
+
+    /**
+     * Modifies the scanned entries, batch by batch
+     *
+     * @return true if the update is done, false if the thread has been stopped
+     */
+    private boolean apply( SubentryUpdate update, Dn baseDn, Selection selection ) throws Exception
+    {
+        Partition partition = nexus.getPartition( baseDn );
+
+        try ( DataInputStream in = new DataInputStream( new BufferedInputStream(
+            Files.newInputStream( getFile( update, ENTRIES_EXTENSION ).toPath() ) ) ) )
+        {
+            // Skip the entries already processed
+            for ( long i = 0L; i < update.getProcessed(); i++ )
+            {
+                in.readUTF();
+            }
+
+            while ( update.getProcessed() < update.getTotal() )
+            {
+                if ( stopped )
+                {
+                    return false;
+                }
+
+                long start = System.currentTimeMillis();
+                List<Dn> batch = new ArrayList<>();
+
+                try
+                {
+                    while ( ( batch.size() < batchSize )
+                        && ( update.getProcessed() + batch.size() < update.getTotal() ) )
+                    {
+                        batch.add( directoryService.getDnFactory().create( in.readUTF() ) );
+                    }
+                }
+                catch ( EOFException eofe )
+                {
+                    // Truncated file : we are done
+                    update.setTotal( update.getProcessed() + batch.size() );
+                }
+
+                applyBatch( partition, batch, selection );
+
+                update.setProcessed( update.getProcessed() + batch.size() );
+                store( update );
+                LOG.debug( "{}", update );
+
+                throttle( start, batch.size() );
+            }
+        }
+
+        LOG.info( "{}", update );
+
+        return true;
+    }
+
+
+    /**
+     * Modifies a batch of entries in one transaction
+     */
+    private void applyBatch( Partition partition, List<Dn> batch, Selection selection ) throws Exception
+    {
+        OperationManager operationManager = directoryService.getOperationManager();
+        ReadWriteLock partitionLock = operationManager.getRWLock( partition );
+        CoreSession session = getSession();
+
+        operationManager.getRWLock().readLock().lock();
+        partitionLock.writeLock().lock();
+
+        try
+        {
+            PartitionTxn transaction = partition.beginWriteTransaction();
+
+            try
+            {
+                for ( Dn dn : batch )
+                {
+                    LookupOperationContext lookupContext = new LookupOperationContext( session, dn,
+                        SchemaConstants.ALL_ATTRIBUTES_ARRAY );
+                    lookupContext.setPartition( partition );
+                    lookupContext.setTransaction( transaction );
+
+                    Entry candidate = nexus.lookup( lookupContext );
+
+                    if ( candidate == null )
+                    {
+                        // Deleted or moved in the meantime : the entry has been updated by the
+                        // operation
+                        continue;
+                    }
+
+                    List<Modification> modifications = selection.getModifications( dn, candidate );
+
+                    if ( !modifications.isEmpty() )
+                    {
+                        ModifyOperationContext modifyContext = new ModifyOperationContext( session, dn,
+                            modifications );
+                        modifyContext.setPartition( partition );
+                        modifyContext.setTransaction( transaction );
+
+                        nexus.modify( modifyContext );
+                    }
+                }
+
+                transaction.commit();
+            }
+            catch ( Exception e )
+            {
+                transaction.abort();
+
+                throw e;
+            }
+        }
+        finally
+        {
+            partitionLock.writeLock().unlock();
+            operationManager.getRWLock().readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Waits long enough for the number of processed entries per second to be below the rate
+     */
+    private void throttle( long start, int processed ) throws InterruptedException
+    {
+        int currentRate = rate;
+
+        if ( currentRate <= 0 )
+        {
+            return;
+        }
+
+        long delay = start + ( processed * 1000L / currentRate ) - System.currentTimeMillis();
+
+        if ( delay > 0L )
+        {
+            Thread.sleep( delay );
+        }
+    }
+
+
+    private CoreSession getSession()
+    {
+        return directoryService.getAdminSession();
+    }
+
+
+    /**
+     * Selects the entries to update, and computes their modifications
+     */
+    private final class Selection
+    {
+        private final Dn subentryDn;
+        private final Dn apDn;
+        private final SubtreeSpecification ss;
+        private final SubtreeSpecification oldSs;
+        private final List<Attribute> operationalAttributes;
+
+
+        /**
+         * @param addition false if the references are removed from all the scanned entries
+         */
+        private Selection( SubentryUpdate update, Dn subentryDn, boolean addition ) throws Exception
+        {
+            this.subentryDn = subentryDn;
+            apDn = subentryDn.getParent();
+
+            if ( addition )
+            {
+                ss = ssParser.parse( update.getSubtreeSpecification() );
+
+                if ( update.isModification() )
+                {
+                    oldSs = ssParser.parse( update.getOldSubtreeSpecification() );
+                }
+                else
+                {
+                    oldSs = null;
+                }
+
+                Set<AdministrativeRole> roles = EnumSet.noneOf( AdministrativeRole.class );
+
+                for ( String role : update.getRoles() )
+                {
+                    roles.add( AdministrativeRole.valueOf( role ) );
+                }
+
+                Subentry subentry = new Subentry();
+                subentry.setAdministrativeRoles( roles );
+                operationalAttributes = interceptor.getSubentryOperationalAttributes( subentryDn, subentry );
+            }
+            else
+            {
+                ss = null;
+                oldSs = null;
+                operationalAttributes = null;
+            }
+        }
+
+
+        /**
+         * @return The modifications to apply on an entry, empty if it's not selected or already up to date
+         */
+        private List<Modification> getModifications( Dn dn, Entry candidate ) throws LdapException
+        {
+            if ( ss == null )
+            {
+                return interceptor.getOperationalModsForRemove( subentryDn, candidate );
+            }
+
+            if ( !directoryService.getEvaluator().evaluate( ss, apDn, dn, candidate ) )
+            {
+                if ( ( oldSs != null ) && directoryService.getEvaluator().evaluate( oldSs, apDn, dn, candidate ) )
+                {
+                    // Not selected anymore
+                    return interceptor.getOperationalModsForRemove( subentryDn, candidate );
+                }
+
+                return Collections.emptyList();
+            }
+
+            List<Modification> modifications = new ArrayList<>();
+            Set<AttributeType> attributeTypes = new HashSet<>();
+
+            for ( Attribute operationalAttribute : operationalAttributes )
+            {
+                Attribute attribute = candidate.get( operationalAttribute.getAttributeType() );
+                attributeTypes.add( operationalAttribute.getAttributeType() );
+
+                if ( modifications.isEmpty() && ( ( attribute == null )
+                    || !attribute.contains( subentryDn.getName() ) ) )
+                {
+                    modifications.addAll( interceptor.getOperationalModsForAdd( candidate, operationalAttributes ) );
+                }
+            }
+
+            if ( oldSs != null )
+            {
+                // The administrative roles may have been modified too : remove the references
+                // the subentry doesn't have anymore
+                for ( Modification modification : interceptor.getOperationalModsForRemove( subentryDn, candidate ) )
+                {
+                    if ( !attributeTypes.contains( modification.getAttribute().getAttributeType() ) )
+                    {
+                        modifications.add( modification );
+                    }
+                }
+            }
+
+            // Empty if already up to date
+            return modifications;
+        }
+    }
+
+
+    private File getFile( SubentryUpdate update, String extension )
+    {
+        return new File( directory, update.getId() + extension );
+    }
+
+
+    /**
+     * Writes the description and the progress of an update
+     */
+    private void store( SubentryUpdate update ) throws IOException
+    {
+        Properties properties = new Properties();
+        properties.setProperty( "id", Long.toString( update.getId() ) );
+        properties.setProperty( "addition", Boolean.toString( update.isAddition() ) );
+        properties.setProperty( "subentry", update.getSubentryDn() );
+        properties.setProperty( "base", update.getBaseDn() );
+        properties.setProperty( "total", Long.toString( update.getTotal() ) );
+        properties.setProperty( "processed", Long.toString( update.getProcessed() ) );
+
+        if ( update.isAddition() )
+        {
+            properties.setProperty( "subtreeSpecification", update.getSubtreeSpecification() );
+            properties.setProperty( "roles", String.join( ",", update.getRoles() ) );
+        }
+
+        if ( update.isModification() )
+        {
+            properties.setProperty( "oldBase", update.getOldBaseDn() );
+            properties.setProperty( "oldSubtreeSpecification", update.getOldSubtreeSpecification() );
+        }
+
+        File file = getFile( update, UPDATE_EXTENSION );
+        File tmpFile = new File( file.getPath() + ".tmp" );
+
+        try ( OutputStream out = Files.newOutputStream( tmpFile.toPath() ) )
+        {
+            properties.store( out, null );
+        }
+
+        Files.move( tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE );
+    }
+
+
+    /**
+     * Reads a stored update
+     */
+    private SubentryUpdate load( File file ) throws LdapException
+    {
+        Properties properties = new Properties();
+
+        try ( InputStream in = Files.newInputStream( file.toPath() ) )
+        {
+            properties.load( in );
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+
+        boolean addition = Boolean.parseBoolean( properties.getProperty( "addition" ) );
+        Set<String> roles = null;
+
+        if ( addition )
+        {
+            roles = new HashSet<>();
+
+            for ( String role : properties.getProperty( "roles", "" ).split( "," ) )
+            {
+                if ( !role.isEmpty() )
+                {
+                    roles.add( role );
+                }
+            }
+        }
+
+        long id = Long.parseLong( properties.getProperty( "id" ) );
+        SubentryUpdate update;
+
+        if ( properties.getProperty( "oldSubtreeSpecification" ) != null )
+        {
+            update = new SubentryUpdate( id, properties.getProperty( "subentry" ),
+                properties.getProperty( "oldBase" ), properties.getProperty( "oldSubtreeSpecification" ),
+                properties.getProperty( "base" ), properties.getProperty( "subtreeSpecification" ), roles );
+        }
+        else
+        {
+            update = new SubentryUpdate( id, addition, properties.getProperty( "subentry" ),
+                properties.getProperty( "base" ), properties.getProperty( "subtreeSpecification" ), roles );
+        }
+
+        update.setTotal( Long.parseLong( properties.getProperty( "total", "-1" ) ) );
+        update.setProcessed( Long.parseLong( properties.getProperty( "processed", "0" ) ) );
+
+        return update;
+    }
+}
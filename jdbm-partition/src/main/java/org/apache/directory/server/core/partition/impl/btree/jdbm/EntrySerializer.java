@@ -22,10 +22,17 @@ package org.apache.directory.server.core.partition.impl.btree.jdbm;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.NotSerializableException;
+import java.io.ObjectInput;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutput;
-import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.Set;
 
 import jdbm.helper.Serializer;
 
@@ -65,6 +72,9 @@ public class EntrySerializer implements Serializer
      */
     private static final boolean IS_DEBUG = LOG.isDebugEnabled();
 
+    /** The current format version. The format written by the previous versions starts with the Java serialization magic number */
+    private static final byte FORMAT_VERSION = 2;
+
     /** The schemaManager reference */
     private transient SchemaManager schemaManager;
 
@@ -90,24 +100,34 @@ public class EntrySerializer implements Serializer
      * <p>
      * The structure used to store the entry is the following :
      * <ul>
+     *   <li><b>[a byte]</b> : the format version</li>
      *   <li><b>[a byte]</b> : if the Dn is empty 0 will be written else 1</li>
      *   <li><b>[Rdn]</b> : The entry's Rdn.</li>
      *   <li><b>[numberAttr]</b> : the bumber of attributes. Can be 0</li>
-     *   <li>For each Attribute :
+     *   <li>For each Attribute, the attribute table :
      *     <ul>
      *       <li><b>[attribute's oid]</b> : The attribute's OID to get back
      *       the attributeType on deserialization</li>
+     *       <li><b>[length]</b> : The length of the serialized attribute</li>
+     *     </ul>
+     *   </li>
+     *   <li>For each Attribute, in the same order :
+     *     <ul>
      *       <li><b>[Attribute]</b> The attribute</li>
      *     </ul>
      *   </li>
      * </ul>
+     * The attribute table allows the attributes which are not needed to be skipped
+     * without being decoded.
      */
     public byte[] serialize( Object object ) throws IOException
     {
         Entry entry = ( Entry ) object;
 
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        ObjectOutput out = new ObjectOutputStream( baos );
+        EntryOutput out = new EntryOutput( baos );
+
+        out.writeByte( FORMAT_VERSION );
 
         // First, the Dn
         Dn dn = entry.getDn();
@@ -124,27 +144,30 @@ public class EntrySerializer implements Serializer
             rdn.writeExternal( out );
         }
 
-        // Then the attributes.
-        out.writeInt( entry.getAttributes().size() );
-
-        // Iterate through the keys. We store the Attribute
-        // here, to be able to restore it in the readExternal :
-        // we need access to the registries, which are not available
+        // Then the attributes. We store the Attribute here, to be able to restore it
+        // in the readExternal : we need access to the registries, which are not available
         // in the ServerAttribute class.
+        int nbAttributes = entry.getAttributes().size();
+        out.writeInt( nbAttributes );
+
+        ByteArrayOutputStream attributesBaos = new ByteArrayOutputStream();
+        EntryOutput attributesOut = new EntryOutput( attributesBaos );
+
         for ( Attribute attribute : entry.getAttributes() )
         {
             AttributeType attributeType = attribute.getAttributeType();
+            int start = attributesOut.size();
 
-            // Write the oid to be able to restore the AttributeType when deserializing
-            // the attribute
-            String oid = attributeType.getOid();
-
-            out.writeUTF( oid );
+            attribute.writeExternal( attributesOut );
 
-            // Write the attribute
-            attribute.writeExternal( out );
+            // Write the oid to be able to restore the AttributeType when deserializing
+            // the attribute, and the attribute length to be able to skip it
+            out.writeUTF( attributeType.getOid() );
+            out.writeInt( attributesOut.size() - start );
         }
 
+        attributesOut.flush();
+        attributesBaos.writeTo( out );
         out.flush();
 
         // Note : we don't store the ObjectClassAttribute. It has already
@@ -169,75 +192,250 @@ public class EntrySerializer implements Serializer
      */
     public Object deserialize( byte[] bytes ) throws IOException
     {
-        ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( bytes ) );
+        return deserialize( bytes, null );
+    }
+
+
+    /**
+     *  Deserialize a Entry, keeping only some of its attributes. The other attributes
+     *  are skipped without being decoded. An attribute is kept if its AttributeType, or
+     *  one of its superiors, is in the given set.
+     *  
+     *  @param bytes the byte array containing the serialized entry
+     *  @param attributeTypes the AttributeTypes to keep, or <code>null</code> to keep all of them
+     *  @return An instance of a Entry object 
+     *  @throws IOException if we can't deserialize the Entry
+     */
+    public Entry deserialize( byte[] bytes, Set<AttributeType> attributeTypes ) throws IOException
+    {
+        if ( ( bytes.length == 0 ) || ( bytes[0] != FORMAT_VERSION ) )
+        {
+            // An entry stored by a previous version
+            return deserializeSerialized( bytes, attributeTypes );
+        }
+
+        EntryInput in = new EntryInput( new ByteArrayInputStream( bytes ) );
 
         try
         {
-            Entry entry = new DefaultEntry( schemaManager );
+            in.readByte();
 
-            // Read the Dn, if any
-            byte hasDn = in.readByte();
+            Entry entry = readDn( in );
 
-            if ( hasDn == 1 )
+            // Read the attribute table
+            int nbAttributes = readNbAttributes( in );
+            AttributeType[] types = new AttributeType[nbAttributes];
+            int[] lengths = new int[nbAttributes];
+
+            for ( int i = 0; i < nbAttributes; i++ )
             {
-                Rdn rdn = new Rdn( schemaManager );
-                rdn.readExternal( in );
+                types[i] = lookupAttributeType( in.readUTF() );
+                lengths[i] = in.readInt();
+            }
 
-                try
-                {
-                    entry.setDn( new Dn( schemaManager, rdn ) );
-                }
-                catch ( LdapInvalidDnException lide )
+            // Read the attributes
+            for ( int i = 0; i < nbAttributes; i++ )
+            {
+                if ( !isSelected( types[i], attributeTypes ) )
                 {
-                    IOException ioe = new IOException( lide.getMessage() );
-                    ioe.initCause( lide );
-                    throw ioe;
+                    in.skipFully( lengths[i] );
+
+                    continue;
                 }
+
+                // Create the attribute we will read
+                Attribute attribute = new DefaultAttribute( types[i] );
+
+                // Read the attribute
+                attribute.readExternal( in );
+
+                entry.add( attribute );
             }
-            else
-            {
-                entry.setDn( Dn.EMPTY_DN );
-            }
+
+            return entry;
+        }
+        catch ( ClassNotFoundException | LdapException e )
+        {
+            LOG.error( I18n.err( I18n.ERR_07000_CANNOT_DESERIALIZE_ENTRY, e.getLocalizedMessage() ) );
+            throw new IOException( e.getLocalizedMessage() );
+        }
+    }
+
+
+    /**
+     * Deserialize an entry stored using the Java serialization, without the attribute table.
+     */
+    private Entry deserializeSerialized( byte[] bytes, Set<AttributeType> attributeTypes ) throws IOException
+    {
+        ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( bytes ) );
+
+        try
+        {
+            Entry entry = readDn( in );
 
             // Read the number of attributes
-            int nbAttributes = in.readInt();
-            
-            if ( nbAttributes < 0 )
-            {
-                throw new IOException( I18n.err( I18n.ERR_31002_NEGATIOVE_NB_ATTRIBUTES_IN_ENTRY ) );
-            }
+            int nbAttributes = readNbAttributes( in );
 
             // Read the attributes
             for ( int i = 0; i < nbAttributes; i++ )
             {
                 // Read the attribute's OID
-                String oid = in.readUTF();
+                AttributeType attributeType = lookupAttributeType( in.readUTF() );
 
-                try
-                {
-                    AttributeType attributeType = schemaManager.lookupAttributeTypeRegistry( oid );
+                // Create the attribute we will read
+                Attribute attribute = new DefaultAttribute( attributeType );
 
-                    // Create the attribute we will read
-                    Attribute attribute = new DefaultAttribute( attributeType );
+                // Read the attribute. It can't be skipped, we don't know its length
+                attribute.readExternal( in );
 
-                    // Read the attribute
-                    attribute.readExternal( in );
-
-                    entry.add( attribute );
-                }
-                catch ( LdapException ne )
+                if ( isSelected( attributeType, attributeTypes ) )
                 {
-                    // We weren't able to find the OID. The attribute will not be added
-                    throw new ClassNotFoundException( ne.getMessage(), ne );
+                    entry.add( attribute );
                 }
             }
 
             return entry;
         }
-        catch ( ClassNotFoundException cnfe )
+        catch ( ClassNotFoundException | LdapException e )
+        {
+            LOG.error( I18n.err( I18n.ERR_07000_CANNOT_DESERIALIZE_ENTRY, e.getLocalizedMessage() ) );
+            throw new IOException( e.getLocalizedMessage() );
+        }
+    }
+
+
+    /**
+     * Tells if an attribute has to be deserialized : its AttributeType or one of its
+     * superiors has been selected.
+     */
+    private boolean isSelected( AttributeType attributeType, Set<AttributeType> attributeTypes )
+    {
+        if ( attributeTypes == null )
         {
-            LOG.error( I18n.err( I18n.ERR_07000_CANNOT_DESERIALIZE_ENTRY, cnfe.getLocalizedMessage() ) );
-            throw new IOException( cnfe.getLocalizedMessage() );
+            return true;
+        }
+
+        AttributeType current = attributeType;
+
+        while ( current != null )
+        {
+            if ( attributeTypes.contains( current ) )
+            {
+                return true;
+            }
+
+            current = current.getSuperior();
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Creates the entry, and reads its Dn, if any
+     */
+    private Entry readDn( ObjectInput in ) throws IOException, ClassNotFoundException
+    {
+        Entry entry = new DefaultEntry( schemaManager );
+
+        byte hasDn = in.readByte();
+
+        if ( hasDn == 1 )
+        {
+            Rdn rdn = new Rdn( schemaManager );
+            rdn.readExternal( in );
+
+            try
+            {
+                entry.setDn( new Dn( schemaManager, rdn ) );
+            }
+            catch ( LdapInvalidDnException lide )
+            {
+                IOException ioe = new IOException( lide.getMessage() );
+                ioe.initCause( lide );
+                throw ioe;
+            }
+        }
+        else
+        {
+            entry.setDn( Dn.EMPTY_DN );
+        }
+
+        return entry;
+    }
+
+
+    private int readNbAttributes( ObjectInput in ) throws IOException
+    {
+        int nbAttributes = in.readInt();
+
+        if ( nbAttributes < 0 )
+        {
+            throw new IOException( I18n.err( I18n.ERR_31002_NEGATIOVE_NB_ATTRIBUTES_IN_ENTRY ) );
+        }
+
+        return nbAttributes;
+    }
+
+
+    private AttributeType lookupAttributeType( String oid ) throws ClassNotFoundException
+    {
+        try
+        {
+            return schemaManager.lookupAttributeTypeRegistry( oid );
+        }
+        catch ( LdapException ne )
+        {
+            // We weren't able to find the OID. The attribute will not be added
+            throw new ClassNotFoundException( ne.getMessage(), ne );
+        }
+    }
+
+
+    /**
+     * The ObjectOutput used to write the entries. The Rdn and the attributes only
+     * write primitive data, we don't need the Java serialization overhead.
+     */
+    private static final class EntryOutput extends DataOutputStream implements ObjectOutput
+    {
+        EntryOutput( OutputStream out )
+        {
+            super( out );
+        }
+
+
+        @Override
+        public void writeObject( Object object ) throws IOException
+        {
+            throw new NotSerializableException( object.getClass().getName() );
+        }
+    }
+
+
+    /**
+     * The ObjectInput used to read the entries written by {@link EntryOutput}.
+     */
+    private static final class EntryInput extends DataInputStream implements ObjectInput
+    {
+        EntryInput( InputStream in )
+        {
+            super( in );
+        }
+
+
+        @Override
+        public Object readObject() throws IOException
+        {
+            throw new NotSerializableException();
+        }
+
+
+        void skipFully( int length ) throws IOException
+        {
+            if ( skipBytes( length ) != length )
+            {
+                throw new EOFException();
+            }
         }
     }
 }
@@ -21,24 +21,46 @@ package org.apache.directory.server.core.partition.impl.btree.jdbm;
 
 
 import java.io.IOException;
+import java.util.Comparator;
+import java.util.Set;
 import java.util.UUID;
 
 import jdbm.RecordManager;
-import jdbm.helper.Serializer;
+import jdbm.helper.ByteArraySerializer;
 
+import org.apache.directory.api.ldap.model.cursor.AbstractCursor;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.EmptyCursor;
+import org.apache.directory.api.ldap.model.cursor.SingletonCursor;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
 import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.ldap.model.schema.comparators.UuidComparator;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.xdbm.MasterTable;
 
 
 /**
- * The master table used to store the Attributes of entries.
+ * The master table used to store the Attributes of entries. The entries are stored
+ * serialized, and only deserialized when they are read, so that the attributes which
+ * are not needed can be skipped.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
-public class JdbmMasterTable extends JdbmTable<String, Entry> implements MasterTable
+public class JdbmMasterTable implements MasterTable
 {
+    /** The table storing the serialized entries */
+    private final JdbmTable<String, byte[]> table;
+
+    /** The serializer used for the entries */
+    private final EntrySerializer serializer;
+
+
     /**
      * Creates the master table using JDBM B+Trees for the backing store.
      *
@@ -48,20 +70,16 @@ public class JdbmMasterTable extends JdbmTable<String, Entry> implements MasterT
      */
     public JdbmMasterTable( RecordManager recMan, SchemaManager schemaManager ) throws IOException
     {
-        super( schemaManager, DBF, recMan, UuidComparator.INSTANCE, UuidSerializer.INSTANCE,
-            new EntrySerializer( schemaManager ) );
+        // The entries are stored as they were serialized, so the tables created
+        // with an EntrySerializer are still read
+        table = new JdbmTable<>( schemaManager, DBF, recMan, UuidComparator.INSTANCE, UuidSerializer.INSTANCE,
+            ByteArraySerializer.INSTANCE );
+        serializer = new EntrySerializer( schemaManager );
 
         UuidComparator.INSTANCE.setSchemaManager( schemaManager );
     }
 
 
-    protected JdbmMasterTable( RecordManager recMan, SchemaManager schemaManager, String dbName, Serializer serializer )
-        throws Exception
-    {
-        super( schemaManager, DBF, recMan, UuidComparator.INSTANCE, UuidSerializer.INSTANCE, serializer );
-    }
-
-
     /**
      * Get's the next value from this SequenceBDb.  This has the side-effect of
      * changing the current sequence values permanently in memory and on disk.
@@ -74,4 +92,432 @@ public class JdbmMasterTable extends JdbmTable<String, Entry> implements MasterT
     {
         return UUID.randomUUID().toString();
     }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Comparator<String> getKeyComparator()
+    {
+        return table.getKeyComparator();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Comparator<Entry> getValueComparator()
+    {
+        return null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getName()
+    {
+        return table.getName();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isDupsEnabled()
+    {
+        return false;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean has( PartitionTxn transaction, String key ) throws LdapException
+    {
+        return table.has( transaction, key );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean has( PartitionTxn transaction, String key, Entry value ) throws LdapException
+    {
+        Entry stored = get( transaction, key );
+
+        return ( stored != null ) && stored.equals( value );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasGreaterOrEqual( PartitionTxn transaction, String key ) throws LdapException
+    {
+        return table.hasGreaterOrEqual( transaction, key );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasLessOrEqual( PartitionTxn transaction, String key ) throws LdapException
+    {
+        return table.hasLessOrEqual( transaction, key );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasGreaterOrEqual( PartitionTxn transaction, String key, Entry val ) throws LdapException
+    {
+        throw new UnsupportedOperationException( I18n.err( I18n.ERR_34005_MISSING_VALUE_COMPARATOR ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasLessOrEqual( PartitionTxn transaction, String key, Entry val ) throws LdapException
+    {
+        throw new UnsupportedOperationException( I18n.err( I18n.ERR_34005_MISSING_VALUE_COMPARATOR ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Entry get( PartitionTxn transaction, String key ) throws LdapException
+    {
+        return get( transaction, key, null );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Entry get( PartitionTxn transaction, String id, Set<AttributeType> attributeTypes ) throws LdapException
+    {
+        byte[] serialized = table.get( transaction, id );
+
+        if ( serialized == null )
+        {
+            return null;
+        }
+
+        return deserialize( serialized, attributeTypes );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void put( PartitionTxn transaction, String key, Entry value ) throws LdapException
+    {
+        try
+        {
+            table.put( transaction, key, serializer.serialize( value ) );
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void remove( PartitionTxn transaction, String key ) throws LdapException
+    {
+        table.remove( transaction, key );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void remove( PartitionTxn transaction, String key, Entry value ) throws LdapException
+    {
+        // Remove the value only if it is the same as value.
+        if ( has( transaction, key, value ) )
+        {
+            table.remove( transaction, key );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<Tuple<String, Entry>> cursor()
+    {
+        return new EntryTupleCursor( table.cursor() );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<Tuple<String, Entry>> cursor( PartitionTxn partitionTxn, String key ) throws LdapException
+    {
+        return new EntryTupleCursor( table.cursor( partitionTxn, key ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<Entry> valueCursor( PartitionTxn transaction, String key ) throws LdapException
+    {
+        Entry entry = get( transaction, key );
+
+        if ( entry == null )
+        {
+            return new EmptyCursor<>();
+        }
+
+        return new SingletonCursor<>( entry );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long count( PartitionTxn transaction ) throws LdapException
+    {
+        return table.count( transaction );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long count( PartitionTxn transaction, String key ) throws LdapException
+    {
+        return table.count( transaction, key );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long greaterThanCount( PartitionTxn transaction, String key ) throws LdapException
+    {
+        return table.greaterThanCount( transaction, key );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long lessThanCount( PartitionTxn transaction, String key ) throws LdapException
+    {
+        return table.lessThanCount( transaction, key );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close( PartitionTxn transaction ) throws LdapException
+    {
+        table.close( transaction );
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return table.toString();
+    }
+
+
+    private Entry deserialize( byte[] serialized, Set<AttributeType> attributeTypes ) throws LdapException
+    {
+        try
+        {
+            return serializer.deserialize( serialized, attributeTypes );
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+    }
+
+
+    /**
+     * A Cursor deserializing the entries read from the table.
+     */
+    private final class EntryTupleCursor extends AbstractCursor<Tuple<String, Entry>>
+    {
+        /** The Cursor on the serialized entries */
+        private final Cursor<Tuple<String, byte[]>> wrapped;
+
+
+        private EntryTupleCursor( Cursor<Tuple<String, byte[]>> wrapped )
+        {
+            this.wrapped = wrapped;
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean available()
+        {
+            return wrapped.available();
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void before( Tuple<String, Entry> element ) throws LdapException, CursorException
+        {
+            // Only the key is used to position the Cursor
+            wrapped.before( new Tuple<String, byte[]>( element.getKey(), null ) );
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void after( Tuple<String, Entry> element ) throws LdapException, CursorException
+        {
+            wrapped.after( new Tuple<String, byte[]>( element.getKey(), null ) );
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void beforeFirst() throws LdapException, CursorException
+        {
+            wrapped.beforeFirst();
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void afterLast() throws LdapException, CursorException
+        {
+            wrapped.afterLast();
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean first() throws LdapException, CursorException
+        {
+            return wrapped.first();
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean last() throws LdapException, CursorException
+        {
+            return wrapped.last();
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean previous() throws LdapException, CursorException
+        {
+            return wrapped.previous();
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean next() throws LdapException, CursorException
+        {
+            return wrapped.next();
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Tuple<String, Entry> get() throws CursorException
+        {
+            Tuple<String, byte[]> tuple = wrapped.get();
+
+            try
+            {
+                return new Tuple<>( tuple.getKey(), deserialize( tuple.getValue(), null ) );
+            }
+            catch ( LdapException le )
+            {
+                throw new CursorException( le.getMessage(), le );
+            }
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void close() throws IOException
+        {
+            wrapped.close();
+            super.close();
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void close( Exception cause ) throws IOException
+        {
+            wrapped.close( cause );
+            super.close( cause );
+        }
+    }
 }
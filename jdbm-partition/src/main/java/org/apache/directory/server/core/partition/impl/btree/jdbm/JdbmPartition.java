@@ -64,6 +64,7 @@ import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
 import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.xdbm.Index;
+import org.apache.directory.server.xdbm.NGramIndex;
 import org.apache.directory.server.xdbm.ParentIdAndRdn;
 import org.apache.directory.server.xdbm.search.impl.CursorBuilder;
 import org.apache.directory.server.xdbm.search.impl.DefaultOptimizer;
@@ -449,7 +450,8 @@ public class JdbmPartition extends AbstractBTreePartition
 
             for ( Index<?, String> index : getIndexedAttributes() )
             {
-                String oid = schemaManager.lookupAttributeTypeRegistry( index.getAttributeId() ).getOid();
+                AttributeType attributeType = schemaManager.lookupAttributeTypeRegistry( index.getAttributeId() );
+                String oid = attributeType.getOid();
                 
                 // if the name doesn't exist in the database
                 // this is a new index and we need to build it
@@ -457,6 +459,12 @@ public class JdbmPartition extends AbstractBTreePartition
                 {
                     // Check the forward index only (we suppose we never will add a reverse index later on)
                     String forwardIndex = oid + "_forward";
+
+                    if ( ( index instanceof NGramIndex ) && attributeType.getSyntax().isHumanReadable() )
+                    {
+                        // The n-grams may have been added to an existing index
+                        forwardIndex = oid + NGramIndex.NGRAM_SUFFIX + "_forward";
+                    }
                     
                     if ( recMan.getNamedObject( forwardIndex ) == 0 )
                     {
@@ -737,7 +745,7 @@ public class JdbmPartition extends AbstractBTreePartition
                     {
                         for ( Value value : entryAttr )
                         {
-                            index.add( partitionTxn, value.getString(), id );
+                            index.add( partitionTxn, value.getNormalized(), id );
                         }
     
                         // Adds only those attributes that are indexed
@@ -833,6 +841,28 @@ public class JdbmPartition extends AbstractBTreePartition
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Index<String, String> createGramIndex( AttributeType attributeType ) throws LdapException
+    {
+        JdbmIndex<String> gramIndex = new JdbmIndex<>( attributeType.getOid(), false );
+        gramIndex.setTableName( attributeType.getOid() + NGramIndex.NGRAM_SUFFIX );
+
+        try
+        {
+            gramIndex.init( recMan, schemaManager, attributeType );
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+
+        return gramIndex;
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -998,4 +1028,27 @@ public class JdbmPartition extends AbstractBTreePartition
     {
         return new JdbmPartitionWriteTxn( recMan, isSyncOnWrite() );
     }
+
+
+    /**
+     * Always returns false : a JDBM transaction commits or rollbacks the whole record manager,
+     * and the JDBM browsers aren't protected against a concurrent update, so writers must
+     * have an exclusive access to the partition.
+     */
+    @Override
+    public boolean isConcurrentModifySupported()
+    {
+        return false;
+    }
+
+
+    /**
+     * Always returns true : the master table stores the serialized entries, and only
+     * decodes the requested attributes.
+     */
+    @Override
+    public boolean isPartialFetchSupported()
+    {
+        return true;
+    }
 }
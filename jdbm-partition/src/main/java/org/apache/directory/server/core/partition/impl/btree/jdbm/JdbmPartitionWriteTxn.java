@@ -37,9 +37,6 @@ public class JdbmPartitionWriteTxn extends PartitionWriteTxn
     /** The associated record manager */
     private RecordManager recordManager;
     
-    /** A flag used to flush data immediately or not */
-    private boolean syncOnWrite = false;
-    
     /**
      * Create an instance of JdbmPartitionWriteTxn
      * 
@@ -49,7 +46,7 @@ public class JdbmPartitionWriteTxn extends PartitionWriteTxn
     public JdbmPartitionWriteTxn( RecordManager recordManager, boolean syncOnWrite )
     {
         this.recordManager = recordManager;
-        this.syncOnWrite = syncOnWrite;
+        setSyncOnWrite( syncOnWrite );
     }
     
     
@@ -59,24 +56,30 @@ public class JdbmPartitionWriteTxn extends PartitionWriteTxn
     @Override
     public void commit() throws IOException
     {
-        recordManager.commit();
-        
-        // And flush the journal
-        BaseRecordManager baseRecordManager = null;
-
-        if ( recordManager instanceof CacheRecordManager )
-        {
-            baseRecordManager = ( ( BaseRecordManager ) ( ( CacheRecordManager ) recordManager ).getRecordManager() );
-        }
-        else
+        // The binds write the password policy state while holding the partition read lock,
+        // so two transactions may be committed concurrently : the commit and the journal
+        // flush must not be interleaved with another commit.
+        synchronized ( recordManager )
         {
-            baseRecordManager = ( ( BaseRecordManager ) recordManager );
-        }
-
-
-        if ( syncOnWrite )
-        {
-            baseRecordManager.getTransactionManager().synchronizeLog();
+            recordManager.commit();
+            
+            // And flush the journal
+            BaseRecordManager baseRecordManager = null;
+    
+            if ( recordManager instanceof CacheRecordManager )
+            {
+                baseRecordManager = ( ( BaseRecordManager ) ( ( CacheRecordManager ) recordManager ).getRecordManager() );
+            }
+            else
+            {
+                baseRecordManager = ( ( BaseRecordManager ) recordManager );
+            }
+    
+    
+            if ( isSyncOnWrite() )
+            {
+                baseRecordManager.getTransactionManager().synchronizeLog();
+            }
         }
     }
 
@@ -50,6 +50,9 @@ import org.apache.directory.api.ldap.model.entry.Modification;
 import org.apache.directory.api.ldap.model.entry.ModificationOperation;
 import org.apache.directory.api.ldap.model.exception.LdapNoSuchObjectException;
 import org.apache.directory.api.ldap.model.exception.LdapSchemaViolationException;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.filter.FilterParser;
+import org.apache.directory.api.ldap.model.message.SearchScope;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.name.Rdn;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
@@ -67,9 +70,12 @@ import org.apache.directory.server.core.api.DnFactory;
 import org.apache.directory.server.core.api.LdapPrincipal;
 import org.apache.directory.server.core.api.MockCoreSession;
 import org.apache.directory.server.core.api.MockDirectoryService;
+import org.apache.directory.server.core.api.entry.ClonedServerEntry;
+import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.ModDnAva;
+import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.core.shared.DefaultDnFactory;
 import org.apache.directory.server.xdbm.Index;
@@ -924,4 +930,70 @@ public class JdbmStoreTest
         lookedup = partition.modify( partitionTxn, dn, add );
         assertEquals( attribVal, lookedup.get( "ou" ).get().getString() );
     }
+
+
+    @Test
+    public void testSearchFetchesOnlyNeededAttributes() throws Exception
+    {
+        Dn dn = new Dn( schemaManager, "uid=jdoe,ou=Sales,o=Good Times Co." );
+        Entry entry = new DefaultEntry( schemaManager, dn,
+            "objectClass: top",
+            "objectClass: person",
+            "objectClass: organizationalPerson",
+            "objectClass: inetOrgPerson",
+            "objectClass: pkiUser",
+            "uid: jdoe",
+            "cn: John Doe",
+            "sn: Doe",
+            "mail: jdoe@example.com",
+            "jpegPhoto", new byte[]
+                { ( byte ) 0xFF, ( byte ) 0xD8, ( byte ) 0xFF, ( byte ) 0xE0, 0x00, 0x10, 'J', 'F', 'I', 'F', 0x00 },
+            "userCertificate", new byte[]
+                { 0x04, 0x05, 0x06 },
+            "entryCSN", new CsnFactory( 1 ).newInstance().toString(),
+            "entryUUID", UUID.randomUUID().toString() );
+
+        AddOperationContext addContext = new AddOperationContext( null, entry );
+        addContext.setPartition( partition );
+        PartitionTxn writeTxn = partition.beginWriteTransaction();
+        addContext.setTransaction( writeTxn );
+        partition.add( addContext );
+        writeTxn.commit();
+
+        // Only the requested attributes and the ones used by the filter are decoded
+        Entry original = searchOriginalEntry( "cn", "mail" );
+
+        assertTrue( original.containsAttribute( "cn" ) );
+        assertTrue( original.containsAttribute( "mail" ) );
+        assertTrue( original.containsAttribute( "uid" ) );
+        assertTrue( original.containsAttribute( "objectClass" ) );
+        assertFalse( original.containsAttribute( "jpegPhoto" ) );
+        assertFalse( original.containsAttribute( "userCertificate" ) );
+        assertFalse( original.containsAttribute( "sn" ) );
+
+        // All the user attributes are requested : the entry is decoded whole
+        original = searchOriginalEntry( "*" );
+
+        assertTrue( original.containsAttribute( "jpegPhoto" ) );
+        assertTrue( original.containsAttribute( "userCertificate" ) );
+    }
+
+
+    private Entry searchOriginalEntry( String... attributes ) throws Exception
+    {
+        ExprNode filter = FilterParser.parse( schemaManager, "(uid=jdoe)" );
+        SearchOperationContext searchContext = new SearchOperationContext( session,
+            new Dn( schemaManager, "o=Good Times Co." ), SearchScope.SUBTREE, filter, attributes );
+        searchContext.setPartition( partition );
+        searchContext.setTransaction( partitionTxn );
+
+        try ( EntryFilteringCursor cursor = partition.search( searchContext ) )
+        {
+            assertTrue( cursor.next() );
+            Entry result = cursor.get();
+            assertFalse( cursor.next() );
+
+            return ( ( ClonedServerEntry ) result ).getOriginalEntry();
+        }
+    }
 }
@@ -21,18 +21,25 @@ package org.apache.directory.server.core.partition.impl.btree.jdbm;
 
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.ObjectOutputStream;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.Attribute;
 import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
 import org.apache.directory.api.ldap.model.entry.DefaultEntry;
 import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.ldap.model.schema.normalizers.DeepTrimToLowerNormalizer;
 import org.apache.directory.api.ldap.model.schema.normalizers.OidNormalizer;
@@ -284,4 +291,93 @@ public class ServerEntrySerializerTest
 
         assertEquals( entry, result );
     }
+
+
+    @Test
+    public void testDeserializeSelectedAttributes() throws Exception
+    {
+        Entry entry = new DefaultEntry( schemaManager,
+            "cn=test,ou=system",
+            "objectClass: top",
+            "objectClass: person",
+            "cn: test",
+            "SN: Test",
+            "userPassword", Strings.getBytesUtf8( "password" ) );
+
+        EntrySerializer ses = new EntrySerializer( schemaManager );
+
+        byte[] data = ses.serialize( entry );
+
+        Set<AttributeType> attributeTypes = new HashSet<>();
+        attributeTypes.add( schemaManager.lookupAttributeTypeRegistry( "cn" ) );
+        attributeTypes.add( schemaManager.lookupAttributeTypeRegistry( "sn" ) );
+
+        Entry result = ses.deserialize( data, attributeTypes );
+
+        assertEquals( entry.getDn().getRdn(), result.getDn().getRdn() );
+        assertEquals( 2, result.size() );
+        assertEquals( entry.get( "cn" ), result.get( "cn" ) );
+        assertEquals( entry.get( "sn" ), result.get( "sn" ) );
+        assertFalse( result.containsAttribute( "userPassword" ) );
+        assertFalse( result.containsAttribute( "objectClass" ) );
+
+        // The attributes are selected by their superior too
+        attributeTypes.clear();
+        attributeTypes.add( schemaManager.lookupAttributeTypeRegistry( "name" ) );
+
+        result = ses.deserialize( data, attributeTypes );
+
+        assertEquals( 2, result.size() );
+        assertTrue( result.containsAttribute( "cn" ) );
+        assertTrue( result.containsAttribute( "sn" ) );
+    }
+
+
+    @Test
+    public void testDeserializePreviousFormat() throws Exception
+    {
+        Entry entry = new DefaultEntry( schemaManager,
+            "cn=test,ou=system",
+            "objectClass: top",
+            "objectClass: person",
+            "cn: test",
+            "SN: Test",
+            "userPassword", Strings.getBytesUtf8( "password" ) );
+
+        // The format used before the attribute table was added
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+        try ( ObjectOutputStream out = new ObjectOutputStream( baos ) )
+        {
+            out.writeByte( 1 );
+            entry.getDn().getRdn().writeExternal( out );
+            out.writeInt( entry.size() );
+
+            for ( Attribute attribute : entry )
+            {
+                out.writeUTF( attribute.getAttributeType().getOid() );
+                attribute.writeExternal( out );
+            }
+        }
+
+        EntrySerializer ses = new EntrySerializer( schemaManager );
+
+        Entry result = ( Entry ) ses.deserialize( baos.toByteArray() );
+
+        assertEquals( entry.getDn().getRdn(), result.getDn().getRdn() );
+        assertEquals( entry.size(), result.size() );
+
+        for ( Attribute attribute : entry )
+        {
+            assertEquals( attribute, result.get( attribute.getAttributeType() ) );
+        }
+
+        Set<AttributeType> attributeTypes = new HashSet<>();
+        attributeTypes.add( schemaManager.lookupAttributeTypeRegistry( "cn" ) );
+
+        result = ses.deserialize( baos.toByteArray(), attributeTypes );
+
+        assertEquals( 1, result.size() );
+        assertTrue( result.containsAttribute( "cn" ) );
+    }
 }
@@ -21,23 +21,42 @@
 package org.apache.directory.server.core.partition.ldif;
 
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import de.thetaphi.forbiddenapis.SuppressForbidden;
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
 import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Modification;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
 import org.apache.directory.api.ldap.model.exception.LdapOperationException;
 import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.ldif.ChangeType;
 import org.apache.directory.api.ldap.model.ldif.LdifEntry;
 import org.apache.directory.api.ldap.model.ldif.LdifReader;
 import org.apache.directory.api.ldap.model.ldif.LdifUtils;
@@ -61,11 +80,25 @@ import org.slf4j.LoggerFactory;
 
 /**
  * A Partition implementation backed by a single LDIF file.
+ * <p>
+ * By default, the whole file is rewritten after each modification. In the append only mode,
+ * the modifications are appended as LDIF change records to a log file stored next to the
+ * LDIF file (&lt;file&gt;.&lt;generation&gt;.log). When this log grows over the compaction
+ * threshold, a new, empty, log is started and a fresh snapshot of the partition is written
+ * in the background. The snapshot starts with a comment containing its generation, which
+ * tells which logs have to be replayed when the partition is loaded : the log with the
+ * same generation, and the following ones.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
 public class SingleFileLdifPartition extends AbstractLdifPartition
 {
+    /** The default size of the log, in bytes, above which the partition is compacted */
+    public static final long DEFAULT_COMPACTION_THRESHOLD = 4L * 1024L * 1024L;
+
+    /** The comment written at the beginning of a snapshot */
+    private static final String GENERATION_HEADER = "# generation: ";
+
     /** the LDIF file holding the partition's data */
     private RandomAccessFile ldifFile;
 
@@ -78,9 +111,42 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
     /** lock for serializing the operations on the backing LDIF file */
     private Object lock = new Object();
 
+    /** Tells if the modifications are appended to a log instead of rewriting the file */
+    private boolean appendOnly = false;
+
+    /** The size of the log above which a new snapshot is written */
+    private long compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+
+    /** The generation of the current snapshot, 0 if it has never been compacted */
+    private long generation;
+
+    /** The generation of the log the modifications are appended to */
+    private long logGeneration;
+
+    /** The log the modifications are appended to, in append only mode */
+    private FileOutputStream changeLog;
+
+    /** The current size of the log */
+    private long changeLogSize;
+
+    /** The thread writing the snapshots, in append only mode */
+    private ExecutorService compactor;
+
+    /** Tells if a compaction is already waiting to be done */
+    private boolean compactionScheduled;
+
     private static final Logger LOG = LoggerFactory.getLogger( SingleFileLdifPartition.class );
 
 
+    /**
+     * Used to write the partition's entries
+     */
+    private interface EntryAppender
+    {
+        void append( Entry entry ) throws IOException;
+    }
+
+
     /**
      * Creates a new instance of SingleFileLdifPartition.
      * 
@@ -138,6 +204,8 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
             super.doInit();
 
             loadEntries();
+
+            openChangeLog();
         }
     }
 
@@ -148,6 +216,8 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
      */
     private void loadEntries() throws LdapException
     {
+        generation = readGeneration();
+
         try ( RandomAccessLdifReader parser = new RandomAccessLdifReader( schemaManager ) )
         {
             Iterator<LdifEntry> itr = parser.iterator();
@@ -198,6 +268,266 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
     }
 
 
+    /**
+     * Reads the generation of the snapshot, and moves the file pointer after its header
+     */
+    @SuppressForbidden // the header only contains ASCII chars
+    private long readGeneration() throws LdapException
+    {
+        try
+        {
+            String header = ldifFile.readLine();
+
+            if ( ( header != null ) && header.startsWith( GENERATION_HEADER ) )
+            {
+                return Long.parseLong( header.substring( GENERATION_HEADER.length() ).trim() );
+            }
+
+            ldifFile.seek( 0L );
+
+            return 0L;
+        }
+        catch ( IOException | NumberFormatException e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+    }
+
+
+    /**
+     * Replays the logs of the current snapshot if there are some, removes the files left
+     * by a compaction which has been interrupted, and opens the log in append only mode.
+     * The logs following the current snapshot's one have been started by a compaction
+     * which has not been completed.
+     */
+    private void openChangeLog() throws LdapException
+    {
+        logGeneration = generation;
+        changeLogSize = 0L;
+
+        try
+        {
+            boolean replayed = false;
+
+            while ( getChangeLogFile( logGeneration ).exists() )
+            {
+                File logFile = getChangeLogFile( logGeneration );
+                replayChangeLog( logFile );
+                changeLogSize += logFile.length();
+                replayed = true;
+
+                if ( !getChangeLogFile( logGeneration + 1 ).exists() )
+                {
+                    break;
+                }
+
+                logGeneration++;
+            }
+
+            deleteStaleFiles();
+
+            if ( replayed && !appendOnly )
+            {
+                // Write the replayed modifications in the LDIF file, without any log
+                try ( PartitionTxn partitionTxn = beginReadTransaction() )
+                {
+                    writeSnapshot( partitionTxn );
+                }
+            }
+
+            if ( appendOnly )
+            {
+                changeLog = new FileOutputStream( getChangeLogFile( logGeneration ), true );
+                compactor = Executors.newSingleThreadExecutor( runnable ->
+                {
+                    Thread thread = new Thread( runnable, "ldif-compactor-" + getId() );
+                    thread.setDaemon( true );
+
+                    return thread;
+                } );
+
+                scheduleCompaction();
+            }
+        }
+        catch ( LdapException le )
+        {
+            throw le;
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+    }
+
+
+    /**
+     * Applies the change records stored in a log. A record which has not been completely
+     * written (if the server has been stopped while writing it) is ignored.
+     */
+    private void replayChangeLog( File logFile ) throws LdapException, IOException
+    {
+        byte[] data = Files.readAllBytes( logFile.toPath() );
+
+        // Each record ends with an empty line
+        int length = data.length;
+
+        while ( ( length > 1 ) && ( ( data[length - 1] != '\n' ) || ( data[length - 2] != '\n' ) ) )
+        {
+            length--;
+        }
+
+        if ( length < 2 )
+        {
+            length = 0;
+        }
+
+        if ( length < data.length )
+        {
+            LOG.warn( "Ignoring the last {} bytes of the log {}, the record is incomplete", data.length - length,
+                logFile );
+
+            try ( RandomAccessFile file = new RandomAccessFile( logFile, "rws" ) )
+            {
+                file.setLength( length );
+            }
+        }
+
+        if ( length == 0 )
+        {
+            return;
+        }
+
+        List<LdifEntry> changes;
+
+        try ( LdifReader reader = new LdifReader( schemaManager ) )
+        {
+            changes = reader.parseLdif( new BufferedReader( new StringReader(
+                new String( data, 0, length, StandardCharsets.UTF_8 ) ) ) );
+        }
+
+        for ( LdifEntry change : changes )
+        {
+            replayChange( change );
+        }
+
+        LOG.debug( "Replayed {} changes from the log {}", changes.size(), logFile );
+    }
+
+
+    /**
+     * Applies a change record read from the log
+     */
+    private void replayChange( LdifEntry change ) throws LdapException
+    {
+        Dn dn = new Dn( schemaManager, change.getDn() );
+
+        try ( PartitionTxn partitionTxn = beginWriteTransaction() )
+        {
+            switch ( change.getChangeType() )
+            {
+                case Add:
+                    Entry entry = new DefaultEntry( schemaManager, change.getEntry() );
+                    AddOperationContext addContext = new AddOperationContext( null, entry );
+                    addContext.setPartition( this );
+                    addContext.setTransaction( partitionTxn );
+
+                    super.add( addContext );
+
+                    if ( dn.equals( suffixDn ) )
+                    {
+                        contextEntry = entry;
+                    }
+
+                    break;
+
+                case Modify:
+                    List<Modification> mods = new ArrayList<>();
+
+                    for ( Modification mod : change.getModifications() )
+                    {
+                        Attribute attribute = mod.getAttribute();
+                        mods.add( new DefaultModification( mod.getOperation(), new DefaultAttribute(
+                            schemaManager.lookupAttributeTypeRegistry( attribute.getUpId() ), attribute ) ) );
+                    }
+
+                    super.modify( partitionTxn, dn, mods.toArray( new Modification[]
+                        {} ) );
+
+                    break;
+
+                case Delete:
+                    super.delete( partitionTxn, getEntryId( partitionTxn, dn ) );
+
+                    if ( dn.equals( suffixDn ) )
+                    {
+                        contextEntry = null;
+                    }
+
+                    break;
+
+                default:
+                    throw new LdapOtherException( "Unexpected change in the log : " + change );
+            }
+
+            partitionTxn.commit();
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+    }
+
+
+    /**
+     * Deletes the logs which are not replayed on startup, and the snapshots which have not
+     * been written completely, if any
+     */
+    private void deleteStaleFiles()
+    {
+        File partitionFile = new File( getPartitionPath() );
+        Pattern stalePattern = Pattern.compile( Pattern.quote( partitionFile.getName() )
+            + "(\\.(\\d+))?\\.(log|tmp)" );
+        File[] staleFiles = partitionFile.getAbsoluteFile().getParentFile().listFiles( ( dir, name ) ->
+        {
+            Matcher matcher = stalePattern.matcher( name );
+
+            if ( !matcher.matches() )
+            {
+                return false;
+            }
+
+            if ( "tmp".equals( matcher.group( 3 ) ) || ( matcher.group( 2 ) == null ) )
+            {
+                return true;
+            }
+
+            long fileGeneration = Long.parseLong( matcher.group( 2 ) );
+
+            return ( fileGeneration < generation ) || ( fileGeneration > logGeneration );
+        } );
+
+        if ( staleFiles != null )
+        {
+            for ( File staleFile : staleFiles )
+            {
+                if ( !staleFile.delete() )
+                {
+                    LOG.warn( "Failed to delete the file {}", staleFile );
+                }
+            }
+        }
+    }
+
+
+    /**
+     * @return The log containing the modifications done after a given snapshot
+     */
+    private File getChangeLogFile( long snapshotGeneration )
+    {
+        return new File( new File( getPartitionPath() ).getPath() + "." + snapshotGeneration + ".log" );
+    }
+
+
     //---------------------------------------------------------------------------------------------
     // Operations
     //---------------------------------------------------------------------------------------------
@@ -221,8 +551,20 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
                 }
             }
 
-            dirty = true;
-            rewritePartitionData( addContext.getTransaction() );
+            if ( appendOnly )
+            {
+                if ( canAppend() )
+                {
+                    StringBuilder changes = new StringBuilder();
+                    appendAddChange( changes, addContext.getEntry() );
+                    appendChanges( changes );
+                }
+            }
+            else
+            {
+                dirty = true;
+                rewritePartitionData( addContext.getTransaction() );
+            }
         }
     }
 
@@ -253,8 +595,29 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
                 throw new LdapOperationException( e.getMessage(), e );
             }
 
-            dirty = true;
-            rewritePartitionData( partitionTxn );
+            if ( appendOnly )
+            {
+                if ( canAppend() )
+                {
+                    LdifEntry change = new LdifEntry();
+                    change.setDn( modifyContext.getDn() );
+                    change.setChangeType( ChangeType.Modify );
+
+                    for ( Modification modification : modifyContext.getModItems() )
+                    {
+                        change.addModification( modification );
+                    }
+
+                    StringBuilder changes = new StringBuilder();
+                    appendChange( changes, change );
+                    appendChanges( changes );
+                }
+            }
+            else
+            {
+                dirty = true;
+                rewritePartitionData( partitionTxn );
+            }
         }
     }
 
@@ -267,9 +630,9 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
     {
         synchronized ( lock )
         {
+            String id = getModDnEntryId( renameContext.getTransaction(), renameContext.getDn() );
             super.rename( renameContext );
-            dirty = true;
-            rewritePartitionData( renameContext.getTransaction() );
+            modDnDone( renameContext.getTransaction(), renameContext.getDn(), id );
         }
     }
 
@@ -282,9 +645,9 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
     {
         synchronized ( lock )
         {
+            String id = getModDnEntryId( moveContext.getTransaction(), moveContext.getDn() );
             super.move( moveContext );
-            dirty = true;
-            rewritePartitionData( moveContext.getTransaction() );
+            modDnDone( moveContext.getTransaction(), moveContext.getDn(), id );
         }
     }
 
@@ -297,9 +660,9 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
     {
         synchronized ( lock )
         {
+            String id = getModDnEntryId( opContext.getTransaction(), opContext.getDn() );
             super.moveAndRename( opContext );
-            dirty = true;
-            rewritePartitionData( opContext.getTransaction() );
+            modDnDone( opContext.getTransaction(), opContext.getDn(), id );
         }
     }
 
@@ -309,58 +672,359 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
     {
         synchronized ( lock )
         {
+            Dn dn = null;
+
+            if ( appendOnly && canAppend() )
+            {
+                dn = buildEntryDn( partitionTxn, id );
+            }
+
             Entry deletedEntry = super.delete( partitionTxn, id );
+
+            if ( appendOnly )
+            {
+                if ( dn != null )
+                {
+                    StringBuilder changes = new StringBuilder();
+                    appendDeleteChange( changes, dn );
+                    appendChanges( changes );
+                }
+            }
+            else
+            {
+                dirty = true;
+                rewritePartitionData( partitionTxn );
+            }
+
+            return deletedEntry;
+        }
+    }
+
+
+    /**
+     * Gets the ID of an entry which is going to be renamed or moved, if the change has to
+     * be appended to the log
+     */
+    private String getModDnEntryId( PartitionTxn partitionTxn, Dn dn ) throws LdapException
+    {
+        if ( appendOnly && canAppend() )
+        {
+            return getEntryId( partitionTxn, dn );
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Saves a rename or a move. In append only mode, the LDIF change records can't carry the
+     * operational attributes which have been updated on the entry, so the entry and its
+     * descendants are logged as deleted, then added with their new Dn.
+     */
+    private void modDnDone( PartitionTxn partitionTxn, Dn oldDn, String id ) throws LdapException
+    {
+        if ( !appendOnly )
+        {
             dirty = true;
             rewritePartitionData( partitionTxn );
 
-            return deletedEntry;
+            return;
+        }
+
+        if ( id == null )
+        {
+            return;
+        }
+
+        try
+        {
+            List<Entry> entries = new ArrayList<>();
+            Entry entry = fetch( partitionTxn, id );
+            entry.removeAttributes( entryDnAT );
+            entries.add( entry );
+
+            int nbChildren = rdnIdx.reverseLookup( partitionTxn, id ).getNbChildren();
+
+            if ( nbChildren > 0 )
+            {
+                appendRecursive( partitionTxn, id, nbChildren, entries::add );
+            }
+
+            StringBuilder changes = new StringBuilder();
+            Dn newDn = entry.getDn();
+
+            // The children first
+            for ( int i = entries.size() - 1; i >= 0; i-- )
+            {
+                appendDeleteChange( changes, oldDn.add( entries.get( i ).getDn().getDescendantOf( newDn ) ) );
+            }
+
+            for ( Entry movedEntry : entries )
+            {
+                appendAddChange( changes, movedEntry );
+            }
+
+            appendChanges( changes );
+        }
+        catch ( LdapException e )
+        {
+            throw e;
+        }
+        catch ( Exception e )
+        {
+            throw new LdapException( e );
         }
     }
 
 
     /**
-     * writes the partition's data to the file if {@link #enableRewriting} is set to true
-     * and partition was modified since the last write or {@link #dirty} data. 
-     * 
-     * @throws LdapException
+     * Tells if the changes can be appended to the log. If the rewriting is disabled, they
+     * will be saved in a new snapshot when it's enabled again.
      */
-    private void rewritePartitionData( PartitionTxn partitionTxn ) throws LdapException
+    private boolean canAppend()
+    {
+        if ( !enableRewriting )
+        {
+            dirty = true;
+
+            return false;
+        }
+
+        return true;
+    }
+
+
+    private void appendAddChange( StringBuilder changes, Entry entry ) throws LdapException
+    {
+        Entry copy = entry.clone();
+        copy.removeAttributes( entryDnAT );
+
+        LdifEntry change = new LdifEntry( copy );
+        change.setChangeType( ChangeType.Add );
+
+        appendChange( changes, change );
+    }
+
+
+    private void appendDeleteChange( StringBuilder changes, Dn dn ) throws LdapException
+    {
+        LdifEntry change = new LdifEntry();
+        change.setDn( dn );
+        change.setChangeType( ChangeType.Delete );
+
+        appendChange( changes, change );
+    }
+
+
+    /**
+     * Adds a change record, followed by an empty line
+     */
+    private void appendChange( StringBuilder changes, LdifEntry change ) throws LdapException
+    {
+        String ldif = LdifUtils.convertToLdif( change );
+        changes.append( ldif );
+
+        if ( !ldif.endsWith( "\n\n" ) )
+        {
+            changes.append( '\n' );
+        }
+    }
+
+
+    /**
+     * Writes change records at the end of the log, and starts a compaction if the log
+     * is now too big
+     */
+    private void appendChanges( StringBuilder changes ) throws LdapException
     {
         synchronized ( lock )
         {
-            if ( !enableRewriting || !dirty )
+            if ( changeLog == null )
             {
+                dirty = true;
+
                 return;
             }
 
+            byte[] data = Strings.getBytesUtf8( changes.toString() );
+
             try
             {
-                ldifFile.setLength( 0 ); // wipe the file clean
+                changeLog.write( data );
+                changeLog.getChannel().force( false );
+            }
+            catch ( IOException ioe )
+            {
+                throw new LdapOtherException( ioe.getMessage(), ioe );
+            }
+
+            changeLogSize += data.length;
+            scheduleCompaction();
+        }
+    }
+
+
+    /**
+     * Asks the compactor to write a new snapshot if the log is too big
+     */
+    private void scheduleCompaction()
+    {
+        if ( ( changeLogSize > compactionThreshold ) && !compactionScheduled )
+        {
+            compactionScheduled = true;
+            compactor.execute( this::compact );
+        }
+    }
+
+
+    /**
+     * Writes a new snapshot, and starts a new log
+     */
+    private void compact()
+    {
+        synchronized ( lock )
+        {
+            compactionScheduled = false;
+
+            if ( changeLog == null )
+            {
+                // The partition has been destroyed
+                return;
+            }
+        }
+
+        try ( PartitionTxn partitionTxn = beginReadTransaction() )
+        {
+            writeSnapshot( partitionTxn );
+        }
+        catch ( Exception e )
+        {
+            LOG.error( "Failed to compact the partition {}", getId(), e );
+        }
+    }
+
+
+    /**
+     * Writes the partition's data in a new file which replaces the LDIF file. The entries
+     * are copied and a new log is started in append only mode while holding the lock, then
+     * the snapshot is written without blocking the modifications, which go to the new log.
+     * The lock is taken again to swap the files. The previous logs are removed once the new
+     * snapshot is in place : if the server stops in between, the header of the snapshot
+     * tells which logs contain the modifications it does not include.
+     */
+    private void writeSnapshot( PartitionTxn partitionTxn ) throws LdapException
+    {
+        List<Entry> entries = new ArrayList<>();
+        long snapshotGeneration;
+
+        try
+        {
+            synchronized ( lock )
+            {
+                // The entries are modified in place, they have to be copied
+                appendPartition( partitionTxn, entry -> entries.add( entry.clone() ) );
+                logGeneration++;
+                snapshotGeneration = logGeneration;
+
+                if ( changeLog != null )
+                {
+                    changeLog.close();
+                    changeLog = new FileOutputStream( getChangeLogFile( logGeneration ) );
+                    changeLogSize = 0L;
+                }
+
+                dirty = false;
+            }
+
+            File partitionFile = new File( getPartitionPath() );
+            File tmpFile = new File( partitionFile.getPath() + "." + snapshotGeneration + ".tmp" );
+
+            try ( FileOutputStream out = new FileOutputStream( tmpFile );
+                Writer writer = new BufferedWriter( new OutputStreamWriter( out, StandardCharsets.UTF_8 ) ) )
+            {
+                writer.write( GENERATION_HEADER + snapshotGeneration + "\n" );
+
+                for ( Entry entry : entries )
+                {
+                    writer.write( LdifUtils.convertToLdif( entry ) + "\n" );
+                }
 
-                String suffixId = getEntryId( partitionTxn, suffixDn );
+                writer.flush();
+                out.getFD().sync();
+            }
 
-                if ( suffixId == null )
+            synchronized ( lock )
+            {
+                if ( ( snapshotGeneration <= generation ) || ( appendOnly && ( changeLog == null ) ) )
                 {
-                    contextEntry = null;
+                    // A more recent snapshot is already in place, or the partition has been destroyed
+                    Files.delete( tmpFile.toPath() );
+
                     return;
                 }
 
-                ParentIdAndRdn suffixEntry = rdnIdx.reverseLookup( partitionTxn, suffixId );
+                ldifFile.close();
+                Files.move( tmpFile.toPath(), partitionFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE );
+                ldifFile = new RandomAccessFile( partitionFile, "rws" );
 
-                if ( suffixEntry != null )
+                for ( long oldGeneration = generation; oldGeneration < snapshotGeneration; oldGeneration++ )
                 {
-                    Entry entry = master.get( partitionTxn, suffixId );
+                    File oldLog = getChangeLogFile( oldGeneration );
 
-                    // Don't write the EntryDN attribute
-                    entry.removeAttributes( entryDnAT );
+                    if ( oldLog.exists() && !oldLog.delete() )
+                    {
+                        LOG.warn( "Failed to delete the log {}", oldLog );
+                    }
+                }
 
-                    entry.setDn( suffixDn );
+                generation = snapshotGeneration;
+            }
+        }
+        catch ( LdapException e )
+        {
+            throw e;
+        }
+        catch ( Exception e )
+        {
+            throw new LdapException( e );
+        }
+    }
 
-                    appendLdif( entry );
 
-                    appendRecursive( partitionTxn, suffixId, suffixEntry.getNbChildren() );
+    /**
+     * writes the partition's data to the file if {@link #enableRewriting} is set to true
+     * and partition was modified since the last write or {@link #dirty} data. 
+     * 
+     * @throws LdapException
+     */
+    private void rewritePartitionData( PartitionTxn partitionTxn ) throws LdapException
+    {
+        synchronized ( lock )
+        {
+            if ( !enableRewriting || !dirty )
+            {
+                return;
+            }
+
+            if ( appendOnly )
+            {
+                writeSnapshot( partitionTxn );
+
+                return;
+            }
+
+            try
+            {
+                ldifFile.setLength( 0 ); // wipe the file clean
+
+                if ( generation > 0 )
+                {
+                    ldifFile.write( Strings.getBytesUtf8( GENERATION_HEADER + generation + "\n" ) );
                 }
 
+                appendPartition( partitionTxn, this::appendLdif );
+
                 dirty = false;
             }
             catch ( LdapException e )
@@ -375,7 +1039,39 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
     }
 
 
-    private void appendRecursive( PartitionTxn partitionTxn, String id, int nbSibbling ) throws Exception
+    /**
+     * Writes all the entries, starting with the context entry
+     */
+    private void appendPartition( PartitionTxn partitionTxn, EntryAppender appender ) throws Exception
+    {
+        String suffixId = getEntryId( partitionTxn, suffixDn );
+
+        if ( suffixId == null )
+        {
+            contextEntry = null;
+            return;
+        }
+
+        ParentIdAndRdn suffixEntry = rdnIdx.reverseLookup( partitionTxn, suffixId );
+
+        if ( suffixEntry != null )
+        {
+            Entry entry = master.get( partitionTxn, suffixId );
+
+            // Don't write the EntryDN attribute
+            entry.removeAttributes( entryDnAT );
+
+            entry.setDn( suffixDn );
+
+            appender.append( entry );
+
+            appendRecursive( partitionTxn, suffixId, suffixEntry.getNbChildren(), appender );
+        }
+    }
+
+
+    private void appendRecursive( PartitionTxn partitionTxn, String id, int nbSibbling, EntryAppender appender )
+        throws Exception
     {
         // Start with the root
         Cursor<IndexEntry<ParentIdAndRdn, String>> cursor = rdnIdx.forwardCursor( partitionTxn );
@@ -394,7 +1090,7 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
             // Remove the EntryDn
             entry.removeAttributes( SchemaConstants.ENTRY_DN_AT );
 
-            appendLdif( entry );
+            appender.append( entry );
 
             countChildren++;
 
@@ -403,7 +1099,7 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
 
             if ( nbChildren > 0 )
             {
-                appendRecursive( partitionTxn, childId, nbChildren );
+                appendRecursive( partitionTxn, childId, nbChildren, appender );
             }
         }
 
@@ -507,6 +1203,28 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
     @Override
     protected void doDestroy( PartitionTxn partitionTxn ) throws LdapException
     {
+        try
+        {
+            synchronized ( lock )
+            {
+                // A running compaction won't replace the LDIF file, the next ones will be skipped
+                if ( changeLog != null )
+                {
+                    changeLog.close();
+                    changeLog = null;
+                }
+            }
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+
+        if ( compactor != null )
+        {
+            compactor.shutdown();
+        }
+
         super.doDestroy( partitionTxn );
         
         try
@@ -535,4 +1253,48 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
         // save data if found dirty 
         rewritePartitionData( partitionTxn );
     }
+
+
+    /**
+     * @return <code>true</code> if the modifications are appended to a log instead of
+     * rewriting the LDIF file
+     */
+    public boolean isAppendOnly()
+    {
+        return appendOnly;
+    }
+
+
+    /**
+     * Appends the modifications to a log instead of rewriting the whole LDIF file after
+     * each of them. This has to be set before the partition is initialized.
+     *
+     * @param appendOnly <code>true</code> to append the modifications to a log
+     */
+    public void setAppendOnly( boolean appendOnly )
+    {
+        checkInitialized( "appendOnly" );
+        this.appendOnly = appendOnly;
+    }
+
+
+    /**
+     * @return The size of the log, in bytes, above which a new snapshot is written
+     */
+    public long getCompactionThreshold()
+    {
+        return compactionThreshold;
+    }
+
+
+    /**
+     * Sets the size of the log, in bytes, above which a new snapshot is written, in append
+     * only mode. The default is {@link #DEFAULT_COMPACTION_THRESHOLD}.
+     *
+     * @param compactionThreshold The size of the log above which it's compacted
+     */
+    public void setCompactionThreshold( long compactionThreshold )
+    {
+        this.compactionThreshold = compactionThreshold;
+    }
 }
@@ -33,7 +33,9 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -241,6 +243,13 @@ public class SingleFileLdifPartitionTest
      * @throws Exception
      */
     private SingleFileLdifPartition createPartition( String fileName, boolean truncate ) throws Exception
+    {
+        return createPartition( fileName, truncate, false );
+    }
+
+
+    private SingleFileLdifPartition createPartition( String fileName, boolean truncate, boolean appendOnly )
+        throws Exception
     {
         if ( fileName == null )
         {
@@ -260,6 +269,7 @@ public class SingleFileLdifPartitionTest
         partition.setPartitionPath( new File( fileName ).toURI() );
         partition.setSuffixDn( new Dn( schemaManager, "ou=test,ou=system" ) );
         partition.setSchemaManager( schemaManager );
+        partition.setAppendOnly( appendOnly );
         partition.initialize();
 
         return partition;
@@ -267,10 +277,16 @@ public class SingleFileLdifPartitionTest
 
 
     private SingleFileLdifPartition reloadPartition() throws Exception
+    {
+        return reloadPartition( false );
+    }
+
+
+    private SingleFileLdifPartition reloadPartition( boolean appendOnly ) throws Exception
     {
         partition.destroy( partition.beginWriteTransaction() );
 
-        return createPartition( ldifFileInUse.getAbsolutePath(), false );
+        return createPartition( ldifFileInUse.getAbsolutePath(), false, appendOnly );
     }
 
 
@@ -1152,6 +1168,152 @@ public class SingleFileLdifPartitionTest
     }
 
 
+    @Test
+    public void testAppendOnlyReplay() throws Exception
+    {
+        partition = injectEntries( createPartition( null, true, true ) );
+
+        ModifyOperationContext modOpCtx = new ModifyOperationContext( mockSession );
+        modOpCtx.setDn( new Dn( schemaManager, "cn=child2,ou=test,ou=system" ) );
+        modOpCtx.setPartition( partition );
+        modOpCtx.setTransaction( partition.beginWriteTransaction() );
+        modOpCtx.setModItems( Collections.<Modification> singletonList( new DefaultModification(
+            ModificationOperation.ADD_ATTRIBUTE, "description", "appended" ) ) );
+        modOpCtx.getModItems().get( 0 ).getAttribute().apply( schemaManager.lookupAttributeTypeRegistry( "description" ) );
+
+        partition.modify( modOpCtx );
+
+        Rdn newRdn = new Rdn( schemaManager, "cn=renamedChild1" );
+        RenameOperationContext renameOpCtx = new RenameOperationContext( mockSession,
+            new Dn( schemaManager, "cn=child1,ou=test,ou=system" ), newRdn, true );
+        renameOpCtx.setPartition( partition );
+        renameOpCtx.setTransaction( partition.beginWriteTransaction() );
+
+        partition.rename( renameOpCtx );
+
+        DeleteOperationContext delCtx = new DeleteOperationContext( mockSession );
+        delCtx.setDn( new Dn( schemaManager, "cn=grandChild12,cn=renamedChild1,ou=test,ou=system" ) );
+        delCtx.setPartition( partition );
+        delCtx.setTransaction( partition.beginWriteTransaction() );
+
+        partition.delete( delCtx );
+
+        // Nothing has been written in the LDIF file, everything is in the log
+        assertEquals( 0L, ldifFileInUse.length() );
+        assertTrue( new File( ldifFileInUse.getPath() + ".0.log" ).length() > 0L );
+
+        partition = reloadPartition( true );
+
+        assertExists( partition, "cn=renamedChild1,ou=test,ou=system" );
+        assertExists( partition, "cn=grandChild11,cn=renamedChild1,ou=test,ou=system" );
+        assertExists( partition, "cn=greatGrandChild111,cn=grandChild11,cn=renamedChild1,ou=test,ou=system" );
+        assertNotExists( partition, createEntry( "cn=child1,ou=test,ou=system" ) );
+        assertNotExists( partition, createEntry( "cn=grandChild12,cn=renamedChild1,ou=test,ou=system" ) );
+
+        Entry child2 = partition.fetch( partition.beginReadTransaction(), partition.getEntryId(
+            partition.beginReadTransaction(), new Dn( schemaManager, "cn=child2,ou=test,ou=system" ) ) );
+        assertTrue( child2.contains( "description", "appended" ) );
+
+        // Back to the default mode : the log is written in the LDIF file
+        partition = reloadPartition( false );
+
+        assertFalse( new File( ldifFileInUse.getPath() + ".0.log" ).exists() );
+        assertExists( partition, "cn=greatGrandChild111,cn=grandChild11,cn=renamedChild1,ou=test,ou=system" );
+
+        partition = reloadPartition( false );
+
+        assertExists( partition, "cn=greatGrandChild111,cn=grandChild11,cn=renamedChild1,ou=test,ou=system" );
+    }
+
+
+    @Test
+    public void testAppendOnlyCompaction() throws Exception
+    {
+        partition = createPartition( null, true, true );
+        partition.setCompactionThreshold( 1L );
+        partition = injectEntries( partition );
+
+        // The compaction is done in the background
+        for ( int i = 0; ( i < 500 ) && ( ldifFileInUse.length() == 0L ); i++ )
+        {
+            Thread.sleep( 10L );
+        }
+
+        partition = reloadPartition( true );
+
+        assertTrue( Files.readAllLines( ldifFileInUse.toPath() ).get( 0 ).startsWith( "# generation: " ) );
+        assertExists( partition, "cn=child2,ou=test,ou=system" );
+        assertExists( partition, "cn=grandChild12,cn=child1,ou=test,ou=system" );
+        assertExists( partition, "cn=greatGrandChild111,cn=grandChild11,cn=child1,ou=test,ou=system" );
+    }
+
+
+    @Test
+    public void testAppendOnlyIncompleteRecord() throws Exception
+    {
+        partition = injectEntries( createPartition( null, true, true ) );
+        partition.destroy( partition.beginWriteTransaction() );
+
+        File logFile = new File( ldifFileInUse.getPath() + ".0.log" );
+        long length = logFile.length();
+        Files.write( logFile.toPath(), Strings.getBytesUtf8(
+            "dn: cn=child3,ou=test,ou=system\nchangetype: add\nobjectClass: top\n" ), StandardOpenOption.APPEND );
+
+        partition = createPartition( ldifFileInUse.getAbsolutePath(), false, true );
+
+        assertEquals( length, logFile.length() );
+        assertExists( partition, "cn=greatGrandChild111,cn=grandChild11,cn=child1,ou=test,ou=system" );
+        assertNotExists( partition, createEntry( "cn=child3,ou=test,ou=system" ) );
+    }
+
+
+    @Test
+    public void testAppendOnlyInterruptedCompaction() throws Exception
+    {
+        partition = injectEntries( createPartition( null, true, true ) );
+        partition.destroy( partition.beginWriteTransaction() );
+
+        // A compaction has started a new log, but the snapshot has not been written
+        File nextLogFile = new File( ldifFileInUse.getPath() + ".1.log" );
+        Files.write( nextLogFile.toPath(), Strings.getBytesUtf8(
+            "dn: cn=child3,ou=test,ou=system\nchangetype: add\nobjectClass: top\nobjectClass: person\n"
+                + "cn: child3\nsn: child3\nentryUUID: " + UUID.randomUUID() + "\nentryCSN: "
+                + defaultCSNFactory.newInstance() + "\n\n" ) );
+        File tmpFile = new File( ldifFileInUse.getPath() + ".1.tmp" );
+        Files.write( tmpFile.toPath(), Strings.getBytesUtf8( "# generation: 1\n" ) );
+
+        partition = createPartition( ldifFileInUse.getAbsolutePath(), false, true );
+
+        assertFalse( tmpFile.exists() );
+        assertTrue( nextLogFile.exists() );
+        assertExists( partition, "cn=greatGrandChild111,cn=grandChild11,cn=child1,ou=test,ou=system" );
+        assertExists( partition, "cn=child3,ou=test,ou=system" );
+
+        // The next modifications go to the last log
+        long length = nextLogFile.length();
+        Entry child4 = createEntry( "cn=child4,ou=test,ou=system" );
+        child4.put( "ObjectClass", "top", "person" );
+        child4.put( "cn", "child4" );
+        child4.put( "sn", "child4" );
+
+        AddOperationContext addCtx = new AddOperationContext( mockSession );
+        addCtx.setEntry( child4 );
+        addCtx.setPartition( partition );
+        addCtx.setTransaction( partition.beginWriteTransaction() );
+
+        partition.add( addCtx );
+
+        assertTrue( nextLogFile.length() > length );
+
+        // Back to the default mode : both logs are written in the LDIF file
+        partition = reloadPartition( false );
+
+        assertFalse( new File( ldifFileInUse.getPath() + ".0.log" ).exists() );
+        assertFalse( nextLogFile.exists() );
+        assertExists( partition, "cn=child3,ou=test,ou=system" );
+        assertExists( partition, "cn=child4,ou=test,ou=system" );
+    }
+
     /**
      * An important test to check the stability of the partition
      * under high concurrency
@@ -1423,7 +1585,12 @@ public class SingleFileLdifPartitionTest
 
     private SingleFileLdifPartition injectEntries() throws Exception
     {
-        SingleFileLdifPartition partition = createPartition( null, true );
+        return injectEntries( createPartition( null, true ) );
+    }
+
+
+    private SingleFileLdifPartition injectEntries( SingleFileLdifPartition partition ) throws Exception
+    {
         AddOperationContext addCtx = new AddOperationContext( mockSession );
         addCtx.setEntry( contextEntry );
         addCtx.setPartition( partition );
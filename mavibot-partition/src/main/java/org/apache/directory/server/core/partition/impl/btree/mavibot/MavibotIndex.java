@@ -193,7 +193,7 @@ public class MavibotIndex<K> extends AbstractIndex<K, String>
             forwardDups = false;
         }
 
-        String forwardTableName = attributeType.getOid() + FORWARD_BTREE;
+        String forwardTableName = getTableName() + FORWARD_BTREE;
         forward = new MavibotTable<>( recordMan, schemaManager, forwardTableName, forwardKeySerializer,
             StringSerializer.INSTANCE, forwardDups, AbstractBTreePartition.DEFAULT_CACHE_SIZE );
 
@@ -205,7 +205,7 @@ public class MavibotIndex<K> extends AbstractIndex<K, String>
          */
         if ( withReverse )
         {
-            String reverseTableName = attributeType.getOid() + REVERSE_BTREE;
+            String reverseTableName = getTableName() + REVERSE_BTREE;
             reverse = new MavibotTable<>( recordMan, schemaManager, reverseTableName, StringSerializer.INSTANCE,
                 forwardKeySerializer, !attributeType.isSingleValued() );
         }
@@ -35,6 +35,7 @@ import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.cursor.Tuple;
 import org.apache.directory.api.ldap.model.entry.Attribute;
 import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Modification;
 import org.apache.directory.api.ldap.model.entry.Value;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.exception.LdapOtherException;
@@ -42,6 +43,7 @@ import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.util.exception.MultiException;
 import org.apache.directory.mavibot.btree.RecordManager;
+import org.apache.directory.mavibot.btree.exception.RecordManagerException;
 import org.apache.directory.server.constants.ApacheSchemaConstants;
 import org.apache.directory.server.core.api.DnFactory;
 import org.apache.directory.server.core.api.entry.ClonedServerEntry;
@@ -58,6 +60,7 @@ import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
 import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.xdbm.Index;
+import org.apache.directory.server.xdbm.NGramIndex;
 import org.apache.directory.server.xdbm.search.impl.CursorBuilder;
 import org.apache.directory.server.xdbm.search.impl.DefaultOptimizer;
 import org.apache.directory.server.xdbm.search.impl.DefaultSearchEngine;
@@ -94,6 +97,9 @@ public class MavibotPartition extends AbstractBTreePartition
 
     private RecordManager recordMan;
 
+    /** The OIDs of the n-gram indexes created on startup, which have to be built from the existing entries */
+    private final Set<String> gramIndexesToBuild = new HashSet<>();
+
     /** the entry cache */
     private Cache< String, Entry > entryCache;
 
@@ -148,7 +154,12 @@ public class MavibotPartition extends AbstractBTreePartition
             EvaluatorBuilder evaluatorBuilder = new EvaluatorBuilder( this, schemaManager );
             CursorBuilder cursorBuilder = new CursorBuilder( this, evaluatorBuilder );
 
-            setSearchEngine( new DefaultSearchEngine( this, cursorBuilder, evaluatorBuilder, getOptimizer() ) );
+            DefaultSearchEngine searchEngine = new DefaultSearchEngine( this, cursorBuilder, evaluatorBuilder,
+                getOptimizer() );
+
+            // The Mavibot cursors browse a revision of the BTrees, we can stream the candidates
+            searchEngine.setStreaming( true );
+            setSearchEngine( searchEngine );
 
             // Create the underlying directories (only if needed)
             File partitionDir = new File( getPartitionPath() );
@@ -200,6 +211,29 @@ public class MavibotPartition extends AbstractBTreePartition
 
             List<Index<?, String>> indexToBuild = new ArrayList<>();
 
+            // The n-grams may have been added to an existing index
+            for ( Index<?, String> index : userIndices.values() )
+            {
+                if ( gramIndexesToBuild.contains( index.getAttribute().getOid() ) )
+                {
+                    indexToBuild.add( index );
+                }
+            }
+
+            gramIndexesToBuild.clear();
+
+            if ( !indexToBuild.isEmpty() )
+            {
+                try
+                {
+                    buildUserIndex( beginReadTransaction(), indexToBuild );
+                }
+                catch ( Exception e )
+                {
+                    throw new LdapOtherException( e.getMessage(), e );
+                }
+            }
+
             // this loop is used for two purposes
             // one for collecting all user indices
             // two for finding a new index to be built
@@ -265,7 +299,15 @@ public class MavibotPartition extends AbstractBTreePartition
                 + "Will create new MavibotIndex using copied configuration parameters.", index );
             mavibotIndex = new MavibotIndex( index.getAttributeId(), true );
             mavibotIndex.setCacheSize( index.getCacheSize() );
-            mavibotIndex.setWkDirPath( index.getWkDirPath() );
+
+            if ( index.getWkDirPath() == null )
+            {
+                mavibotIndex.setWkDirPath( partitionPath );
+            }
+            else
+            {
+                mavibotIndex.setWkDirPath( index.getWkDirPath() );
+            }
         }
 
         mavibotIndex.setRecordManager( recordMan );
@@ -283,6 +325,73 @@ public class MavibotPartition extends AbstractBTreePartition
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Index<String, String> createGramIndex( AttributeType attributeType ) throws LdapException
+    {
+        String tableName = attributeType.getOid() + NGramIndex.NGRAM_SUFFIX;
+        MavibotIndex<String> gramIndex = new MavibotIndex<>( attributeType.getOid(), false );
+        gramIndex.setTableName( tableName );
+        gramIndex.setWkDirPath( partitionPath );
+        gramIndex.setRecordManager( recordMan );
+
+        if ( !recordMan.getManagedTrees().contains( tableName + MavibotIndex.FORWARD_BTREE ) )
+        {
+            // The index does not exist in the database, we need to build it
+            gramIndexesToBuild.add( attributeType.getOid() );
+        }
+
+        try
+        {
+            gramIndex.init( schemaManager, attributeType );
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+
+        return gramIndex;
+    }
+
+
+    /**
+     * Applies the modifications in a single record manager transaction. The Mavibot B-trees
+     * don't support concurrent writers : a page read by one writer may be freed by the commit
+     * of another one. The entries are still locked individually, so the interceptors process
+     * the modifications of distinct entries concurrently, but their tables are updated one
+     * entry at a time.
+     */
+    @Override
+    protected Entry modify( PartitionTxn partitionTxn, String id, Modification... mods ) throws LdapException
+    {
+        recordMan.beginTransaction();
+
+        try
+        {
+            Entry modifiedEntry = super.modify( partitionTxn, id, mods );
+            recordMan.commit();
+
+            return modifiedEntry;
+        }
+        catch ( LdapException | RuntimeException e )
+        {
+            try
+            {
+                recordMan.rollback();
+            }
+            catch ( RecordManagerException rme )
+            {
+                // The transaction has already been rolled back
+                e.addSuppressed( rme );
+            }
+
+            throw e;
+        }
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -401,7 +510,7 @@ public class MavibotPartition extends AbstractBTreePartition
                 {
                     for ( Value value : entryAttr )
                     {
-                        index.add( partitionTxn, value.getString(), id );
+                        index.add( partitionTxn, value.getNormalized(), id );
                     }
 
                     // Adds only those attributes that are indexed
@@ -21,6 +21,7 @@ package org.apache.directory.server.core.partition.impl.btree.mavibot;
 
 
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.cursor.EmptyCursor;
@@ -66,6 +67,9 @@ public class MavibotTable<K, V> extends AbstractTable<K, V>
     /** The used recordManager */
     protected RecordManager recordMan;
 
+    /** The number of Tuples. Distinct entries may be modified concurrently, so it's updated atomically */
+    private final AtomicLong nbElems = new AtomicLong();
+
 
     /**
      * Creates a new instance of MavibotTable.
@@ -134,7 +138,7 @@ public class MavibotTable<K, V> extends AbstractTable<K, V>
         arrayMarshaller = new ArrayMarshaller<>( valueComparator );
 
         // Initialize the count
-        count = bt.getNbElems();
+        nbElems.set( bt.getNbElems() );
     }
 
 
@@ -231,7 +235,7 @@ public class MavibotTable<K, V> extends AbstractTable<K, V>
 
             if ( null == tuple )
             {
-                return count > 0;
+                return nbElems.get() > 0;
             }
             else
             {
@@ -383,7 +387,7 @@ public class MavibotTable<K, V> extends AbstractTable<K, V>
 
             if ( existingVal == null )
             {
-                count++;
+                nbElems.incrementAndGet();
             }
         }
         catch ( IOException ioe )
@@ -420,7 +424,7 @@ public class MavibotTable<K, V> extends AbstractTable<K, V>
                     return;
                 }
 
-                count -= size;
+                nbElems.addAndGet( -size );
             }
             else
             {
@@ -431,7 +435,7 @@ public class MavibotTable<K, V> extends AbstractTable<K, V>
                     return;
                 }
 
-                count--;
+                nbElems.decrementAndGet();
             }
         }
         catch ( IOException | KeyNotFoundException e )
@@ -461,7 +465,7 @@ public class MavibotTable<K, V> extends AbstractTable<K, V>
             // We decrement the counter only when the key was found
             if ( tuple != null )
             {
-                count--;
+                nbElems.decrementAndGet();
             }
         }
         catch ( Exception e )
@@ -640,6 +644,16 @@ public class MavibotTable<K, V> extends AbstractTable<K, V>
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected long getCount()
+    {
+        return nbElems.get();
+    }
+
+
     /**
      * Synchronizes the buffers with disk.
      *
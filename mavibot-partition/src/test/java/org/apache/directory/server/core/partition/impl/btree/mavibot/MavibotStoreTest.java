@@ -37,9 +37,14 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.csn.CsnFactory;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.entry.Attribute;
 import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
 import org.apache.directory.api.ldap.model.entry.DefaultEntry;
@@ -75,6 +80,7 @@ import org.apache.directory.server.core.shared.DefaultDnFactory;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.IndexNotFoundException;
 import org.apache.directory.server.xdbm.MockPartitionReadTxn;
+import org.apache.directory.server.xdbm.NGramIndex;
 import org.apache.directory.server.xdbm.Store;
 import org.apache.directory.server.xdbm.StoreUtils;
 import org.junit.jupiter.api.AfterEach;
@@ -846,6 +852,135 @@ public class MavibotStoreTest
     }
 
 
+    /**
+     * Modify distinct entries from several threads : none of the index Tuples counts
+     * should be lost.
+     */
+    @Test
+    public void testConcurrentModifyDistinctEntries() throws Exception
+    {
+        int nbThreads = 4;
+        int nbEntries = 50;
+        List<Dn> dns = new ArrayList<>();
+
+        for ( int i = 0; i < nbThreads * nbEntries; i++ )
+        {
+            Dn dn = new Dn( schemaManager, "cn=User" + i + ",ou=Engineering,o=Good Times Co." );
+            Entry entry = new DefaultEntry( schemaManager, dn,
+                "objectClass: top",
+                "objectClass: person",
+                "objectClass: organizationalPerson",
+                "ou: Engineering",
+                "cn: User" + i,
+                "sn: User" + i,
+                "entryCSN", new CsnFactory( 1 ).newInstance().toString(),
+                "entryUUID", UUID.randomUUID().toString() );
+
+            AddOperationContext addContext = new AddOperationContext( null, entry );
+            addContext.setPartition( store );
+            addContext.setTransaction( store.beginWriteTransaction() );
+
+            store.add( addContext );
+            dns.add( dn );
+        }
+
+        Index<String, String> uidIndex = ( Index<String, String> ) store.getUserIndex( schemaManager
+            .getAttributeType( SchemaConstants.UID_AT_OID ) );
+        long uidCount = uidIndex.count( partitionTxn );
+        long ouCount = store.getUserIndex( OU_AT ).count( partitionTxn );
+
+        ExecutorService executor = Executors.newFixedThreadPool( nbThreads );
+        List<Future<Void>> futures = new ArrayList<>();
+
+        try
+        {
+            for ( int t = 0; t < nbThreads; t++ )
+            {
+                List<Dn> slice = dns.subList( t * nbEntries, ( t + 1 ) * nbEntries );
+
+                Callable<Void> modifier = () ->
+                {
+                    for ( Dn dn : slice )
+                    {
+                        Modification add = new DefaultModification( ModificationOperation.ADD_ATTRIBUTE,
+                            schemaManager.getAttributeType( SchemaConstants.UID_AT_OID ),
+                            dn.getRdn().getValue() );
+                        store.modify( partitionTxn, dn, add );
+
+                        Modification remove = new DefaultModification( ModificationOperation.REMOVE_ATTRIBUTE,
+                            OU_AT, "Engineering" );
+                        store.modify( partitionTxn, dn, remove );
+                    }
+
+                    return null;
+                };
+
+                futures.add( executor.submit( modifier ) );
+            }
+
+            for ( Future<Void> future : futures )
+            {
+                future.get();
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+
+        for ( Dn dn : dns )
+        {
+            Entry entry = store.fetch( partitionTxn, store.getEntryId( partitionTxn, dn ), dn );
+            assertTrue( entry.get( SchemaConstants.UID_AT ).contains( dn.getRdn().getValue() ) );
+            assertNull( entry.get( SchemaConstants.OU_AT ) );
+        }
+
+        assertEquals( uidCount + dns.size(), uidIndex.count( partitionTxn ) );
+        assertEquals( ouCount - dns.size(), store.getUserIndex( OU_AT ).count( partitionTxn ) );
+    }
+
+
+    /**
+     * Adds a n-gram index to an existing partition : the n-grams of the existing entries
+     * must be built on startup.
+     */
+    @Test
+    public void testNGramIndexBuiltOnStartup() throws Exception
+    {
+        store.destroy( partitionTxn );
+
+        store = new MavibotPartition( schemaManager, dnFactory );
+        store.setId( "example" );
+        store.setCacheSize( 10 );
+        store.setPartitionPath( wkdir.toURI() );
+        store.setSyncOnWrite( false );
+
+        MavibotIndex ouIndex = new MavibotIndex( SchemaConstants.OU_AT_OID, false );
+        ouIndex.setWkDirPath( wkdir.toURI() );
+        store.addIndex( ouIndex );
+        store.addIndex( new NGramIndex( SchemaConstants.CN_AT_OID ) );
+
+        store.setSuffixDn( new Dn( schemaManager, "o=Good Times Co." ) );
+        store.initialize();
+
+        NGramIndex cnIndex = ( NGramIndex ) store.getUserIndex( schemaManager
+            .getAttributeType( SchemaConstants.CN_AT_OID ) );
+        assertTrue( cnIndex.hasGrams() );
+
+        // cn=JOhnny WAlkeR and its alias, cn=Jack Daniels
+        assertEquals( 2L, cnIndex.gramCount( partitionTxn, "alk" ) );
+        assertEquals( 1L, cnIndex.gramCount( partitionTxn, "dan" ) );
+        assertEquals( 0L, cnIndex.gramCount( partitionTxn, "zzz" ) );
+
+        try ( Cursor<String> cursor = cnIndex.gramCursor( partitionTxn, "dan" ) )
+        {
+            assertTrue( cursor.next() );
+            assertTrue( cnIndex.hasGram( partitionTxn, "jac", cursor.get() ) );
+            assertFalse( cnIndex.hasGram( partitionTxn, "alk", cursor.get() ) );
+        }
+    }
+
+
     @Test
     @Disabled("Ignore till mavibot file nam extensions are frozen")
     public void testDeleteUnusedIndexFiles() throws Exception
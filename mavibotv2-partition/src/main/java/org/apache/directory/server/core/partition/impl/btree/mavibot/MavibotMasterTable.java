@@ -21,12 +21,16 @@ package org.apache.directory.server.core.partition.impl.btree.mavibot;
 
 
 import java.io.IOException;
+import java.util.Set;
 import java.util.UUID;
 
 import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.mavibot.btree.RecordManager;
 import org.apache.directory.mavibot.btree.serializer.StringSerializer;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.xdbm.MasterTable;
 
 
@@ -55,4 +59,15 @@ public class MavibotMasterTable extends MavibotTable<String, Entry> implements M
     {
         return UUID.randomUUID().toString();
     }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Entry get( PartitionTxn transaction, String id, Set<AttributeType> attributeTypes ) throws LdapException
+    {
+        // The values are decoded by the B-tree, the entries are returned whole
+        return get( transaction, id );
+    }
 }
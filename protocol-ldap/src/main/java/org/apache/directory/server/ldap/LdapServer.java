@@ -21,7 +21,6 @@ package org.apache.directory.server.ldap;
 
 
 import java.io.IOException;
-import java.net.Socket;
 import java.security.KeyStore;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -31,6 +30,8 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.TrustManager;
@@ -73,6 +74,7 @@ import org.apache.directory.server.ldap.handlers.extended.StartTlsHandler;
 import org.apache.directory.server.ldap.handlers.request.AbandonRequestHandler;
 import org.apache.directory.server.ldap.handlers.request.AddRequestHandler;
 import org.apache.directory.server.ldap.handlers.request.BindRequestHandler;
+import org.apache.directory.server.ldap.handlers.request.BindVerificationPool;
 import org.apache.directory.server.ldap.handlers.request.CompareRequestHandler;
 import org.apache.directory.server.ldap.handlers.request.DeleteRequestHandler;
 import org.apache.directory.server.ldap.handlers.request.ExtendedRequestHandler;
@@ -148,6 +150,9 @@ public class LdapServer extends DirectoryBackedService
     /** The default maximum time limit. */
     private static final int MAX_TIME_LIMIT_DEFAULT = 10000;
 
+    /** The default maximum number of binds waiting for a bind verification thread */
+    private static final int BIND_QUEUE_SIZE_DEFAULT = 1024;
+
     /** The default service pid. */
     private static final String SERVICE_PID_DEFAULT = "org.apache.directory.server.ldap";
 
@@ -175,6 +180,18 @@ public class LdapServer extends DirectoryBackedService
     /** The maximum size for an incoming PDU */
     private int maxPDUSize = Integer.MAX_VALUE;
 
+    /** The maximum number of bytes waiting to be sent to a client before a search is suspended. No limit by default */
+    private long maxScheduledWriteBytes = Long.MAX_VALUE;
+
+    /** The number of threads verifying the binds with an expensive password hash */
+    private int bindThreads = Runtime.getRuntime().availableProcessors();
+
+    /** The maximum number of binds waiting for a bind verification thread */
+    private int bindQueueSize = BIND_QUEUE_SIZE_DEFAULT;
+
+    /** The pool verifying the binds with an expensive password hash */
+    private BindVerificationPool bindVerificationPool;
+
     /** If LDAPS is activated : the external Keystore file, if defined */
     private String keystoreFile;
 
@@ -439,6 +456,11 @@ public class LdapServer extends DirectoryBackedService
          */
         installDefaultHandlers();
 
+        if ( bindThreads > 0 )
+        {
+            bindVerificationPool = new BindVerificationPool( bindThreads, bindQueueSize );
+        }
+
         PartitionNexus nexus = getDirectoryService().getPartitionNexus();
 
         for ( ExtendedOperationHandler<? extends ExtendedRequest, ? extends ExtendedResponse> h : extendedOperationHandlers )
@@ -480,7 +502,7 @@ public class LdapServer extends DirectoryBackedService
             // We use the same number of thread than the number of IoProcessor
             // (NOTE : this has to be double checked)
             ( ( DefaultIoFilterChainBuilder ) chain ).addLast( "executor", new ExecutorFilter(
-                new UnorderedThreadPoolExecutor( transport.getNbThreads() ), IoEventType.MESSAGE_RECEIVED ) );
+                createExecutor( ( TcpTransport ) transport ), IoEventType.MESSAGE_RECEIVED ) );
 
             /*
             // Trace all the incoming and outgoing message to the console
@@ -565,7 +587,7 @@ public class LdapServer extends DirectoryBackedService
                 
                 // Kill the chain executor
                 ExecutorFilter executorFilter = ( ExecutorFilter ) transport.getAcceptor().getFilterChain().get( "executor" );
-                ( ( UnorderedThreadPoolExecutor ) executorFilter.getExecutor() ).shutdownNow();
+                ( ( ExecutorService ) executorFilter.getExecutor() ).shutdownNow();
 
                 // Shutdown the transport
                 getSocketAcceptor( transport ).dispose();
@@ -602,6 +624,12 @@ public class LdapServer extends DirectoryBackedService
 
             // Stop the replication consumers
             stopConsumers();
+
+            if ( bindVerificationPool != null )
+            {
+                bindVerificationPool.shutdown();
+                bindVerificationPool = null;
+            }
         }
         catch ( Exception e )
         {
@@ -611,71 +639,36 @@ public class LdapServer extends DirectoryBackedService
         started = false;
         LOG.info( "Ldap service stopped." );
     }
-    
-    /*
-    private void startVTNetwork( Transport transport, IoFilterChainBuilder chainBuilder ) throws Exception
-    {
-        if ( transport.getBackLog() < 0 )
-        {
-            // Set the backlog to the default value when it's below 0
-            transport.setBackLog( 50 );
-        }
 
-        if ( transport instanceof TcpTransport )
+
+    /**
+     * Creates the executor processing the incoming requests. We use a pool of nbThreads
+     * threads, unless the transport asks for virtual threads and the JVM supports them :
+     * then each request is processed in its own virtual thread, so that a request waiting
+     * for a lock or for a slow client does not hold one of the pool threads.
+     */
+    private ExecutorService createExecutor( TcpTransport transport )
+    {
+        if ( transport.isVirtualThreads() )
         {
-            try ( ServerSocket serverSocket = new ServerSocket( 
-                    transport.getPort(), 
-                    transport.getBackLog(), 
-                    InetAddress.getByName( transport.getAddress() ) ) )
+            try
             {
-                serverSocket.setOption( StandardSocketOptions.SO_REUSEADDR, true );
-                serverSocket.setOption( StandardSocketOptions.SO_REUSEPORT, true );
-                serverSocket.setOption( StandardSocketOptions.SO_RCVBUF, 64 * 1024 );
-                //serverSocket.setOption( StandardSocketOptions.SO_SNDBUF, 64 * 1024 );
-                //serverSocket.setOption( StandardSocketOptions.TCP_NODELAY, true );
-                
-                Runnable ldapServer = () -> 
-                { 
-                    System.out.println( "Hello LDAP Serevr!" ); 
+                // We are compiled for Java 8, so we can't call this method directly
+                ExecutorService executor = ( ExecutorService ) Executors.class
+                    .getMethod( "newVirtualThreadPerTaskExecutor" ).invoke( null );
 
-                    while ( true ) 
-                    {
-                        Socket socket;
+                LOG.info( "The requests received on {} are processed in virtual threads", transport );
 
-                        try
-                        {
-                            socket = serverSocket.accept();
-                            
-                            Thread.Builder builder = Thread.ofVirtual()
-                                .name( "virtual thread" )
-                                .inheritInheritableThreadLocals( false )
-                                .uncaughtExceptionHandler( ( t, e ) -> System.out.printf( "thread %s failed with exception %s", t, e ) );
-                            
-                            Thread thread = builder.unstarted( () -> System.out.println( "run" ) );
-                        }
-                        catch ( IOException e )
-                        {
-                            e.printStackTrace();
-                            String msg = I18n.err( I18n.ERR_38009_FAILED_TO_BIND_TO_SERVICE_REGISTRY, transport.getPort() );
-                            LdapConfigurationException lce = new LdapConfigurationException( msg );
-                            lce.setCause( e );
-                            LOG.error( msg, e );
-                        }
-                    }
-                };
-                
-                Thread thread = Thread.startVirtualThread( ldapServer );
-                
-                System.out.println( "Daemon: " + thread.isDaemon() );
+                return executor;
+            }
+            catch ( ReflectiveOperationException e )
+            {
+                LOG.warn( "Virtual threads are not supported by this JVM, using a pool of {} threads for {}",
+                    transport.getNbThreads(), transport );
             }
         }
-    }
-    */
-    
-    
-    private void handleLdapRequest( Socket socket )
-    {
-        
+
+        return new UnorderedThreadPoolExecutor( transport.getNbThreads() );
     }
 
 
@@ -1772,6 +1765,96 @@ public class LdapServer extends DirectoryBackedService
     }
 
 
+    /**
+     * @return The maximum number of bytes waiting to be sent to a client before we stop
+     * writing the search results, until the client has read some of them
+     */
+    public long getMaxScheduledWriteBytes()
+    {
+        return maxScheduledWriteBytes;
+    }
+
+
+    /**
+     * Set the maximum number of bytes waiting to be sent to a client before we stop
+     * writing the search results. The search is resumed when half of those bytes have
+     * been sent. There is no limit by default.
+     * <br>
+     * A suspended search holds its request handling thread until the client reads its
+     * responses, the search time limit is reached, or the request is abandoned. The
+     * administrators searches have no time limit, so the number of request handling
+     * threads should be greater than the number of slow clients we expect.
+     *
+     * @param maxScheduledWriteBytes A positive number of bytes. A negative or null value
+     * will be transformed to {@link Long#MAX_VALUE}, which disables the flow control
+     */
+    public void setMaxScheduledWriteBytes( long maxScheduledWriteBytes )
+    {
+        if ( maxScheduledWriteBytes <= 0 )
+        {
+            maxScheduledWriteBytes = Long.MAX_VALUE;
+        }
+
+        this.maxScheduledWriteBytes = maxScheduledWriteBytes;
+    }
+
+
+    /**
+     * @return The number of threads verifying the binds done with a password hashed
+     * with an expensive scheme (PKCS5S2, crypt, bcrypt)
+     */
+    public int getBindThreads()
+    {
+        return bindThreads;
+    }
+
+
+    /**
+     * Set the number of threads verifying the binds done with a password hashed with
+     * an expensive scheme. Those binds are then not verified by the threads processing
+     * the requests. This must be set before the server is started.
+     *
+     * @param bindThreads The number of threads. 0 disables the pool : all the binds are
+     * verified by the threads processing the requests
+     */
+    public void setBindThreads( int bindThreads )
+    {
+        this.bindThreads = bindThreads;
+    }
+
+
+    /**
+     * @return The maximum number of binds waiting for a bind verification thread
+     */
+    public int getBindQueueSize()
+    {
+        return bindQueueSize;
+    }
+
+
+    /**
+     * Set the maximum number of binds waiting for a bind verification thread. Any
+     * other bind is rejected with a BUSY result. This must be set before the server
+     * is started.
+     *
+     * @param bindQueueSize The maximum number of waiting binds
+     */
+    public void setBindQueueSize( int bindQueueSize )
+    {
+        this.bindQueueSize = bindQueueSize;
+    }
+
+
+    /**
+     * @return The pool verifying the binds with an expensive password hash, and
+     * recording the binds latency, or <code>null</code> if there is none
+     */
+    public BindVerificationPool getBindVerificationPool()
+    {
+        return bindVerificationPool;
+    }
+
+
     /**
      * @return the number of seconds pinger thread sleeps between subsequent pings
      */
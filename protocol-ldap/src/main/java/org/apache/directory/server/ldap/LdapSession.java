@@ -26,11 +26,15 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapTimeLimitExceededException;
 import org.apache.directory.api.ldap.model.message.AbandonableRequest;
 import org.apache.directory.api.ldap.model.message.BindStatus;
 import org.apache.directory.api.ldap.model.message.SearchRequest;
@@ -70,8 +74,8 @@ public class LdapSession
      */
     private final IoSession ioSession;
 
-    /** The CoreSession */
-    private CoreSession coreSession;
+    /** The CoreSession, which may be set by the thread verifying a bind */
+    private volatile CoreSession coreSession;
 
     /** A reference on the LdapServer instance */
     private LdapServer ldapServer;
@@ -83,7 +87,7 @@ public class LdapSession
     private Map<Integer, SearchRequestContainer> searchRequests;
 
     /** The current Bind status */
-    private BindStatus bindStatus;
+    private volatile BindStatus bindStatus;
 
     /** The current mechanism used to authenticate the user */
     private String currentMechanism;
@@ -96,6 +100,24 @@ public class LdapSession
     /** A map containing all the paged search context */
     private Map<Integer, PagedSearchContext> pagedSearchContexts;
 
+    /** A lock used to wait for the pending writes to be sent to the client */
+    private final Lock writeLock = new ReentrantLock();
+
+    /** The condition signaled when some pending writes have been sent */
+    private final Condition writeDrained = writeLock.newCondition();
+
+    /** The number of threads waiting for the pending writes to be sent */
+    private volatile int writeWaiters;
+
+    /** The maximum number of bytes we have seen waiting to be sent */
+    private final AtomicLong peakScheduledWriteBytes = new AtomicLong();
+
+    /** The number of times a request has been suspended because the client was too slow */
+    private final AtomicLong writeSuspensions = new AtomicLong();
+
+    /** The total time, in milliseconds, the requests have been suspended */
+    private final AtomicLong writeSuspendedTime = new AtomicLong();
+
 
     /**
      * Creates a new instance of LdapSession associated with the underlying
@@ -570,6 +592,148 @@ public class LdapSession
         }
     }
 
+    /**
+     * Wakes up the thread waiting for the pending writes to be sent when the given request is
+     * abandoned. This has to be called once, before the request is suspended by
+     * {@link #awaitWriteQueue(long, AbandonableRequest, long)}.
+     *
+     * @param request The request writing the responses
+     */
+    public void signalWriteQueueOnAbandon( AbandonableRequest request )
+    {
+        request.addAbandonListener( abandonedRequest -> signalWriteQueue() );
+    }
+
+
+    /**
+     * Waits until the number of bytes waiting to be sent to the client is below the given
+     * high-water mark. When it's above, we wait until half of those bytes have been sent,
+     * the session is closed, the request is abandoned, or the deadline is reached.
+     *
+     * @param highWaterMark The maximum number of bytes which can be waiting to be sent
+     * @param request The request writing the responses
+     * @param deadline The time after which we stop waiting, in milliseconds, or
+     * <code>Long.MAX_VALUE</code> to wait as long as needed
+     * @return <code>true</code> if we can write more responses, <code>false</code> if the
+     * session has been closed or the request abandoned
+     * @throws InterruptedException If the thread has been interrupted while waiting
+     * @throws LdapTimeLimitExceededException If the deadline has been reached
+     */
+    public boolean awaitWriteQueue( long highWaterMark, AbandonableRequest request, long deadline )
+        throws InterruptedException, LdapTimeLimitExceededException
+    {
+        long scheduled = ioSession.getScheduledWriteBytes();
+        peakScheduledWriteBytes.accumulateAndGet( scheduled, Math::max );
+
+        if ( scheduled <= highWaterMark )
+        {
+            return true;
+        }
+
+        long lowWaterMark = highWaterMark / 2;
+        long start = System.currentTimeMillis();
+        writeSuspensions.incrementAndGet();
+
+        if ( IS_DEBUG )
+        {
+            LOG.debug( "Suspending the request {}, {} bytes are waiting to be sent", request.getMessageId(), scheduled );
+        }
+
+        writeLock.lock();
+        writeWaiters++;
+
+        try
+        {
+            while ( ioSession.getScheduledWriteBytes() > lowWaterMark )
+            {
+                if ( ioSession.isClosing() || request.isAbandoned() )
+                {
+                    return false;
+                }
+
+                long remaining = deadline - System.currentTimeMillis();
+
+                if ( remaining <= 0L )
+                {
+                    throw new LdapTimeLimitExceededException( I18n.err( I18n.ERR_38035_WRITE_QUEUE_TIME_LIMIT,
+                        request.getMessageId() ) );
+                }
+
+                // We are signaled when some responses have been sent, when the session is closed,
+                // and when the request is abandoned
+                writeDrained.await( remaining, TimeUnit.MILLISECONDS );
+            }
+
+            return !ioSession.isClosing() && !request.isAbandoned();
+        }
+        finally
+        {
+            writeWaiters--;
+            writeLock.unlock();
+            writeSuspendedTime.addAndGet( System.currentTimeMillis() - start );
+        }
+    }
+
+
+    /**
+     * Signals the requests waiting for the pending writes to be sent that some of them
+     * have been sent, or that the session has been closed.
+     */
+    public void signalWriteQueue()
+    {
+        if ( writeWaiters > 0 )
+        {
+            writeLock.lock();
+
+            try
+            {
+                writeDrained.signalAll();
+            }
+            finally
+            {
+                writeLock.unlock();
+            }
+        }
+    }
+
+
+    /**
+     * @return The number of bytes currently waiting to be sent to the client
+     */
+    public long getScheduledWriteBytes()
+    {
+        return ioSession.getScheduledWriteBytes();
+    }
+
+
+    /**
+     * @return The maximum number of bytes we have seen waiting to be sent to the client
+     */
+    public long getPeakScheduledWriteBytes()
+    {
+        return peakScheduledWriteBytes.get();
+    }
+
+
+    /**
+     * @return The number of times a request has been suspended because too many bytes
+     * were waiting to be sent to the client
+     */
+    public long getWriteSuspensions()
+    {
+        return writeSuspensions.get();
+    }
+
+
+    /**
+     * @return The total time, in milliseconds, the requests have been suspended
+     */
+    public long getWriteSuspendedTime()
+    {
+        return writeSuspendedTime.get();
+    }
+
+
     /**
      * Get paged search context associated with an ID
      * @param contextId The id for teh context we want to get
@@ -116,6 +116,27 @@ public class PersistentSearchListener implements DirectoryListener, AbandonListe
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void eventsDropped( int nbDropped, boolean disconnected )
+    {
+        if ( disconnected )
+        {
+            // The client is too slow : close the connection, it will have to redo the persistent search
+            LOG.warn( "Closing the session {}, {} changes can't be sent to the persistent search {}",
+                session.getIoSession().getId(), nbDropped, req.getMessageId() );
+            session.getIoSession().closeNow();
+        }
+        else
+        {
+            LOG.warn( "{} changes haven't been sent to the persistent search {} on session {}",
+                nbDropped, req.getMessageId(), session.getIoSession().getId() );
+        }
+    }
+
+
     private void setECResponseControl( SearchResultEntry response, ChangeOperationContext opContext, ChangeType type )
     {
         if ( psearchControl.isReturnECs() )
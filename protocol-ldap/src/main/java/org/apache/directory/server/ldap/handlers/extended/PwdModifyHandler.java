@@ -501,8 +501,27 @@ public class PwdModifyHandler implements ExtendedOperationHandler<PasswordModify
             }
 
             // Ok, we were able to bind using the userIdentity and the password. Let's
-            // modify the password now
-            modifyUserPassword( requestor.getCoreSession(), bindContext.getEntry(), userDn, oldPassword, newPassword, req );
+            // modify the password now. The authenticator may have found the password in its
+            // cache, without reading the entry
+            Entry userEntry = bindContext.getEntry();
+
+            if ( ( userEntry == null ) || !userEntry.containsAttribute( SchemaConstants.USER_PASSWORD_AT ) )
+            {
+                try
+                {
+                    userEntry = adminSession.lookup( userDn, SchemaConstants.ALL_USER_ATTRIBUTES,
+                        SchemaConstants.ALL_OPERATIONAL_ATTRIBUTES );
+                }
+                catch ( LdapException le )
+                {
+                    requestor.getIoSession().write( new PasswordModifyResponseImpl(
+                        req.getMessageId(), ResultCodeEnum.INVALID_CREDENTIALS ) );
+
+                    return;
+                }
+            }
+
+            modifyUserPassword( requestor.getCoreSession(), userEntry, userDn, oldPassword, newPassword, req );
         }
     }
 
@@ -26,7 +26,9 @@ import javax.security.sasl.SaslException;
 import javax.security.sasl.SaslServer;
 
 import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.directory.api.ldap.model.constants.LdapSecurityConstants;
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.Attribute;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.exception.LdapAuthenticationException;
 import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
@@ -36,6 +38,7 @@ import org.apache.directory.api.ldap.model.message.BindResponse;
 import org.apache.directory.api.ldap.model.message.LdapResult;
 import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
 import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.password.PasswordUtil;
 import org.apache.directory.api.util.Strings;
 import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.DirectoryService;
@@ -132,78 +135,148 @@ public class BindRequestHandler extends LdapRequestHandler<BindRequest>
         bindContext.setDn( bindRequest.getDn() );
         bindContext.setCredentials( bindRequest.getCredentials() );
         bindContext.setIoSession( ldapSession.getIoSession() );
-        bindContext.setInterceptors( directoryService.getInterceptors( OperationEnum.BIND ) );
+        bindContext.setInterceptorChain( directoryService.getInterceptorChain( OperationEnum.BIND ) );
 
         // Stores the request controls into the operation context
         LdapProtocolUtils.setRequestControls( bindContext, bindRequest );
 
+        /*
+         * Referral handling as specified by RFC 3296 here:
+         *
+         *      http://www.faqs.org/rfcs/rfc3296.html
+         *
+         * See section 5.6.1 where if the bind principal Dn is a referral
+         * we return an invalidCredentials result response.  Optionally we
+         * could support delegated authentication in the future with this
+         * potential.  See the following JIRA for more on this possibility:
+         *
+         *      https://issues.apache.org/jira/browse/DIRSERVER-1217
+         *
+         * NOTE: if this is done then this handler should extend the
+         * a modified form of the ReferralAwareRequestHandler so it can
+         * detect conditions where ancestors of the Dn are referrals
+         * and delegate appropriately.
+         */
+        Entry principalEntry = null;
+
         try
         {
-            /*
-             * Referral handling as specified by RFC 3296 here:
-             *
-             *      http://www.faqs.org/rfcs/rfc3296.html
-             *
-             * See section 5.6.1 where if the bind principal Dn is a referral
-             * we return an invalidCredentials result response.  Optionally we
-             * could support delegated authentication in the future with this
-             * potential.  See the following JIRA for more on this possibility:
-             *
-             *      https://issues.apache.org/jira/browse/DIRSERVER-1217
-             *
-             * NOTE: if this is done then this handler should extend the
-             * a modified form of the ReferralAwareRequestHandler so it can
-             * detect conditions where ancestors of the Dn are referrals
-             * and delegate appropriately.
-             */
-            Entry principalEntry = null;
+            principalEntry = directoryService.getAdminSession().lookup( bindRequest.getDn(), 
+                SchemaConstants.ALL_USER_ATTRIBUTES, SchemaConstants.ALL_OPERATIONAL_ATTRIBUTES );
+        }
+        catch ( Exception le )
+        {
+            // this is OK, it may be a delegated authentication, and in this case
+            // the entry is not present locally
+        }
 
-            try
-            {
-                principalEntry = directoryService.getAdminSession().lookup( bindRequest.getDn(), 
-                    SchemaConstants.ALL_USER_ATTRIBUTES, SchemaConstants.ALL_OPERATIONAL_ATTRIBUTES );
-            }
-            catch ( Exception le )
-            {
-                // this is OK, it may be a delegated authentication, and in this case
-                // the entry is not present locally
-            }
+        if ( principalEntry == null )
+        {
+            LOG.info( "The {} principalDN cannot be found in the server : bind failure.", bindRequest.getName() );
+        }
+        else if ( ( ( ClonedServerEntry ) principalEntry ).getOriginalEntry().contains(
+            SchemaConstants.OBJECT_CLASS_AT,
+            SchemaConstants.REFERRAL_OC ) )
+        {
+            LOG.info( "Bind principalDn points to referral." );
+            LdapResult result = bindResponse.getLdapResult();
+            result.setDiagnosticMessage( "Bind principalDn points to referral." );
+            result.setResultCode( ResultCodeEnum.INVALID_CREDENTIALS );
 
-            if ( principalEntry == null )
-            {
-                LOG.info( "The {} principalDN cannot be found in the server : bind failure.", bindRequest.getName() );
-            }
-            else if ( ( ( ClonedServerEntry ) principalEntry ).getOriginalEntry().contains(
-                SchemaConstants.OBJECT_CLASS_AT,
-                SchemaConstants.REFERRAL_OC ) )
-            {
-                LOG.info( "Bind principalDn points to referral." );
-                LdapResult result = bindResponse.getLdapResult();
-                result.setDiagnosticMessage( "Bind principalDn points to referral." );
-                result.setResultCode( ResultCodeEnum.INVALID_CREDENTIALS );
+            // Reset the session now
+            ldapSession.setAnonymous();
 
-                // Reset the session now
-                ldapSession.setAnonymous();
+            // Write the response
+            ldapSession.getIoSession().write( bindResponse );
 
-                // Write the response
-                ldapSession.getIoSession().write( bindResponse );
+            return;
+        }
+        else
+        { 
+            bindContext.setPrincipal( principalEntry );
+        }
 
-                return;
-            }
-            else
-            { 
-                bindContext.setPrincipal( principalEntry );
-            }
+        // TODO - might cause issues since lookups are not returning all
+        // attributes right now - this is an optimization that can be
+        // enabled later after determining whether or not this will cause
+        // issues.
+        // reuse the looked up entry so we don't incur another lookup
+        // opContext.setEntry( principalEntry );
+
+        BindVerificationPool pool = ldapServer.getBindVerificationPool();
+        byte[] storedPassword = getStoredPassword( principalEntry );
+
+        if ( ( pool == null ) || ( storedPassword == null ) )
+        {
+            bind( ldapSession, bindRequest, bindContext );
+
+            return;
+        }
+
+        LdapSecurityConstants scheme = PasswordUtil.findAlgorithm( storedPassword );
+        String schemeName = scheme == null ? BindVerificationPool.PLAIN_SCHEME : scheme.getName();
+
+        if ( !pool.isExpensive( scheme ) )
+        {
+            long start = System.nanoTime();
+
+            bind( ldapSession, bindRequest, bindContext );
+            pool.record( schemeName, System.nanoTime() - start );
+
+            return;
+        }
 
-            // TODO - might cause issues since lookups are not returning all
-            // attributes right now - this is an optimization that can be
-            // enabled later after determining whether or not this will cause
-            // issues.
-            // reuse the looked up entry so we don't incur another lookup
-            // opContext.setEntry( principalEntry );
+        // The password verification is expensive : the response will be written by
+        // the pool thread, this one can process the other sessions requests
+        if ( !pool.submit( schemeName, () -> bind( ldapSession, bindRequest, bindContext ) ) )
+        {
+            LdapResult result = bindResponse.getLdapResult();
+            result.setResultCode( ResultCodeEnum.BUSY );
+            result.setDiagnosticMessage( I18n.err( I18n.ERR_38034_TOO_MANY_PENDING_BINDS ) );
+
+            ldapSession.setAnonymous();
+            ldapSession.getIoSession().write( bindResponse );
+        }
+    }
+
+
+    /**
+     * @return The first password of the principal entry, or <code>null</code> if there is none
+     */
+    private byte[] getStoredPassword( Entry principalEntry )
+    {
+        if ( principalEntry == null )
+        {
+            return null;
+        }
 
+        Attribute passwords = principalEntry.get( SchemaConstants.USER_PASSWORD_AT );
+
+        if ( ( passwords == null ) || ( passwords.size() == 0 ) )
+        {
+            return null;
+        }
+
+        return passwords.get().getBytes();
+    }
+
+
+    /**
+     * Calls the bind operation, and writes the response. Any error is sent back
+     * to the client.
+     *
+     * @param ldapSession The associated Session
+     * @param bindRequest The BindRequest received
+     * @param bindContext The bind operation context
+     */
+    private void bind( LdapSession ldapSession, BindRequest bindRequest, BindOperationContext bindContext )
+    {
+        DirectoryService directoryService = ldapServer.getDirectoryService();
+        BindResponse bindResponse = ( BindResponse ) bindRequest.getResultResponse();
+
+        try
+        {
             // And call the OperationManager bind operation.
-            bindContext.setInterceptors( directoryService.getInterceptors( OperationEnum.BIND ) );
             directoryService.getOperationManager().bind( bindContext );
 
             // As a result, store the created session in the Core Session
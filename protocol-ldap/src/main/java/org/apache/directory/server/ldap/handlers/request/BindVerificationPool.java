@@ -0,0 +1,258 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.handlers.request;
+
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.api.ldap.model.constants.LdapSecurityConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A bounded pool of threads verifying the simple binds whose password is hashed with
+ * an expensive scheme (PKCS5S2, crypt, bcrypt). Those binds are taken out of the
+ * threads processing the LDAP requests, so that a burst of binds does not prevent
+ * the other requests from being processed : the BindResponse is written by the pool
+ * thread once the verification is done.
+ * <p>
+ * When too many binds are already waiting, the new ones are rejected, and the
+ * caller should answer BUSY. The bind latency is also recorded for each scheme.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class BindVerificationPool
+{
+    private static final Logger LOG = LoggerFactory.getLogger( BindVerificationPool.class );
+
+    /** The scheme name used for the passwords stored in clear text */
+    public static final String PLAIN_SCHEME = "PLAIN";
+
+    /** The hash schemes which are expensive enough to be verified in the pool */
+    private static final Set<LdapSecurityConstants> EXPENSIVE_SCHEMES = EnumSet.of(
+        LdapSecurityConstants.HASH_METHOD_PKCS5S2,
+        LdapSecurityConstants.HASH_METHOD_CRYPT,
+        LdapSecurityConstants.HASH_METHOD_CRYPT_MD5,
+        LdapSecurityConstants.HASH_METHOD_CRYPT_SHA256,
+        LdapSecurityConstants.HASH_METHOD_CRYPT_SHA512,
+        LdapSecurityConstants.HASH_METHOD_CRYPT_BCRYPT );
+
+    /** The executor verifying the binds */
+    private final ThreadPoolExecutor executor;
+
+    /** The latency statistics, per scheme */
+    private final Map<String, SchemeStatistics> statistics = new ConcurrentHashMap<>();
+
+    /** The number of binds rejected because the pool was full */
+    private final AtomicLong rejected = new AtomicLong();
+
+
+    /**
+     * The latency of the binds done with passwords hashed with a given scheme
+     */
+    public static class SchemeStatistics
+    {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalTime = new AtomicLong();
+        private final AtomicLong maxTime = new AtomicLong();
+
+
+        private void record( long nanos )
+        {
+            count.incrementAndGet();
+            totalTime.addAndGet( nanos );
+            maxTime.accumulateAndGet( nanos, Math::max );
+        }
+
+
+        /**
+         * @return The number of verified binds
+         */
+        public long getCount()
+        {
+            return count.get();
+        }
+
+
+        /**
+         * @return The average bind latency, in microseconds, including the time spent
+         * waiting for a pool thread
+         */
+        public long getAverageTime()
+        {
+            long nb = count.get();
+
+            return nb == 0L ? 0L : totalTime.get() / nb / 1000L;
+        }
+
+
+        /**
+         * @return The maximum bind latency, in microseconds
+         */
+        public long getMaxTime()
+        {
+            return maxTime.get() / 1000L;
+        }
+
+
+        @Override
+        public String toString()
+        {
+            return "count: " + getCount() + ", average: " + getAverageTime() + "us, max: " + getMaxTime() + "us";
+        }
+    }
+
+
+    /**
+     * Creates a new instance of BindVerificationPool.
+     *
+     * @param nbThreads The number of threads verifying the binds
+     * @param queueSize The maximum number of binds waiting for a thread
+     */
+    public BindVerificationPool( int nbThreads, int queueSize )
+    {
+        int threads = Math.max( 1, nbThreads );
+        AtomicInteger threadNumber = new AtomicInteger();
+
+        executor = new ThreadPoolExecutor( threads, threads, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>( Math.max( 1, queueSize ) ), runnable ->
+            {
+                Thread thread = new Thread( runnable, "bind-verifier-" + threadNumber.incrementAndGet() );
+                thread.setDaemon( true );
+
+                return thread;
+            } );
+    }
+
+
+    /**
+     * Tells if the verification of a password hashed with the given scheme is expensive
+     * enough to be done in the pool.
+     *
+     * @param scheme The hash scheme, <code>null</code> for a password stored in clear text
+     * @return <code>true</code> if the bind should be submitted to the pool
+     */
+    public boolean isExpensive( LdapSecurityConstants scheme )
+    {
+        return ( scheme != null ) && EXPENSIVE_SCHEMES.contains( scheme );
+    }
+
+
+    /**
+     * Submits a bind verification. The verification is responsible for writing the
+     * BindResponse.
+     *
+     * @param scheme The name of the scheme the stored password is hashed with
+     * @param verification The bind verification
+     * @return <code>false</code> if the verification has been rejected because the pool
+     * is full or stopped
+     */
+    public boolean submit( String scheme, Runnable verification )
+    {
+        long start = System.nanoTime();
+
+        try
+        {
+            executor.execute( () ->
+            {
+                try
+                {
+                    verification.run();
+                }
+                catch ( RuntimeException re )
+                {
+                    LOG.error( re.getMessage(), re );
+                }
+                finally
+                {
+                    record( scheme, System.nanoTime() - start );
+                }
+            } );
+
+            return true;
+        }
+        catch ( RejectedExecutionException ree )
+        {
+            rejected.incrementAndGet();
+            LOG.warn( "Too many pending binds, the bind has been rejected" );
+
+            return false;
+        }
+    }
+
+
+    /**
+     * Records the latency of a bind.
+     *
+     * @param scheme The name of the scheme the stored password is hashed with
+     * @param nanos The bind latency, in nanoseconds
+     */
+    public void record( String scheme, long nanos )
+    {
+        statistics.computeIfAbsent( scheme, name -> new SchemeStatistics() ).record( nanos );
+    }
+
+
+    /**
+     * @return The bind latency statistics, per scheme name
+     */
+    public Map<String, SchemeStatistics> getStatistics()
+    {
+        return Collections.unmodifiableMap( statistics );
+    }
+
+
+    /**
+     * @return The number of binds rejected because the pool was full
+     */
+    public long getRejected()
+    {
+        return rejected.get();
+    }
+
+
+    /**
+     * @return The number of binds waiting for a thread
+     */
+    public int getPending()
+    {
+        return executor.getQueue().size();
+    }
+
+
+    /**
+     * Stops the pool. The pending binds are not verified.
+     */
+    public void shutdown()
+    {
+        executor.shutdownNow();
+    }
+}
@@ -293,11 +293,30 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
      */
     private void setTimeLimitsOnCursor( SearchRequest req, LdapSession session,
         final Cursor<Entry> cursor )
+    {
+        long timeLimit = getTimeLimit( req, session );
+
+        if ( timeLimit != NO_TIME_LIMIT )
+        {
+            cursor.setClosureMonitor( new SearchTimeLimitingMonitor( timeLimit, TimeUnit.SECONDS ) );
+        }
+    }
+
+
+    /**
+     * Computes the time limit of a search, in seconds, from the server maximum time limit
+     * and the requested time limit.
+     *
+     * @param req the {@link SearchRequest} issued
+     * @param session the {@link LdapSession} on which search was requested
+     * @return The time limit, or NO_TIME_LIMIT if the search is not limited
+     */
+    private long getTimeLimit( SearchRequest req, LdapSession session )
     {
         // Don't bother setting time limits for administrators
         if ( session.getCoreSession().isAnAdministrator() && req.getTimeLimit() == NO_TIME_LIMIT )
         {
-            return;
+            return NO_TIME_LIMIT;
         }
 
         /*
@@ -307,7 +326,7 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
          */
         if ( ldapServer.getMaxTimeLimit() == NO_TIME_LIMIT && req.getTimeLimit() == NO_TIME_LIMIT )
         {
-            return;
+            return NO_TIME_LIMIT;
         }
 
         /*
@@ -317,8 +336,7 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
          */
         if ( req.getTimeLimit() == 0 )
         {
-            cursor.setClosureMonitor( new SearchTimeLimitingMonitor( ldapServer.getMaxTimeLimit(), TimeUnit.SECONDS ) );
-            return;
+            return ldapServer.getMaxTimeLimit();
         }
 
         /*
@@ -328,8 +346,7 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
          */
         if ( ldapServer.getMaxTimeLimit() >= req.getTimeLimit() )
         {
-            cursor.setClosureMonitor( new SearchTimeLimitingMonitor( req.getTimeLimit(), TimeUnit.SECONDS ) );
-            return;
+            return req.getTimeLimit();
         }
 
         /*
@@ -337,7 +354,25 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
          * than what the server's configured maximum limit allows so we limit
          * the search to the configured limit
          */
-        cursor.setClosureMonitor( new SearchTimeLimitingMonitor( ldapServer.getMaxTimeLimit(), TimeUnit.SECONDS ) );
+        return ldapServer.getMaxTimeLimit();
+    }
+
+
+    /**
+     * Computes the time after which a search can't wait anymore for the client to read
+     * its responses, in milliseconds : the search time limit also applies to the time
+     * spent waiting for a slow client.
+     */
+    private long getWriteDeadline( SearchRequest req, LdapSession session )
+    {
+        long timeLimit = getTimeLimit( req, session );
+
+        if ( timeLimit == NO_TIME_LIMIT )
+        {
+            return Long.MAX_VALUE;
+        }
+
+        return System.currentTimeMillis() + TimeUnit.SECONDS.toMillis( timeLimit );
     }
 
 
@@ -375,6 +410,8 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
         Cursor<Entry> cursor, long sizeLimit ) throws Exception
     {
         long count = 0;
+        long deadline = getWriteDeadline( req, session );
+        session.signalWriteQueueOnAbandon( req );
 
         while ( ( count < sizeLimit ) && cursor.next() )
         {
@@ -404,6 +441,17 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
                 break;
             }
 
+            // Don't queue more responses than the client can read
+            if ( !session.awaitWriteQueue( ldapServer.getMaxScheduledWriteBytes(), req, deadline ) )
+            {
+                if ( IS_DEBUG )
+                {
+                    LOG.debug( "Request terminated for message {} while waiting for the client", req.getMessageId() );
+                }
+
+                break;
+            }
+
             Entry entry = cursor.get();
             session.getIoSession().write( generateResponse( session, req, entry ) );
 
@@ -441,6 +489,8 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
     {
         req.addAbandonListener( new SearchAbandonListener( ldapServer, cursor ) );
         setTimeLimitsOnCursor( req, session, cursor );
+        long deadline = getWriteDeadline( req, session );
+        session.signalWriteQueueOnAbandon( req );
 
         if ( IS_DEBUG )
         {
@@ -459,6 +509,12 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
                 break;
             }
 
+            // Don't queue more responses than the client can read
+            if ( !session.awaitWriteQueue( ldapServer.getMaxScheduledWriteBytes(), req, deadline ) )
+            {
+                break;
+            }
+
             Entry entry = cursor.get();
             session.getIoSession().write( generateResponse( session, req, entry ) );
             count++;
@@ -168,7 +168,7 @@ public final class ExternalSaslServer extends AbstractSaslServer
                 bindContext.setSaslMechanism( getMechanismName() );
                 bindContext.setSaslAuthId( getBindRequest().getName() );
                 bindContext.setIoSession( ldapSession.getIoSession() );
-                bindContext.setInterceptors( directoryService.getInterceptors( OperationEnum.BIND ) );
+                bindContext.setInterceptorChain( directoryService.getInterceptorChain( OperationEnum.BIND ) );
 
                 operationManager.bind( bindContext );
 
@@ -283,7 +283,7 @@ public final class PlainSaslServer extends AbstractSaslServer
                 bindContext.setDn( entry.getDn() );
                 bindContext.setCredentials( Strings.getBytesUtf8( password ) );
                 bindContext.setIoSession( ldapSession.getIoSession() );
-                bindContext.setInterceptors( directoryService.getInterceptors( OperationEnum.BIND ) );
+                bindContext.setInterceptorChain( directoryService.getInterceptorChain( OperationEnum.BIND ) );
 
                 operationManager.bind( bindContext );
 
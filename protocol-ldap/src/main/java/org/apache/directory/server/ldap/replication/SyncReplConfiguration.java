@@ -128,6 +128,12 @@ public class SyncReplConfiguration implements ReplicationConsumerConfig
     /** flag to indicate if this node is part of a MMR setup, default value is true */
     private boolean mmrMode = true;
 
+    /** the number of threads applying the received changes, default is 4 */
+    private int applyThreads = 4;
+
+    /** flag to indicate if the initial refresh of an empty replica is bulk loaded, default is false */
+    private boolean bulkRefresh = false;
+
 
     /**
      * Creates a new instance of SyncreplConfiguration
@@ -587,6 +593,48 @@ public class SyncReplConfiguration implements ReplicationConsumerConfig
     }
 
 
+    /**
+     * @return the number of threads applying the changes received from the provider
+     */
+    public int getApplyThreads()
+    {
+        return applyThreads;
+    }
+
+
+    /**
+     * @param applyThreads the number of threads applying the changes received from the provider
+     */
+    public void setApplyThreads( int applyThreads )
+    {
+        this.applyThreads = applyThreads;
+    }
+
+
+    /**
+     * @return true if the initial refresh of an empty replica is bulk loaded
+     */
+    public boolean isBulkRefresh()
+    {
+        return bulkRefresh;
+    }
+
+
+    /**
+     * enable/disable the bulk load of the initial refresh. When enabled, and when the replica
+     * is empty, the refreshed entries are added without firing any event (so they won't be
+     * replicated to the consumers of this server) and without flushing the partition on disk
+     * after each entry : the partition is flushed once all of them have been added. The other
+     * writes done on the partition during the refresh are still flushed as usual.
+     *
+     * @param bulkRefresh The flag
+     */
+    public void setBulkRefresh( boolean bulkRefresh )
+    {
+        this.bulkRefresh = bulkRefresh;
+    }
+
+
     public String toString()
     {
         StringBuilder sb = new StringBuilder();
@@ -640,6 +688,13 @@ public class SyncReplConfiguration implements ReplicationConsumerConfig
             sb.append( "MS, " );
         }
 
+        sb.append( "apply threads:" ).append( applyThreads ).append( ", " );
+
+        if ( bulkRefresh )
+        {
+            sb.append( "bulk refresh, " );
+        }
+
         sb.append( "provider:" ).append( producer ).append( ", " );
         sb.append( "user:'" ).append( replUserDn ).append( "', " );
 
@@ -24,9 +24,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 
-import org.apache.commons.collections4.map.LRUMap;
 import org.apache.directory.api.ldap.extras.controls.SynchronizationModeEnum;
 import org.apache.directory.api.ldap.extras.controls.syncrepl.syncDone.SyncDoneValue;
 import org.apache.directory.api.ldap.extras.controls.syncrepl.syncRequest.SyncRequestValue;
@@ -46,7 +44,9 @@ import org.apache.directory.api.ldap.model.entry.DefaultModification;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Modification;
 import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.exception.LdapEntryAlreadyExistsException;
 import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
 import org.apache.directory.api.ldap.model.exception.LdapNoSuchObjectException;
 import org.apache.directory.api.ldap.model.filter.AndNode;
 import org.apache.directory.api.ldap.model.filter.EqualityNode;
@@ -80,7 +80,10 @@ import org.apache.directory.ldap.client.api.future.SearchFuture;
 import org.apache.directory.server.constants.ApacheSchemaConstants;
 import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.InterceptorEnum;
+import org.apache.directory.server.core.api.OperationEnum;
 import org.apache.directory.server.core.api.OperationManager;
+import org.apache.directory.server.core.api.interceptor.Interceptor;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
@@ -93,6 +96,7 @@ import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.ldap.LdapProtocolUtils;
 import org.apache.directory.server.ldap.replication.ReplicationConsumerConfig;
 import org.apache.directory.server.ldap.replication.SyncReplConfiguration;
+import org.apache.directory.server.xdbm.Store;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
@@ -111,8 +115,8 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
     /** the syncrepl configuration */
     private SyncReplConfiguration config;
 
-    /** the sync cookie sent by the server */
-    private byte[] syncCookie;
+    /** the sync cookie sent by the server, once all the changes received before it have been applied */
+    private volatile byte[] syncCookie;
 
     /** connection to the syncrepl provider */
     private LdapNetworkConnection connection;
@@ -164,7 +168,43 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
     private AttributeType adsReplCookieAT;
     private AttributeType adsDsReplicaIdAT;
 
-    private static final Map<String, Object> UUID_LOCK_MAP = new LRUMap( 1000 );
+    /** The minimum delay between two cookie writes while changes are being applied, in ms */
+    private static final long COOKIE_STORE_INTERVAL = 1000L;
+
+    /** The pipeline applying the received changes, during a sync search */
+    private volatile SyncReplApplyPipeline pipeline;
+
+    /** The last time the cookie has been stored */
+    private long lastCookieStore;
+
+    /** Tells if the initial refresh is being bulk loaded into an empty replica */
+    private volatile boolean bulkRefresh;
+
+    /** The replica base Dn, during a bulk refresh */
+    private Dn bulkBaseDn;
+
+    /** The interceptors called to add an entry during a bulk refresh */
+    private Interceptor[] bulkAddChain;
+
+    /** The store to flush on disk once the bulk loaded entries have been added */
+    private Partition bulkPartition;
+
+    /** The listener tracking the cookies of the applied changes */
+    private final SyncReplApplyPipeline.CookieListener cookieListener = new SyncReplApplyPipeline.CookieListener()
+    {
+        @Override
+        public void cookieApplied( byte[] cookie )
+        {
+            syncCookie = cookie;
+        }
+
+
+        @Override
+        public void idle()
+        {
+            storeCookie();
+        }
+    };
 
 
     /**
@@ -335,138 +375,183 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
 
 
     /**
-     * Process a SearchResultEntry received from a consumer. We have to handle all the
-     * cases :
-     * - Add
-     * - Modify
-     * - Moddn
-     * - Delete
-     * - Present
-     * @param syncResult
+     * Process a SearchResultEntry received from a consumer. The change is submitted to the
+     * pipeline, which applies it as soon as it does not conflict with a change being applied.
+     *
+     * @param syncResult The received entry
+     * @throws InterruptedException If we have been interrupted while waiting for the pipeline
      */
-    private void handleSearchResultEntry( SearchResultEntry syncResult )
+    private void handleSearchResultEntry( SearchResultEntry syncResult ) throws InterruptedException
     {
         CONSUMER_LOG.debug( "------------- starting handleSearchResult ------------" );
 
         SyncStateValue syncStateCtrl = ( SyncStateValue ) syncResult.getControl( SyncStateValue.OID );
+        byte[] cookie = syncStateCtrl.getCookie();
+        int rid = -1;
 
-        try
+        if ( cookie != null )
         {
-            Entry remoteEntry = new DefaultEntry( schemaManager, syncResult.getEntry() );
-            String uuid = remoteEntry.get( directoryService.getAtProvider().getEntryUUID() ).getString();
-            // lock on UUID to serialize the updates when there are multiple consumers
-            // connected to several producers and to the *same* base/partition
-            Object lock = getLockFor( uuid );
+            rid = LdapProtocolUtils.getReplicaId( Strings.utf8ToString( cookie ) );
+            CONSUMER_LOG.debug( "received the cookie from sync state value control: {}",
+                Strings.utf8ToString( cookie ) );
 
-            synchronized ( lock )
+            if ( bulkRefresh )
             {
-                int rid = -1;
+                // The initial content has been received, we now get the changes done since
+                pipeline.drain();
+                stopBulkRefresh();
+            }
+        }
 
-                if ( syncStateCtrl.getCookie() != null )
-                {
-                    syncCookie = syncStateCtrl.getCookie();
-                    rid = LdapProtocolUtils.getReplicaId( Strings.utf8ToString( syncCookie ) );
-                    CONSUMER_LOG.debug( "assigning the cookie from sync state value control: {}",
-                        Strings.utf8ToString( syncCookie ) );
-                }
+        SyncStateTypeEnum state = syncStateCtrl.getSyncStateType();
+        String uuid = null;
+        Dn dn = null;
 
-                SyncStateTypeEnum state = syncStateCtrl.getSyncStateType();
+        if ( syncStateCtrl.getEntryUUID() != null )
+        {
+            uuid = Strings.uuidToString( syncStateCtrl.getEntryUUID() );
+        }
 
-                // check to avoid conversion of UUID from byte[] to String
-                if ( CONSUMER_LOG.isDebugEnabled() )
-                {
-                    CONSUMER_LOG.debug( "state name {}", state.name() );
-                    CONSUMER_LOG.debug( "entryUUID = {}", Strings.uuidToString( syncStateCtrl.getEntryUUID() ) );
-                }
+        try
+        {
+            dn = new Dn( schemaManager, syncResult.getObjectName() );
+        }
+        catch ( LdapInvalidDnException lide )
+        {
+            // The change will be applied alone
+            CONSUMER_LOG.debug( "Cannot normalize the Dn {}", syncResult.getObjectName() );
+        }
 
-                Dn remoteDn = remoteEntry.getDn();
+        // A MODDN or a DELETE may impact a whole subtree : it has to wait for all the
+        // previous changes, and the next changes have to wait for it
+        boolean barrier = ( state == SyncStateTypeEnum.MODDN ) || ( state == SyncStateTypeEnum.DELETE );
+        int replicaId = rid;
 
-                switch ( state )
-                {
-                    case ADD:
-                        boolean remoteDnExist = false;
-
-                        try
-                        {
-                            remoteDnExist = session.exists( remoteDn );
-                        }
-                        catch ( LdapNoSuchObjectException lnsoe )
-                        {
-                            CONSUMER_LOG.error( lnsoe.getMessage() );
-                        }
-
-                        if ( !remoteDnExist )
-                        {
-                            CONSUMER_LOG.debug( "adding entry with dn {}", remoteDn );
-                            CONSUMER_LOG.debug( remoteEntry.toString() );
-                            AddOperationContext addContext = new AddOperationContext( session, remoteEntry );
-                            addContext.setReplEvent( true );
-                            addContext.setRid( rid );
-
-                            OperationManager operationManager = directoryService.getOperationManager();
-                            operationManager.add( addContext );
-                        }
-                        else
-                        {
-                            CONSUMER_LOG.debug( "updating entry in refreshOnly mode {}", remoteDn );
-                            modify( remoteEntry, rid );
-                        }
+        pipeline.submit( uuid, dn, barrier, cookie, () -> applyEntry( syncResult, syncStateCtrl, replicaId ) );
 
-                        break;
+        // Don't store the cookie for each change, it would double the number of writes
+        if ( System.currentTimeMillis() - lastCookieStore >= COOKIE_STORE_INTERVAL )
+        {
+            storeCookie();
+        }
 
-                    case MODIFY:
-                        CONSUMER_LOG.debug( "modifying entry with dn {}", remoteEntry.getDn().getName() );
-                        modify( remoteEntry, rid );
+        CONSUMER_LOG.debug( "------------- Ending handleSearchResult ------------" );
+    }
 
-                        break;
 
-                    case MODDN:
-                        String entryUuid = Strings.uuidToString( syncStateCtrl.getEntryUUID() );
-                        applyModDnOperation( remoteEntry, entryUuid, rid );
+    /**
+     * Apply a change received from the provider. We have to handle all the cases :
+     * - Add
+     * - Modify
+     * - Moddn
+     * - Delete
+     * - Present
+     *
+     * @param syncResult The received entry
+     * @param syncStateCtrl The SyncState control received with the entry
+     * @param rid The replica ID
+     */
+    private void applyEntry( SearchResultEntry syncResult, SyncStateValue syncStateCtrl, int rid )
+    {
+        try
+        {
+            Entry remoteEntry = new DefaultEntry( schemaManager, syncResult.getEntry() );
+            SyncStateTypeEnum state = syncStateCtrl.getSyncStateType();
 
-                        break;
+            // check to avoid conversion of UUID from byte[] to String
+            if ( CONSUMER_LOG.isDebugEnabled() )
+            {
+                CONSUMER_LOG.debug( "state name {}", state.name() );
+                CONSUMER_LOG.debug( "entryUUID = {}", Strings.uuidToString( syncStateCtrl.getEntryUUID() ) );
+            }
 
-                    case DELETE:
-                        CONSUMER_LOG.debug( "deleting entry with dn {}", remoteEntry.getDn().getName() );
-
-                        if ( !session.exists( remoteDn ) )
-                        {
-                            CONSUMER_LOG
-                                .debug(
-                                    "looks like entry {} was already deleted in a prior update (possibly from another provider), skipping delete",
-                                    remoteDn );
-                        }
-                        else
-                        {
-                            // incase of a MODDN operation resulting in a branch to be moved out of scope
-                            // ApacheDS replication provider sends a single delete event on the Dn of the moved branch
-                            // so the branch needs to be recursively deleted here
-                            deleteRecursive( remoteEntry.getDn(), rid );
-                        }
+            Dn remoteDn = remoteEntry.getDn();
 
-                        break;
+            switch ( state )
+            {
+                case ADD:
+                    if ( bulkRefresh && !remoteDn.equals( bulkBaseDn ) )
+                    {
+                        // The replica was empty, no need to check if the entry exists
+                        bulkAdd( remoteEntry, rid );
 
-                    case PRESENT:
-                        CONSUMER_LOG.debug( "entry present {}", remoteEntry );
                         break;
+                    }
+
+                    boolean remoteDnExist = false;
+
+                    try
+                    {
+                        remoteDnExist = session.exists( remoteDn );
+                    }
+                    catch ( LdapNoSuchObjectException lnsoe )
+                    {
+                        CONSUMER_LOG.error( lnsoe.getMessage() );
+                    }
+
+                    if ( !remoteDnExist )
+                    {
+                        CONSUMER_LOG.debug( "adding entry with dn {}", remoteDn );
+                        CONSUMER_LOG.debug( remoteEntry.toString() );
+                        AddOperationContext addContext = new AddOperationContext( session, remoteEntry );
+                        addContext.setReplEvent( true );
+                        addContext.setRid( rid );
+
+                        OperationManager operationManager = directoryService.getOperationManager();
+                        operationManager.add( addContext );
+                    }
+                    else
+                    {
+                        CONSUMER_LOG.debug( "updating entry in refreshOnly mode {}", remoteDn );
+                        modify( remoteEntry, rid );
+                    }
 
-                    default:
-                        throw new IllegalArgumentException( "Unexpected sync state " + state );
-                }
+                    break;
 
-                // store the cookie only if the above operation was successful
-                if ( syncStateCtrl.getCookie() != null )
-                {
-                    storeCookie();
-                }
+                case MODIFY:
+                    CONSUMER_LOG.debug( "modifying entry with dn {}", remoteEntry.getDn().getName() );
+                    modify( remoteEntry, rid );
+
+                    break;
+
+                case MODDN:
+                    String entryUuid = Strings.uuidToString( syncStateCtrl.getEntryUUID() );
+                    applyModDnOperation( remoteEntry, entryUuid, rid );
+
+                    break;
+
+                case DELETE:
+                    CONSUMER_LOG.debug( "deleting entry with dn {}", remoteEntry.getDn().getName() );
+
+                    if ( !session.exists( remoteDn ) )
+                    {
+                        CONSUMER_LOG
+                            .debug(
+                                "looks like entry {} was already deleted in a prior update (possibly from another provider), skipping delete",
+                                remoteDn );
+                    }
+                    else
+                    {
+                        // incase of a MODDN operation resulting in a branch to be moved out of scope
+                        // ApacheDS replication provider sends a single delete event on the Dn of the moved branch
+                        // so the branch needs to be recursively deleted here
+                        deleteRecursive( remoteEntry.getDn(), rid );
+                    }
+
+                    break;
+
+                case PRESENT:
+                    CONSUMER_LOG.debug( "entry present {}", remoteEntry );
+                    break;
+
+                default:
+                    throw new IllegalArgumentException( "Unexpected sync state " + state );
             }
         }
         catch ( Exception e )
         {
             CONSUMER_LOG.error( e.getMessage(), e );
         }
-
-        CONSUMER_LOG.debug( "------------- Ending handleSearchResult ------------" );
     }
 
 
@@ -767,37 +852,211 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
 
         searchRequest.addControl( syncReq );
 
+        startBulkRefresh();
+
         // Do the search. We use a searchAsync because we want to get SearchResultDone responses
         SearchFuture sf = connection.searchAsync( searchRequest );
 
-        Response resp = sf.get();
+        // The changes are applied by a pool of threads while we keep reading the responses
+        pipeline = new SyncReplApplyPipeline( "replication-consumer-" + config.getReplicaId(),
+            config.getApplyThreads(), cookieListener );
+
+        try
+        {
+            Response resp = sf.get();
+
+            CONSUMER_LOG.debug( "Response from {} : {}", config.getProducer(), resp );
+
+            // Now, process the responses. We loop until we have a connection termination or
+            // a SearchResultDone (RefreshOnly mode)
+            while ( !( resp instanceof SearchResultDone ) && !sf.isCancelled() && !disconnected )
+            {
+                if ( resp instanceof SearchResultEntry )
+                {
+                    SearchResultEntry result = ( SearchResultEntry ) resp;
+
+                    handleSearchResultEntry( result );
+                }
+                else if ( resp instanceof SearchResultReference )
+                {
+                    handleSearchReference( ( SearchResultReference ) resp );
+                }
+                else if ( resp instanceof IntermediateResponse )
+                {
+                    // The deletions and the cookie apply to all the previous changes
+                    pipeline.drain();
+                    stopBulkRefresh();
+                    handleSyncInfo( ( IntermediateResponse ) resp );
+                }
+
+                // Next entry
+                resp = sf.get();
+                CONSUMER_LOG.debug( "Response from {} : {}", config.getProducer(), resp );
+            }
+
+            pipeline.drain();
+            stopBulkRefresh();
+
+            return handleSyncSearchEnd( sf, resp );
+        }
+        finally
+        {
+            pipeline.shutdown();
+            pipeline = null;
+            stopBulkRefresh();
+        }
+    }
+
 
-        CONSUMER_LOG.debug( "Response from {} : {}", config.getProducer(), resp );
+    /**
+     * Starts a bulk refresh if it's enabled, and if we are about to receive the whole content
+     * of an empty replica. The entries will be added without checking if they exist, without
+     * firing any event, and without flushing them on disk one by one. The sync on write flag
+     * of the partition is left untouched, so the client writes are still flushed.
+     */
+    private void startBulkRefresh()
+    {
+        if ( !config.isBulkRefresh() || ( syncCookie != null ) )
+        {
+            return;
+        }
 
-        // Now, process the responses. We loop until we have a connection termination or
-        // a SearchResultDone (RefreshOnly mode)
-        while ( !( resp instanceof SearchResultDone ) && !sf.isCancelled() && !disconnected )
+        try
         {
-            if ( resp instanceof SearchResultEntry )
+            Dn baseDn = new Dn( schemaManager, config.getBaseDn() );
+
+            if ( hasChildren( baseDn ) )
             {
-                SearchResultEntry result = ( SearchResultEntry ) resp;
+                CONSUMER_LOG.info( "The replica {} isn't empty, the initial refresh won't be bulk loaded", baseDn );
 
-                handleSearchResultEntry( result );
+                return;
             }
-            else if ( resp instanceof SearchResultReference )
+
+            List<Interceptor> chain = new ArrayList<>();
+
+            for ( Interceptor interceptor : directoryService.getInterceptorChain( OperationEnum.ADD ) )
             {
-                handleSearchReference( ( SearchResultReference ) resp );
+                if ( !InterceptorEnum.EVENT_INTERCEPTOR.getName().equals( interceptor.getName() ) )
+                {
+                    chain.add( interceptor );
+                }
             }
-            else if ( resp instanceof IntermediateResponse )
+
+            Partition partition = directoryService.getPartitionNexus().getPartition( baseDn );
+
+            if ( ( partition instanceof Store ) && ( ( Store ) partition ).isSyncOnWrite() )
             {
-                handleSyncInfo( ( IntermediateResponse ) resp );
+                bulkPartition = partition;
             }
 
-            // Next entry
-            resp = sf.get();
-            CONSUMER_LOG.debug( "Response from {} : {}", config.getProducer(), resp );
+            bulkBaseDn = baseDn;
+            bulkAddChain = chain.toArray( new Interceptor[0] );
+            bulkRefresh = true;
+
+            CONSUMER_LOG.info( "Bulk loading the initial refresh of {} from {}", baseDn, config.getProducer() );
+        }
+        catch ( Exception e )
+        {
+            CONSUMER_LOG.warn( "Cannot bulk load the initial refresh of {} : {}", config.getBaseDn(),
+                e.getMessage() );
         }
+    }
 
+
+    /**
+     * Ends the bulk refresh, if any. All the received changes must have been applied.
+     */
+    private void stopBulkRefresh()
+    {
+        if ( !bulkRefresh )
+        {
+            return;
+        }
+
+        bulkRefresh = false;
+
+        if ( bulkPartition != null )
+        {
+            try
+            {
+                // Flush the loaded entries on disk
+                bulkPartition.sync();
+            }
+            catch ( LdapException le )
+            {
+                CONSUMER_LOG.error( "Failed to flush the replica {} on disk", bulkBaseDn, le );
+            }
+
+            bulkPartition = null;
+        }
+
+        CONSUMER_LOG.info( "Bulk refresh of {} done", bulkBaseDn );
+    }
+
+
+    /**
+     * Tells if an entry has some children. The entry may not exist.
+     */
+    private boolean hasChildren( Dn dn ) throws Exception
+    {
+        SearchRequest req = new SearchRequestImpl();
+        req.setBase( dn );
+        req.setFilter( ENTRY_UUID_PRESENCE_FILTER );
+        req.setScope( SearchScope.ONELEVEL );
+        req.setDerefAliases( AliasDerefMode.NEVER_DEREF_ALIASES );
+        req.setSizeLimit( 1 );
+        req.addAttributes( SchemaConstants.NO_ATTRIBUTE );
+
+        try ( Cursor<Entry> cursor = session.search( req ) )
+        {
+            return cursor.next();
+        }
+        catch ( LdapNoSuchObjectException lnsoe )
+        {
+            return false;
+        }
+    }
+
+
+    /**
+     * Adds an entry during a bulk refresh, without firing any event. The entry is not flushed
+     * on disk, the whole partition is once the refresh is done : the other writes done on the
+     * partition in the mean time are still flushed as usual.
+     *
+     * @param remoteEntry The entry to add
+     * @param rid The replica ID
+     * @throws Exception If the entry can't be added
+     */
+    private void bulkAdd( Entry remoteEntry, int rid ) throws Exception
+    {
+        AddOperationContext addContext = new AddOperationContext( session, remoteEntry );
+        addContext.setReplEvent( true );
+        addContext.setRid( rid );
+        addContext.setInterceptorChain( bulkAddChain );
+        addContext.setSyncOnWrite( bulkPartition == null );
+
+        try
+        {
+            directoryService.getOperationManager().add( addContext );
+        }
+        catch ( LdapEntryAlreadyExistsException leaee )
+        {
+            // The entry has been added since the replica was empty
+            CONSUMER_LOG.debug( "updating entry {} during a bulk refresh", remoteEntry.getDn() );
+            modify( remoteEntry, rid );
+        }
+    }
+
+
+    /**
+     * Handles the end of a sync search, once all the received changes have been applied.
+     *
+     * @param sf The search future
+     * @param resp The last received response
+     * @return The replication status
+     */
+    private ReplicationStatusEnum handleSyncSearchEnd( SearchFuture sf, Response resp )
+    {
         if ( sf.isCancelled() )
         {
 
@@ -877,6 +1136,21 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
     {
         disconnected = true;
 
+        SyncReplApplyPipeline applyPipeline = pipeline;
+
+        if ( applyPipeline != null )
+        {
+            try
+            {
+                // Let the changes already received be applied before storing the cookie
+                applyPipeline.drain();
+            }
+            catch ( InterruptedException ie )
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+
         try
         {
             if ( ( connection != null ) && connection.isConnected() )
@@ -914,8 +1188,11 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
     /**
      * stores the cookie.
      */
-    private void storeCookie()
+    private synchronized void storeCookie()
     {
+        byte[] syncCookie = this.syncCookie;
+        lastCookieStore = System.currentTimeMillis();
+
         CONSUMER_LOG.debug( "Storing the cookie '{}'", Strings.utf8ToString( syncCookie ) );
 
         if ( syncCookie == null )
@@ -1391,20 +1668,6 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
     }
 
 
-    private synchronized Object getLockFor( String uuid )
-    {
-        Object lock = UUID_LOCK_MAP.get( uuid );
-
-        if ( lock == null )
-        {
-            lock = new Object();
-            UUID_LOCK_MAP.put( uuid, lock );
-        }
-
-        return lock;
-    }
-
-
     /**
      * removes all child entries present under the given Dn and finally the Dn itself
      *
@@ -0,0 +1,306 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.replication.consumer;
+
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.directory.api.ldap.model.constants.Loggers;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Applies the changes received by a consumer on a pool of threads.
+ * <p>
+ * The changes are submitted in the order they have been received. A change is started as
+ * soon as it does not conflict with any change still being applied : two changes conflict
+ * when they are done on the same entry (same entryUUID), or when the Dn of one of them is
+ * an ancestor of the other one Dn. A barrier change (a MODDN or a DELETE, which may impact
+ * a whole subtree) waits for all the previous changes to be applied, and the following
+ * changes wait for it.
+ * <p>
+ * The cookies are delivered in the order the changes have been received : the cookie of a
+ * change is only delivered when this change and all the previous ones have been applied.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class SyncReplApplyPipeline
+{
+    /** A dedicated logger for the consumer */
+    private static final Logger CONSUMER_LOG = LoggerFactory.getLogger( Loggers.CONSUMER_LOG.getName() );
+
+    /** The number of changes which can be submitted per thread before the submission blocks */
+    private static final int MAX_IN_FLIGHT_PER_THREAD = 16;
+
+    /** The threads applying the changes */
+    private final ExecutorService executor;
+
+    /** The listener called when a cookie has been applied */
+    private final CookieListener listener;
+
+    /** The maximum number of changes being applied or waiting to be applied */
+    private final int maxInFlight;
+
+    /** The submitted changes, in the order they have been received, which are not all applied */
+    private final Deque<Task> inFlight = new ArrayDeque<>();
+
+
+    /**
+     * A change to apply
+     */
+    interface Change
+    {
+        /**
+         * Applies the change
+         */
+        void apply();
+    }
+
+
+    /**
+     * The listener called each time all the changes received before a cookie have been applied
+     */
+    interface CookieListener
+    {
+        /**
+         * Called when a cookie has been applied, in the order the cookies have been received.
+         * This method is called while holding the pipeline lock, it must be quick.
+         *
+         * @param cookie The applied cookie
+         */
+        void cookieApplied( byte[] cookie );
+
+
+        /**
+         * Called when all the submitted changes have been applied, after a cookie has been
+         * delivered.
+         */
+        void idle();
+    }
+
+
+    /**
+     * A submitted change
+     */
+    private static class Task
+    {
+        private final String uuid;
+        private final Dn dn;
+        private final boolean barrier;
+        private final byte[] cookie;
+        private boolean done;
+
+
+        Task( String uuid, Dn dn, boolean barrier, byte[] cookie )
+        {
+            this.uuid = uuid;
+            this.dn = dn;
+            this.barrier = barrier;
+            this.cookie = cookie;
+        }
+
+
+        /**
+         * Tells if this change has to wait for another one
+         */
+        boolean conflictsWith( Task task )
+        {
+            if ( barrier || task.barrier )
+            {
+                return true;
+            }
+
+            if ( ( uuid != null ) && uuid.equals( task.uuid ) )
+            {
+                return true;
+            }
+
+            if ( ( dn == null ) || ( task.dn == null ) )
+            {
+                return true;
+            }
+
+            return dn.isDescendantOf( task.dn ) || task.dn.isDescendantOf( dn );
+        }
+    }
+
+
+    /**
+     * Creates a new instance of SyncReplApplyPipeline.
+     *
+     * @param name The name of the threads
+     * @param nbThreads The number of threads applying the changes
+     * @param listener The listener called when a cookie has been applied
+     */
+    SyncReplApplyPipeline( String name, int nbThreads, CookieListener listener )
+    {
+        int threads = Math.max( 1, nbThreads );
+        AtomicInteger threadNumber = new AtomicInteger();
+
+        this.listener = listener;
+        maxInFlight = threads * MAX_IN_FLIGHT_PER_THREAD;
+
+        executor = Executors.newFixedThreadPool( threads, runnable ->
+        {
+            Thread thread = new Thread( runnable, name + "-" + threadNumber.incrementAndGet() );
+            thread.setDaemon( true );
+
+            return thread;
+        } );
+    }
+
+
+    /**
+     * Submits a change. We wait until it does not conflict with any change being applied.
+     *
+     * @param uuid The entryUUID of the modified entry
+     * @param dn The normalized Dn of the modified entry
+     * @param barrier <code>true</code> if the change has to be applied alone
+     * @param cookie The cookie received with the change, if any
+     * @param change The change to apply
+     * @throws InterruptedException If the thread has been interrupted while waiting
+     */
+    void submit( String uuid, Dn dn, boolean barrier, byte[] cookie, Change change ) throws InterruptedException
+    {
+        Task task = new Task( uuid, dn, barrier, cookie );
+
+        synchronized ( inFlight )
+        {
+            while ( ( inFlight.size() >= maxInFlight ) || hasConflict( task ) )
+            {
+                inFlight.wait();
+            }
+
+            inFlight.addLast( task );
+        }
+
+        executor.execute( () ->
+        {
+            try
+            {
+                change.apply();
+            }
+            catch ( RuntimeException re )
+            {
+                CONSUMER_LOG.error( re.getMessage(), re );
+            }
+            finally
+            {
+                complete( task );
+            }
+        } );
+    }
+
+
+    /**
+     * Waits until all the submitted changes have been applied
+     *
+     * @throws InterruptedException If the thread has been interrupted while waiting
+     */
+    void drain() throws InterruptedException
+    {
+        synchronized ( inFlight )
+        {
+            while ( !inFlight.isEmpty() )
+            {
+                inFlight.wait();
+            }
+        }
+    }
+
+
+    /**
+     * Stops the threads. The changes not applied yet are lost.
+     */
+    void shutdown()
+    {
+        executor.shutdownNow();
+
+        synchronized ( inFlight )
+        {
+            inFlight.clear();
+            inFlight.notifyAll();
+        }
+    }
+
+
+    /**
+     * Tells if a change conflicts with a change being applied or waiting to be applied
+     */
+    private boolean hasConflict( Task task )
+    {
+        for ( Task pending : inFlight )
+        {
+            if ( !pending.done && task.conflictsWith( pending ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Marks a change as applied, and delivers the cookies of the first applied changes
+     */
+    private void complete( Task task )
+    {
+        byte[] cookie = null;
+        boolean idle;
+
+        synchronized ( inFlight )
+        {
+            task.done = true;
+
+            while ( !inFlight.isEmpty() && inFlight.peekFirst().done )
+            {
+                Task applied = inFlight.removeFirst();
+
+                if ( applied.cookie != null )
+                {
+                    cookie = applied.cookie;
+                }
+            }
+
+            idle = inFlight.isEmpty();
+
+            if ( cookie != null )
+            {
+                // Deliver the cookie before waking up the threads waiting for the pipeline
+                // to be drained, so that they see it
+                listener.cookieApplied( cookie );
+            }
+
+            inFlight.notifyAll();
+        }
+
+        if ( idle && ( cookie != null ) )
+        {
+            listener.idle();
+        }
+    }
+}
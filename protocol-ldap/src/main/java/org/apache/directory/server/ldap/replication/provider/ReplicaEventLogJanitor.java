@@ -20,20 +20,18 @@
 package org.apache.directory.server.ldap.replication.provider;
 
 
-import java.io.File;
 import java.util.Map;
 
-import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.csn.Csn;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.server.core.api.DirectoryService;
-import org.apache.directory.server.ldap.replication.ReplicaEventMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 
 /**
- * Deletes old entries from the replication event logs that are configured in refreshNPersist mode.
+ * Deletes the replication event logs of the consumers which have been idle for too long, and
+ * the segments of the replication journal all the consumers have received.
  * 
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -43,6 +41,9 @@ public class ReplicaEventLogJanitor extends Thread
 
     private DirectoryService directoryService;
 
+    /** The journal shared by all the consumers */
+    private ReplicaJournal journal;
+
     private Map<Integer, ReplicaEventLog> replicaLogMap;
 
     private volatile boolean stop = false;
@@ -56,12 +57,13 @@ public class ReplicaEventLogJanitor extends Thread
     private long thresholdTime = 2 * 60 * 60 * 1000L;
 
 
-    public ReplicaEventLogJanitor( final DirectoryService directoryService,
+    public ReplicaEventLogJanitor( final DirectoryService directoryService, final ReplicaJournal journal,
         final Map<Integer, ReplicaEventLog> replicaLogMap )
     {
-        // if log is in refreshNpersist mode, has more entries than the log's threshold count then 
-        // all the entries before the last sent CSN and older than 2 hours will be purged
+        // if the journal has more entries than the smallest threshold count of the logs then 
+        // the segments before the oldest last sent CSN and older than 2 hours will be purged
         this.directoryService = directoryService;
+        this.journal = journal;
         this.replicaLogMap = replicaLogMap;
         setDaemon( true );
     }
@@ -72,6 +74,8 @@ public class ReplicaEventLogJanitor extends Thread
     {
         while ( !stop )
         {
+            long now = directoryService.getTimeProvider().currentIimeMillis();
+
             for ( ReplicaEventLog log : replicaLogMap.values() )
             {
                 synchronized ( log ) // lock the log and clean
@@ -83,11 +87,9 @@ public class ReplicaEventLogJanitor extends Thread
                         if ( lastSentCsn == null )
                         {
                             LOG.debug( "last sent CSN is null for the replica {}, skipping cleanup", log.getName() );
-                            return;
+                            continue;
                         }
 
-                        long now = directoryService.getTimeProvider().currentIimeMillis();
-
                         long maxIdleTime = log.getMaxIdlePeriod() * 1000L;
 
                         long lastUpdatedTime = new Csn( lastSentCsn ).getTimestamp();
@@ -115,56 +117,24 @@ public class ReplicaEventLogJanitor extends Thread
                                 LOG.warn( "Failed to delete the entry {} of replica event log {}",
                                     log.getConsumerEntryDn(), log.getName(), e );
                             }
-
-                            continue;
-                        }
-
-                        long thresholdCount = log.getPurgeThresholdCount();
-
-                        if ( log.count() < thresholdCount )
-                        {
-                            continue;
-                        }
-
-                        LOG.debug( "starting to purge the log entries that are older than {} milliseconds",
-                            thresholdTime );
-
-                        long deleteCount = 0;
-
-                        ReplicaJournalCursor cursor = log.getCursor( null ); // pass no CSN
-                        cursor.skipQualifyingWhileFetching();
-
-                        while ( cursor.next() )
-                        {
-                            ReplicaEventMessage message = cursor.get();
-                            String csnVal = message.getEntry().get( SchemaConstants.ENTRY_CSN_AT ).getString();
-
-                            // skip if we reach the lastSentCsn or got past it
-                            if ( csnVal.compareTo( lastSentCsn ) >= 0 )
-                            {
-                                break;
-                            }
-
-                            Csn csn = new Csn( csnVal );
-
-                            if ( ( now - csn.getTimestamp() ) >= thresholdTime )
-                            {
-                                cursor.delete();
-                                deleteCount++;
-                            }
                         }
-
-                        cursor.close();
-
-                        LOG.debug( "purged {} messages from the log {}", deleteCount, log.getName() );
                     }
                     catch ( Exception e )
                     {
-                        LOG.warn( "Failed to purge old entries from the log {}", log.getName(), e );
+                        LOG.warn( "Failed to check the idle time of the log {}", log.getName(), e );
                     }
                 }
             }
 
+            try
+            {
+                purge( now );
+            }
+            catch ( Exception e )
+            {
+                LOG.warn( "Failed to purge old entries from the replication journal", e );
+            }
+
             try
             {
                 synchronized ( lock )
@@ -180,6 +150,46 @@ public class ReplicaEventLogJanitor extends Thread
     }
 
 
+    /**
+     * Deletes the journal segments all the consumers have received, and which are older than
+     * the threshold time.
+     */
+    private void purge( long now )
+    {
+        String oldestCsn = null;
+        long thresholdCount = Long.MAX_VALUE;
+
+        for ( ReplicaEventLog log : replicaLogMap.values() )
+        {
+            String lastSentCsn = log.getLastSentCsn();
+
+            if ( lastSentCsn == null )
+            {
+                LOG.debug( "last sent CSN is null for the replica {}, skipping journal cleanup", log.getName() );
+                return;
+            }
+
+            if ( ( oldestCsn == null ) || ( lastSentCsn.compareTo( oldestCsn ) < 0 ) )
+            {
+                oldestCsn = lastSentCsn;
+            }
+
+            thresholdCount = Math.min( thresholdCount, log.getPurgeThresholdCount() );
+        }
+
+        if ( ( oldestCsn != null ) && ( journal.count() < thresholdCount ) )
+        {
+            return;
+        }
+
+        LOG.debug( "starting to purge the journal segments that are older than {} milliseconds", thresholdTime );
+
+        long deleteCount = journal.purge( oldestCsn, now - thresholdTime );
+
+        LOG.debug( "purged {} messages from the replication journal", deleteCount );
+    }
+
+
     public synchronized void removeEventLog( ReplicaEventLog replicaEventLog )
     {
         directoryService.getEventService().removeListener( replicaEventLog.getPersistentListener() );
@@ -192,8 +202,7 @@ public class ReplicaEventLogJanitor extends Thread
         {
             replicaEventLog.stop();
 
-            new File( directoryService.getInstanceLayout().getReplDirectory(), name + ".db" ).delete();
-            new File( directoryService.getInstanceLayout().getReplDirectory(), name + ".lg" ).delete();
+            // The journal segments it was the last to read will be deleted on the next purge
             LOG.info( "successfully removed replication event log {}", name );
         }
         catch ( Exception e )
@@ -0,0 +1,578 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.replication.provider;
+
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.apache.directory.api.ldap.model.constants.Loggers;
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.csn.Csn;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.core.api.interceptor.context.OperationContext;
+import org.apache.directory.server.ldap.replication.ReplicaEventMessage;
+import org.apache.directory.server.ldap.replication.ReplicaEventMessageSerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * The replication journal, shared by all the consumers of a provider. Each change is
+ * appended once in the journal, whatever the number of consumers interested in it : each
+ * consumer reads the journal through its own {@link ReplicaJournalCursor}, which selects
+ * the changes the consumer has not yet received.
+ * <p>
+ * The journal is stored in segment files, in the replication directory. The messages are
+ * only appended to the last segment, which is replaced by a new one when it's full. A full
+ * segment is deleted by the {@link ReplicaEventLogJanitor} when all the consumers have
+ * received all its messages.
+ * <p>
+ * Each message is stored as its length followed by :
+ * <ul>
+ * <li>String : the entryCSN of the message</li>
+ * <li>int : the ID of the replica the change comes from, or -1 for a local change</li>
+ * <li>String : the Dn of the entry before a MODDN operation, or an empty string</li>
+ * <li>byte[] : the serialized {@link ReplicaEventMessage}</li>
+ * </ul>
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ReplicaJournal
+{
+    /** The logger */
+    private static final Logger LOG = LoggerFactory.getLogger( ReplicaJournal.class );
+
+    /** A logger for the replication provider */
+    private static final Logger PROVIDER_LOG = LoggerFactory.getLogger( Loggers.PROVIDER_LOG.getName() );
+
+    /** The prefix of the segment files */
+    public static final String REPLICA_JOURNAL_NAME_PREFIX = "REPL_JOURNAL.";
+
+    /** The default maximum size of a segment, 16Mb */
+    public static final long DEFAULT_MAX_SEGMENT_SIZE = 16L * 1024L * 1024L;
+
+    /** The origin of a change done on this server */
+    static final int LOCAL_ORIGIN = -1;
+
+    /** The directory containing the segments */
+    private final File directory;
+
+    /** The SchemaManager */
+    private final SchemaManager schemaManager;
+
+    /** The messages serializer */
+    private final ReplicaEventMessageSerializer serializer;
+
+    /** The size above which a new segment is created */
+    private final long maxSegmentSize;
+
+    /** The segments, the oldest first. The last one is the one we append to */
+    private final List<Segment> segments = new ArrayList<>();
+
+    /** The stream used to append the messages to the last segment */
+    private FileOutputStream out;
+
+    /** The operations which have already been logged, as each consumer's listener tries to log them */
+    private final Set<OperationContext> loggedOperations = Collections.newSetFromMap( new WeakHashMap<>() );
+
+
+    /**
+     * A segment file, with the number of messages it contains and the highest CSN of
+     * those messages.
+     */
+    static class Segment
+    {
+        /** The segment file */
+        final File file;
+
+        /** The sequence number of this segment */
+        final long sequence;
+
+        /** The length of the complete messages written in the file */
+        long length;
+
+        /** The number of messages */
+        long count;
+
+        /** The highest CSN stored in the segment */
+        String maxCsn;
+
+
+        Segment( File file, long sequence )
+        {
+            this.file = file;
+            this.sequence = sequence;
+        }
+
+
+        /**
+         * @return A copy of this segment, which won't be updated when messages are appended
+         */
+        Segment copy()
+        {
+            Segment copy = new Segment( file, sequence );
+            copy.length = length;
+            copy.count = count;
+            copy.maxCsn = maxCsn;
+
+            return copy;
+        }
+    }
+
+
+    /**
+     * A message read from the journal
+     */
+    static class Record
+    {
+        /** The message CSN */
+        final String csn;
+
+        /** The ID of the replica the change comes from, or -1 */
+        final int originRid;
+
+        /** The Dn of the entry before a MODDN operation, or an empty String */
+        private final String originalDn;
+
+        /** The serialized message */
+        private final byte[] data;
+
+        /** The position of the serialized message in the data */
+        private final int offset;
+
+
+        Record( String csn, int originRid, String originalDn, byte[] data, int offset )
+        {
+            this.csn = csn;
+            this.originRid = originRid;
+            this.originalDn = originalDn;
+            this.data = data;
+            this.offset = offset;
+        }
+
+
+        /**
+         * @return The number of bytes used by this record in the segment
+         */
+        long length()
+        {
+            return 4L + data.length;
+        }
+    }
+
+
+    /**
+     * Creates or opens the replication journal stored in the given directory.
+     *
+     * @param schemaManager The SchemaManager
+     * @param directory The directory containing the segment files
+     * @param maxSegmentSize The size above which a new segment is created
+     * @throws IOException If the existing segments can't be read
+     */
+    public ReplicaJournal( SchemaManager schemaManager, File directory, long maxSegmentSize ) throws IOException
+    {
+        this.schemaManager = schemaManager;
+        this.directory = directory;
+        this.maxSegmentSize = maxSegmentSize <= 0L ? DEFAULT_MAX_SEGMENT_SIZE : maxSegmentSize;
+        serializer = new ReplicaEventMessageSerializer( schemaManager );
+
+        File[] files = directory.listFiles( ( dir, name ) -> name.startsWith( REPLICA_JOURNAL_NAME_PREFIX ) );
+
+        if ( files != null )
+        {
+            // The segments names contain their sequence number, padded with zeros
+            Arrays.sort( files );
+
+            for ( File file : files )
+            {
+                Segment segment = load( file );
+
+                if ( segment != null )
+                {
+                    segments.add( segment );
+                }
+            }
+        }
+
+        if ( segments.isEmpty() || ( getLastSegment().length >= this.maxSegmentSize ) )
+        {
+            roll();
+        }
+        else
+        {
+            out = new FileOutputStream( getLastSegment().file, true );
+        }
+
+        PROVIDER_LOG.debug( "Opened the replication journal in {}, {} segments, {} messages", directory,
+            segments.size(), count() );
+    }
+
+
+    /**
+     * @return The SchemaManager
+     */
+    public SchemaManager getSchemaManager()
+    {
+        return schemaManager;
+    }
+
+
+    /**
+     * Appends a message to the journal. The message is ignored if it has already been logged for
+     * the same operation : the listeners of all the consumers interested in a change try to log it.
+     *
+     * @param operationContext The operation which has generated the message
+     * @param message The message to store
+     * @param originRid The ID of the replica the change comes from, or -1 for a local change
+     * @param originalDn The Dn of the entry before a MODDN operation, or null
+     */
+    public synchronized void log( OperationContext operationContext, ReplicaEventMessage message, int originRid,
+        Dn originalDn )
+    {
+        if ( ( operationContext != null ) && !loggedOperations.add( operationContext ) )
+        {
+            return;
+        }
+
+        try
+        {
+            LOG.debug( "logging entry with Dn {} with the event {}", message.getEntry().getDn(),
+                message.getChangeType() );
+            PROVIDER_LOG.debug( "logging entry with Dn {} with the event {}", message.getEntry().getDn(),
+                message.getChangeType() );
+
+            String csn = message.getEntry().get( SchemaConstants.ENTRY_CSN_AT ).getString();
+
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            DataOutputStream data = new DataOutputStream( baos );
+
+            data.writeInt( 0 );
+            data.writeUTF( csn );
+            data.writeInt( originRid );
+            data.writeUTF( originalDn == null ? "" : originalDn.getName() );
+            data.write( serializer.serialize( message ) );
+            data.flush();
+
+            byte[] bytes = baos.toByteArray();
+            int length = bytes.length - 4;
+            bytes[0] = ( byte ) ( length >>> 24 );
+            bytes[1] = ( byte ) ( length >>> 16 );
+            bytes[2] = ( byte ) ( length >>> 8 );
+            bytes[3] = ( byte ) length;
+
+            // A single write, so that a reader never sees a partial message
+            out.write( bytes );
+
+            Segment segment = getLastSegment();
+            segment.length += bytes.length;
+            segment.count++;
+
+            if ( ( segment.maxCsn == null ) || ( csn.compareTo( segment.maxCsn ) > 0 ) )
+            {
+                segment.maxCsn = csn;
+            }
+
+            if ( segment.length >= maxSegmentSize )
+            {
+                roll();
+            }
+        }
+        catch ( Exception e )
+        {
+            LOG.warn( "Failed to insert the entry into syncrepl log", e );
+            PROVIDER_LOG.error( "Failed to insert the entry into syncrepl log", e );
+        }
+    }
+
+
+    /**
+     * Deletes the full segments which only contain messages all the consumers have received.
+     * The segment containing the oldest CSN is kept, as it's the position of a consumer in
+     * the journal : the messages appended after it are sent to the consumer, even if they
+     * have an older CSN.
+     *
+     * @param csn The oldest CSN the consumers have received, or null if there is no consumer
+     * @param olderThan The time before which the messages must have been created to be deleted
+     * @return The number of deleted messages
+     */
+    public synchronized long purge( String csn, long olderThan )
+    {
+        long deleted = 0L;
+
+        // Never delete the last segment, we are appending to it
+        while ( segments.size() > 1 )
+        {
+            Segment segment = segments.get( 0 );
+
+            if ( segment.maxCsn != null )
+            {
+                if ( ( csn != null ) && ( segment.maxCsn.compareTo( csn ) >= 0 ) )
+                {
+                    break;
+                }
+
+                if ( new Csn( segment.maxCsn ).getTimestamp() > olderThan )
+                {
+                    break;
+                }
+            }
+
+            segments.remove( 0 );
+            deleted += segment.count;
+
+            if ( !segment.file.delete() )
+            {
+                LOG.warn( "Failed to delete the replication journal segment {}", segment.file );
+            }
+        }
+
+        return deleted;
+    }
+
+
+    /**
+     * @return The number of messages in the journal
+     */
+    public synchronized long count()
+    {
+        long count = 0L;
+
+        for ( Segment segment : segments )
+        {
+            count += segment.count;
+        }
+
+        return count;
+    }
+
+
+    /**
+     * @return The number of segments
+     */
+    public synchronized int getSegmentCount()
+    {
+        return segments.size();
+    }
+
+
+    /**
+     * Closes the journal
+     *
+     * @throws IOException If the last segment can't be written on disk
+     */
+    public synchronized void close() throws IOException
+    {
+        PROVIDER_LOG.debug( "Closing the replication journal in {}", directory );
+
+        if ( out != null )
+        {
+            out.getFD().sync();
+            out.close();
+            out = null;
+        }
+    }
+
+
+    /**
+     * @return A copy of the segments, limited to the messages already written
+     */
+    synchronized List<Segment> getSegments()
+    {
+        List<Segment> copies = new ArrayList<>( segments.size() );
+
+        for ( Segment segment : segments )
+        {
+            copies.add( segment.copy() );
+        }
+
+        return copies;
+    }
+
+
+    /**
+     * Reads the next message of a segment
+     *
+     * @param in The segment stream
+     * @param remaining The number of bytes which can be read in the segment
+     * @return The read record
+     * @throws IOException If the message can't be read
+     */
+    static Record readRecord( DataInputStream in, long remaining ) throws IOException
+    {
+        int length = in.readInt();
+
+        if ( ( length < 0 ) || ( length > remaining - 4L ) )
+        {
+            // An incomplete message
+            throw new EOFException();
+        }
+
+        byte[] data = new byte[length];
+        in.readFully( data );
+
+        ByteArrayInputStream bais = new ByteArrayInputStream( data );
+        DataInputStream header = new DataInputStream( bais );
+        String csn = header.readUTF();
+        int originRid = header.readInt();
+        String originalDn = header.readUTF();
+
+        return new Record( csn, originRid, originalDn, data, data.length - bais.available() );
+    }
+
+
+    /**
+     * Deserializes the message of a record.
+     *
+     * @param record The record
+     * @return The stored message, with the Dn of the entry before a MODDN operation if any
+     * @throws IOException If the message can't be deserialized
+     */
+    ReplicaEventMessage getMessage( Record record ) throws IOException
+    {
+        return ( ReplicaEventMessage ) serializer.deserialize( Arrays.copyOfRange( record.data, record.offset,
+            record.data.length ) );
+    }
+
+
+    /**
+     * Gets the Dn of the entry before the MODDN operation which has generated the record.
+     *
+     * @param record The record
+     * @return The Dn, or null if the record isn't a MODDN
+     * @throws IOException If the Dn can't be read
+     */
+    Dn getOriginalDn( Record record ) throws IOException
+    {
+        if ( record.originalDn.isEmpty() )
+        {
+            return null;
+        }
+
+        try
+        {
+            return new Dn( schemaManager, record.originalDn );
+        }
+        catch ( LdapException le )
+        {
+            throw new IOException( le.getMessage(), le );
+        }
+    }
+
+
+    private Segment getLastSegment()
+    {
+        return segments.get( segments.size() - 1 );
+    }
+
+
+    /**
+     * Closes the last segment and creates a new one
+     */
+    private void roll() throws IOException
+    {
+        long sequence = 1L;
+
+        if ( !segments.isEmpty() )
+        {
+            sequence = getLastSegment().sequence + 1L;
+        }
+
+        if ( out != null )
+        {
+            out.getFD().sync();
+            out.close();
+        }
+
+        File file = new File( directory, REPLICA_JOURNAL_NAME_PREFIX + String.format( "%019d", sequence ) );
+        out = new FileOutputStream( file );
+        segments.add( new Segment( file, sequence ) );
+
+        PROVIDER_LOG.debug( "Created the replication journal segment {}", file );
+    }
+
+
+    /**
+     * Reads an existing segment, to know its content. An incomplete message at the end of the
+     * segment, written when the server has been stopped abruptly, is removed.
+     */
+    private Segment load( File file ) throws IOException
+    {
+        long sequence;
+
+        try
+        {
+            sequence = Long.parseLong( file.getName().substring( REPLICA_JOURNAL_NAME_PREFIX.length() ) );
+        }
+        catch ( NumberFormatException nfe )
+        {
+            LOG.warn( "Ignoring the file {}, it's not a replication journal segment", file );
+
+            return null;
+        }
+
+        Segment segment = new Segment( file, sequence );
+        long fileLength = file.length();
+
+        try ( DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) ) )
+        {
+            while ( segment.length < fileLength )
+            {
+                Record record = readRecord( in, fileLength - segment.length );
+
+                segment.length += record.length();
+                segment.count++;
+
+                if ( ( segment.maxCsn == null ) || ( record.csn.compareTo( segment.maxCsn ) > 0 ) )
+                {
+                    segment.maxCsn = record.csn;
+                }
+            }
+        }
+        catch ( EOFException eofe )
+        {
+            LOG.warn( "Removing an incomplete message at the end of the replication journal segment {}", file );
+
+            try ( RandomAccessFile raf = new RandomAccessFile( file, "rw" ) )
+            {
+                raf.setLength( segment.length );
+            }
+        }
+
+        return segment;
+    }
+}
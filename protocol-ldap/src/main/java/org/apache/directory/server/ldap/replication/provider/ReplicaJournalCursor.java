@@ -21,26 +21,47 @@
 package org.apache.directory.server.ldap.replication.provider;
 
 
+import static org.apache.directory.api.ldap.model.message.SearchScope.OBJECT;
+import static org.apache.directory.api.ldap.model.message.SearchScope.ONELEVEL;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.Iterator;
+import java.util.List;
 
 import org.apache.directory.api.ldap.model.constants.Loggers;
-import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.AbstractCursor;
-import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.cursor.CursorException;
-import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.message.SearchScope;
 import org.apache.directory.api.ldap.model.message.controls.ChangeType;
-import org.apache.directory.server.core.api.partition.PartitionTxn;
-import org.apache.directory.server.core.partition.impl.btree.jdbm.JdbmTable;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.api.event.Evaluator;
+import org.apache.directory.server.core.api.event.ExpressionEvaluator;
+import org.apache.directory.server.core.api.event.NotificationCriteria;
 import org.apache.directory.server.ldap.replication.ReplicaEventMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 
 /**
- * Define a cursor on top of a replication journal.
+ * Define a cursor on top of the replication journal, returning the messages a consumer
+ * has to receive : the messages the consumer hasn't received, on entries selected by the
+ * consumer's search criteria, which have not been received from the consumer itself.
+ * <p>
+ * The messages are not appended in the CSN order : a CSN is given to a change before it's
+ * applied, and the changes are applied concurrently. The consumer resumes from its position
+ * in the journal, which is the message with the consumer's CSN : all the messages appended
+ * after it are returned, whatever their CSN. Before it, only the messages more recent than
+ * the consumer's CSN are returned. If the journal doesn't contain the consumer's CSN, the
+ * messages more recent than this CSN are returned.
+ * <p>
+ * A MODDN operation moving an entry out of the consumer's base is returned as a DELETE
+ * of the entry.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -55,35 +76,44 @@ public class ReplicaJournalCursor extends AbstractCursor<ReplicaEventMessage>
     /** Speedup for logs */
     private static final boolean IS_DEBUG = LOG_CURSOR.isDebugEnabled();
 
-    /** the underlying journal's cursor */
-    private Cursor<Tuple<String, ReplicaEventMessage>> tupleCursor;
+    /** the shared journal */
+    private ReplicaJournal journal;
+
+    /** The segments to read, as they were when the cursor was created */
+    private List<ReplicaJournal.Segment> segments;
+
+    /** The position of the segment being read */
+    private int segmentPos = -1;
+
+    /** The segment being read */
+    private DataInputStream in;
 
-    /** the event log journal */
-    private JdbmTable<String, ReplicaEventMessage> journal;
+    /** The number of bytes remaining to read in the current segment */
+    private long remaining;
+
+    /** the consumer's event log */
+    private ReplicaEventLog log;
 
     /** the consumer's CSN based on which messages will be qualified for sending */
     private String consumerCsn;
 
-    private ReplicaEventMessage qualifiedEvtMsg;
+    /** Tells if the message with the consumer's CSN has been read */
+    private boolean afterConsumerCsn;
 
-    /** used while cleaning up the log */
-    private boolean skipQualifying;
-    
-    /** The partition transaction */
-    private PartitionTxn partitionTxn;
-    
+    /** The evaluator used to check that the entry is selected by the consumer's filter */
+    private Evaluator evaluator;
+
+    private ReplicaEventMessage qualifiedEvtMsg;
 
 
     /**
      * Creates a cursor on top of the given journal
      * 
-     * @param partitionTxn The Transaction to use
-     * @param journal the log journal
+     * @param journal the shared journal
+     * @param log the event log of the consumer
      * @param consumerCsn the consumer's CSN taken from cookie
-     * @throws Exception If the cursor creation failed
      */
-    public ReplicaJournalCursor( PartitionTxn partitionTxn, JdbmTable<String, ReplicaEventMessage> journal, 
-            String consumerCsn ) throws Exception
+    public ReplicaJournalCursor( ReplicaJournal journal, ReplicaEventLog log, String consumerCsn )
     {
         if ( IS_DEBUG )
         {
@@ -91,9 +121,10 @@ public class ReplicaJournalCursor extends AbstractCursor<ReplicaEventMessage>
         }
 
         this.journal = journal;
-        this.tupleCursor = journal.cursor();
+        this.log = log;
         this.consumerCsn = consumerCsn;
-        this.partitionTxn = partitionTxn;
+        this.segments = journal.getSegments();
+        this.evaluator = new ExpressionEvaluator( journal.getSchemaManager() );
     }
 
 
@@ -160,34 +191,84 @@ public class ReplicaJournalCursor extends AbstractCursor<ReplicaEventMessage>
 
 
     /**
-     * selects the current queue entry if qualified for sending to the consumer
-     * 
-     * @throws Exception
+     * Tells if a message has been received by the consumer, or comes from it
      */
-    private boolean isQualified( String csn, ReplicaEventMessage evtMsg ) throws LdapException
+    private boolean isAlreadyKnown( ReplicaJournal.Record record )
     {
-        LOG.debug( "ReplicaEventMessage: {}", evtMsg );
+        boolean known = false;
 
-        if ( evtMsg.isEventOlderThan( consumerCsn ) )
+        if ( ( consumerCsn != null ) && !afterConsumerCsn )
         {
-            if ( LOG.isDebugEnabled() )
+            int comparison = record.csn.compareTo( consumerCsn );
+
+            if ( comparison <= 0 )
             {
-                String evt = "MODDN"; // take this as default cause the event type for MODDN is null
+                LOG.debug( "message with CSN {} is not qualified for sending", record.csn );
 
-                ChangeType changeType = evtMsg.getChangeType();
+                // The following messages have been appended after the consumer's position
+                afterConsumerCsn = ( comparison == 0 );
+                known = true;
+            }
+        }
 
-                if ( changeType != null )
-                {
-                    evt = changeType.name();
-                }
+        if ( record.originRid == log.getId() )
+        {
+            LOG.debug( "RID of the message with CSN {} matches with the ID of replication event log {}",
+                record.csn, log.getName() );
+
+            known = true;
+        }
+
+        return known;
+    }
 
-                LOG.debug( "event {} for dn {} is not qualified for sending", evt, evtMsg.getEntry().getDn() );
-            }
 
-            return false;
+    /**
+     * selects the message if the entry is selected by the consumer's search criteria. A MODDN
+     * of an entry out of the consumer's base is transformed into a DELETE.
+     */
+    private ReplicaEventMessage qualify( ReplicaEventMessage evtMsg, Dn originalDn ) throws LdapException
+    {
+        LOG.debug( "ReplicaEventMessage: {}", evtMsg );
+
+        NotificationCriteria criteria = log.getSearchCriteria();
+        Entry entry = evtMsg.getEntry();
+        Dn base = criteria.getBase();
+
+        if ( !isInScope( originalDn == null ? entry.getDn() : originalDn, base, criteria.getScope() )
+            || !evaluator.evaluate( criteria.getFilter(), base, entry ) )
+        {
+            LOG.debug( "event {} for dn {} is not qualified for sending", evtMsg.getChangeType(), entry.getDn() );
+
+            return null;
         }
 
-        return true;
+        if ( ( originalDn != null ) && !entry.getDn().getParent().isDescendantOf( base ) )
+        {
+            // The entry has been moved out of the consumer's base
+            entry.setDn( originalDn );
+
+            return new ReplicaEventMessage( ChangeType.DELETE, entry );
+        }
+
+        return evtMsg;
+    }
+
+
+    private boolean isInScope( Dn dn, Dn base, SearchScope scope )
+    {
+        if ( scope == OBJECT )
+        {
+            return dn.equals( base );
+        }
+        else if ( scope == ONELEVEL )
+        {
+            return dn.getParent().equals( base );
+        }
+        else
+        {
+            return dn.isDescendantOf( base ) || dn.equals( base );
+        }
     }
 
 
@@ -205,35 +286,88 @@ public class ReplicaJournalCursor extends AbstractCursor<ReplicaEventMessage>
      */
     public boolean next() throws LdapException, CursorException
     {
-        while ( tupleCursor.next() )
+        try
+        {
+            while ( nextSegment() )
+            {
+                ReplicaJournal.Record record = ReplicaJournal.readRecord( in, remaining );
+                remaining -= record.length();
+
+                if ( isAlreadyKnown( record ) )
+                {
+                    continue;
+                }
+
+                ReplicaEventMessage message = qualify( journal.getMessage( record ), journal.getOriginalDn( record ) );
+
+                if ( message != null )
+                {
+                    qualifiedEvtMsg = message;
+
+                    return true;
+                }
+            }
+        }
+        catch ( IOException ioe )
         {
-            Tuple<String, ReplicaEventMessage> tuple = tupleCursor.get();
+            throw new CursorException( ioe.getMessage(), ioe );
+        }
+
+        qualifiedEvtMsg = null;
 
-            String csn = tuple.getKey();
-            ReplicaEventMessage message = tuple.getValue();
+        return false;
+    }
 
-            if ( skipQualifying )
+
+    /**
+     * Moves to the next segment to read if the current one has been read
+     *
+     * @return false if all the segments have been read
+     */
+    private boolean nextSegment() throws IOException
+    {
+        while ( remaining == 0L )
+        {
+            closeSegment();
+            segmentPos++;
+
+            if ( segmentPos >= segments.size() )
             {
-                qualifiedEvtMsg = message;
-                return true;
+                return false;
             }
 
-            boolean qualified = isQualified( csn, message );
+            ReplicaJournal.Segment segment = segments.get( segmentPos );
 
-            if ( qualified )
+            if ( ( segment.count == 0L ) || ( ( consumerCsn != null ) && !afterConsumerCsn
+                && ( segment.maxCsn.compareTo( consumerCsn ) < 0 ) ) )
             {
-                qualifiedEvtMsg = message;
-                return true;
+                // Nothing the consumer hasn't received, and not the consumer's position
+                continue;
             }
-            else
+
+            try
+            {
+                in = new DataInputStream( new BufferedInputStream( new FileInputStream( segment.file ) ) );
+                remaining = segment.length;
+            }
+            catch ( FileNotFoundException fnfe )
             {
-                journal.remove( partitionTxn, csn );
+                // The segment has been purged in the meantime
+                LOG.debug( "The replication journal segment {} has been deleted", segment.file );
             }
         }
 
-        qualifiedEvtMsg = null;
+        return true;
+    }
 
-        return false;
+
+    private void closeSegment() throws IOException
+    {
+        if ( in != null )
+        {
+            in.close();
+            in = null;
+        }
     }
 
 
@@ -257,7 +391,7 @@ public class ReplicaJournalCursor extends AbstractCursor<ReplicaEventMessage>
             LOG_CURSOR.debug( "Closing ReplicaJournalCursor {}", this );
         }
 
-        tupleCursor.close();
+        closeSegment();
         super.close();
     }
 
@@ -273,40 +407,11 @@ public class ReplicaJournalCursor extends AbstractCursor<ReplicaEventMessage>
             LOG_CURSOR.debug( "Closing ReplicaJournalCursor {}", this );
         }
 
-        tupleCursor.close();
+        closeSegment();
         super.close( cause );
     }
 
 
-    /**
-     * sets the flag to skip CSN based checking while traversing
-     * used for internal log cleanup ONLY 
-     */
-    protected void skipQualifyingWhileFetching()
-    {
-        skipQualifying = true;
-    }
-
-
-    /**
-     * delete the current message
-     * used for internal log cleanup ONLY
-     */
-    protected void delete()
-    {
-        try
-        {
-            if ( qualifiedEvtMsg != null )
-            {
-                journal.remove( partitionTxn, qualifiedEvtMsg.getEntry().get( SchemaConstants.ENTRY_CSN_AT ).getString() );
-            }
-        }
-        catch ( Exception e )
-        {
-        }
-    }
-
-
     /**
      * {@inheritDoc}
      */
@@ -29,10 +29,8 @@ import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
@@ -134,6 +132,9 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
 
     private Map<Integer, ReplicaEventLog> replicaLogMap = new ConcurrentHashMap<>();
 
+    /** The journal of the modifications, shared by all the consumers */
+    private ReplicaJournal journal;
+
     private File syncReplData;
 
     private AtomicInteger replicaCount = new AtomicInteger( 0 );
@@ -199,12 +200,16 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
                 throw new IOException( I18n.err( I18n.ERR_00004_COULD_NOT_CREATE_DIRECTORY, syncReplData ) );
             }
 
+            // Open the journal shared by all the consumers
+            journal = new ReplicaJournal( dirService.getSchemaManager(), syncReplData,
+                ReplicaJournal.DEFAULT_MAX_SEGMENT_SIZE );
+
             // Create the replication manager
             replicaUtil = new ReplConsumerManager( dirService );
 
             loadReplicaInfo();
 
-            logJanitor = new ReplicaEventLogJanitor( dirService, replicaLogMap );
+            logJanitor = new ReplicaEventLogJanitor( dirService, journal, replicaLogMap );
             logJanitor.start();
 
             registerPersistentSearches();
@@ -277,6 +282,15 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
         // flush the dirty repos
         storeReplicaInfo();
 
+        try
+        {
+            journal.close();
+        }
+        catch ( IOException ioe )
+        {
+            PROVIDER_LOG.error( "Failed to close the replication journal", ioe );
+        }
+
         initialized = false;
     }
 
@@ -523,12 +537,7 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
 
         // first register a ReplicaEventLog before starting the initial content refresh
         // this is to log all the operations happen on DIT during initial content refresh
-        ReplicaEventLog replicaLog = null;
-        
-        try ( PartitionTxn partitionTxn = partition.beginReadTransaction() )
-        {
-            replicaLog = createReplicaEventLog( partitionTxn, hostName, originalFilter );
-        }
+        ReplicaEventLog replicaLog = createReplicaEventLog( hostName, originalFilter );
 
         replicaLog.setRefreshNPersist( refreshNPersist );
         Value contexCsnValue = new Value( dirService.getAtProvider().getEntryCSN(), contextCsn );
@@ -1017,8 +1026,7 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
     {
         try
         {
-            List<ReplicaEventLog> eventLogs = replicaUtil.getReplicaEventLogs();
-            Set<String> eventLogNames = new HashSet<>();
+            List<ReplicaEventLog> eventLogs = replicaUtil.getReplicaEventLogs( journal );
 
             if ( !eventLogs.isEmpty() )
             {
@@ -1026,7 +1034,6 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
                 {
                     PROVIDER_LOG.debug( "initializing the replica log from {}", replica.getId() );
                     replicaLogMap.put( replica.getId(), replica );
-                    eventLogNames.add( replica.getName() );
 
                     // update the replicaCount's value to assign a correct value to the new replica(s)
                     if ( replicaCount.get() < replica.getId() )
@@ -1040,14 +1047,24 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
                 PROVIDER_LOG.debug( "no replica logs found to initialize" );
             }
 
-            // remove unused logs
+            // remove the logs of the previous versions, which had one journal per consumer. Their content
+            // can't be moved to the shared journal : those consumers have to do a full refresh
             for ( File f : getAllReplJournalNames() )
             {
-                if ( !eventLogNames.contains( f.getName() ) )
+                String name = f.getName().substring( 0, f.getName().lastIndexOf( '.' ) );
+
+                for ( ReplicaEventLog replica : eventLogs )
                 {
-                    f.delete();
-                    PROVIDER_LOG.info( "removed unused replication event log {}", f );
+                    if ( name.equals( replica.getName() ) && ( replicaLogMap.remove( replica.getId() ) != null ) )
+                    {
+                        PROVIDER_LOG.warn( "the replica {} has a per consumer event log, it will do a full refresh",
+                            replica.getId() );
+                        replicaUtil.deleteConsumerEntry( replica );
+                    }
                 }
+
+                f.delete();
+                PROVIDER_LOG.info( "removed unused replication event log {}", f );
             }
         }
         catch ( Exception e )
@@ -1133,13 +1150,13 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
     /**
      * Create a new ReplicaEventLog. Each replica will have a unique ID, created by the provider.
      */
-    private ReplicaEventLog createReplicaEventLog( PartitionTxn partitionTxn, String hostName, String filter ) throws Exception
+    private ReplicaEventLog createReplicaEventLog( String hostName, String filter )
     {
         int replicaId = replicaCount.incrementAndGet();
 
         PROVIDER_LOG.debug( "creating a new event log for the replica with id {}", replicaId );
 
-        ReplicaEventLog replicaLog = new ReplicaEventLog( partitionTxn, dirService, replicaId );
+        ReplicaEventLog replicaLog = new ReplicaEventLog( journal, replicaId );
         replicaLog.setHostName( hostName );
         replicaLog.setSearchFilter( filter );
 
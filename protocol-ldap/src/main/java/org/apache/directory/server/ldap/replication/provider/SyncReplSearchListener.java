@@ -59,7 +59,9 @@ import org.slf4j.LoggerFactory;
  * A listener associated with the replication system. It does send the modifications to the 
  * consumer, if it's connected, or store the data into a queue for a later transmission.
  * 
- * Note: we always log the entry irrespective of the client's connection status for guaranteed delivery
+ * Note: we always log the entry irrespective of the client's connection status for guaranteed delivery.
+ * The journal is shared by all the consumers : the entry is only logged by the first listener
+ * called for an operation.
  * 
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -135,6 +137,16 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
             }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void eventsDropped( int nbDropped, boolean disconnected )
+    {
+        // Never called, this listener is synchronous
+    }
+
+
     /**
      * Abandon a SearchRequest
      * 
@@ -221,11 +233,8 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
         try
         {
             //System.out.println( "ADD Listener : log " + entry.getDn() );
-            // we log it first
-            consumerMsgLog.log( new ReplicaEventMessage( ChangeType.ADD, entry ) );
-
-            // We send the added entry directly to the consumer if it's connected
-            if ( pushInRealTime )
+            // we log it first, then we send the added entry directly to the consumer if it's connected
+            if ( log( addContext, ChangeType.ADD, entry, null ) )
             {
                 // Construct a new SearchResultEntry
                 SearchResultEntry resultEntry = new SearchResultEntryImpl( searchRequest.getMessageId() );
@@ -261,7 +270,12 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
             return;
         }
         
-        sendDeletedEntry( ( ( ClonedServerEntry ) entry ).getClonedEntry() );
+        Entry deletedEntry = ( ( ClonedServerEntry ) entry ).getClonedEntry();
+
+        if ( log( deleteContext, ChangeType.DELETE, deletedEntry, null ) )
+        {
+            sendDeletedEntry( deletedEntry );
+        }
     }
     
 
@@ -272,19 +286,13 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
     {
         try
         {
-            //System.out.println( "DELETE Listener : log " + entry.getDn() );
-            consumerMsgLog.log( new ReplicaEventMessage( ChangeType.DELETE, entry ) );
-            
-            if ( pushInRealTime )
-            {
-                SearchResultEntry resultEntry = new SearchResultEntryImpl( searchRequest.getMessageId() );
-                resultEntry.setObjectName( entry.getDn() );
-                resultEntry.setEntry( entry );
+            SearchResultEntry resultEntry = new SearchResultEntryImpl( searchRequest.getMessageId() );
+            resultEntry.setObjectName( entry.getDn() );
+            resultEntry.setEntry( entry );
 
-                SyncStateValue syncDelete = createControl( session.getCoreSession().getDirectoryService(), SyncStateTypeEnum.DELETE, entry );
+            SyncStateValue syncDelete = createControl( session.getCoreSession().getDirectoryService(), SyncStateTypeEnum.DELETE, entry );
 
-                sendResult( resultEntry, entry, EventType.DELETE, syncDelete );
-            }
+            sendResult( resultEntry, entry, EventType.DELETE, syncDelete );
         }
         catch ( LdapInvalidAttributeValueException e )
         {
@@ -312,9 +320,7 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
         try
         {
             //System.out.println( "MODIFY Listener : log " + alteredEntry.getDn() );
-            consumerMsgLog.log( new ReplicaEventMessage( ChangeType.MODIFY, alteredEntry ) );
-            
-            if ( pushInRealTime )
+            if ( log( modifyContext, ChangeType.MODIFY, alteredEntry, null ) )
             {
 
                 SearchResultEntry resultEntry = new SearchResultEntryImpl( searchRequest.getMessageId() );
@@ -351,16 +357,17 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
 
         try
         {
-            if ( !moveContext.getNewSuperior().isDescendantOf( consumerMsgLog.getSearchCriteria().getBase() ) )
+            //System.out.println( "MOVE Listener : log " + moveContext.getDn() + " moved to " + moveContext.getNewSuperior() );
+            if ( !log( moveContext, ChangeType.MODDN, entry, moveContext.getDn() ) )
             {
-                sendDeletedEntry( moveContext.getOriginalEntry() );
                 return;
             }
 
-            //System.out.println( "MOVE Listener : log " + moveContext.getDn() + " moved to " + moveContext.getNewSuperior() );
-            consumerMsgLog.log( new ReplicaEventMessage( ChangeType.MODDN, entry ) );
-            
-            if ( pushInRealTime )
+            if ( !moveContext.getNewSuperior().isDescendantOf( consumerMsgLog.getSearchCriteria().getBase() ) )
+            {
+                sendDeletedEntry( moveContext.getOriginalEntry() );
+            }
+            else
             {
                 SearchResultEntry resultEntry = new SearchResultEntryImpl( searchRequest.getMessageId() );
                 resultEntry.setObjectName( moveContext.getDn() );
@@ -396,18 +403,18 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
 
         try
         {
-            if ( !moveAndRenameContext.getNewSuperiorDn().isDescendantOf( consumerMsgLog.getSearchCriteria().getBase() ) )
+            //System.out.println( "MOVE AND RENAME Listener : log " + moveAndRenameContext.getDn() + 
+            //    " moved to " + moveAndRenameContext.getNewSuperiorDn() + " renamed to " + moveAndRenameContext.getNewRdn() );
+            if ( !log( moveAndRenameContext, ChangeType.MODDN, entry, moveAndRenameContext.getDn() ) )
             {
-                sendDeletedEntry( entry );
                 return;
             }
 
-
-            //System.out.println( "MOVE AND RENAME Listener : log " + moveAndRenameContext.getDn() + 
-            //    " moved to " + moveAndRenameContext.getNewSuperiorDn() + " renamed to " + moveAndRenameContext.getNewRdn() );
-            consumerMsgLog.log( new ReplicaEventMessage( ChangeType.MODDN, entry ) );
-            
-            if ( pushInRealTime )
+            if ( !moveAndRenameContext.getNewSuperiorDn().isDescendantOf( consumerMsgLog.getSearchCriteria().getBase() ) )
+            {
+                sendDeletedEntry( entry );
+            }
+            else
             {
                 SearchResultEntry resultEntry = new SearchResultEntryImpl( searchRequest.getMessageId() );
                 resultEntry.setObjectName( entry.getDn() );
@@ -445,9 +452,7 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
         {
             // should always send the original entry cause the consumer perform the modDn operation there
             //System.out.println( "RENAME Listener : log " + renameContext.getDn() + " renamed to " + renameContext.getNewRdn() );
-            consumerMsgLog.log( new ReplicaEventMessage( ChangeType.MODDN, entry ) );
-            
-            if ( pushInRealTime )
+            if ( log( renameContext, ChangeType.MODDN, entry, renameContext.getDn() ) )
             {
                 SearchResultEntry resultEntry = new SearchResultEntryImpl( searchRequest.getMessageId() );
                 resultEntry.setObjectName( entry.getDn() );
@@ -560,12 +565,23 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
     
     private boolean isNotValidForReplication( AbstractChangeOperationContext ctx )
     {
-        if ( ctx.isGenerateNoReplEvt() )
-        {
-            return true;
-        }
-        
-        return isMmrConfiguredToReceiver( ctx );
+        return ctx.isGenerateNoReplEvt();
+    }
+
+
+    /**
+     * Stores the change in the journal shared by all the consumers, if it hasn't been
+     * already stored by another consumer's listener.
+     * 
+     * @return true if the change has to be sent to the consumer right now
+     */
+    private boolean log( AbstractChangeOperationContext ctx, ChangeType changeType, Entry entry, Dn originalDn )
+    {
+        int originRid = ctx.isReplEvent() ? ctx.getRid() : ReplicaJournal.LOCAL_ORIGIN;
+        consumerMsgLog.log( ctx, new ReplicaEventMessage( changeType, entry ), originRid, originalDn );
+
+        // The changes received from the consumer are not sent back to it
+        return pushInRealTime && !isMmrConfiguredToReceiver( ctx );
     }
     
 
@@ -0,0 +1,154 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.exception.LdapTimeLimitExceededException;
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.message.SearchRequestImpl;
+import org.apache.mina.core.session.DummySession;
+import org.junit.jupiter.api.Test;
+
+
+/**
+ * Tests the flow control of the responses written in a LdapSession.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LdapSessionTest
+{
+    @Test
+    public void testAwaitWriteQueueBelowHighWaterMark() throws Exception
+    {
+        DummySession ioSession = new DummySession();
+        LdapSession session = new LdapSession( ioSession );
+        SearchRequest request = new SearchRequestImpl();
+
+        ioSession.increaseScheduledWriteBytes( 1000 );
+
+        assertTrue( session.awaitWriteQueue( 1000L, request, Long.MAX_VALUE ) );
+        assertEquals( 1000L, session.getScheduledWriteBytes() );
+        assertEquals( 1000L, session.getPeakScheduledWriteBytes() );
+        assertEquals( 0L, session.getWriteSuspensions() );
+    }
+
+
+    @Test
+    public void testAwaitWriteQueueResumedOnDrain() throws Exception
+    {
+        DummySession ioSession = new DummySession();
+        LdapSession session = new LdapSession( ioSession );
+        SearchRequest request = new SearchRequestImpl();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try
+        {
+            ioSession.increaseScheduledWriteBytes( 2000 );
+
+            Future<Boolean> writable = executor.submit(
+                () -> session.awaitWriteQueue( 1000L, request, Long.MAX_VALUE ) );
+            waitForSuspension( session );
+
+            // Not enough bytes have been sent
+            ioSession.increaseScheduledWriteBytes( -800 );
+            session.signalWriteQueue();
+            Thread.sleep( 200L );
+            assertFalse( writable.isDone() );
+
+            // Below the low-water mark
+            ioSession.increaseScheduledWriteBytes( -800 );
+            session.signalWriteQueue();
+
+            assertTrue( writable.get( 5L, TimeUnit.SECONDS ) );
+            assertEquals( 2000L, session.getPeakScheduledWriteBytes() );
+            assertEquals( 1L, session.getWriteSuspensions() );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+
+    @Test
+    public void testAwaitWriteQueueAbandoned() throws Exception
+    {
+        DummySession ioSession = new DummySession();
+        LdapSession session = new LdapSession( ioSession );
+        SearchRequest request = new SearchRequestImpl();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try
+        {
+            ioSession.increaseScheduledWriteBytes( 2000 );
+            session.signalWriteQueueOnAbandon( request );
+
+            Future<Boolean> writable = executor.submit(
+                () -> session.awaitWriteQueue( 1000L, request, Long.MAX_VALUE ) );
+            waitForSuspension( session );
+
+            request.abandon();
+
+            assertFalse( writable.get( 5L, TimeUnit.SECONDS ) );
+            assertEquals( 1L, session.getWriteSuspensions() );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+
+    @Test
+    public void testAwaitWriteQueueTimeLimit() throws Exception
+    {
+        DummySession ioSession = new DummySession();
+        LdapSession session = new LdapSession( ioSession );
+        SearchRequest request = new SearchRequestImpl();
+
+        ioSession.increaseScheduledWriteBytes( 2000 );
+
+        long start = System.currentTimeMillis();
+
+        assertThrows( LdapTimeLimitExceededException.class,
+            () -> session.awaitWriteQueue( 1000L, request, start + 200L ) );
+        assertTrue( System.currentTimeMillis() - start >= 200L );
+        assertEquals( 1L, session.getWriteSuspensions() );
+    }
+
+
+    private void waitForSuspension( LdapSession session ) throws InterruptedException
+    {
+        for ( int i = 0; ( i < 500 ) && ( session.getWriteSuspensions() == 0L ); i++ )
+        {
+            Thread.sleep( 10L );
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.handlers.request;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.constants.LdapSecurityConstants;
+import org.junit.jupiter.api.Test;
+
+
+/**
+ * Tests the BindVerificationPool admission control and statistics.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class BindVerificationPoolTest
+{
+    @Test
+    public void testExpensiveSchemes()
+    {
+        BindVerificationPool pool = new BindVerificationPool( 1, 1 );
+
+        try
+        {
+            assertTrue( pool.isExpensive( LdapSecurityConstants.HASH_METHOD_PKCS5S2 ) );
+            assertTrue( pool.isExpensive( LdapSecurityConstants.HASH_METHOD_CRYPT_BCRYPT ) );
+            assertFalse( pool.isExpensive( LdapSecurityConstants.HASH_METHOD_SSHA ) );
+            assertFalse( pool.isExpensive( null ) );
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+
+    @Test
+    public void testRejectWhenFull() throws Exception
+    {
+        BindVerificationPool pool = new BindVerificationPool( 1, 1 );
+        CountDownLatch running = new CountDownLatch( 1 );
+        CountDownLatch release = new CountDownLatch( 1 );
+        CountDownLatch done = new CountDownLatch( 2 );
+
+        try
+        {
+            assertTrue( pool.submit( "PKCS5S2", () ->
+            {
+                running.countDown();
+
+                try
+                {
+                    release.await();
+                }
+                catch ( InterruptedException ie )
+                {
+                    Thread.currentThread().interrupt();
+                }
+
+                done.countDown();
+            } ) );
+
+            running.await( 5L, TimeUnit.SECONDS );
+
+            // The thread is busy, this one is queued
+            assertTrue( pool.submit( "PKCS5S2", done::countDown ) );
+            assertEquals( 1, pool.getPending() );
+
+            // The queue is full
+            assertFalse( pool.submit( "CRYPT", done::countDown ) );
+            assertEquals( 1L, pool.getRejected() );
+
+            release.countDown();
+            assertTrue( done.await( 5L, TimeUnit.SECONDS ) );
+
+            // The statistics are recorded once the task is completed
+            for ( int i = 0; ( i < 500 ) && ( getCount( pool, "PKCS5S2" ) < 2L ); i++ )
+            {
+                Thread.sleep( 10L );
+            }
+
+            assertEquals( 2L, getCount( pool, "PKCS5S2" ) );
+            assertFalse( pool.getStatistics().containsKey( "CRYPT" ) );
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+
+    @Test
+    public void testRecord()
+    {
+        BindVerificationPool pool = new BindVerificationPool( 1, 1 );
+
+        try
+        {
+            pool.record( BindVerificationPool.PLAIN_SCHEME, 2000L );
+            pool.record( BindVerificationPool.PLAIN_SCHEME, 4000L );
+
+            BindVerificationPool.SchemeStatistics statistics = pool.getStatistics().get(
+                BindVerificationPool.PLAIN_SCHEME );
+
+            assertEquals( 2L, statistics.getCount() );
+            assertEquals( 3L, statistics.getAverageTime() );
+            assertEquals( 4L, statistics.getMaxTime() );
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+
+    private long getCount( BindVerificationPool pool, String scheme )
+    {
+        BindVerificationPool.SchemeStatistics statistics = pool.getStatistics().get( scheme );
+
+        return statistics == null ? 0L : statistics.getCount();
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.replication.consumer;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.util.Strings;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+
+/**
+ * Tests the pipeline applying the changes received by a consumer.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SyncReplApplyPipelineTest
+{
+    /** The cookies delivered by the pipeline */
+    private List<String> cookies;
+
+    /** The pipeline */
+    private SyncReplApplyPipeline pipeline;
+
+    /** The thread submitting the changes which have to wait */
+    private ExecutorService submitter;
+
+
+    @BeforeEach
+    public void setup()
+    {
+        cookies = new CopyOnWriteArrayList<>();
+        submitter = Executors.newSingleThreadExecutor();
+
+        pipeline = new SyncReplApplyPipeline( "test", 4, new SyncReplApplyPipeline.CookieListener()
+        {
+            @Override
+            public void cookieApplied( byte[] cookie )
+            {
+                cookies.add( Strings.utf8ToString( cookie ) );
+            }
+
+
+            @Override
+            public void idle()
+            {
+            }
+        } );
+    }
+
+
+    @AfterEach
+    public void shutdown()
+    {
+        submitter.shutdownNow();
+        pipeline.shutdown();
+    }
+
+
+    @Test
+    public void testCookiesDeliveredInOrder() throws Exception
+    {
+        CountDownLatch latch = new CountDownLatch( 1 );
+
+        pipeline.submit( "1", new Dn( "ou=a,dc=test" ), false, Strings.getBytesUtf8( "1" ), () -> await( latch ) );
+        pipeline.submit( "2", new Dn( "ou=b,dc=test" ), false, Strings.getBytesUtf8( "2" ), () -> {} );
+        pipeline.submit( "3", new Dn( "ou=c,dc=test" ), false, Strings.getBytesUtf8( "3" ), () -> {} );
+
+        // The last changes are applied, but not the first one
+        Thread.sleep( 200L );
+        assertTrue( cookies.isEmpty() );
+
+        latch.countDown();
+        pipeline.drain();
+
+        assertEquals( 1, cookies.size() );
+        assertEquals( "3", cookies.get( 0 ) );
+    }
+
+
+    @Test
+    public void testSameEntryChangesAreSerialized() throws Exception
+    {
+        CountDownLatch latch = new CountDownLatch( 1 );
+        AtomicBoolean applied = new AtomicBoolean();
+
+        pipeline.submit( "1", new Dn( "ou=a,dc=test" ), false, null, () -> await( latch ) );
+
+        Future<?> future = submitter.submit( () ->
+        {
+            pipeline.submit( "1", new Dn( "ou=a,dc=test" ), false, null, () -> applied.set( true ) );
+
+            return null;
+        } );
+
+        Thread.sleep( 200L );
+        assertFalse( future.isDone() );
+        assertFalse( applied.get() );
+
+        latch.countDown();
+        future.get( 5L, TimeUnit.SECONDS );
+        pipeline.drain();
+
+        assertTrue( applied.get() );
+    }
+
+
+    @Test
+    public void testChildWaitsForParent() throws Exception
+    {
+        CountDownLatch latch = new CountDownLatch( 1 );
+        AtomicBoolean applied = new AtomicBoolean();
+
+        pipeline.submit( "1", new Dn( "ou=a,dc=test" ), false, null, () -> await( latch ) );
+
+        // Not related to the first change
+        pipeline.submit( "2", new Dn( "ou=b,dc=test" ), false, null, () -> {} );
+
+        Future<?> future = submitter.submit( () ->
+        {
+            pipeline.submit( "3", new Dn( "cn=child,ou=a,dc=test" ), false, null, () -> applied.set( true ) );
+
+            return null;
+        } );
+
+        Thread.sleep( 200L );
+        assertFalse( future.isDone() );
+
+        latch.countDown();
+        future.get( 5L, TimeUnit.SECONDS );
+        pipeline.drain();
+
+        assertTrue( applied.get() );
+    }
+
+
+    @Test
+    public void testBarrierWaitsForAllChanges() throws Exception
+    {
+        CountDownLatch latch = new CountDownLatch( 1 );
+        AtomicBoolean applied = new AtomicBoolean();
+
+        pipeline.submit( "1", new Dn( "ou=a,dc=test" ), false, null, () -> await( latch ) );
+
+        Future<?> future = submitter.submit( () ->
+        {
+            pipeline.submit( "2", new Dn( "ou=b,dc=test" ), true, null, () -> applied.set( true ) );
+
+            return null;
+        } );
+
+        Thread.sleep( 200L );
+        assertFalse( future.isDone() );
+
+        latch.countDown();
+        future.get( 5L, TimeUnit.SECONDS );
+        pipeline.drain();
+
+        assertTrue( applied.get() );
+    }
+
+
+    private static void await( CountDownLatch latch )
+    {
+        try
+        {
+            latch.await( 5L, TimeUnit.SECONDS );
+        }
+        catch ( InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
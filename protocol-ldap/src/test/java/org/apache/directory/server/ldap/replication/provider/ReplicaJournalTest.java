@@ -0,0 +1,350 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.replication.provider;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.apache.directory.api.ldap.model.csn.CsnFactory;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.message.controls.ChangeType;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.ldap.replication.ReplicaEventMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+
+/**
+ * Tests the replication journal shared by the consumers, and the cursor each consumer uses
+ * to read it.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ReplicaJournalTest
+{
+    /** The SchemaManager instance */
+    private static SchemaManager schemaManager;
+
+    /** The CsnFactory */
+    private static CsnFactory csnFactory;
+
+    /** The directory containing the journal */
+    private File directory;
+
+    /** The journal, with small segments */
+    private ReplicaJournal journal;
+
+
+    @BeforeAll
+    public static void init() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = ReplicaJournalTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        if ( !schemaManager.loadAllEnabled() )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        csnFactory = new CsnFactory( 0 );
+    }
+
+
+    @BeforeEach
+    public void createJournal() throws Exception
+    {
+        directory = Files.createTempDirectory( getClass().getSimpleName() ).toFile();
+        journal = new ReplicaJournal( schemaManager, directory, 4096L );
+    }
+
+
+    @AfterEach
+    public void deleteJournal() throws Exception
+    {
+        journal.close();
+
+        for ( File file : directory.listFiles() )
+        {
+            file.delete();
+        }
+
+        directory.delete();
+    }
+
+
+    private Entry createEntry( String dn, String csn ) throws Exception
+    {
+        return new DefaultEntry( schemaManager, dn,
+            "ObjectClass: top",
+            "ObjectClass: organizationalUnit",
+            "ou", new Dn( dn ).getRdn().getValue(),
+            "entryCsn", csn );
+    }
+
+
+    private ReplicaEventLog createLog( int replicaId, String base ) throws Exception
+    {
+        ReplicaEventLog log = new ReplicaEventLog( journal, replicaId );
+        log.getSearchCriteria().setBase( new Dn( schemaManager, base ) );
+        log.getSearchCriteria().setScope( SearchScope.SUBTREE );
+        log.getSearchCriteria().setFilter( "(objectClass=*)" );
+
+        return log;
+    }
+
+
+    /**
+     * Logs ADD messages, each one for a different operation, and returns their CSNs
+     */
+    private String[] logMessages( int nbMessages ) throws Exception
+    {
+        String[] csns = new String[nbMessages];
+
+        for ( int i = 0; i < nbMessages; i++ )
+        {
+            csns[i] = csnFactory.newInstance().toString();
+            Entry entry = createEntry( "ou=test" + i + ",ou=system", csns[i] );
+
+            journal.log( new AddOperationContext( null ), new ReplicaEventMessage( ChangeType.ADD, entry ),
+                ReplicaJournal.LOCAL_ORIGIN, null );
+        }
+
+        return csns;
+    }
+
+
+    /**
+     * Writes 1000 messages in many segments, and reads them back from the 100th CSN
+     */
+    @Test
+    public void testReadFromConsumerCsn() throws Exception
+    {
+        String[] csns = logMessages( 1000 );
+
+        assertEquals( 1000L, journal.count() );
+        assertTrue( journal.getSegmentCount() > 1 );
+
+        ReplicaJournalCursor cursor = createLog( 1, "ou=system" ).getCursor( csns[99] );
+        int pos = 100;
+
+        while ( cursor.next() )
+        {
+            ReplicaEventMessage message = cursor.get();
+
+            assertEquals( ChangeType.ADD, message.getChangeType() );
+            assertEquals( "test" + pos, message.getEntry().get( "ou" ).getString() );
+            pos++;
+        }
+
+        cursor.close();
+
+        assertEquals( 1000, pos );
+    }
+
+
+    /**
+     * Appends a message after a message with a more recent CSN, as it happens when two
+     * changes are applied concurrently, and checks that a consumer which has received the
+     * most recent one still receives the other one
+     */
+    @Test
+    public void testReadOutOfOrderMessages() throws Exception
+    {
+        String csn1 = csnFactory.newInstance().toString();
+        String csn2 = csnFactory.newInstance().toString();
+        String csn3 = csnFactory.newInstance().toString();
+
+        journal.log( null, new ReplicaEventMessage( ChangeType.ADD, createEntry( "ou=test2,ou=system", csn2 ) ),
+            ReplicaJournal.LOCAL_ORIGIN, null );
+        journal.log( null, new ReplicaEventMessage( ChangeType.ADD, createEntry( "ou=test1,ou=system", csn1 ) ),
+            ReplicaJournal.LOCAL_ORIGIN, null );
+        journal.log( null, new ReplicaEventMessage( ChangeType.ADD, createEntry( "ou=test3,ou=system", csn3 ) ),
+            ReplicaJournal.LOCAL_ORIGIN, null );
+
+        // The consumer has received the first appended message
+        ReplicaJournalCursor cursor = createLog( 1, "ou=system" ).getCursor( csn2 );
+
+        assertTrue( cursor.next() );
+        assertEquals( csn1, cursor.get().getEntry().get( "entryCsn" ).getString() );
+        assertTrue( cursor.next() );
+        assertEquals( csn3, cursor.get().getEntry().get( "entryCsn" ).getString() );
+        assertFalse( cursor.next() );
+        cursor.close();
+
+        // The consumer has received the first two messages
+        cursor = createLog( 1, "ou=system" ).getCursor( csn1 );
+
+        assertTrue( cursor.next() );
+        assertEquals( csn2, cursor.get().getEntry().get( "entryCsn" ).getString() );
+        assertTrue( cursor.next() );
+        assertEquals( csn3, cursor.get().getEntry().get( "entryCsn" ).getString() );
+        assertFalse( cursor.next() );
+        cursor.close();
+    }
+
+
+    @Test
+    public void testLogOncePerOperation() throws Exception
+    {
+        AddOperationContext addContext = new AddOperationContext( null );
+        Entry entry = createEntry( "ou=test,ou=system", csnFactory.newInstance().toString() );
+
+        // Each consumer's listener logs the change
+        journal.log( addContext, new ReplicaEventMessage( ChangeType.ADD, entry ), ReplicaJournal.LOCAL_ORIGIN, null );
+        journal.log( addContext, new ReplicaEventMessage( ChangeType.ADD, entry ), ReplicaJournal.LOCAL_ORIGIN, null );
+
+        assertEquals( 1L, journal.count() );
+    }
+
+
+    @Test
+    public void testSelectConsumerMessages() throws Exception
+    {
+        String csn1 = csnFactory.newInstance().toString();
+        String csn2 = csnFactory.newInstance().toString();
+        String csn3 = csnFactory.newInstance().toString();
+        String csn4 = csnFactory.newInstance().toString();
+
+        // A change out of the consumer's base
+        journal.log( null, new ReplicaEventMessage( ChangeType.ADD, createEntry( "ou=test1,ou=schema", csn1 ) ),
+            ReplicaJournal.LOCAL_ORIGIN, null );
+
+        // A change received from the consumer
+        journal.log( null, new ReplicaEventMessage( ChangeType.ADD, createEntry( "ou=test2,ou=system", csn2 ) ),
+            1, null );
+
+        // An entry moved out of the consumer's base
+        journal.log( null, new ReplicaEventMessage( ChangeType.MODDN, createEntry( "ou=test3,ou=schema", csn3 ) ),
+            ReplicaJournal.LOCAL_ORIGIN, new Dn( schemaManager, "ou=test3,ou=system" ) );
+
+        // An entry moved in the consumer's base
+        journal.log( null, new ReplicaEventMessage( ChangeType.MODDN, createEntry( "ou=test4,ou=system", csn4 ) ),
+            ReplicaJournal.LOCAL_ORIGIN, new Dn( schemaManager, "ou=test4,ou=schema" ) );
+
+        ReplicaJournalCursor cursor = createLog( 1, "ou=system" ).getCursor( null );
+
+        assertTrue( cursor.next() );
+        ReplicaEventMessage message = cursor.get();
+        assertEquals( ChangeType.DELETE, message.getChangeType() );
+        assertEquals( new Dn( schemaManager, "ou=test3,ou=system" ), message.getEntry().getDn() );
+        assertFalse( cursor.next() );
+        cursor.close();
+
+        // Another consumer receives the change done by the first one
+        cursor = createLog( 2, "ou=system" ).getCursor( null );
+
+        assertTrue( cursor.next() );
+        assertEquals( csn2, cursor.get().getEntry().get( "entryCsn" ).getString() );
+        assertTrue( cursor.next() );
+        assertEquals( ChangeType.DELETE, cursor.get().getChangeType() );
+        assertFalse( cursor.next() );
+        cursor.close();
+    }
+
+
+    @Test
+    public void testReopen() throws Exception
+    {
+        String[] csns = logMessages( 200 );
+        int nbSegments = journal.getSegmentCount();
+
+        journal.close();
+        journal = new ReplicaJournal( schemaManager, directory, 4096L );
+
+        assertEquals( 200L, journal.count() );
+        assertEquals( nbSegments, journal.getSegmentCount() );
+
+        // Append some more messages to the last segment
+        logMessages( 10 );
+
+        ReplicaJournalCursor cursor = createLog( 1, "ou=system" ).getCursor( csns[199] );
+        int nbRead = 0;
+
+        while ( cursor.next() )
+        {
+            nbRead++;
+        }
+
+        cursor.close();
+
+        assertEquals( 10, nbRead );
+    }
+
+
+    @Test
+    public void testPurge() throws Exception
+    {
+        String[] csns = logMessages( 1000 );
+        int nbSegments = journal.getSegmentCount();
+
+        // The messages are too recent
+        assertEquals( 0L, journal.purge( csns[499], 0L ) );
+
+        long purged = journal.purge( csns[499], Long.MAX_VALUE );
+
+        assertTrue( purged > 0L );
+        assertTrue( purged <= 500L );
+        assertEquals( 1000L - purged, journal.count() );
+        assertTrue( journal.getSegmentCount() < nbSegments );
+
+        // The consumer can still read all the messages it hasn't received
+        ReplicaJournalCursor cursor = createLog( 1, "ou=system" ).getCursor( csns[499] );
+        int pos = 500;
+
+        while ( cursor.next() )
+        {
+            assertEquals( "test" + pos, cursor.get().getEntry().get( "ou" ).getString() );
+            pos++;
+        }
+
+        cursor.close();
+
+        assertEquals( 1000, pos );
+    }
+}
@@ -49,6 +49,9 @@ public class TcpTransport extends AbstractTransport
     /** The list of enabled ciphers */
     private List<String> cipherSuite;
 
+    /** Tells if the requests are processed in virtual threads */
+    private boolean virtualThreads;
+
     /** A logger for this class */
     private static final Logger LOG = LoggerFactory.getLogger( TcpTransport.class );
 
@@ -269,6 +272,28 @@ public class TcpTransport extends AbstractTransport
     }
 
 
+    /**
+     * @return <code>true</code> if the requests are processed in virtual threads
+     */
+    public boolean isVirtualThreads()
+    {
+        return virtualThreads;
+    }
+
+
+    /**
+     * Tells the server to process each request in its own virtual thread, instead of using
+     * a pool of nbThreads threads. The JVM must support virtual threads (Java 21 and above),
+     * otherwise the pool is used.
+     *
+     * @param virtualThreads <code>true</code> to process the requests in virtual threads
+     */
+    public void setVirtualThreads( boolean virtualThreads )
+    {
+        this.virtualThreads = virtualThreads;
+    }
+
+
     /**
      * @see Object#toString()
      */
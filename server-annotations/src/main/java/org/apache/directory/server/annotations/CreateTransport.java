@@ -71,4 +71,8 @@ public @interface CreateTransport
 
     /** @return A flag to tell if the transport should ask for client certificate. Default to false */
     boolean clientAuth() default false;
+
+
+    /** @return A flag to tell if the requests are processed in virtual threads. Default to false */
+    boolean virtualThreads() default false;
 }
\ No newline at end of file
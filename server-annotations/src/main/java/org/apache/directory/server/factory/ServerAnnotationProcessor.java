@@ -420,6 +420,7 @@ public final class ServerAnnotationProcessor
         int backlog = transportBuilder.backlog();
         String address = transportBuilder.address();
         boolean clientAuth = transportBuilder.clientAuth();
+        boolean virtualThreads = transportBuilder.virtualThreads();
         
         if ( Strings.isEmpty( address ) )
         {
@@ -440,14 +441,16 @@ public final class ServerAnnotationProcessor
 
         if ( protocol.equalsIgnoreCase( "TCP" ) || protocol.equalsIgnoreCase( "LDAP" ) )
         {
-            Transport tcp = new TcpTransport( address, port, nbThreads, backlog );
+            TcpTransport tcp = new TcpTransport( address, port, nbThreads, backlog );
+            tcp.setVirtualThreads( virtualThreads );
             return Collections.singletonList( tcp );
         }
         else if ( protocol.equalsIgnoreCase( "LDAPS" ) )
         {
-            Transport tcp = new TcpTransport( address, port, nbThreads, backlog );
+            TcpTransport tcp = new TcpTransport( address, port, nbThreads, backlog );
             tcp.setEnableSSL( true );
-            ( ( TcpTransport ) tcp ).setWantClientAuth( clientAuth );
+            tcp.setWantClientAuth( clientAuth );
+            tcp.setVirtualThreads( virtualThreads );
             return Collections.singletonList( tcp );
         }
         else if ( protocol.equalsIgnoreCase( "UDP" ) )
@@ -39,6 +39,7 @@ import javax.naming.directory.BasicAttributes;
 import javax.naming.directory.DirContext;
 import javax.naming.directory.InitialDirContext;
 
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
 import org.apache.directory.api.ldap.model.exception.LdapAuthenticationException;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.util.Network;
@@ -529,4 +530,51 @@ public class SimpleBindIT extends AbstractLdapTestUnit
         }
     }
 
+
+    /**
+     * Tests that the cached credentials of an entry are dropped when one of its
+     * ancestors is renamed
+     */
+    @Test
+    public void testSimpleBindAfterParentRename() throws Exception
+    {
+        try ( LdapConnection admin = new LdapNetworkConnection( Network.LOOPBACK_HOSTNAME,
+            getLdapServer().getPort() );
+            LdapConnection connection = new LdapNetworkConnection( Network.LOOPBACK_HOSTNAME,
+                getLdapServer().getPort() ) )
+        {
+            admin.bind( "uid=admin,ou=system", "secret" );
+            admin.add( new DefaultEntry( "ou=people,ou=system",
+                "objectClass: top",
+                "objectClass: organizationalUnit",
+                "ou: people" ) );
+            admin.add( new DefaultEntry( "uid=jdoe,ou=people,ou=system",
+                "objectClass: top",
+                "objectClass: person",
+                "objectClass: inetOrgPerson",
+                "uid: jdoe",
+                "cn: John Doe",
+                "sn: Doe",
+                "userPassword: secret" ) );
+
+            // Fill the cache
+            connection.bind( "uid=jdoe,ou=people,ou=system", "secret" );
+            assertTrue( connection.isAuthenticated() );
+
+            admin.rename( "ou=people,ou=system", "ou=staff" );
+
+            try
+            {
+                connection.bind( "uid=jdoe,ou=people,ou=system", "secret" );
+                fail();
+            }
+            catch ( LdapAuthenticationException lae )
+            {
+                // Expected
+            }
+
+            connection.bind( "uid=jdoe,ou=staff,ou=system", "secret" );
+            assertTrue( connection.isAuthenticated() );
+        }
+    }
 }
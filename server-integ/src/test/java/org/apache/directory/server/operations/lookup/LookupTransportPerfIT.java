@@ -0,0 +1,165 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.operations.lookup;
+
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.util.Network;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.apache.directory.ldap.client.api.LdapNetworkConnection;
+import org.apache.directory.server.annotations.CreateLdapServer;
+import org.apache.directory.server.annotations.CreateTransport;
+import org.apache.directory.server.constants.ServerDNConstants;
+import org.apache.directory.server.core.integ.AbstractLdapTestUnit;
+import org.apache.directory.server.core.integ.ApacheDSTestExtension;
+import org.apache.directory.server.protocol.shared.transport.TcpTransport;
+import org.apache.directory.server.protocol.shared.transport.Transport;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+
+/**
+ * Compares the lookup performances when the requests are processed by a pool of threads,
+ * and when they are processed in virtual threads. Many connections are opened, most of them
+ * staying idle.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@ExtendWith( { ApacheDSTestExtension.class } )
+@CreateLdapServer(transports =
+    {
+        @CreateTransport(protocol = "LDAP"),
+        @CreateTransport(protocol = "LDAP", virtualThreads = true)
+    })
+public class LookupTransportPerfIT extends AbstractLdapTestUnit
+{
+    /** The number of connections sending requests */
+    private static final int NB_ACTIVE = 50;
+
+    /** The number of idle connections */
+    private static final int NB_IDLE = 1000;
+
+    /** The number of lookups per active connection */
+    private static final int NB_LOOKUPS = 2000;
+
+
+    /**
+     * Evaluate the lookup operation performances on both transports
+     */
+    @Test
+    public void testLookupPerfTransports() throws Exception
+    {
+        for ( Transport transport : getLdapServer().getTransports() )
+        {
+            // Once to warm up the server, then for real
+            runLookups( transport );
+            runLookups( transport );
+        }
+    }
+
+
+    private void runLookups( Transport transport ) throws Exception
+    {
+        String name = ( ( TcpTransport ) transport ).isVirtualThreads() ? "virtual threads" : "thread pool";
+        List<LdapConnection> idleConnections = new ArrayList<>( NB_IDLE );
+        ExecutorService executor = Executors.newFixedThreadPool( NB_ACTIVE );
+
+        try
+        {
+            for ( int i = 0; i < NB_IDLE; i++ )
+            {
+                idleConnections.add( getAdminConnection( transport ) );
+            }
+
+            List<Future<long[]>> futures = new ArrayList<>( NB_ACTIVE );
+            long t0 = System.currentTimeMillis();
+
+            for ( int i = 0; i < NB_ACTIVE; i++ )
+            {
+                futures.add( executor.submit( () ->
+                {
+                    long[] latencies = new long[NB_LOOKUPS];
+
+                    try ( LdapConnection connection = getAdminConnection( transport ) )
+                    {
+                        for ( int j = 0; j < NB_LOOKUPS; j++ )
+                        {
+                            long start = System.nanoTime();
+                            Entry entry = connection.lookup( "uid=admin,ou=system" );
+                            latencies[j] = System.nanoTime() - start;
+
+                            assertNotNull( entry );
+                        }
+                    }
+
+                    return latencies;
+                } ) );
+            }
+
+            long[] latencies = new long[NB_ACTIVE * NB_LOOKUPS];
+            int pos = 0;
+
+            for ( Future<long[]> future : futures )
+            {
+                long[] connectionLatencies = future.get();
+                System.arraycopy( connectionLatencies, 0, latencies, pos, connectionLatencies.length );
+                pos += connectionLatencies.length;
+            }
+
+            long t1 = System.currentTimeMillis();
+
+            Arrays.sort( latencies );
+
+            System.out.println( name + ", " + NB_ACTIVE + " active and " + NB_IDLE + " idle connections" );
+            System.out.println( "Delta : " + ( t1 - t0 ) + "ms, "
+                + ( latencies.length * 1000L / Math.max( 1L, t1 - t0 ) ) + " lookups/s" );
+            System.out.println( "Latency : p50 " + ( latencies[latencies.length / 2] / 1000L ) + "us, p99 "
+                + ( latencies[latencies.length * 99 / 100] / 1000L ) + "us, max "
+                + ( latencies[latencies.length - 1] / 1000L ) + "us" );
+        }
+        finally
+        {
+            executor.shutdownNow();
+
+            for ( LdapConnection connection : idleConnections )
+            {
+                connection.close();
+            }
+        }
+    }
+
+
+    private LdapConnection getAdminConnection( Transport transport ) throws Exception
+    {
+        LdapConnection connection = new LdapNetworkConnection( Network.LOOPBACK_HOSTNAME, transport.getPort() );
+        connection.bind( ServerDNConstants.ADMIN_SYSTEM_DN, "secret" );
+
+        return connection;
+    }
+}
@@ -284,6 +284,53 @@ public class SortedSearchIT extends AbstractLdapTestUnit
             assertEquals( expectedOrder.get( i ), actualOrder.get( expectedCount - i ) );
         }
     }
+
+
+    /**
+     * Only the first entries are returned when the size limit is exceeded
+     */
+    @Test
+    public void testSortBySnWithSizeLimit() throws Exception
+    {
+        sk.setAttributeTypeDesc( "sn" );
+        req.setSizeLimit( 3 );
+        SearchCursor cursor = con.search( req );
+
+        List<String> expectedOrder = new ArrayList<String>();
+        expectedOrder.add( "uid=person1,ou=parent,ou=system" );
+        expectedOrder.add( "uid=person2,ou=parent,ou=system" );
+        expectedOrder.add( "uid=person3,ou=parent,ou=system" );
+
+        List<String> actualOrder = new ArrayList<String>();
+
+        while ( cursor.next() )
+        {
+            SearchResultEntry se = ( SearchResultEntry ) cursor.get();
+            actualOrder.add( se.getEntry().getDn().getName() );
+        }
+
+        SearchResultDone sd = cursor.getSearchResultDone();
+        cursor.close();
+
+        assertEquals( expectedOrder, actualOrder );
+        assertEquals( ResultCodeEnum.SIZE_LIMIT_EXCEEDED, sd.getLdapResult().getResultCode() );
+
+        // The limit isn't exceeded when all the entries are returned
+        req.setSizeLimit( 14 );
+        cursor = con.search( req );
+        int count = 0;
+
+        while ( cursor.next() )
+        {
+            count++;
+        }
+
+        sd = cursor.getSearchResultDone();
+        cursor.close();
+
+        assertEquals( 14, count );
+        assertEquals( ResultCodeEnum.SUCCESS, sd.getLdapResult().getResultCode() );
+    }
     
     // though "sn" is also multi-valued, the test data has only one value for "sn" in each entry
     // so using "cn" for this test
@@ -35,11 +35,15 @@ import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNotSame;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
 
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.directory.api.ldap.extras.controls.ppolicy.PasswordPolicyErrorEnum;
 import org.apache.directory.api.ldap.extras.controls.ppolicy.PasswordPolicyRequest;
@@ -50,7 +54,10 @@ import org.apache.directory.api.ldap.model.constants.PasswordPolicySchemaConstan
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.Attribute;
 import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
 import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
 import org.apache.directory.api.ldap.model.exception.LdapAuthenticationException;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.message.AddRequest;
@@ -81,6 +88,7 @@ import org.apache.directory.server.core.api.InterceptorEnum;
 import org.apache.directory.server.core.api.authn.ppolicy.CheckQualityEnum;
 import org.apache.directory.server.core.api.authn.ppolicy.PasswordPolicyConfiguration;
 import org.apache.directory.server.core.api.interceptor.Interceptor;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
 import org.apache.directory.server.core.authn.AuthenticationInterceptor;
 import org.apache.directory.server.core.authn.ppolicy.PpolicyConfigContainer;
 import org.apache.directory.server.core.hash.SshaPasswordHashingInterceptor;
@@ -1168,6 +1176,213 @@ public class PasswordPolicyIT extends AbstractLdapTestUnit
     }
 
 
+    /**
+     * Check that the lockout is enforced when the password policy state written by the
+     * binds is delayed, and that it is written when the server is synced.
+     */
+    @Test
+    public void testPwdLockoutWithDelayedStateWrites() throws Exception
+    {
+        policyConfig.setPwdMaxFailure( 3 );
+        policyConfig.setPwdLockout( true );
+
+        AuthenticationInterceptor authenticationInterceptor = ( AuthenticationInterceptor ) getService()
+            .getInterceptor( InterceptorEnum.AUTHENTICATION_INTERCEPTOR.getName() );
+
+        // Long enough for the state not to be written during the test
+        authenticationInterceptor.setPwdPolicyStateFlushDelay( 600000L );
+
+        try
+        {
+            Dn userDn = new Dn( getService().getSchemaManager(), "cn=userDelayedLockout,ou=system" );
+            LdapConnection adminConnection = getAdminNetworkConnection( getLdapServer() );
+
+            addUser( adminConnection, "userDelayedLockout", "12345" );
+
+            LdapConnection userConnection = new LdapNetworkConnection( Network.LOOPBACK_HOSTNAME,
+                ldapServer.getPort() );
+
+            checkBind( userConnection, userDn, "badPassword", 3,
+                "INVALID_CREDENTIALS: Bind failed: ERR_14003_CANNOT_AUTHENTICATE_USER Cannot authenticate user cn=userDelayedLockout,ou=system" );
+
+            // The lockout is only in memory
+            Entry userEntry = adminConnection.lookup( userDn, "+" );
+            assertNull( userEntry.get( PasswordPolicySchemaConstants.PWD_ACCOUNT_LOCKED_TIME_AT ) );
+
+            checkBind( userConnection, userDn, "12345", 1,
+                "INVALID_CREDENTIALS: Bind failed: account was permanently locked" );
+
+            userConnection.close();
+
+            getService().sync();
+
+            userEntry = adminConnection.lookup( userDn, "+" );
+            assertNotNull( userEntry.get( PasswordPolicySchemaConstants.PWD_ACCOUNT_LOCKED_TIME_AT ) );
+            assertEquals( 3, userEntry.get( PasswordPolicySchemaConstants.PWD_FAILURE_TIME_AT ).size() );
+            adminConnection.close();
+        }
+        finally
+        {
+            authenticationInterceptor.setPwdPolicyStateFlushDelay( 0L );
+        }
+    }
+
+
+    /**
+     * Check that no password policy state is lost when the delay before it's written is
+     * changed while some binds are running.
+     */
+    @Test
+    public void testChangeStateFlushDelayWhileBinding() throws Exception
+    {
+        policyConfig.setPwdMaxFailure( 0 );
+        policyConfig.setPwdLockout( false );
+
+        AuthenticationInterceptor authenticationInterceptor = ( AuthenticationInterceptor ) getService()
+            .getInterceptor( InterceptorEnum.AUTHENTICATION_INTERCEPTOR.getName() );
+
+        int nbUsers = 4;
+        int nbBinds = 25;
+        List<Dn> userDns = new ArrayList<>();
+        LdapConnection adminConnection = getAdminNetworkConnection( getLdapServer() );
+
+        for ( int i = 0; i < nbUsers; i++ )
+        {
+            userDns.add( addUser( adminConnection, "userChangeDelay" + i, "12345" ) );
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool( nbUsers );
+        List<Future<?>> binds = new ArrayList<>();
+
+        try
+        {
+            for ( Dn userDn : userDns )
+            {
+                binds.add( executor.submit( () ->
+                {
+                    try ( LdapConnection userConnection = new LdapNetworkConnection( Network.LOOPBACK_HOSTNAME,
+                        ldapServer.getPort() ) )
+                    {
+                        for ( int i = 0; i < nbBinds; i++ )
+                        {
+                            synchronized ( mockTimeProvider )
+                            {
+                                // make sure pwdFailureTime uses a different timestamp
+                                mockTimeProvider.addMillis( 1 );
+                            }
+
+                            try
+                            {
+                                userConnection.bind( userDn, "badPassword" );
+                                fail();
+                            }
+                            catch ( LdapAuthenticationException lae )
+                            {
+                                // Expected
+                            }
+                        }
+                    }
+
+                    return null;
+                } ) );
+            }
+
+            // Change the delay until all the binds are done
+            long[] delays = { 600000L, 20L, 0L };
+            int nbChanges = 0;
+            boolean done = false;
+
+            while ( !done )
+            {
+                authenticationInterceptor.setPwdPolicyStateFlushDelay( delays[nbChanges % delays.length] );
+                nbChanges++;
+                done = true;
+
+                for ( Future<?> bind : binds )
+                {
+                    done &= bind.isDone();
+                }
+            }
+
+            for ( Future<?> bind : binds )
+            {
+                // Throws the bind thread failure, if any
+                bind.get();
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+
+            // Writes the pending state
+            authenticationInterceptor.setPwdPolicyStateFlushDelay( 0L );
+        }
+
+        for ( Dn userDn : userDns )
+        {
+            Entry userEntry = adminConnection.lookup( userDn, "+" );
+            assertEquals( nbBinds, userEntry.get( PasswordPolicySchemaConstants.PWD_FAILURE_TIME_AT ).size() );
+        }
+
+        adminConnection.close();
+    }
+
+
+    /**
+     * Check that a password changed by a replication provider is taken into account by
+     * the next bind, when the policy stores the passwords in another attribute than
+     * userPassword
+     */
+    @Test
+    public void testReplicatedPasswordChange() throws Exception
+    {
+        Dn userDn = new Dn( "cn=userReplicatedPwd,ou=system" );
+
+        // The admin password is in userPassword
+        LdapConnection adminConnection = getAdminNetworkConnection( getLdapServer() );
+        policyConfig.setPwdAttribute( "userPKCS12" );
+
+        adminConnection.add( new DefaultEntry(
+            userDn,
+            "ObjectClass: top",
+            "ObjectClass: inetOrgPerson",
+            "cn: userReplicatedPwd",
+            "sn: userReplicatedPwd_sn",
+            "userPKCS12", Strings.getBytesUtf8( "12345" ) ) );
+
+        // Fill the credential cache
+        LdapConnection userConnection = getNetworkConnectionAs( getLdapServer(), userDn.getName(), "12345" );
+        assertTrue( userConnection.isAuthenticated() );
+        userConnection.close();
+
+        // Change the password the way the replication consumer does
+        List<Modification> modifications = new ArrayList<>();
+        modifications.add( new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE,
+            getService().getSchemaManager().lookupAttributeTypeRegistry( "userPKCS12" ),
+            Strings.getBytesUtf8( "67890" ) ) );
+        ModifyOperationContext modifyContext = new ModifyOperationContext( getService().getAdminSession(),
+            userDn, modifications );
+        modifyContext.setReplEvent( true );
+        getService().getOperationManager().modify( modifyContext );
+
+        try
+        {
+            getNetworkConnectionAs( getLdapServer(), userDn.getName(), "12345" );
+            fail();
+        }
+        catch ( LdapAuthenticationException lae )
+        {
+            // Expected
+        }
+
+        userConnection = getNetworkConnectionAs( getLdapServer(), userDn.getName(), "67890" );
+        assertTrue( userConnection.isAuthenticated() );
+        userConnection.close();
+
+        adminConnection.close();
+    }
+
+
     /**
      * Check that we can't try more than N times to login with a wrong password before
      * being locked. Also check that we have a delay before we can log again.
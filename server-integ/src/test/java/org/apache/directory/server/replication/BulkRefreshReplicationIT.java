@@ -0,0 +1,425 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+
+package org.apache.directory.server.replication;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.util.Network;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.annotations.CreateLdapServer;
+import org.apache.directory.server.annotations.CreateTransport;
+import org.apache.directory.server.core.annotations.ContextEntry;
+import org.apache.directory.server.core.annotations.CreateDS;
+import org.apache.directory.server.core.annotations.CreateIndex;
+import org.apache.directory.server.core.annotations.CreatePartition;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.event.DirectoryListenerAdapter;
+import org.apache.directory.server.core.api.event.EventType;
+import org.apache.directory.server.core.api.event.NotificationCriteria;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.factory.DSAnnotationProcessor;
+import org.apache.directory.server.core.integ.ApacheDSTestExtension;
+import org.apache.directory.server.factory.ServerAnnotationProcessor;
+import org.apache.directory.server.ldap.LdapServer;
+import org.apache.directory.server.ldap.replication.SyncReplConfiguration;
+import org.apache.directory.server.ldap.replication.consumer.ReplicationConsumerImpl;
+import org.apache.directory.server.ldap.replication.consumer.ReplicationStatusEnum;
+import org.apache.directory.server.ldap.replication.provider.SyncReplRequestHandler;
+import org.apache.directory.server.xdbm.Store;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+
+/**
+ * Tests the bulk load of the initial refresh into an empty replica
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class BulkRefreshReplicationIT
+{
+    private static LdapServer providerServer;
+
+    private static DirectoryService consumerService;
+
+    private static SchemaManager schemaManager;
+
+    private static CoreSession providerSession;
+
+    private static CoreSession consumerSession;
+
+    private static AtomicInteger entryCount = new AtomicInteger();
+
+    private static AtomicInteger consumerCount = new AtomicInteger();
+
+    private static final int INSERT_COUNT = 100;
+
+
+    @BeforeAll
+    public static void setUp() throws Exception
+    {
+        Class.forName( ApacheDSTestExtension.class.getName() );
+
+        startProvider();
+
+        for ( int i = 0; i < INSERT_COUNT; i++ )
+        {
+            providerSession.add( createEntry() );
+        }
+
+        startConsumerService();
+    }
+
+
+    @AfterAll
+    public static void tearDown() throws Exception
+    {
+        consumerService.shutdown();
+        providerServer.stop();
+        providerServer.getDirectoryService().shutdown();
+    }
+
+
+    private static Entry createEntry() throws Exception
+    {
+        String user = "user" + entryCount.incrementAndGet();
+
+        String dn = "cn=" + user + ",dc=example,dc=com";
+
+        DefaultEntry entry = new DefaultEntry( schemaManager, dn,
+            "objectClass", "person",
+            "cn", user,
+            "sn", user );
+
+        return entry;
+    }
+
+
+    @CreateDS(
+        allowAnonAccess = true,
+        name = "BulkRefreshReplicationIT-provider-replication",
+        enableChangeLog = false,
+        partitions =
+            {
+                @CreatePartition(
+                    name = "example",
+                    suffix = "dc=example,dc=com",
+                    indexes =
+                        {
+                            @CreateIndex(attribute = "objectClass"),
+                            @CreateIndex(attribute = "dc"),
+                            @CreateIndex(attribute = "ou")
+                    },
+                    contextEntry = @ContextEntry(entryLdif =
+                        "dn: dc=example,dc=com\n" +
+                            "objectClass: domain\n" +
+                            "dc: example"))
+        })
+    @CreateLdapServer(transports =
+        { @CreateTransport(port = -1, protocol = "LDAP") })
+    public static void startProvider() throws Exception
+    {
+        DirectoryService provDirService = DSAnnotationProcessor.getDirectoryService();
+
+        providerServer = ServerAnnotationProcessor.getLdapServer( provDirService );
+        providerServer.setReplicationReqHandler( new SyncReplRequestHandler() );
+        providerServer.startReplicationProducer();
+
+        schemaManager = provDirService.getSchemaManager();
+        providerSession = provDirService.getAdminSession();
+    }
+
+
+    /**
+     * The consumer has an empty replica of the provider's base, and a partition which
+     * doesn't exist on the provider
+     */
+    @CreateDS(
+        allowAnonAccess = true,
+        name = "BulkRefreshReplicationIT-consumer-replication",
+        enableChangeLog = false,
+        partitions =
+            {
+                @CreatePartition(
+                    name = "example",
+                    suffix = "dc=example,dc=com",
+                    indexes =
+                        {
+                            @CreateIndex(attribute = "objectClass"),
+                            @CreateIndex(attribute = "dc"),
+                            @CreateIndex(attribute = "ou")
+                    },
+                    contextEntry = @ContextEntry(entryLdif =
+                        "dn: dc=example,dc=com\n" +
+                            "objectClass: domain\n" +
+                            "dc: example")),
+                @CreatePartition(
+                    name = "missing",
+                    suffix = "dc=missing,dc=com",
+                    contextEntry = @ContextEntry(entryLdif =
+                        "dn: dc=missing,dc=com\n" +
+                            "objectClass: domain\n" +
+                            "dc: missing"))
+        })
+    public static void startConsumerService() throws Exception
+    {
+        consumerService = DSAnnotationProcessor.getDirectoryService();
+        consumerSession = consumerService.getAdminSession();
+    }
+
+
+    /**
+     * Creates a consumer doing a bulk refresh of the given base
+     */
+    private ReplicationConsumerImpl createConsumer( String baseDn ) throws Exception
+    {
+        String consumerId = "consumer" + consumerCount.incrementAndGet();
+        Dn configDn = new Dn( consumerService.getSchemaManager(), "ads-replConsumerId=" + consumerId + ",ou=system" );
+
+        SyncReplConfiguration config = new SyncReplConfiguration();
+        config.setRemoteHost( Network.LOOPBACK_HOSTNAME );
+        config.setRemotePort( providerServer.getPort() );
+        config.setReplUserDn( "uid=admin,ou=system" );
+        config.setReplUserPassword( Strings.getBytesUtf8( "secret" ) );
+        config.setUseTls( false );
+        config.setBaseDn( baseDn );
+        config.setReplicaId( consumerCount.get() );
+        config.setConfigEntryDn( configDn );
+        config.setBulkRefresh( true );
+
+        Entry configEntry = new DefaultEntry( consumerService.getSchemaManager(), configDn,
+            "objectClass: ads-replConsumer",
+            "ads-replConsumerId", consumerId,
+            "ads-searchBaseDN", config.getBaseDn(),
+            "ads-replProvHostName", config.getRemoteHost(),
+            "ads-replProvPort", String.valueOf( config.getRemotePort() ),
+            "ads-replRefreshInterval", String.valueOf( config.getRefreshInterval() ),
+            "ads-replRefreshNPersist", String.valueOf( config.isRefreshNPersist() ),
+            "ads-replSearchScope", config.getSearchScope().getLdapUrlValue(),
+            "ads-replSearchFilter", config.getFilter(),
+            "ads-replSearchSizeLimit", String.valueOf( config.getSearchSizeLimit() ),
+            "ads-replSearchTimeOut", String.valueOf( config.getSearchTimeout() ),
+            "ads-replUserDn", config.getReplUserDn(),
+            "ads-replUserPassword", config.getReplUserPassword() );
+
+        configEntry.put( "ads-replAliasDerefMode", config.getAliasDerefMode().getJndiValue() );
+        configEntry.put( "ads-replAttributes", config.getAttributes() );
+
+        consumerSession.add( configEntry );
+
+        ReplicationConsumerImpl consumer = new ReplicationConsumerImpl();
+        consumer.setConfig( config );
+        consumer.init( consumerService );
+
+        return consumer;
+    }
+
+
+    /**
+     * Launch the consumer in a separated thread.
+     */
+    private void runConsumer( final ReplicationConsumerImpl consumer ) throws Exception
+    {
+        Runnable consumerTask = new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    consumer.connect( true );
+                    consumer.startSync();
+                }
+                catch ( Exception e )
+                {
+                    throw new RuntimeException( e );
+                }
+            }
+        };
+
+        Thread consumerThread = new Thread( consumerTask );
+        consumerThread.setDaemon( true );
+        consumerThread.start();
+    }
+
+
+    /**
+     * Registers a listener counting the entries added below the given base in the consumer
+     */
+    private CountingListener addListener( String base ) throws Exception
+    {
+        CountingListener listener = new CountingListener();
+        NotificationCriteria criteria = new NotificationCriteria( consumerService.getSchemaManager() );
+        criteria.setBase( new Dn( consumerService.getSchemaManager(), base ) );
+        criteria.setScope( SearchScope.SUBTREE );
+        criteria.setEventMask( EventType.ADD );
+        consumerService.getEventService().addListener( listener, criteria );
+
+        return listener;
+    }
+
+
+    private Store getStore( String base ) throws Exception
+    {
+        return ( Store ) consumerService.getPartitionNexus().getPartition(
+            new Dn( consumerService.getSchemaManager(), base ) );
+    }
+
+
+    /**
+     * Wait up to 10 seconds for the given entries to be replicated
+     */
+    private boolean waitUntilRefreshed( List<Dn> dns ) throws Exception
+    {
+        for ( int i = 0; i < 100; i++ )
+        {
+            if ( allExist( dns ) )
+            {
+                return true;
+            }
+
+            Thread.sleep( 100 );
+        }
+
+        return false;
+    }
+
+
+    private boolean allExist( List<Dn> dns ) throws Exception
+    {
+        for ( Dn dn : dns )
+        {
+            if ( !consumerSession.exists( dn ) )
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    /**
+     * The initial refresh is loaded without firing any event, and the entries added
+     * once it's done are notified again
+     */
+    @Test
+    public void testBulkRefresh() throws Exception
+    {
+        List<Dn> dns = new ArrayList<Dn>();
+
+        for ( int i = 1; i <= INSERT_COUNT; i++ )
+        {
+            dns.add( new Dn( schemaManager, "cn=user" + i + ",dc=example,dc=com" ) );
+        }
+
+        CountingListener listener = addListener( "dc=example,dc=com" );
+        Store store = getStore( "dc=example,dc=com" );
+        ReplicationConsumerImpl consumer = createConsumer( "dc=example,dc=com" );
+
+        try
+        {
+            runConsumer( consumer );
+
+            assertTrue( waitUntilRefreshed( dns ) );
+            assertEquals( 0, listener.count.get() );
+
+            // Only the loaded entries skip the flush, the replica is still synced on write
+            assertTrue( store.isSyncOnWrite() );
+
+            // The changes received once the refresh is done go through the whole chain
+            Entry addedEntry = createEntry();
+            providerSession.add( addedEntry );
+            dns.add( addedEntry.getDn() );
+
+            assertTrue( waitUntilRefreshed( dns ) );
+            assertEquals( 1, listener.count.get() );
+        }
+        finally
+        {
+            consumer.stop();
+            consumerService.getEventService().removeListener( listener );
+        }
+    }
+
+
+    /**
+     * The replica is still flushed on disk after each write when the refresh fails
+     */
+    @Test
+    public void testBulkRefreshFailure() throws Exception
+    {
+        CountingListener listener = addListener( "dc=missing,dc=com" );
+        Store store = getStore( "dc=missing,dc=com" );
+        ReplicationConsumerImpl consumer = createConsumer( "dc=missing,dc=com" );
+
+        try
+        {
+            assertTrue( store.isSyncOnWrite() );
+            assertTrue( consumer.connect( true ) );
+
+            // The base doesn't exist on the provider
+            assertEquals( ReplicationStatusEnum.DISCONNECTED, consumer.startSync() );
+
+            assertTrue( store.isSyncOnWrite() );
+            assertEquals( 0, listener.count.get() );
+        }
+        finally
+        {
+            consumer.stop();
+            consumerService.getEventService().removeListener( listener );
+        }
+    }
+
+
+    /**
+     * A synchronous listener counting the added entries
+     */
+    private static class CountingListener extends DirectoryListenerAdapter
+    {
+        private AtomicInteger count = new AtomicInteger();
+
+
+        @Override
+        public void entryAdded( AddOperationContext addContext )
+        {
+            count.incrementAndGet();
+        }
+
+
+        @Override
+        public boolean isSynchronous()
+        {
+            return true;
+        }
+    }
+}
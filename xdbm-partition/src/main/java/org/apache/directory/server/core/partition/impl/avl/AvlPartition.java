@@ -152,6 +152,16 @@ public class AvlPartition extends AbstractBTreePartition
     }
 
 
+    /**
+     * always returns false, cause the AVL tables aren't thread safe
+     */
+    @Override
+    public boolean isConcurrentModifySupported()
+    {
+        return false;
+    }
+
+
     /**
      * Always returns 0 (zero), cause this is a in-memory store
      */
@@ -33,7 +33,9 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
@@ -92,8 +94,10 @@ import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.IndexEntry;
 import org.apache.directory.server.xdbm.IndexNotFoundException;
 import org.apache.directory.server.xdbm.MasterTable;
+import org.apache.directory.server.xdbm.NGramIndex;
 import org.apache.directory.server.xdbm.ParentIdAndRdn;
 import org.apache.directory.server.xdbm.Store;
+import org.apache.directory.server.xdbm.impl.avl.AvlIndex;
 import org.apache.directory.server.xdbm.search.Optimizer;
 import org.apache.directory.server.xdbm.search.PartitionSearchResult;
 import org.apache.directory.server.xdbm.search.SearchEngine;
@@ -207,6 +211,18 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     /** A lock to protect the backend from concurrent reads/writes */
     private ReadWriteLock rwLock;
 
+    /** The number of locks used to protect the entries being modified */
+    private static final int NB_ENTRY_LOCKS = 64;
+
+    /** The locks protecting the entries being modified, striped on the entry ID */
+    private final Lock[] entryLocks = new Lock[NB_ENTRY_LOCKS];
+
+    /** The lock used to serialize the modifications when the partition does not support concurrent writers */
+    private final Lock modifyLock = new ReentrantLock();
+
+    /** A lock protecting the modified entries against concurrent moves and renames */
+    private final ReadWriteLock updateLock = new ReentrantReadWriteLock();
+
     /** a cache to hold ;lt;entryUUID, Dn&gt; pairs, this is used for speeding up the buildEntryDn() method */
     private Cache<String, Dn> entryDnCache;
     
@@ -252,6 +268,11 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     {
         indexedAttributes = new HashSet<>();
 
+        for ( int i = 0; i < NB_ENTRY_LOCKS; i++ )
+        {
+            entryLocks[i] = new ReentrantLock();
+        }
+
         // Initialize Attribute types used all over this method
         objectClassAT = schemaManager.getAttributeType( SchemaConstants.OBJECT_CLASS_AT );
         objectClassNormalizer = objectClassAT.getEquality().getNormalizer();
@@ -474,7 +495,16 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             if ( mr != null )
             {
                 Index<?, String> index = elem.getValue();
-                index = convertAndInit( index );
+
+                if ( index instanceof NGramIndex )
+                {
+                    index = convertAndInitNGrams( ( NGramIndex ) index, attributeType );
+                }
+                else
+                {
+                    index = convertAndInit( index );
+                }
+
                 tmp.put( oid, index );
             }
             else
@@ -487,6 +517,60 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * Initializes a n-gram index : the value index is converted like any other user index,
+     * and the n-grams are stored in an index created by {@link #createGramIndex(AttributeType)}.
+     *
+     * @param index The n-gram index
+     * @param attributeType The indexed AttributeType
+     * @return The initialized index
+     * @throws LdapException If the initialization failed
+     */
+    @SuppressWarnings("unchecked")
+    private Index<?, String> convertAndInitNGrams( NGramIndex index, AttributeType attributeType )
+        throws LdapException
+    {
+        Index<?, String> valueIndex = index.getValueIndex();
+
+        if ( valueIndex == null )
+        {
+            // Let the partition create its default index type
+            valueIndex = index;
+        }
+
+        valueIndex = convertAndInit( valueIndex );
+        Index<String, String> gramIndex = null;
+
+        // We can only compute the n-grams of Strings
+        if ( attributeType.getSyntax().isHumanReadable() )
+        {
+            gramIndex = createGramIndex( attributeType );
+        }
+
+        index.init( attributeType, ( Index<String, String> ) valueIndex, gramIndex );
+
+        return index;
+    }
+
+
+    /**
+     * Creates the index storing the n-grams of a {@link NGramIndex}. Its tables must be named
+     * after the AttributeType OID followed by {@link NGramIndex#NGRAM_SUFFIX}, so that they don't
+     * collide with the value index tables. The default implementation stores the n-grams in memory.
+     *
+     * @param attributeType The indexed AttributeType
+     * @return The initialized n-gram index
+     * @throws LdapException If the index can't be created
+     */
+    protected Index<String, String> createGramIndex( AttributeType attributeType ) throws LdapException
+    {
+        AvlIndex<String> gramIndex = new AvlIndex<>( attributeType.getOid(), false );
+        gramIndex.init( schemaManager, attributeType );
+
+        return gramIndex;
+    }
+
+
     /**
      * Gets the DefaultSearchEngine used by this ContextPartition to search the
      * Database.
@@ -769,6 +853,12 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         assert ( partitionTxn != null );
         assert ( partitionTxn instanceof PartitionWriteTxn );
 
+        if ( !addContext.isSyncOnWrite() )
+        {
+            // The caller flushes the partition once all its entries are added
+            ( ( PartitionWriteTxn ) partitionTxn ).setSyncOnWrite( false );
+        }
+
         try
         {
             setRWLock( addContext );
@@ -1295,6 +1385,16 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
      */
     @Override
     public Entry fetch( PartitionTxn partitionTxn, String id ) throws LdapException
+    {
+        return fetch( partitionTxn, id, ( Set<AttributeType> ) null );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Entry fetch( PartitionTxn partitionTxn, String id, Set<AttributeType> attributeTypes ) throws LdapException
     {
         try
         {
@@ -1307,7 +1407,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             
             Dn dn = buildEntryDn( partitionTxn, id );
 
-            return fetch( partitionTxn, id, dn );
+            return fetch( partitionTxn, id, dn, attributeTypes );
         }
         catch ( Exception e )
         {
@@ -1330,6 +1430,17 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
      */
     @Override
     public Entry fetch( PartitionTxn partitionTxn, String id, Dn dn ) throws LdapException
+    {
+        return fetch( partitionTxn, id, dn, null );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Entry fetch( PartitionTxn partitionTxn, String id, Dn dn, Set<AttributeType> attributeTypes )
+        throws LdapException
     {
         try
         {
@@ -1337,23 +1448,12 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
             if ( entry != null )
             {
-                entry.setDn( dn );
-
+                // The cached entry is shared : it's copied on write, and only the copy is modified
                 entry = new ClonedServerEntry( entry );
+                entry.setDn( dn );
 
                 // Replace the entry's DN with the provided one
-                Attribute entryDnAt = entry.get( entryDnAT );
-                Value dnValue = new Value( entryDnAT, dn.getName(), dn.getNormName() );
-
-                if ( entryDnAt == null )
-                {
-                    entry.add( entryDnAT, dnValue );
-                }
-                else
-                {
-                    entryDnAt.clear();
-                    entryDnAt.add( dnValue );
-                }
+                entry.put( entryDnAT, new Value( entryDnAT, dn.getName(), dn.getNormName() ) );
 
                 return entry;
             }
@@ -1361,7 +1461,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             try
             {
                 rwLock.readLock().lock();
-                entry = master.get( partitionTxn, id );
+                entry = master.get( partitionTxn, id, attributeTypes );
             }
             finally
             {
@@ -1373,8 +1473,11 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 // We have to store the DN in this entry
                 entry.setDn( dn );
 
-                // always store original entry in the cache
-                addToCache( id, entry );
+                // always store original entry in the cache, but not a partial one
+                if ( attributeTypes == null )
+                {
+                    addToCache( id, entry );
+                }
 
                 entry = new ClonedServerEntry( entry );
 
@@ -1395,6 +1498,19 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * {@inheritDoc}
+     * 
+     * The entries are fetched whole by default, a partition has to override this method
+     * if its MasterTable can skip the attributes which are not asked for.
+     */
+    @Override
+    public boolean isPartialFetchSupported()
+    {
+        return false;
+    }
+
+
     //---------------------------------------------------------------------------------------------
     // The Modify operation
     //---------------------------------------------------------------------------------------------
@@ -1432,9 +1548,48 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
      * {@inheritDoc}
      */
     @Override
-    public final synchronized Entry modify( PartitionTxn partitionTxn, Dn dn, Modification... mods ) throws LdapException
+    public final Entry modify( PartitionTxn partitionTxn, Dn dn, Modification... mods ) throws LdapException
+    {
+        // A modification does not change the tree structure : we just have to be protected
+        // against moves and renames, and against a concurrent modification of the same entry
+        updateLock.readLock().lock();
+
+        try
+        {
+            String id = getEntryId( partitionTxn, dn );
+            Lock entryLock = getEntryLock( id );
+
+            entryLock.lock();
+
+            try
+            {
+                return modify( partitionTxn, id, mods );
+            }
+            finally
+            {
+                entryLock.unlock();
+            }
+        }
+        finally
+        {
+            updateLock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Applies the modifications on the entry with the given ID, and updates the indexes.
+     * The caller must hold the lock protecting this entry. Partitions whose tables can't be
+     * updated by concurrent writers may override this method to serialize the updates.
+     *
+     * @param partitionTxn The transaction to use
+     * @param id The entry ID
+     * @param mods The modifications to apply
+     * @return The modified entry
+     * @throws LdapException If the modification failed
+     */
+    protected Entry modify( PartitionTxn partitionTxn, String id, Modification... mods ) throws LdapException
     {
-        String id = getEntryId( partitionTxn, dn );
         Entry entry = master.get( partitionTxn, id );
 
         for ( Modification mod : mods )
@@ -2101,7 +2256,24 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
      * {@inheritDoc}
      */
     @Override
-    public final synchronized void move( PartitionTxn partitionTxn, Dn oldDn, Dn newSuperiorDn, Dn newDn, Entry modifiedEntry )
+    public final void move( PartitionTxn partitionTxn, Dn oldDn, Dn newSuperiorDn, Dn newDn, Entry modifiedEntry )
+        throws LdapException
+    {
+        // A move is a structural change : wait for the pending modifications to be done
+        updateLock.writeLock().lock();
+
+        try
+        {
+            moveEntry( partitionTxn, oldDn, newSuperiorDn, newDn, modifiedEntry );
+        }
+        finally
+        {
+            updateLock.writeLock().unlock();
+        }
+    }
+
+
+    private void moveEntry( PartitionTxn partitionTxn, Dn oldDn, Dn newSuperiorDn, Dn newDn, Entry modifiedEntry )
         throws LdapException
     {
         // Check that the parent Dn exists
@@ -2655,9 +2827,26 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     /**
      * {@inheritDoc}
      */
-    @SuppressWarnings("unchecked")
     @Override
-    public final synchronized void rename( PartitionTxn partitionTxn, Dn dn, Rdn newRdn, boolean deleteOldRdn, Entry entry ) 
+    public final void rename( PartitionTxn partitionTxn, Dn dn, Rdn newRdn, boolean deleteOldRdn, Entry entry ) 
+        throws LdapException
+    {
+        // A rename is a structural change : wait for the pending modifications to be done
+        updateLock.writeLock().lock();
+
+        try
+        {
+            renameEntry( partitionTxn, dn, newRdn, deleteOldRdn, entry );
+        }
+        finally
+        {
+            updateLock.writeLock().unlock();
+        }
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private void renameEntry( PartitionTxn partitionTxn, Dn dn, Rdn newRdn, boolean deleteOldRdn, Entry entry ) 
         throws LdapException
     {
         String oldId = getEntryId( partitionTxn, dn );
@@ -3675,6 +3864,34 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * Get the lock protecting an entry against concurrent modifications. If the partition
+     * does not support concurrent writers, a single lock is shared by all the entries.
+     *
+     * @param id The entry ID
+     * @return The lock to acquire before modifying the entry
+     */
+    private Lock getEntryLock( String id )
+    {
+        if ( !isConcurrentModifySupported() || ( id == null ) )
+        {
+            return modifyLock;
+        }
+
+        return entryLocks[( id.hashCode() & 0x7FFFFFFF ) % NB_ENTRY_LOCKS];
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isConcurrentModifySupported()
+    {
+        return true;
+    }
+
+
     /**
      * updates the cache based on the type of OperationContext
      * 
@@ -3748,7 +3965,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     {
         if ( operationContext.getSession() != null )
         {
-            rwLock = operationContext.getSession().getDirectoryService().getOperationManager().getRWLock();
+            rwLock = operationContext.getSession().getDirectoryService().getOperationManager().getRWLock( this );
         }
         else
         {
@@ -21,6 +21,7 @@ package org.apache.directory.server.core.partition.impl.btree;
 
 
 import java.io.IOException;
+import java.util.Set;
 
 import org.apache.directory.api.ldap.model.constants.Loggers;
 import org.apache.directory.api.ldap.model.cursor.AbstractCursor;
@@ -30,6 +31,7 @@ import org.apache.directory.api.ldap.model.cursor.CursorException;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.xdbm.IndexEntry;
 import org.apache.directory.server.xdbm.search.Evaluator;
@@ -57,6 +59,12 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
     private final Cursor<IndexEntry<String, String>> indexCursor;
     private final Evaluator<? extends ExprNode> evaluator;
 
+    /** The partition the entries are read from */
+    private final AbstractBTreePartition db;
+
+    /** The AttributeTypes to read from the entries, null if they are read whole */
+    private final Set<AttributeType> fetchedAttributes;
+
 
     public EntryCursorAdaptor( PartitionTxn partitionTxn, AbstractBTreePartition db, PartitionSearchResult searchResult )
     {
@@ -67,6 +75,8 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
 
         indexCursor = searchResult.getResultSet();
         evaluator = searchResult.getEvaluator();
+        fetchedAttributes = searchResult.getFetchedAttributes();
+        this.db = db;
         this.partitionTxn = partitionTxn;
     }
 
@@ -174,6 +184,12 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
 
         try
         {
+            if ( ( fetchedAttributes != null ) && ( indexEntry.getEntry() == null ) )
+            {
+                // Read the entry before the evaluators do, skipping the attributes we don't need
+                indexEntry.setEntry( db.fetch( partitionTxn, indexEntry.getId(), fetchedAttributes ) );
+            }
+
             if ( evaluator.evaluate( partitionTxn, indexEntry ) )
             {
                 Entry entry = indexEntry.getEntry();
@@ -52,6 +52,9 @@ public abstract class AbstractIndex<K, E> implements Index<K, E>
     /** A counter used to differ the commit on disk after N operations */
     protected AtomicInteger commitNumber;
 
+    /** The prefix of the index tables names, if it's not the attributeType OID */
+    protected String tableName;
+
 
     /**
      * Creates a new instance of AbstractIndex.
@@ -141,6 +144,34 @@ public abstract class AbstractIndex<K, E> implements Index<K, E>
     }
 
 
+    /**
+     * @return The prefix of the index tables names : the attributeType OID, unless
+     * another name has been set
+     */
+    public String getTableName()
+    {
+        if ( tableName == null )
+        {
+            return attributeType.getOid();
+        }
+
+        return tableName;
+    }
+
+
+    /**
+     * Sets the prefix of the index tables names. This is only needed when we store
+     * more than one index for the same attributeType.
+     *
+     * @param tableName the prefix of the index tables names
+     */
+    public void setTableName( String tableName )
+    {
+        protect( "tableName" );
+        this.tableName = tableName;
+    }
+
+
     /**
      * Protects configuration properties from being set after initialization.
      *
@@ -121,6 +121,15 @@ public abstract class AbstractTable<K, V> implements Table<K, V>
      * {@inheritDoc}
      */
     public long count( PartitionTxn transaction ) throws LdapException
+    {
+        return getCount();
+    }
+
+
+    /**
+     * @return The current number of Tuples in this Table
+     */
+    protected long getCount()
     {
         return count;
     }
@@ -133,7 +142,7 @@ public abstract class AbstractTable<K, V> implements Table<K, V>
     public long greaterThanCount( PartitionTxn transaction, K key ) throws LdapException
     {
         // take a best guess
-        return Math.min( count, 10L );
+        return Math.min( getCount(), 10L );
     }
 
 
@@ -144,7 +153,7 @@ public abstract class AbstractTable<K, V> implements Table<K, V>
     public long lessThanCount( PartitionTxn transaction, K key ) throws LdapException
     {
         // take a best guess
-        return Math.min( count, 10L );
+        return Math.min( getCount(), 10L );
     }
 
 
@@ -166,7 +175,7 @@ public abstract class AbstractTable<K, V> implements Table<K, V>
         StringBuilder sb = new StringBuilder();
 
         sb.append( "Name    : " ).append( name ).append( '\n' );
-        sb.append( "NbElems : " ).append( count ).append( '\n' );
+        sb.append( "NbElems : " ).append( getCount() ).append( '\n' );
         sb.append( "Dups    : " ).append( allowsDuplicates ).append( '\n' );
         sb.append( "Key     : " ).append( keyComparator.getClass().getName() ).append( '\n' );
         sb.append( "Value   : " ).append( valueComparator.getClass().getName() ).append( '\n' );
@@ -20,7 +20,12 @@
 package org.apache.directory.server.xdbm;
 
 
+import java.util.Set;
+
 import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
 
 
 /**
@@ -45,4 +50,18 @@ public interface MasterTable extends Table<String, Entry>
      * @return the current value of this MasterTable's sequence incremented by one
      */
     String getNextId( Entry entry );
+
+
+    /**
+     * Gets an entry, decoding only some of its attributes. An attribute is decoded if its
+     * AttributeType, or one of its superiors, is in the given set. A MasterTable which does
+     * not store the serialized entries may return all the attributes.
+     *
+     * @param transaction The transaction we are running in
+     * @param id the entry UUID
+     * @param attributeTypes the AttributeTypes to decode, or <code>null</code> for all of them
+     * @return the entry, or null if no such entry exists
+     * @throws LdapException if there is a failure to read the underlying Db
+     */
+    Entry get( PartitionTxn transaction, String id, Set<AttributeType> attributeTypes ) throws LdapException;
 }
\ No newline at end of file
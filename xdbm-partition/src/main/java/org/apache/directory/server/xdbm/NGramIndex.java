@@ -0,0 +1,570 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.filter.SubstringNode;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.Normalizer;
+import org.apache.directory.api.ldap.model.schema.PrepareString;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+
+
+/**
+ * An index which stores the n-grams (the substrings of {@link #GRAM_LENGTH} chars) of the
+ * values of an attribute, on top of the values themselves. It's used to find the candidates
+ * for a substring filter without an initial component, like <code>(cn=*smi*)</code>, which
+ * would otherwise need a full scan of the index.
+ * <br>
+ * All the usual index operations are delegated to the value index, which is created by the
+ * Partition like any other user index. The n-grams are stored in a second index, where the
+ * key is the n-gram and the value is the entry ID. The spaces are removed from the values
+ * before the n-grams are computed, so that we don't depend on the way the insignificant spaces
+ * are normalized. The n-grams are then normalized, as the index comparators expect normalized
+ * keys.
+ * <br>
+ * The n-grams only select candidates : they must be evaluated against the filter. An n-gram
+ * index may contain n-grams of removed values, when the value index has no reverse table.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class NGramIndex extends AbstractIndex<String, String>
+{
+    /** The number of chars in a n-gram */
+    public static final int GRAM_LENGTH = 3;
+
+    /** The suffix added to the attributeType OID to name the n-gram index tables */
+    public static final String NGRAM_SUFFIX = "_ngram";
+
+    /** The index storing the values */
+    private Index<String, String> valueIndex;
+
+    /** The index storing the n-grams, null if the attribute isn't human readable */
+    private Index<String, String> gramIndex;
+
+    /** a custom working directory path when specified in configuration */
+    private URI wkDirPath;
+
+
+    /**
+     * Creates a new NGramIndex instance for a given AttributeId. The value index will
+     * be the default index of the Partition.
+     *
+     * @param attributeId The Attribute ID
+     */
+    public NGramIndex( String attributeId )
+    {
+        super( attributeId, true );
+    }
+
+
+    /**
+     * Creates a new NGramIndex instance on top of a given value index.
+     *
+     * @param valueIndex The index storing the values
+     */
+    public NGramIndex( Index<String, String> valueIndex )
+    {
+        super( valueIndex.getAttributeId(), valueIndex.hasReverse() );
+        this.valueIndex = valueIndex;
+        cacheSize = valueIndex.getCacheSize();
+    }
+
+
+    /**
+     * Initializes the index.
+     *
+     * @param attributeType The indexed attributeType
+     * @param valueIndex The initialized index storing the values
+     * @param gramIndex The initialized index storing the n-grams, or null if the attribute isn't
+     * human readable
+     */
+    public void init( AttributeType attributeType, Index<String, String> valueIndex, Index<String, String> gramIndex )
+    {
+        this.attributeType = attributeType;
+        this.valueIndex = valueIndex;
+        this.gramIndex = gramIndex;
+        withReverse = valueIndex.hasReverse();
+
+        if ( attributeId == null )
+        {
+            setAttributeId( attributeType.getName() );
+        }
+
+        initialized = true;
+    }
+
+
+    /**
+     * @return The index storing the values. Before the initialization, it's the configured
+     * value index, if any.
+     */
+    public Index<String, String> getValueIndex()
+    {
+        return valueIndex;
+    }
+
+
+    /**
+     * @return <code>true</code> if the n-grams of the values are stored
+     */
+    public boolean hasGrams()
+    {
+        return gramIndex != null;
+    }
+
+
+    /**
+     * Computes the n-grams of a normalized value, once the spaces have been removed.
+     *
+     * @param value The normalized value
+     * @return The n-grams, an empty set if the value is too short
+     */
+    public static Set<String> getGrams( String value )
+    {
+        Set<String> grams = new HashSet<>();
+
+        if ( value == null )
+        {
+            return grams;
+        }
+
+        StringBuilder sb = new StringBuilder( value.length() );
+
+        for ( int i = 0; i < value.length(); i++ )
+        {
+            char c = value.charAt( i );
+
+            if ( c != ' ' )
+            {
+                sb.append( c );
+            }
+        }
+
+        for ( int i = 0; i + GRAM_LENGTH <= sb.length(); i++ )
+        {
+            grams.add( sb.substring( i, i + GRAM_LENGTH ) );
+        }
+
+        return grams;
+    }
+
+
+    /**
+     * Computes the keys of the n-grams of a normalized value.
+     *
+     * @param value The normalized value
+     * @return The normalized n-grams
+     */
+    private Set<String> getKeys( String value )
+    {
+        Normalizer normalizer = attributeType.getEquality().getNormalizer();
+        Set<String> keys = new HashSet<>();
+
+        for ( String gram : getGrams( value ) )
+        {
+            try
+            {
+                keys.add( normalizer.normalize( gram ) );
+            }
+            catch ( LdapException le )
+            {
+                // This n-gram can't be used as a key : it will be ignored in the filters too
+            }
+        }
+
+        return keys;
+    }
+
+
+    /**
+     * Computes the keys of the n-grams an entry must contain to match a substring filter.
+     *
+     * @param node The substring filter
+     * @return The normalized n-grams, an empty set if no component is long enough
+     * @throws LdapException If a component can't be normalized
+     */
+    public Set<String> getGrams( SubstringNode node ) throws LdapException
+    {
+        Normalizer normalizer = attributeType.getEquality().getNormalizer();
+        Set<String> keys = new HashSet<>();
+
+        if ( node.getInitial() != null )
+        {
+            keys.addAll( getKeys( normalizer.normalize( node.getInitial(),
+                PrepareString.AssertionType.SUBSTRING_INITIAL ) ) );
+        }
+
+        if ( node.getAny() != null )
+        {
+            for ( String any : node.getAny() )
+            {
+                keys.addAll( getKeys( normalizer.normalize( any, PrepareString.AssertionType.SUBSTRING_ANY ) ) );
+            }
+        }
+
+        if ( node.getFinal() != null )
+        {
+            keys.addAll( getKeys( normalizer.normalize( node.getFinal(),
+                PrepareString.AssertionType.SUBSTRING_FINAL ) ) );
+        }
+
+        return keys;
+    }
+
+
+    /**
+     * @param partitionTxn The transaction to use
+     * @param gram The normalized n-gram
+     * @return The number of entries containing the n-gram
+     * @throws LdapException If the count failed
+     */
+    public long gramCount( PartitionTxn partitionTxn, String gram ) throws LdapException
+    {
+        return gramIndex.count( partitionTxn, gram );
+    }
+
+
+    /**
+     * @param partitionTxn The transaction to use
+     * @param gram The normalized n-gram
+     * @return A Cursor on the IDs of the entries containing the n-gram
+     * @throws LdapException If the Cursor can't be created
+     */
+    public Cursor<String> gramCursor( PartitionTxn partitionTxn, String gram ) throws LdapException
+    {
+        return gramIndex.forwardValueCursor( partitionTxn, gram );
+    }
+
+
+    /**
+     * @param partitionTxn The transaction to use
+     * @param gram The normalized n-gram
+     * @param entryId The entry ID
+     * @return <code>true</code> if the entry contains the n-gram
+     * @throws LdapException If the lookup failed
+     */
+    public boolean hasGram( PartitionTxn partitionTxn, String gram, String entryId ) throws LdapException
+    {
+        return gramIndex.forward( partitionTxn, gram, entryId );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setWkDirPath( URI wkDirPath )
+    {
+        protect( "wkDirPath" );
+        this.wkDirPath = wkDirPath;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public URI getWkDirPath()
+    {
+        return wkDirPath;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long count( PartitionTxn partitionTxn ) throws LdapException
+    {
+        return valueIndex.count( partitionTxn );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long count( PartitionTxn partitionTxn, String attrVal ) throws LdapException
+    {
+        return valueIndex.count( partitionTxn, attrVal );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long greaterThanCount( PartitionTxn partitionTxn, String attrVal ) throws LdapException
+    {
+        return valueIndex.greaterThanCount( partitionTxn, attrVal );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long lessThanCount( PartitionTxn partitionTxn, String attrVal ) throws LdapException
+    {
+        return valueIndex.lessThanCount( partitionTxn, attrVal );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String forwardLookup( PartitionTxn partitionTxn, String attrVal ) throws LdapException
+    {
+        return valueIndex.forwardLookup( partitionTxn, attrVal );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String reverseLookup( PartitionTxn partitionTxn, String element ) throws LdapException
+    {
+        return valueIndex.reverseLookup( partitionTxn, element );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void add( PartitionTxn partitionTxn, String attrVal, String entryId ) throws LdapException
+    {
+        valueIndex.add( partitionTxn, attrVal, entryId );
+
+        if ( gramIndex != null )
+        {
+            for ( String key : getKeys( attrVal ) )
+            {
+                gramIndex.add( partitionTxn, key, entryId );
+            }
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void drop( PartitionTxn partitionTxn, String entryId ) throws LdapException
+    {
+        if ( ( gramIndex != null ) && valueIndex.hasReverse() )
+        {
+            Set<String> grams = new HashSet<>();
+
+            try ( Cursor<String> values = valueIndex.reverseValueCursor( partitionTxn, entryId ) )
+            {
+                for ( String value : values )
+                {
+                    grams.addAll( getKeys( value ) );
+                }
+            }
+            catch ( IOException ioe )
+            {
+                throw new LdapOtherException( ioe.getMessage(), ioe );
+            }
+
+            for ( String gram : grams )
+            {
+                gramIndex.drop( partitionTxn, gram, entryId );
+            }
+        }
+
+        valueIndex.drop( partitionTxn, entryId );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void drop( PartitionTxn partitionTxn, String attrVal, String entryId ) throws LdapException
+    {
+        valueIndex.drop( partitionTxn, attrVal, entryId );
+
+        if ( gramIndex == null )
+        {
+            return;
+        }
+
+        Set<String> grams = getKeys( attrVal );
+
+        if ( valueIndex.hasReverse() )
+        {
+            // Keep the n-grams of the remaining values
+            try ( Cursor<String> values = valueIndex.reverseValueCursor( partitionTxn, entryId ) )
+            {
+                for ( String value : values )
+                {
+                    grams.removeAll( getKeys( value ) );
+                }
+            }
+            catch ( IOException ioe )
+            {
+                throw new LdapOtherException( ioe.getMessage(), ioe );
+            }
+        }
+        else if ( !attributeType.isSingleValued() )
+        {
+            // We don't know if another value contains the same n-grams : keep them,
+            // the candidates will be evaluated anyway
+            return;
+        }
+
+        for ( String gram : grams )
+        {
+            gramIndex.drop( partitionTxn, gram, entryId );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<IndexEntry<String, String>> forwardCursor( PartitionTxn partitionTxn ) throws LdapException
+    {
+        return valueIndex.forwardCursor( partitionTxn );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<IndexEntry<String, String>> forwardCursor( PartitionTxn partitionTxn, String key )
+        throws LdapException
+    {
+        return valueIndex.forwardCursor( partitionTxn, key );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<String> reverseValueCursor( PartitionTxn partitionTxn, String entryId ) throws LdapException
+    {
+        return valueIndex.reverseValueCursor( partitionTxn, entryId );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<String> forwardValueCursor( PartitionTxn partitionTxn, String key ) throws LdapException
+    {
+        return valueIndex.forwardValueCursor( partitionTxn, key );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean forward( PartitionTxn partitionTxn, String attrVal ) throws LdapException
+    {
+        return valueIndex.forward( partitionTxn, attrVal );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean forward( PartitionTxn partitionTxn, String attrVal, String entryId ) throws LdapException
+    {
+        return valueIndex.forward( partitionTxn, attrVal, entryId );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean reverse( PartitionTxn partitionTxn, String entryId ) throws LdapException
+    {
+        return valueIndex.reverse( partitionTxn, entryId );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean reverse( PartitionTxn partitionTxn, String entryId, String attrVal ) throws LdapException
+    {
+        return valueIndex.reverse( partitionTxn, entryId, attrVal );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close( PartitionTxn partitionTxn ) throws LdapException, IOException
+    {
+        if ( gramIndex != null )
+        {
+            gramIndex.close( partitionTxn );
+        }
+
+        if ( valueIndex != null )
+        {
+            valueIndex.close( partitionTxn );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isDupsEnabled()
+    {
+        return valueIndex.isDupsEnabled();
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return "NGramIndex<" + attributeId + ">";
+    }
+}
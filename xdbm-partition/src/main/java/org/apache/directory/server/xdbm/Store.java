@@ -374,6 +374,46 @@ public interface Store
     Entry fetch( PartitionTxn partitionTxn, String id, Dn dn ) throws LdapException;
 
 
+    /**
+     * Get back an entry knowing its UUID, with only some of its attributes. An attribute
+     * is read if its AttributeType, or one of its superiors, is in the given set. The
+     * Store may return more attributes, if it has the whole entry at hand.
+     *
+     * @param partitionTxn The transaction to use
+     * @param id The Entry UUID we want to get back
+     * @param attributeTypes The AttributeTypes to read, or <code>null</code> for all of them
+     * @return The found Entry, or null if not found
+     * @throws LdapException If the lookup failed for any reason (except a not found entry)
+     */
+    Entry fetch( PartitionTxn partitionTxn, String id, Set<AttributeType> attributeTypes ) throws LdapException;
+
+
+    /**
+     * Get back an entry knowing its UUID, with only some of its attributes. An attribute
+     * is read if its AttributeType, or one of its superiors, is in the given set. The
+     * Store may return more attributes, if it has the whole entry at hand.
+     *
+     * @param partitionTxn The transaction to use
+     * @param id The Entry UUID we want to get back
+     * @param dn The entry DN
+     * @param attributeTypes The AttributeTypes to read, or <code>null</code> for all of them
+     * @return The found Entry, or null if not found
+     * @throws LdapException If the lookup failed for any reason (except a not found entry)
+     */
+    Entry fetch( PartitionTxn partitionTxn, String id, Dn dn, Set<AttributeType> attributeTypes )
+        throws LdapException;
+
+
+    /**
+     * Tells if the entries can be fetched with only some of their attributes, the other
+     * attributes being skipped without being decoded.
+     *
+     * @return <code>true</code> if fetching some of the entry attributes is cheaper than
+     * fetching the whole entry
+     */
+    boolean isPartialFetchSupported();
+
+
     /**
      * Gets the count of immediate children of the given entry UUID.
      *
@@ -0,0 +1,393 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.util.AbstractSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.UUID;
+
+
+/**
+ * A compact Set of entry IDs. The entry IDs are the entryUUID of the entries, stored
+ * as Strings in the indexes : we store them as two longs in an open addressing table,
+ * which uses around 24 bytes per ID instead of more than 100 bytes for a String in a
+ * HashSet. The IDs which aren't lower case UUIDs are stored in a plain HashSet.
+ * <p>
+ * The IDs can't be removed from the Set. This class is not thread safe.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class UuidSet extends AbstractSet<String>
+{
+    /** The default number of slots. Must be a power of 2 */
+    private static final int DEFAULT_CAPACITY = 64;
+
+    /** The maximum ratio of used slots before we grow the table */
+    private static final float LOAD_FACTOR = 0.75f;
+
+    /** The UUIDs most significant bits */
+    private long[] msbs;
+
+    /** The UUIDs least significant bits */
+    private long[] lsbs;
+
+    /** The used slots */
+    private boolean[] used;
+
+    /** The number of UUIDs stored in the table */
+    private int nbUuids;
+
+    /** The number of UUIDs above which we grow the table */
+    private int threshold;
+
+    /** The IDs which can't be stored as UUIDs */
+    private Set<String> others;
+
+    /** The result of the last parsing */
+    private long parsedMsb;
+    private long parsedLsb;
+
+
+    /**
+     * Creates a new instance of UuidSet
+     */
+    public UuidSet()
+    {
+        allocate( DEFAULT_CAPACITY );
+    }
+
+
+    private void allocate( int capacity )
+    {
+        msbs = new long[capacity];
+        lsbs = new long[capacity];
+        used = new boolean[capacity];
+        threshold = ( int ) ( capacity * LOAD_FACTOR );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean add( String id )
+    {
+        if ( !parse( id ) )
+        {
+            if ( others == null )
+            {
+                others = new HashSet<>();
+            }
+
+            return others.add( id );
+        }
+
+        int slot = find( parsedMsb, parsedLsb );
+
+        if ( used[slot] )
+        {
+            return false;
+        }
+
+        msbs[slot] = parsedMsb;
+        lsbs[slot] = parsedLsb;
+        used[slot] = true;
+        nbUuids++;
+
+        if ( nbUuids > threshold )
+        {
+            grow();
+        }
+
+        return true;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean contains( Object id )
+    {
+        if ( !( id instanceof String ) )
+        {
+            return false;
+        }
+
+        if ( !parse( ( String ) id ) )
+        {
+            return ( others != null ) && others.contains( id );
+        }
+
+        return used[find( parsedMsb, parsedLsb )];
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size()
+    {
+        return nbUuids + ( others == null ? 0 : others.size() );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear()
+    {
+        allocate( DEFAULT_CAPACITY );
+        nbUuids = 0;
+        others = null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Iterator<String> iterator()
+    {
+        return new Iterator<String>()
+        {
+            private int position = nextPosition( -1 );
+
+
+            @Override
+            public boolean hasNext()
+            {
+                return position < positions();
+            }
+
+
+            @Override
+            public String next()
+            {
+                if ( !hasNext() )
+                {
+                    throw new NoSuchElementException();
+                }
+
+                String id = get( position );
+                position = nextPosition( position );
+
+                return id;
+            }
+        };
+    }
+
+
+    /**
+     * @return The number of positions used by {@link #get(int)} : the table slots, followed by
+     * the IDs which aren't UUIDs
+     */
+    int positions()
+    {
+        return used.length + ( others == null ? 0 : others.size() );
+    }
+
+
+    /**
+     * Gets the first position holding an ID after the given one
+     *
+     * @param position The current position, or -1
+     * @return The next position, or {@link #positions()} if there is none
+     */
+    int nextPosition( int position )
+    {
+        int next = position + 1;
+
+        while ( ( next < used.length ) && !used[next] )
+        {
+            next++;
+        }
+
+        return Math.min( next, positions() );
+    }
+
+
+    /**
+     * Gets the last position holding an ID before the given one
+     *
+     * @param position The current position, or {@link #positions()}
+     * @return The previous position, or -1 if there is none
+     */
+    int previousPosition( int position )
+    {
+        int previous = position - 1;
+
+        if ( previous >= used.length )
+        {
+            return previous;
+        }
+
+        while ( ( previous >= 0 ) && !used[previous] )
+        {
+            previous--;
+        }
+
+        return previous;
+    }
+
+
+    /**
+     * Gets the ID stored at a given position
+     *
+     * @param position The position
+     * @return The ID
+     */
+    String get( int position )
+    {
+        if ( position < used.length )
+        {
+            return new UUID( msbs[position], lsbs[position] ).toString();
+        }
+
+        // The IDs which aren't UUIDs are rare : we can afford to iterate on them
+        Iterator<String> iterator = others.iterator();
+
+        for ( int i = used.length; i < position; i++ )
+        {
+            iterator.next();
+        }
+
+        return iterator.next();
+    }
+
+
+    /**
+     * Finds the slot containing a UUID, or the free slot where it should be stored
+     */
+    private int find( long msb, long lsb )
+    {
+        int mask = used.length - 1;
+        int slot = hash( msb, lsb ) & mask;
+
+        while ( used[slot] && ( ( msbs[slot] != msb ) || ( lsbs[slot] != lsb ) ) )
+        {
+            slot = ( slot + 1 ) & mask;
+        }
+
+        return slot;
+    }
+
+
+    private static int hash( long msb, long lsb )
+    {
+        long hash = ( msb ^ lsb ) * 0x9E3779B97F4A7C15L;
+
+        return ( int ) ( hash >>> 32 );
+    }
+
+
+    private void grow()
+    {
+        long[] oldMsbs = msbs;
+        long[] oldLsbs = lsbs;
+        boolean[] oldUsed = used;
+
+        allocate( oldUsed.length * 2 );
+
+        for ( int i = 0; i < oldUsed.length; i++ )
+        {
+            if ( oldUsed[i] )
+            {
+                int slot = find( oldMsbs[i], oldLsbs[i] );
+
+                msbs[slot] = oldMsbs[i];
+                lsbs[slot] = oldLsbs[i];
+                used[slot] = true;
+            }
+        }
+    }
+
+
+    /**
+     * Parses a lower case UUID, the way it's produced by {@link UUID#toString()}, so that
+     * we get back the same String when iterating on the Set.
+     *
+     * @param id The ID to parse
+     * @return <code>true</code> if the ID is a lower case UUID
+     */
+    private boolean parse( String id )
+    {
+        if ( ( id == null ) || ( id.length() != 36 ) )
+        {
+            return false;
+        }
+
+        long msb = 0L;
+        long lsb = 0L;
+        int nbDigits = 0;
+
+        for ( int i = 0; i < 36; i++ )
+        {
+            char c = id.charAt( i );
+
+            if ( ( i == 8 ) || ( i == 13 ) || ( i == 18 ) || ( i == 23 ) )
+            {
+                if ( c != '-' )
+                {
+                    return false;
+                }
+
+                continue;
+            }
+
+            int digit;
+
+            if ( ( c >= '0' ) && ( c <= '9' ) )
+            {
+                digit = c - '0';
+            }
+            else if ( ( c >= 'a' ) && ( c <= 'f' ) )
+            {
+                digit = c - 'a' + 10;
+            }
+            else
+            {
+                return false;
+            }
+
+            if ( nbDigits < 16 )
+            {
+                msb = ( msb << 4 ) | digit;
+            }
+            else
+            {
+                lsb = ( lsb << 4 ) | digit;
+            }
+
+            nbDigits++;
+        }
+
+        parsedMsb = msb;
+        parsedLsb = lsb;
+
+        return true;
+    }
+}
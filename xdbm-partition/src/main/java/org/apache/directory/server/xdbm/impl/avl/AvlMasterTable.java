@@ -21,9 +21,13 @@ package org.apache.directory.server.xdbm.impl.avl;
 
 
 import java.util.Comparator;
+import java.util.Set;
 import java.util.UUID;
 
 import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.xdbm.MasterTable;
 
 
@@ -49,4 +53,15 @@ public class AvlMasterTable extends AvlTable<String, Entry> implements MasterTab
     {
         return UUID.randomUUID().toString();
     }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Entry get( PartitionTxn transaction, String id, Set<AttributeType> attributeTypes ) throws LdapException
+    {
+        // The entries are not serialized, they are returned whole
+        return get( transaction, id );
+    }
 }
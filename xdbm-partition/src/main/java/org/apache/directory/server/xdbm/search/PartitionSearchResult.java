@@ -22,9 +22,11 @@ package org.apache.directory.server.xdbm.search;
 
 import java.util.Set;
 
+import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.cursor.SetCursor;
 import org.apache.directory.api.ldap.model.filter.ExprNode;
 import org.apache.directory.api.ldap.model.message.AliasDerefMode;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.server.xdbm.IndexEntry;
 
@@ -32,7 +34,7 @@ import org.apache.directory.server.xdbm.IndexEntry;
 /**
  * A class containing the result of a search :
  * <ul>
- * <li>A set of candidate UUIDs</li>
+ * <li>A set, or a stream, of candidate UUIDs</li>
  * <li>A set of aliased entry if we have any</li>
  * <li>A flag telling if we are dereferencing aliases or not</li>
  * <li>A hierarchy of evaluators to use to validate the candidates</li>
@@ -41,8 +43,11 @@ import org.apache.directory.server.xdbm.IndexEntry;
  */
 public class PartitionSearchResult
 {
-    /** The set of candidate UUIDs selected by the search */
-    private SetCursor<IndexEntry<String, String>> resultSet;
+    /** The candidate UUIDs selected by the search */
+    private Cursor<IndexEntry<String, String>> resultSet;
+
+    /** Tells if the candidates are read from the indexes while the result set is browsed */
+    private boolean streamed;
 
     /** The set of candidate UUIDs */
     private Set<String> candidateSet;
@@ -56,6 +61,9 @@ public class PartitionSearchResult
     /** The SchemaManager */
     private SchemaManager schemaManager;
 
+    /** The AttributeTypes to read from the candidate entries, null if they are read whole */
+    private Set<AttributeType> fetchedAttributes;
+
 
     /**
      * Create a PartitionSearchResult instance
@@ -71,18 +79,41 @@ public class PartitionSearchResult
     /**
      * @return the resultSet
      */
-    public SetCursor<IndexEntry<String, String>> getResultSet()
+    public Cursor<IndexEntry<String, String>> getResultSet()
     {
         return resultSet;
     }
 
 
+    /**
+     * @return <code>true</code> if the candidates are streamed from the indexes instead of being
+     * stored in a Set
+     */
+    public boolean isStreamed()
+    {
+        return streamed;
+    }
+
+
     /**
      * @param set the resultSet to set
      */
     public void setResultSet( Set<IndexEntry<String, String>> set )
     {
         resultSet = new SetCursor<>( set );
+        streamed = false;
+    }
+
+
+    /**
+     * @param cursor A Cursor on the candidates
+     * @param streamed <code>true</code> if the Cursor reads the candidates from the indexes, 
+     * <code>false</code> if they have already been gathered
+     */
+    public void setResultSet( Cursor<IndexEntry<String, String>> cursor, boolean streamed )
+    {
+        resultSet = cursor;
+        this.streamed = streamed;
     }
 
 
@@ -185,6 +216,24 @@ public class PartitionSearchResult
     }
 
 
+    /**
+     * @return the AttributeTypes to read from the candidate entries, or null if they are read whole
+     */
+    public Set<AttributeType> getFetchedAttributes()
+    {
+        return fetchedAttributes;
+    }
+
+
+    /**
+     * @param fetchedAttributes the AttributeTypes to read from the candidate entries
+     */
+    public void setFetchedAttributes( Set<AttributeType> fetchedAttributes )
+    {
+        this.fetchedAttributes = fetchedAttributes;
+    }
+
+
     /**
      * @see Object#toString()
      */
@@ -200,6 +249,11 @@ public class PartitionSearchResult
         {
             sb.append( "No UUID found" );
         }
+        else if ( isStreamed() )
+        {
+            // Don't consume the candidates
+            sb.append( "Streamed UUIDs" );
+        }
         else
         {
             sb.append( '{' );
@@ -0,0 +1,270 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.search.cursor;
+
+
+import java.io.IOException;
+
+import org.apache.directory.api.ldap.model.constants.Loggers;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.xdbm.AbstractIndexCursor;
+import org.apache.directory.server.xdbm.IndexEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A Cursor streaming the candidates IDs read from an index Cursor, without storing them.
+ * The wrapped Cursor must not return the same ID twice. It can be browsed forward, or
+ * backward for a LessEq filter, starting from a given position.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class CandidateCursor<K> extends AbstractIndexCursor<String>
+{
+    /** A dedicated log for cursors */
+    private static final Logger LOG_CURSOR = LoggerFactory.getLogger( Loggers.CURSOR_LOG.getName() );
+
+    /** Speedup for logs */
+    private static final boolean IS_DEBUG = LOG_CURSOR.isDebugEnabled();
+
+    /** The wrapped index Cursor */
+    private final Cursor<IndexEntry<K, String>> wrapped;
+
+    /** The element the wrapped Cursor is positioned on before the first candidate, if any */
+    private final IndexEntry<K, String> start;
+
+    /** Tells if we browse the wrapped Cursor backward */
+    private final boolean reverse;
+
+    /** The current candidate */
+    private IndexEntry<String, String> current;
+
+
+    /**
+     * Creates a new instance of CandidateCursor, streaming all the elements of an index Cursor.
+     *
+     * @param partitionTxn The transaction to use
+     * @param wrapped The index Cursor
+     */
+    public CandidateCursor( PartitionTxn partitionTxn, Cursor<IndexEntry<K, String>> wrapped )
+    {
+        this( partitionTxn, wrapped, null, false );
+    }
+
+
+    /**
+     * Creates a new instance of CandidateCursor, streaming the elements of an index Cursor
+     * found after (or before, if reverse is true) a given element.
+     *
+     * @param partitionTxn The transaction to use
+     * @param wrapped The index Cursor
+     * @param start The element to start from
+     * @param reverse If the wrapped Cursor should be browsed backward
+     */
+    public CandidateCursor( PartitionTxn partitionTxn, Cursor<IndexEntry<K, String>> wrapped,
+        IndexEntry<K, String> start, boolean reverse )
+    {
+        this.partitionTxn = partitionTxn;
+        this.wrapped = wrapped;
+        this.start = start;
+        this.reverse = reverse;
+
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Creating CandidateCursor {}", this );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected String getUnsupportedMessage()
+    {
+        return UNSUPPORTED_MSG;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void beforeFirst() throws LdapException, CursorException
+    {
+        checkNotClosed();
+        setAvailable( false );
+        current = null;
+
+        if ( start == null )
+        {
+            wrapped.beforeFirst();
+        }
+        else if ( reverse )
+        {
+            wrapped.after( start );
+        }
+        else
+        {
+            wrapped.before( start );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void afterLast() throws LdapException, CursorException
+    {
+        throw new UnsupportedOperationException( getUnsupportedMessage() );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean first() throws LdapException, CursorException
+    {
+        beforeFirst();
+
+        return next();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean last() throws LdapException, CursorException
+    {
+        throw new UnsupportedOperationException( getUnsupportedMessage() );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean next() throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        boolean hasNext = reverse ? wrapped.previous() : wrapped.next();
+
+        if ( hasNext )
+        {
+            current = new IndexEntry<>();
+            current.setId( wrapped.get().getId() );
+        }
+        else
+        {
+            current = null;
+        }
+
+        return setAvailable( hasNext );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public IndexEntry<String, String> get() throws CursorException
+    {
+        checkNotClosed();
+
+        return current;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Closing CandidateCursor {}", this );
+        }
+
+        wrapped.close();
+
+        super.close();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close( Exception cause ) throws IOException
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Closing CandidateCursor {}", this );
+        }
+
+        wrapped.close( cause );
+
+        super.close( cause );
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString( String tabs )
+    {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append( tabs ).append( "CandidateCursor (" );
+
+        if ( available() )
+        {
+            sb.append( "available)" );
+        }
+        else
+        {
+            sb.append( "absent)" );
+        }
+
+        if ( reverse )
+        {
+            sb.append( " reverse" );
+        }
+
+        sb.append( " :\n" );
+
+        sb.append( wrapped.toString( tabs + "    " ) );
+
+        return sb.toString();
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    public String toString()
+    {
+        return toString( "" );
+    }
+}
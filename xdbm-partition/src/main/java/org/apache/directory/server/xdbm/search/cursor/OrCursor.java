@@ -22,7 +22,6 @@ package org.apache.directory.server.xdbm.search.cursor;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -36,6 +35,7 @@ import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.xdbm.AbstractIndexCursor;
 import org.apache.directory.server.xdbm.IndexEntry;
+import org.apache.directory.server.xdbm.UuidSet;
 import org.apache.directory.server.xdbm.search.Evaluator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -92,7 +92,7 @@ public class OrCursor<V> extends AbstractIndexCursor<V>
 
         for ( int i = 0; i < cursors.size(); i++ )
         {
-            this.blacklists.add( new HashSet<String>() );
+            this.blacklists.add( new UuidSet() );
         }
 
         this.cursorIndex = 0;
@@ -0,0 +1,408 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.search.cursor;
+
+
+import java.io.IOException;
+
+import org.apache.directory.api.ldap.model.constants.Loggers;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.partition.impl.btree.IndexCursorAdaptor;
+import org.apache.directory.server.xdbm.AbstractIndexCursor;
+import org.apache.directory.server.xdbm.Index;
+import org.apache.directory.server.xdbm.IndexEntry;
+import org.apache.directory.server.xdbm.Store;
+import org.apache.directory.server.xdbm.UuidSet;
+import org.apache.directory.server.xdbm.UuidSetCursor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A Cursor returning the candidates in the order of the keys of a user index, so that
+ * the entries don't have to be sorted when a Sort control is used. The IDs are read from
+ * the index forward B-tree, and the candidates which don't have the indexed attribute
+ * are returned last, or first when the order is reversed, as
+ * <a href="http://tools.ietf.org/html/rfc2891">RFC 2891</a> considers a missing value
+ * as larger than any other value.
+ * <p>
+ * An entry having many values is returned once, for its lowest value : we can't use
+ * this Cursor in reverse order for a multi-valued attribute. This Cursor can only be
+ * browsed forward.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SortedCandidateCursor extends AbstractIndexCursor<String>
+{
+    /** A dedicated log for cursors */
+    private static final Logger LOG_CURSOR = LoggerFactory.getLogger( Loggers.CURSOR_LOG.getName() );
+
+    /** Speedup for logs */
+    private static final boolean IS_DEBUG = LOG_CURSOR.isDebugEnabled();
+
+    /** The store */
+    private final Store db;
+
+    /** The index used to sort the candidates */
+    private final Index<Object, String> index;
+
+    /** The OID of the indexed attribute */
+    private final String attributeOid;
+
+    /** Tells if we browse the index backward */
+    private final boolean reverse;
+
+    /** The candidates, or null if all the entries are candidates */
+    private final UuidSet candidates;
+
+    /** The IDs already returned, when an entry may be found more than once in the index */
+    private final UuidSet seen;
+
+    /** The Cursor on the index */
+    private Cursor<IndexEntry<Object, String>> indexCursor;
+
+    /** The Cursor on the candidates which may not have the indexed attribute */
+    private Cursor<IndexEntry<String, String>> unindexedCursor;
+
+    /** Tells if we are done with the first part of the candidates */
+    private boolean secondPart;
+
+    /** The current candidate */
+    private IndexEntry<String, String> current;
+
+
+    /**
+     * Creates a new instance of SortedCandidateCursor.
+     *
+     * @param partitionTxn The transaction to use
+     * @param db The store
+     * @param index The index used to sort the candidates
+     * @param reverse If the candidates are sorted in reverse order
+     * @param candidates The candidates, or <code>null</code> if all the entries are candidates
+     */
+    @SuppressWarnings("unchecked")
+    public SortedCandidateCursor( PartitionTxn partitionTxn, Store db, Index<?, String> index, boolean reverse,
+        UuidSet candidates )
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Creating SortedCandidateCursor {}", this );
+        }
+
+        this.partitionTxn = partitionTxn;
+        this.db = db;
+        this.index = ( Index<Object, String> ) index;
+        this.attributeOid = index.getAttribute().getOid();
+        this.reverse = reverse;
+        this.candidates = candidates;
+
+        if ( index.getAttribute().isSingleValued() )
+        {
+            seen = null;
+        }
+        else
+        {
+            seen = new UuidSet();
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected String getUnsupportedMessage()
+    {
+        return UNSUPPORTED_MSG;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void beforeFirst() throws LdapException, CursorException
+    {
+        checkNotClosed();
+        setAvailable( false );
+        current = null;
+        secondPart = false;
+
+        if ( seen != null )
+        {
+            seen.clear();
+        }
+
+        try
+        {
+            closeCursors();
+        }
+        catch ( IOException ioe )
+        {
+            throw new CursorException( ioe.getMessage(), ioe );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void afterLast() throws LdapException, CursorException
+    {
+        throw new UnsupportedOperationException( getUnsupportedMessage() );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean first() throws LdapException, CursorException
+    {
+        beforeFirst();
+
+        return next();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean last() throws LdapException, CursorException
+    {
+        throw new UnsupportedOperationException( getUnsupportedMessage() );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean next() throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        String id = null;
+
+        if ( !secondPart )
+        {
+            id = reverse ? nextUnindexed() : nextIndexed();
+            secondPart = id == null;
+        }
+
+        if ( secondPart )
+        {
+            id = reverse ? nextIndexed() : nextUnindexed();
+        }
+
+        if ( id == null )
+        {
+            current = null;
+
+            return setAvailable( false );
+        }
+
+        current = new IndexEntry<>();
+        current.setId( id );
+
+        return setAvailable( true );
+    }
+
+
+    /**
+     * Reads the next candidate from the index
+     */
+    private String nextIndexed() throws LdapException, CursorException
+    {
+        if ( indexCursor == null )
+        {
+            indexCursor = index.forwardCursor( partitionTxn );
+
+            if ( reverse )
+            {
+                indexCursor.afterLast();
+            }
+        }
+
+        while ( reverse ? indexCursor.previous() : indexCursor.next() )
+        {
+            String id = indexCursor.get().getId();
+
+            if ( ( candidates != null ) && !candidates.contains( id ) )
+            {
+                continue;
+            }
+
+            // The entry may have already been found for a lower value
+            if ( ( seen != null ) && !seen.add( id ) )
+            {
+                continue;
+            }
+
+            return id;
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Reads the next candidate which does not have the indexed attribute
+     */
+    @SuppressWarnings("unchecked")
+    private String nextUnindexed() throws LdapException, CursorException
+    {
+        if ( unindexedCursor == null )
+        {
+            if ( candidates != null )
+            {
+                unindexedCursor = new UuidSetCursor( partitionTxn, candidates );
+            }
+            else
+            {
+                unindexedCursor = new IndexCursorAdaptor( partitionTxn, db.getMasterTable().cursor(), true );
+            }
+        }
+
+        while ( unindexedCursor.next() )
+        {
+            String id;
+
+            if ( candidates != null )
+            {
+                id = unindexedCursor.get().getId();
+            }
+            else
+            {
+                // Here, the indexEntry contains a <UUID, Entry> tuple : we just need the UUID
+                id = unindexedCursor.get().getKey();
+            }
+
+            if ( !db.getPresenceIndex().forward( partitionTxn, attributeOid, id ) )
+            {
+                return id;
+            }
+        }
+
+        return null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public IndexEntry<String, String> get() throws CursorException
+    {
+        checkNotClosed();
+
+        return current;
+    }
+
+
+    private void closeCursors() throws IOException
+    {
+        if ( indexCursor != null )
+        {
+            indexCursor.close();
+            indexCursor = null;
+        }
+
+        if ( unindexedCursor != null )
+        {
+            unindexedCursor.close();
+            unindexedCursor = null;
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Closing SortedCandidateCursor {}", this );
+        }
+
+        closeCursors();
+
+        super.close();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close( Exception cause ) throws IOException
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Closing SortedCandidateCursor {}", this );
+        }
+
+        closeCursors();
+
+        super.close( cause );
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString( String tabs )
+    {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append( tabs ).append( "SortedCandidateCursor (" );
+
+        if ( available() )
+        {
+            sb.append( "available)" );
+        }
+        else
+        {
+            sb.append( "absent)" );
+        }
+
+        sb.append( " on " ).append( index );
+
+        if ( reverse )
+        {
+            sb.append( " reverse" );
+        }
+
+        sb.append( '\n' );
+
+        return sb.toString();
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    public String toString()
+    {
+        return toString( "" );
+    }
+}
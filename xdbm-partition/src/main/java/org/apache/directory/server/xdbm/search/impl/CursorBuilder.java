@@ -21,12 +21,14 @@ package org.apache.directory.server.xdbm.search.impl;
 
 
 import java.io.IOException;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.regex.Pattern;
 
 import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.SetCursor;
 import org.apache.directory.api.ldap.model.entry.Value;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.exception.LdapOtherException;
@@ -40,6 +42,7 @@ import org.apache.directory.api.ldap.model.filter.NotNode;
 import org.apache.directory.api.ldap.model.filter.OrNode;
 import org.apache.directory.api.ldap.model.filter.PresenceNode;
 import org.apache.directory.api.ldap.model.filter.ScopeNode;
+import org.apache.directory.api.ldap.model.filter.SimpleNode;
 import org.apache.directory.api.ldap.model.filter.SubstringNode;
 import org.apache.directory.api.ldap.model.message.SearchScope;
 import org.apache.directory.api.ldap.model.name.Dn;
@@ -49,18 +52,23 @@ import org.apache.directory.api.ldap.model.schema.MatchingRule;
 import org.apache.directory.api.ldap.model.schema.Normalizer;
 import org.apache.directory.api.ldap.model.schema.PrepareString;
 import org.apache.directory.api.ldap.model.schema.normalizers.NoOpNormalizer;
+import org.apache.directory.api.util.Strings;
 import org.apache.directory.api.util.exception.NotImplementedException;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.xdbm.Index;
+import org.apache.directory.server.xdbm.EmptyIndexCursor;
 import org.apache.directory.server.xdbm.IndexEntry;
 import org.apache.directory.server.xdbm.IndexNotFoundException;
+import org.apache.directory.server.xdbm.NGramIndex;
 import org.apache.directory.server.xdbm.ParentIdAndRdn;
 import org.apache.directory.server.xdbm.SingletonIndexCursor;
 import org.apache.directory.server.xdbm.Store;
 import org.apache.directory.server.xdbm.search.PartitionSearchResult;
+import org.apache.directory.server.xdbm.search.cursor.AllEntriesCursor;
 import org.apache.directory.server.xdbm.search.cursor.ApproximateCursor;
+import org.apache.directory.server.xdbm.search.cursor.CandidateCursor;
 import org.apache.directory.server.xdbm.search.cursor.ChildrenCursor;
 import org.apache.directory.server.xdbm.search.cursor.DescendantCursor;
 import org.apache.directory.server.xdbm.search.evaluator.ApproximateEvaluator;
@@ -167,6 +175,258 @@ public class CursorBuilder
     }
 
 
+    /**
+     * Builds a Cursor streaming the candidates for a filter, without storing them. This is
+     * only possible when the candidates are read from a single index Cursor which does not
+     * return the same ID twice. When a deduplication is needed (OR filters, multi-valued
+     * ranges, alias dereferencing...), we return null, and the candidates have to be
+     * computed using the {@link #build(PartitionTxn, ExprNode, PartitionSearchResult)} method.
+     *
+     * @param partitionTxn The transaction to use
+     * @param node The filter
+     * @param searchResult The search result, giving the alias dereferencing mode
+     * @return A Cursor over the candidates, or null if they can't be streamed
+     * @throws LdapException If the Cursor can't be created
+     */
+    public Cursor<IndexEntry<String, String>> buildStream( PartitionTxn partitionTxn, ExprNode node,
+        PartitionSearchResult searchResult ) throws LdapException
+    {
+        Object count = node.get( DefaultOptimizer.COUNT_ANNOTATION );
+
+        if ( ( count != null ) && ( ( Long ) count ) == 0L )
+        {
+            return new EmptyIndexCursor<>( partitionTxn );
+        }
+
+        try
+        {
+            switch ( node.getAssertionType() )
+            {
+                case EQUALITY:
+                    return streamEquality( partitionTxn, ( EqualityNode<?> ) node );
+
+                case GREATEREQ:
+                    return streamRange( partitionTxn, ( GreaterEqNode<?> ) node, false );
+
+                case LESSEQ:
+                    return streamRange( partitionTxn, ( LessEqNode<?> ) node, true );
+
+                case PRESENCE:
+                    return streamPresence( partitionTxn, ( PresenceNode ) node );
+
+                case SCOPE:
+                    return streamScope( partitionTxn, ( ScopeNode ) node, searchResult );
+
+                case AND:
+                    return streamAnd( partitionTxn, ( AndNode ) node, searchResult );
+
+                case NOT:
+                    if ( computeNot( ( NotNode ) node, searchResult ) == 0L )
+                    {
+                        return new EmptyIndexCursor<>( partitionTxn );
+                    }
+
+                    return new AllEntriesCursor( partitionTxn, db );
+
+                case UNDEFINED:
+                    return new AllEntriesCursor( partitionTxn, db );
+
+                default:
+                    // APPROXIMATE and SUBSTRING may return the same ID more than once,
+                    // OR has to merge its children candidates
+                    return null;
+            }
+        }
+        catch ( IndexNotFoundException | CursorException e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+    }
+
+
+    /**
+     * Streams the candidates for an Equality filter, using the attribute index if any.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> Cursor<IndexEntry<String, String>> streamEquality( PartitionTxn partitionTxn, EqualityNode<T> node )
+        throws LdapException, IndexNotFoundException
+    {
+        Set<String> thisCandidates = ( Set<String> ) node.get( DefaultOptimizer.CANDIDATES_ANNOTATION_KEY );
+
+        if ( thisCandidates != null )
+        {
+            // The optimizer has already fetched the few candidates
+            Set<IndexEntry<String, String>> candidates = new HashSet<>();
+
+            for ( String candidate : thisCandidates )
+            {
+                IndexEntry<String, String> indexEntry = new IndexEntry<>();
+                indexEntry.setId( candidate );
+                candidates.add( indexEntry );
+            }
+
+            return new SetCursor<>( candidates );
+        }
+
+        AttributeType attributeType = node.getAttributeType();
+
+        if ( !db.hasIndexOn( attributeType ) )
+        {
+            return new AllEntriesCursor( partitionTxn, db );
+        }
+
+        Index<T, String> userIndex = ( Index<T, String> ) db.getIndex( attributeType );
+
+        return new CandidateCursor<>( partitionTxn,
+            userIndex.forwardCursor( partitionTxn, ( T ) node.getValue().getNormalized() ) );
+    }
+
+
+    /**
+     * Streams the candidates for a GreaterEq or a LessEq filter. A multi-valued attribute
+     * may have more than one value in the range, so we can only stream the candidates for
+     * single-valued attributes.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> Cursor<IndexEntry<String, String>> streamRange( PartitionTxn partitionTxn, SimpleNode<?> node,
+        boolean lessEq ) throws LdapException, IndexNotFoundException, CursorException
+    {
+        AttributeType attributeType = node.getAttributeType();
+
+        if ( !db.hasIndexOn( attributeType ) )
+        {
+            return new AllEntriesCursor( partitionTxn, db );
+        }
+
+        if ( !attributeType.isSingleValued() )
+        {
+            return null;
+        }
+
+        Index<T, String> userIndex = ( Index<T, String> ) db.getIndex( attributeType );
+        Cursor<IndexEntry<T, String>> userIdxCursor = userIndex.forwardCursor( partitionTxn );
+
+        // Position the index on the element we should start from
+        IndexEntry<T, String> indexEntry = new IndexEntry<>();
+        indexEntry.setKey( ( T ) node.getValue().getString() );
+
+        if ( lessEq )
+        {
+            userIdxCursor.after( indexEntry );
+        }
+        else
+        {
+            userIdxCursor.before( indexEntry );
+        }
+
+        return new CandidateCursor<>( partitionTxn, userIdxCursor, indexEntry, lessEq );
+    }
+
+
+    /**
+     * Streams the candidates for a Presence filter, using the presence index if the
+     * attribute is indexed.
+     */
+    private Cursor<IndexEntry<String, String>> streamPresence( PartitionTxn partitionTxn, PresenceNode node )
+        throws LdapException
+    {
+        AttributeType attributeType = node.getAttributeType();
+
+        if ( !db.hasIndexOn( attributeType ) )
+        {
+            return new AllEntriesCursor( partitionTxn, db );
+        }
+
+        return new CandidateCursor<>( partitionTxn,
+            db.getPresenceIndex().forwardCursor( partitionTxn, attributeType.getOid() ) );
+    }
+
+
+    /**
+     * Streams the candidates for a Scope filter. An alias may lead to an entry already
+     * in the scope, so we don't stream the candidates when we are dereferencing aliases.
+     */
+    private Cursor<IndexEntry<String, String>> streamScope( PartitionTxn partitionTxn, ScopeNode node,
+        PartitionSearchResult searchResult ) throws LdapException, CursorException
+    {
+        if ( searchResult.isDerefAlways() || searchResult.isDerefInSearching() )
+        {
+            return null;
+        }
+
+        String baseId = node.getBaseId();
+
+        if ( node.getScope() == SearchScope.ONELEVEL )
+        {
+            Cursor<IndexEntry<ParentIdAndRdn, String>> rdnCursor = db.getRdnIndex().forwardCursor( partitionTxn );
+
+            IndexEntry<ParentIdAndRdn, String> startingPos = new IndexEntry<>();
+            startingPos.setKey( new ParentIdAndRdn( baseId, ( Rdn[] ) null ) );
+            rdnCursor.before( startingPos );
+
+            return new CandidateCursor<>( partitionTxn, new ChildrenCursor( partitionTxn, db, baseId, rdnCursor ) );
+        }
+
+        // If we are searching from the partition DN, read the whole MasterTable
+        String contextEntryId = db.getEntryId( partitionTxn, ( ( Partition ) db ).getSuffixDn() );
+
+        if ( contextEntryId.equals( baseId ) )
+        {
+            return new AllEntriesCursor( partitionTxn, db );
+        }
+
+        ParentIdAndRdn parentIdAndRdn = db.getRdnIndex().reverseLookup( partitionTxn, baseId );
+        IndexEntry<ParentIdAndRdn, String> startingPos = new IndexEntry<>();
+
+        startingPos.setKey( parentIdAndRdn );
+        startingPos.setId( baseId );
+
+        Cursor<IndexEntry<ParentIdAndRdn, String>> rdnCursor = new SingletonIndexCursor<>( partitionTxn, 
+            startingPos );
+
+        return new CandidateCursor<>( partitionTxn, new DescendantCursor( partitionTxn, db, baseId,
+            parentIdAndRdn.getParentId(), rdnCursor ) );
+    }
+
+
+    /**
+     * Streams the candidates of the AND filter child having the smallest scan count. The
+     * other children are checked by the evaluator.
+     */
+    private Cursor<IndexEntry<String, String>> streamAnd( PartitionTxn partitionTxn, AndNode node,
+        PartitionSearchResult searchResult ) throws LdapException
+    {
+        int minIndex = 0;
+        long minValue = Long.MAX_VALUE;
+        final List<ExprNode> children = node.getChildren();
+
+        for ( int i = 0; i < children.size(); i++ )
+        {
+            Object count = children.get( i ).get( DefaultOptimizer.COUNT_ANNOTATION );
+
+            if ( count == null )
+            {
+                continue;
+            }
+
+            long value = ( Long ) count;
+
+            if ( value == 0L )
+            {
+                return new EmptyIndexCursor<>( partitionTxn );
+            }
+
+            if ( value < minValue )
+            {
+                minValue = value;
+                minIndex = i;
+            }
+        }
+
+        return buildStream( partitionTxn, children.get( minIndex ), searchResult );
+    }
+
+
     /**
      * Computes the set of candidates for an Approximate filter. We will feed the set only if
      * we have an index for the AT.
@@ -619,6 +879,19 @@ public class CursorBuilder
         if ( db.hasIndexOn( attributeType ) )
         {
             Index<String, String> userIndex = ( Index<String, String> ) db.getIndex( attributeType );
+
+            // Without an initial component, the n-grams spare us a full index scan
+            if ( ( userIndex instanceof NGramIndex ) && ( ( NGramIndex ) userIndex ).hasGrams()
+                && Strings.isEmpty( node.getInitial() ) )
+            {
+                Set<String> grams = ( ( NGramIndex ) userIndex ).getGrams( node );
+
+                if ( !grams.isEmpty() )
+                {
+                    return computeNGrams( partitionTxn, ( NGramIndex ) userIndex, grams, searchResult );
+                }
+            }
+
             Cursor<IndexEntry<String, String>> cursor = userIndex.forwardCursor( partitionTxn );
 
             // Position the index on the element we should start from
@@ -722,6 +995,65 @@ public class CursorBuilder
     }
 
 
+    /**
+     * Computes the set of candidates for a Substring filter from the n-grams of its components :
+     * we browse the entries containing the rarest n-gram, and keep those containing all the
+     * other n-grams. The candidates still have to be evaluated against the filter.
+     */
+    private long computeNGrams( PartitionTxn partitionTxn, NGramIndex index, Set<String> grams,
+        PartitionSearchResult searchResult ) throws LdapException, CursorException, IOException
+    {
+        String rarest = null;
+        long minCount = Long.MAX_VALUE;
+
+        for ( String gram : grams )
+        {
+            long count = index.gramCount( partitionTxn, gram );
+
+            if ( count < minCount )
+            {
+                minCount = count;
+                rarest = gram;
+            }
+        }
+
+        if ( minCount == 0L )
+        {
+            // One of the n-grams is not present : no candidate
+            return 0L;
+        }
+
+        grams.remove( rarest );
+
+        Set<String> uuidSet = searchResult.getCandidateSet();
+        long nbResults = 0L;
+        try ( Cursor<String> cursor = index.gramCursor( partitionTxn, rarest ) )
+        {
+            while ( cursor.next() )
+            {
+                String uuid = cursor.get();
+                boolean matched = true;
+
+                for ( String gram : grams )
+                {
+                    if ( !index.hasGram( partitionTxn, gram, uuid ) )
+                    {
+                        matched = false;
+                        break;
+                    }
+                }
+
+                if ( matched && uuidSet.add( uuid ) )
+                {
+                    nbResults++;
+                }
+            }
+        }
+
+        return nbResults;
+    }
+
+
     /**
      * Creates a OrCursor over a disjunction expression branch node.
      *
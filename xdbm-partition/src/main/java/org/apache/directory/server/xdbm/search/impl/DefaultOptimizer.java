@@ -51,6 +51,7 @@ import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.IndexNotFoundException;
+import org.apache.directory.server.xdbm.NGramIndex;
 import org.apache.directory.server.xdbm.Store;
 import org.apache.directory.server.xdbm.search.Optimizer;
 
@@ -405,7 +406,8 @@ public class DefaultOptimizer implements Optimizer
      * Get a scan count based on a Substring node : we will count the entries that are greater
      * than ABC where the filter is (attr=ABC*). Any other filter won't be evaluated (for instance,
      * a filter like (attr=*ABC) will resolve to a full scan atm - we could have created a reverted
-     * index for such a case -, and filters like (attr=*ABC*) also esolve to a full scan).
+     * index for such a case -, and filters like (attr=*ABC*) also esolve to a full scan), unless
+     * the index is a {@link NGramIndex} : we then count the entries containing the rarest n-gram.
      * 
      * @param node The substring node
      * @return The number of candidates
@@ -421,6 +423,16 @@ public class DefaultOptimizer implements Optimizer
 
             if ( Strings.isEmpty( initial ) )
             {
+                if ( ( idx instanceof NGramIndex ) && ( ( NGramIndex ) idx ).hasGrams() )
+                {
+                    long count = getNGramScan( partitionTxn, ( NGramIndex ) idx, node );
+
+                    if ( count < Long.MAX_VALUE )
+                    {
+                        return count;
+                    }
+                }
+
                 // Not a (attr=ABC*) filter : full index scan
                 return idx.count( partitionTxn );
             }
@@ -437,6 +449,28 @@ public class DefaultOptimizer implements Optimizer
     }
 
 
+    /**
+     * Get a scan count based on the n-grams of a Substring node : the number of entries
+     * containing the rarest n-gram.
+     *
+     * @param index The n-gram index
+     * @param node The substring node
+     * @return The number of candidates, or Long.MAX_VALUE if no component is long enough
+     * @throws LdapException If there is an error accessing the index
+     */
+    private long getNGramScan( PartitionTxn partitionTxn, NGramIndex index, SubstringNode node ) throws LdapException
+    {
+        long minCount = Long.MAX_VALUE;
+
+        for ( String gram : index.getGrams( node ) )
+        {
+            minCount = Math.min( minCount, index.gramCount( partitionTxn, gram ) );
+        }
+
+        return minCount;
+    }
+
+
     /**
      * Gets the total number of entries within the database index if one is 
      * available otherwise the count of all the entries within the database is
@@ -20,34 +20,54 @@
 package org.apache.directory.server.xdbm.search.impl;
 
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.ListCursor;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.exception.LdapNoSuchObjectException;
 import org.apache.directory.api.ldap.model.exception.LdapOtherException;
 import org.apache.directory.api.ldap.model.filter.AndNode;
+import org.apache.directory.api.ldap.model.filter.BranchNode;
 import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.filter.LeafNode;
 import org.apache.directory.api.ldap.model.filter.ObjectClassNode;
 import org.apache.directory.api.ldap.model.filter.ScopeNode;
+import org.apache.directory.api.ldap.model.filter.UndefinedNode;
 import org.apache.directory.api.ldap.model.message.AliasDerefMode;
 import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.message.controls.SortKey;
+import org.apache.directory.api.ldap.model.message.controls.SortRequest;
 import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.AttributeTypeOptions;
+import org.apache.directory.api.ldap.model.schema.LdapComparator;
+import org.apache.directory.api.ldap.model.schema.MatchingRule;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.constants.ApacheSchemaConstants;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.core.partition.impl.btree.IndexCursorAdaptor;
 import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.IndexEntry;
+import org.apache.directory.server.xdbm.IndexNotFoundException;
 import org.apache.directory.server.xdbm.Store;
+import org.apache.directory.server.xdbm.UuidSet;
+import org.apache.directory.server.xdbm.UuidSetCursor;
 import org.apache.directory.server.xdbm.search.Evaluator;
 import org.apache.directory.server.xdbm.search.Optimizer;
 import org.apache.directory.server.xdbm.search.PartitionSearchResult;
 import org.apache.directory.server.xdbm.search.SearchEngine;
+import org.apache.directory.server.xdbm.search.cursor.SortedCandidateCursor;
 import org.apache.directory.server.xdbm.search.evaluator.BaseLevelScopeEvaluator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -76,6 +96,29 @@ public class DefaultSearchEngine implements SearchEngine
     /** creates evaluators which check to see if candidates satisfy a filter expression */
     private final EvaluatorBuilder evaluatorBuilder;
 
+    /**
+     * We browse the index to sort the candidates when they are at least 1/SORTED_SCAN_RATIO
+     * of the indexed entries. Otherwise, sorting the candidates is cheaper.
+     */
+    private static final long SORTED_SCAN_RATIO = 10L;
+
+    /** Tells if the candidates can be streamed from the indexes, instead of being gathered first */
+    private boolean streaming = false;
+
+    /** The attributes the interceptors check on the returned entries, whatever the requested attributes */
+    private static final String[] CHECKED_ATTRIBUTES =
+        {
+            SchemaConstants.OBJECT_CLASS_AT,
+            SchemaConstants.ENTRY_UUID_AT,
+            SchemaConstants.ENTRY_CSN_AT,
+            SchemaConstants.REF_AT,
+            SchemaConstants.ALIASED_OBJECT_NAME_AT,
+            SchemaConstants.ENTRY_ACI_AT,
+            SchemaConstants.COLLECTIVE_EXCLUSIONS_AT,
+            ApacheSchemaConstants.ACCESS_CONTROL_SUBENTRIES_AT,
+            SchemaConstants.COLLECTIVE_ATTRIBUTE_SUBENTRIES_AT
+        };
+
 
     // ------------------------------------------------------------------------
     // C O N S T R U C T O R S
@@ -111,6 +154,29 @@ public class DefaultSearchEngine implements SearchEngine
     }
 
 
+    /**
+     * @return <code>true</code> if the candidates are streamed from the indexes when possible
+     */
+    public boolean isStreaming()
+    {
+        return streaming;
+    }
+
+
+    /**
+     * Enables or disables the streaming of the candidates. When enabled, the index Cursors are
+     * read while the search result is consumed, so this should only be set for a backend whose
+     * Cursors aren't impacted by a concurrent modification of the indexes. Otherwise, all the
+     * candidates are read before the first entry is returned.
+     *
+     * @param streaming <code>true</code> if the candidates can be streamed from the indexes
+     */
+    public void setStreaming( boolean streaming )
+    {
+        this.streaming = streaming;
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -128,6 +194,7 @@ public class DefaultSearchEngine implements SearchEngine
 
         // Prepare the instance containing the search result
         PartitionSearchResult searchResult = new PartitionSearchResult( schemaManager );
+        searchResult.setFetchedAttributes( getFetchedAttributes( schemaManager, searchContext ) );
         Set<IndexEntry<String, String>> resultSet = new HashSet<>();
 
         // Check that we have an entry, otherwise we can immediately get out
@@ -193,7 +260,8 @@ public class DefaultSearchEngine implements SearchEngine
             indexEntry.setId( effectiveBaseId );
 
             // Fetch the entry, as we have only one
-            Entry entry = db.fetch( partitionTxn, indexEntry.getId(), effectiveBase );
+            Entry entry = db.fetch( partitionTxn, indexEntry.getId(), effectiveBase,
+                searchResult.getFetchedAttributes() );
 
             Evaluator<? extends ExprNode> evaluator;
 
@@ -244,25 +312,57 @@ public class DefaultSearchEngine implements SearchEngine
         // Annotate the node with the optimizer and return search enumeration.
         optimizer.annotate( partitionTxn, root );
         Evaluator<? extends ExprNode> evaluator = evaluatorBuilder.build( partitionTxn, root );
-
-        Set<String> uuidSet = new HashSet<>();
         searchResult.setAliasDerefMode( aliasDerefMode );
+        searchResult.setEvaluator( evaluator );
+
+        // Check if we can use an index to return the entries in the order requested by a Sort control
+        Index<?, String> sortIndex = getSortIndex( schemaManager, searchContext );
+
+        if ( streaming && ( sortIndex == null ) )
+        {
+            // Try to stream the candidates, instead of storing them all
+            Cursor<IndexEntry<String, String>> candidates = cursorBuilder.buildStream( partitionTxn, root, searchResult );
+
+            if ( candidates != null )
+            {
+                LOG.debug( "Streaming the candidates for filter : {}", root );
+                searchResult.setResultSet( candidates, true );
+
+                return searchResult;
+            }
+        }
+
+        // Store the candidates in a compact Set, instead of a Set of Strings
+        UuidSet uuidSet = new UuidSet();
         searchResult.setCandidateSet( uuidSet );
 
         long nbResults = cursorBuilder.build( partitionTxn, root, searchResult );
 
         LOG.debug( "Nb results : {} for filter : {}", nbResults, root );
 
-        if ( nbResults < Long.MAX_VALUE )
+        // Browsing the index is only worth it if the filter selects a good part of it
+        if ( ( sortIndex != null )
+            && ( ( nbResults == Long.MAX_VALUE ) || ( nbResults * SORTED_SCAN_RATIO >= sortIndex.count( partitionTxn ) ) ) )
         {
-            for ( String uuid : uuidSet )
+            SortKey sortKey = ( ( SortRequest ) searchContext.getRequestControl( SortRequest.OID ) ).getSortKeys().get( 0 );
+            Cursor<IndexEntry<String, String>> candidates = new SortedCandidateCursor( partitionTxn, db, sortIndex,
+                sortKey.isReverseOrder(), nbResults == Long.MAX_VALUE ? null : uuidSet );
+
+            LOG.debug( "Sorting the candidates using the {} index", sortIndex.getAttributeId() );
+
+            if ( !streaming )
             {
-                IndexEntry<String, String> indexEntry = new IndexEntry<>();
-                indexEntry.setId( uuid );
-                resultSet.add( indexEntry );
+                // The index can't be browsed once we have released the lock, read the sorted IDs now
+                candidates = readSortedCandidates( candidates );
             }
+
+            searchContext.setSorted( true );
+            searchResult.setResultSet( candidates, streaming );
+
+            return searchResult;
         }
-        else
+
+        if ( nbResults == Long.MAX_VALUE )
         {
             // Full scan : use the MasterTable
             Cursor<IndexEntry<String, String>> cursor = new IndexCursorAdaptor( partitionTxn, db.getMasterTable().cursor(), true );
@@ -271,15 +371,8 @@ public class DefaultSearchEngine implements SearchEngine
             {
                 while ( cursor.next() )
                 {
-                    IndexEntry<String, String> indexEntry = cursor.get();
-    
-                    // Here, the indexEntry contains a <UUID, Entry> tuple. Convert it to <UUID, UUID>
-                    IndexEntry<String, String> forwardIndexEntry = new IndexEntry<>();
-                    forwardIndexEntry.setKey( indexEntry.getKey() );
-                    forwardIndexEntry.setId( indexEntry.getKey() );
-                    forwardIndexEntry.setEntry( null );
-    
-                    resultSet.add( forwardIndexEntry );
+                    // Here, the indexEntry contains a <UUID, Entry> tuple : we just need the UUID
+                    uuidSet.add( cursor.get().getKey() );
                 }
             }
             catch ( CursorException ce )
@@ -289,12 +382,202 @@ public class DefaultSearchEngine implements SearchEngine
         }
 
         searchResult.setEvaluator( evaluator );
-        searchResult.setResultSet( resultSet );
+
+        // The IndexEntries will be created while browsing the candidates
+        searchResult.setResultSet( new UuidSetCursor( partitionTxn, uuidSet ), false );
 
         return searchResult;
     }
 
 
+    /**
+     * Gets the AttributeTypes to read from the candidate entries : the requested ones, the ones
+     * used by the filter and the Sort control, and the ones the interceptors check on every
+     * returned entry. Returns null when the entries have to be read whole.
+     */
+    private Set<AttributeType> getFetchedAttributes( SchemaManager schemaManager, SearchOperationContext searchContext )
+    {
+        if ( !db.isPartialFetchSupported() || searchContext.isAllUserAttributes()
+            || searchContext.isAllOperationalAttributes() || ( searchContext.getReturningAttributes() == null ) )
+        {
+            return null;
+        }
+
+        Set<AttributeType> attributeTypes = new HashSet<>();
+
+        if ( !collectFilterAttributes( searchContext.getFilter(), attributeTypes ) )
+        {
+            return null;
+        }
+
+        for ( AttributeTypeOptions attributeTypeOptions : searchContext.getReturningAttributes() )
+        {
+            attributeTypes.add( attributeTypeOptions.getAttributeType() );
+        }
+
+        SortRequest sortRequest = ( SortRequest ) searchContext.getRequestControl( SortRequest.OID );
+
+        if ( sortRequest != null )
+        {
+            for ( SortKey sortKey : sortRequest.getSortKeys() )
+            {
+                AttributeType attributeType = schemaManager.getAttributeType( sortKey.getAttributeTypeDesc() );
+
+                if ( attributeType != null )
+                {
+                    attributeTypes.add( attributeType );
+                }
+            }
+        }
+
+        for ( String attributeId : CHECKED_ATTRIBUTES )
+        {
+            AttributeType attributeType = schemaManager.getAttributeType( attributeId );
+
+            if ( attributeType != null )
+            {
+                attributeTypes.add( attributeType );
+            }
+        }
+
+        return attributeTypes;
+    }
+
+
+    /**
+     * Adds the AttributeTypes used by a filter to the given set. Returns false if the filter
+     * uses a node which may need any attribute of the entry.
+     */
+    private boolean collectFilterAttributes( ExprNode node, Set<AttributeType> attributeTypes )
+    {
+        if ( node instanceof BranchNode )
+        {
+            for ( ExprNode child : ( ( BranchNode ) node ).getChildren() )
+            {
+                if ( !collectFilterAttributes( child, attributeTypes ) )
+                {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        if ( node instanceof LeafNode )
+        {
+            AttributeType attributeType = ( ( LeafNode ) node ).getAttributeType();
+
+            if ( attributeType == null )
+            {
+                return false;
+            }
+
+            attributeTypes.add( attributeType );
+
+            return true;
+        }
+
+        return ( node instanceof ObjectClassNode ) || ( node instanceof ScopeNode ) || ( node instanceof UndefinedNode );
+    }
+
+
+    /**
+     * Gets the user index which can be used to return the entries in the order requested by the
+     * Sort control, if any. The index forward B-tree is ordered by the equality matching rule
+     * comparator, so the requested ordering must use the same comparator.
+     */
+    private Index<?, String> getSortIndex( SchemaManager schemaManager, SearchOperationContext searchContext )
+        throws LdapException
+    {
+        SortRequest sortRequest = ( SortRequest ) searchContext.getRequestControl( SortRequest.OID );
+
+        if ( ( sortRequest == null ) || ( sortRequest.getSortKeys().size() != 1 ) )
+        {
+            return null;
+        }
+
+        SortKey sortKey = sortRequest.getSortKeys().get( 0 );
+        AttributeType attributeType = schemaManager.getAttributeType( sortKey.getAttributeTypeDesc() );
+
+        if ( ( attributeType == null ) || ( attributeType.getEquality() == null )
+            || !db.hasUserIndexOn( attributeType ) )
+        {
+            return null;
+        }
+
+        // An entry is sorted using its lowest value, which is not the first one we find
+        // when browsing the index backward
+        if ( sortKey.isReverseOrder() && !attributeType.isSingleValued() )
+        {
+            return null;
+        }
+
+        String mrId = sortKey.getMatchingRuleId();
+
+        if ( mrId == null )
+        {
+            MatchingRule matchingRule = attributeType.getOrdering();
+
+            if ( matchingRule == null )
+            {
+                matchingRule = attributeType.getEquality();
+            }
+
+            mrId = matchingRule.getOid();
+        }
+
+        try
+        {
+            LdapComparator<?> comparator = schemaManager.lookupComparatorRegistry( mrId );
+
+            if ( comparator.getClass() != attributeType.getEquality().getLdapComparator().getClass() )
+            {
+                return null;
+            }
+        }
+        catch ( LdapException le )
+        {
+            // Unknown matching rule, the Sort control will be rejected
+            return null;
+        }
+
+        try
+        {
+            return db.getUserIndex( attributeType );
+        }
+        catch ( IndexNotFoundException infe )
+        {
+            throw new LdapOtherException( infe.getMessage(), infe );
+        }
+    }
+
+
+    /**
+     * Reads all the sorted candidates, so that we don't keep a Cursor on the index
+     */
+    private Cursor<IndexEntry<String, String>> readSortedCandidates( Cursor<IndexEntry<String, String>> cursor )
+        throws LdapException
+    {
+        List<IndexEntry<String, String>> candidates = new ArrayList<>();
+
+        try
+        {
+            while ( cursor.next() )
+            {
+                candidates.add( cursor.get() );
+            }
+
+            cursor.close();
+        }
+        catch ( CursorException | IOException e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+
+        return new ListCursor<>( candidates );
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -0,0 +1,158 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import org.apache.directory.api.util.Strings;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+
+
+/**
+ * Tests the UuidSet and the UuidSetCursor.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@Execution(ExecutionMode.CONCURRENT)
+public class UuidSetTest
+{
+    @Test
+    public void testAddContains()
+    {
+        UuidSet uuids = new UuidSet();
+        Set<String> expected = new HashSet<>();
+
+        // Enough UUIDs to grow the table a few times
+        for ( int i = 0; i < 1000; i++ )
+        {
+            String uuid = UUID.randomUUID().toString();
+            assertTrue( uuids.add( uuid ) );
+            expected.add( uuid );
+        }
+
+        assertEquals( 1000, uuids.size() );
+
+        for ( String uuid : expected )
+        {
+            assertTrue( uuids.contains( uuid ) );
+            assertFalse( uuids.add( uuid ) );
+        }
+
+        assertFalse( uuids.contains( UUID.randomUUID().toString() ) );
+        assertEquals( expected, uuids );
+        assertEquals( expected, new HashSet<>( uuids ) );
+    }
+
+
+    @Test
+    public void testNonUuids()
+    {
+        UuidSet uuids = new UuidSet();
+        String uuid = UUID.randomUUID().toString();
+
+        assertTrue( uuids.add( uuid ) );
+        assertTrue( uuids.add( Strings.toUpperCaseAscii( uuid ) ) );
+        assertTrue( uuids.add( "1" ) );
+        assertTrue( uuids.add( "0000000g-0000-0000-0000-000000000000" ) );
+        assertFalse( uuids.add( "1" ) );
+
+        assertEquals( 4, uuids.size() );
+        assertTrue( uuids.contains( Strings.toUpperCaseAscii( uuid ) ) );
+        assertTrue( uuids.contains( "1" ) );
+        assertFalse( uuids.contains( "2" ) );
+        assertFalse( uuids.contains( null ) );
+
+        Set<String> expected = new HashSet<>();
+        expected.add( uuid );
+        expected.add( Strings.toUpperCaseAscii( uuid ) );
+        expected.add( "1" );
+        expected.add( "0000000g-0000-0000-0000-000000000000" );
+
+        assertEquals( expected, new HashSet<>( uuids ) );
+
+        uuids.clear();
+
+        assertEquals( 0, uuids.size() );
+        assertFalse( uuids.contains( uuid ) );
+        assertFalse( uuids.contains( "1" ) );
+    }
+
+
+    @Test
+    public void testCursor() throws Exception
+    {
+        UuidSet uuids = new UuidSet();
+
+        for ( int i = 0; i < 100; i++ )
+        {
+            uuids.add( UUID.randomUUID().toString() );
+        }
+
+        uuids.add( "1" );
+        uuids.add( "2" );
+
+        UuidSetCursor cursor = new UuidSetCursor( null, uuids );
+        Set<String> forward = new HashSet<>();
+
+        while ( cursor.next() )
+        {
+            assertTrue( forward.add( cursor.get().getId() ) );
+        }
+
+        assertFalse( cursor.available() );
+        assertEquals( uuids, forward );
+
+        Set<String> backward = new HashSet<>();
+
+        while ( cursor.previous() )
+        {
+            assertTrue( backward.add( cursor.get().getId() ) );
+        }
+
+        assertEquals( uuids, backward );
+
+        assertTrue( cursor.first() );
+        String first = cursor.get().getId();
+        assertTrue( cursor.next() );
+        assertTrue( cursor.previous() );
+        assertEquals( first, cursor.get().getId() );
+        assertFalse( cursor.previous() );
+
+        assertTrue( cursor.last() );
+        assertFalse( cursor.next() );
+
+        cursor.close();
+
+        // An empty Set
+        cursor = new UuidSetCursor( null, new UuidSet() );
+        assertFalse( cursor.first() );
+        assertFalse( cursor.last() );
+        cursor.close();
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.search.impl;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.filter.FilterParser;
+import org.apache.directory.api.ldap.model.filter.SubstringNode;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.Normalizer;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.FileUtils;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.MockCoreSession;
+import org.apache.directory.server.core.api.MockDirectoryService;
+import org.apache.directory.server.core.api.LdapPrincipal;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.partition.impl.avl.AvlPartition;
+import org.apache.directory.server.xdbm.IndexEntry;
+import org.apache.directory.server.xdbm.NGramIndex;
+import org.apache.directory.server.xdbm.StoreUtils;
+import org.apache.directory.server.xdbm.impl.avl.AvlIndex;
+import org.apache.directory.server.xdbm.search.Evaluator;
+import org.apache.directory.server.xdbm.search.PartitionSearchResult;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+
+
+/**
+ * Tests the substring filters evaluated with a n-gram index.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@Execution(ExecutionMode.SAME_THREAD)
+public class NGramIndexTest extends AbstractCursorTest
+{
+    File wkdir;
+
+
+    @BeforeAll
+    public static void setup() throws Exception
+    {
+        // setup the standard registries
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = NGramIndexTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        loaded = schemaManager.loadWithDeps( "collective" );
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+    }
+
+
+    @BeforeEach
+    public void createStore() throws Exception
+    {
+        directoryService = new MockDirectoryService();
+
+        // setup the working directory for the store
+        wkdir = File.createTempFile( getClass().getSimpleName(), "db" );
+        wkdir.delete();
+        wkdir = new File( wkdir.getParentFile(), getClass().getSimpleName() );
+        wkdir.mkdirs();
+
+        StoreUtils.createdExtraAttributes( schemaManager );
+
+        // initialize the store
+        store = new AvlPartition( schemaManager, directoryService.getDnFactory() );
+        ( ( Partition ) store ).setId( "example" );
+        store.setCacheSize( 10 );
+        store.setPartitionPath( wkdir.toURI() );
+        store.setSyncOnWrite( false );
+
+        store.addIndex( new AvlIndex<String>( SchemaConstants.OU_AT_OID ) );
+        store.addIndex( new NGramIndex( SchemaConstants.CN_AT_OID ) );
+        ( ( Partition ) store ).setSuffixDn( new Dn( schemaManager, "o=Good Times Co." ) );
+        ( ( Partition ) store ).initialize();
+
+        StoreUtils.loadExampleData( store, schemaManager );
+
+        evaluatorBuilder = new EvaluatorBuilder( store, schemaManager );
+        cursorBuilder = new CursorBuilder( store, evaluatorBuilder );
+        directoryService.setSchemaManager( schemaManager );
+        session = new MockCoreSession( new LdapPrincipal(), directoryService );
+    }
+
+
+    @AfterEach
+    public void destroyStore() throws Exception
+    {
+        if ( store != null )
+        {
+            ( ( Partition ) store ).destroy( null );
+        }
+
+        store = null;
+
+        if ( wkdir != null )
+        {
+            FileUtils.deleteDirectory( wkdir );
+        }
+
+        wkdir = null;
+    }
+
+
+    /**
+     * Gets the DNs of the entries matching a filter, evaluating all the entries
+     */
+    private Set<String> fullScan( PartitionTxn txn, ExprNode root ) throws Exception
+    {
+        Evaluator<? extends ExprNode> evaluator = evaluatorBuilder.build( txn, root );
+        Set<String> dns = new HashSet<>();
+        Cursor<Tuple<String, Entry>> cursor = store.getMasterTable().cursor();
+
+        while ( cursor.next() )
+        {
+            IndexEntry<String, String> indexEntry = new IndexEntry<>();
+            indexEntry.setId( cursor.get().getKey() );
+
+            if ( evaluator.evaluate( txn, indexEntry ) )
+            {
+                dns.add( store.getEntryDn( txn, cursor.get().getKey() ).getNormName() );
+            }
+        }
+
+        cursor.close();
+
+        return dns;
+    }
+
+
+    /**
+     * Gets the DNs of the entries matching a filter, using the candidates found in the indexes
+     */
+    private Set<String> search( PartitionTxn txn, ExprNode root ) throws Exception
+    {
+        Set<String> dns = new HashSet<>();
+        Cursor<Entry> cursor = buildCursor( txn, root );
+
+        while ( cursor.next() )
+        {
+            dns.add( cursor.get().getDn().getNormName() );
+        }
+
+        cursor.close();
+
+        return dns;
+    }
+
+
+    private long countCandidates( PartitionTxn txn, ExprNode root ) throws Exception
+    {
+        PartitionSearchResult searchResult = new PartitionSearchResult( schemaManager );
+        searchResult.setCandidateSet( new HashSet<String>() );
+
+        return cursorBuilder.build( txn, root, searchResult );
+    }
+
+
+    private void checkSubstring( String filter, long expectedCount ) throws Exception
+    {
+        PartitionTxn txn = ( ( Partition ) store ).beginReadTransaction();
+        ExprNode root = FilterParser.parse( schemaManager, filter );
+        new DefaultOptimizer( store ).annotate( txn, root );
+
+        Set<String> expected = fullScan( txn, root );
+
+        assertEquals( expected, search( txn, root ), filter );
+        assertEquals( expectedCount, expected.size(), filter );
+    }
+
+
+    @Test
+    public void testGrams() throws Exception
+    {
+        assertEquals( 0, NGramIndex.getGrams( "ab" ).size() );
+        assertEquals( 0, NGramIndex.getGrams( "a b" ).size() );
+
+        Set<String> grams = NGramIndex.getGrams( "johnny walker" );
+        assertEquals( 10, grams.size() );
+        assertTrue( grams.contains( "joh" ) );
+        assertTrue( grams.contains( "ywa" ) );
+        assertTrue( grams.contains( "ker" ) );
+    }
+
+
+    @Test
+    public void testSubstringAny() throws Exception
+    {
+        checkSubstring( "(cn=*alk*)", 2 );
+        checkSubstring( "(cn=*WAL*KER*)", 2 );
+        checkSubstring( "(cn=*bean*)", 3 );
+        checkSubstring( "(cn=*y w*)", 2 );
+        checkSubstring( "(cn=*zzz*)", 0 );
+    }
+
+
+    @Test
+    public void testSubstringFinal() throws Exception
+    {
+        checkSubstring( "(cn=*niels)", 1 );
+        checkSubstring( "(cn=*ean)", 3 );
+        checkSubstring( "(cn=*an)", 3 );
+    }
+
+
+    @Test
+    public void testCandidates() throws Exception
+    {
+        PartitionTxn txn = ( ( Partition ) store ).beginReadTransaction();
+
+        // Only the entries containing the n-grams are candidates
+        ExprNode root = FilterParser.parse( schemaManager, "(cn=*walk*)" );
+        new DefaultOptimizer( store ).annotate( txn, root );
+        assertEquals( 2L, root.get( DefaultOptimizer.COUNT_ANNOTATION ) );
+        assertEquals( 2L, countCandidates( txn, root ) );
+
+        root = FilterParser.parse( schemaManager, "(cn=*xyz*)" );
+        new DefaultOptimizer( store ).annotate( txn, root );
+        assertEquals( 0L, root.get( DefaultOptimizer.COUNT_ANNOTATION ) );
+        assertEquals( 0L, countCandidates( txn, root ) );
+
+        // Too short for the n-grams : we scan the whole index
+        root = FilterParser.parse( schemaManager, "(cn=*an)" );
+        new DefaultOptimizer( store ).annotate( txn, root );
+        assertEquals( store.getIndex( schemaManager.getAttributeType( "cn" ) ).count( txn ),
+            root.get( DefaultOptimizer.COUNT_ANNOTATION ) );
+    }
+
+
+    /**
+     * Gets the key of a n-gram, as it's stored in the index
+     */
+    private String key( NGramIndex index, String gram ) throws Exception
+    {
+        SubstringNode node = ( SubstringNode ) FilterParser.parse( schemaManager, "(cn=*" + gram + "*)" );
+
+        return index.getGrams( node ).iterator().next();
+    }
+
+
+    @Test
+    public void testDropValue() throws Exception
+    {
+        PartitionTxn txn = ( ( Partition ) store ).beginReadTransaction();
+        NGramIndex index = ( NGramIndex ) store.getIndex( schemaManager.getAttributeType( "cn" ) );
+        String id = "00000000-0000-0000-0000-000000000001";
+        Normalizer normalizer = schemaManager.getAttributeType( "cn" ).getEquality().getNormalizer();
+        String foobar = normalizer.normalize( "foobar" );
+
+        index.add( txn, foobar, id );
+        index.add( txn, normalizer.normalize( "foobaz" ), id );
+        assertTrue( index.hasGram( txn, key( index, "bar" ), id ) );
+        assertTrue( index.hasGram( txn, key( index, "baz" ), id ) );
+
+        // The n-grams shared with the remaining value are kept
+        index.drop( txn, foobar, id );
+        assertFalse( index.hasGram( txn, key( index, "bar" ), id ) );
+        assertTrue( index.hasGram( txn, key( index, "foo" ), id ) );
+        assertTrue( index.hasGram( txn, key( index, "baz" ), id ) );
+
+        index.drop( txn, id );
+        assertFalse( index.hasGram( txn, key( index, "foo" ), id ) );
+        assertFalse( index.hasGram( txn, key( index, "baz" ), id ) );
+        assertEquals( 0L, index.gramCount( txn, key( index, "oba" ) ) );
+    }
+}
@@ -0,0 +1,344 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.search.impl;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.filter.FilterParser;
+import org.apache.directory.api.ldap.model.filter.ObjectClassNode;
+import org.apache.directory.api.ldap.model.message.AliasDerefMode;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.message.controls.SortKey;
+import org.apache.directory.api.ldap.model.message.controls.SortRequest;
+import org.apache.directory.api.ldap.model.message.controls.SortRequestImpl;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.LdapComparator;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.FileUtils;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.LdapPrincipal;
+import org.apache.directory.server.core.api.MockCoreSession;
+import org.apache.directory.server.core.api.MockDirectoryService;
+import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.partition.impl.avl.AvlPartition;
+import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
+import org.apache.directory.server.core.partition.impl.btree.EntryCursorAdaptor;
+import org.apache.directory.server.xdbm.StoreUtils;
+import org.apache.directory.server.xdbm.impl.avl.AvlIndex;
+import org.apache.directory.server.xdbm.search.PartitionSearchResult;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+
+
+/**
+ * Check that the search engine uses the user indexes to return the candidates in the
+ * order requested by a Sort control.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@Execution(ExecutionMode.SAME_THREAD)
+public class SortedCandidatesTest extends AbstractCursorTest
+{
+    File wkdir;
+
+
+    @BeforeAll
+    public static void setup() throws Exception
+    {
+        // setup the standard registries
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = SortedCandidatesTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        loaded = schemaManager.loadWithDeps( "collective" );
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+    }
+
+
+    @BeforeEach
+    public void createStore() throws Exception
+    {
+        directoryService = new MockDirectoryService();
+
+        // setup the working directory for the store
+        wkdir = File.createTempFile( getClass().getSimpleName(), "db" );
+        wkdir.delete();
+        wkdir = new File( wkdir.getParentFile(), getClass().getSimpleName() );
+        wkdir.mkdirs();
+
+        StoreUtils.createdExtraAttributes( schemaManager );
+
+        // initialize the store
+        store = new AvlPartition( schemaManager, directoryService.getDnFactory() );
+        ( ( Partition ) store ).setId( "example" );
+        store.setCacheSize( 10 );
+        store.setPartitionPath( wkdir.toURI() );
+        store.setSyncOnWrite( false );
+
+        store.addIndex( new AvlIndex<String>( SchemaConstants.OU_AT_OID ) );
+        store.addIndex( new AvlIndex<String>( SchemaConstants.CN_AT_OID ) );
+        ( ( Partition ) store ).setSuffixDn( new Dn( schemaManager, "o=Good Times Co." ) );
+        ( ( Partition ) store ).initialize();
+
+        StoreUtils.loadExampleData( store, schemaManager );
+
+        evaluatorBuilder = new EvaluatorBuilder( store, schemaManager );
+        cursorBuilder = new CursorBuilder( store, evaluatorBuilder );
+        directoryService.setSchemaManager( schemaManager );
+        session = new MockCoreSession( new LdapPrincipal(), directoryService );
+    }
+
+
+    @AfterEach
+    public void destroyStore() throws Exception
+    {
+        if ( store != null )
+        {
+            ( ( Partition ) store ).destroy( null );
+        }
+
+        store = null;
+
+        if ( wkdir != null )
+        {
+            FileUtils.deleteDirectory( wkdir );
+        }
+
+        wkdir = null;
+    }
+
+
+    /**
+     * Runs a subtree search on the whole partition, with a Sort control
+     */
+    private SearchOperationContext search( String filter, SortKey sortKey, boolean streaming, List<Entry> entries )
+        throws Exception
+    {
+        // The (objectClass=*) filter is replaced by an ObjectClassNode by the server
+        ExprNode root = "(objectClass=*)".equals( filter ) ? ObjectClassNode.OBJECT_CLASS_NODE
+            : FilterParser.parse( schemaManager, filter );
+        SearchOperationContext searchContext = new SearchOperationContext( session,
+            new Dn( schemaManager, "o=Good Times Co." ), SearchScope.SUBTREE, root, "*" );
+        searchContext.setAliasDerefMode( AliasDerefMode.NEVER_DEREF_ALIASES );
+
+        SortRequest sortRequest = new SortRequestImpl();
+        sortRequest.addSortKey( sortKey );
+        searchContext.addRequestControl( sortRequest );
+
+        DefaultSearchEngine searchEngine = new DefaultSearchEngine( store, cursorBuilder, evaluatorBuilder,
+            new DefaultOptimizer( store ) );
+        searchEngine.setStreaming( streaming );
+
+        PartitionTxn txn = ( ( Partition ) store ).beginReadTransaction();
+        PartitionSearchResult searchResult = searchEngine.computeResult( txn, schemaManager, searchContext );
+        Cursor<Entry> cursor = new EntryCursorAdaptor( txn, ( AbstractBTreePartition ) store, searchResult );
+
+        while ( cursor.next() )
+        {
+            entries.add( cursor.get() );
+        }
+
+        cursor.close();
+
+        return searchContext;
+    }
+
+
+    /**
+     * Gets the lowest normalized value of an attribute, or null if the entry does not have it
+     */
+    private String getLowestValue( Entry entry, AttributeType attributeType, LdapComparator<String> comparator )
+    {
+        Attribute attribute = entry.get( attributeType );
+
+        if ( attribute == null )
+        {
+            return null;
+        }
+
+        String lowest = null;
+
+        for ( Value value : attribute )
+        {
+            if ( ( lowest == null ) || ( comparator.compare( value.getNormalized(), lowest ) < 0 ) )
+            {
+                lowest = value.getNormalized();
+            }
+        }
+
+        return lowest;
+    }
+
+
+    /**
+     * Checks that the entries are sorted, the entries without the attribute being the last ones
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private void checkSorted( List<Entry> entries, String attributeId, int expectedWithout )
+    {
+        AttributeType attributeType = schemaManager.getAttributeType( attributeId );
+        LdapComparator<String> comparator = ( LdapComparator ) attributeType.getEquality().getLdapComparator();
+        String previous = null;
+        int without = 0;
+
+        for ( Entry entry : entries )
+        {
+            String value = getLowestValue( entry, attributeType, comparator );
+
+            if ( value == null )
+            {
+                without++;
+                continue;
+            }
+
+            assertEquals( 0, without, "An entry with a value comes after an entry without value" );
+
+            if ( previous != null )
+            {
+                assertTrue( comparator.compare( previous, value ) <= 0, previous + " is after " + value );
+            }
+
+            previous = value;
+        }
+
+        assertEquals( expectedWithout, without );
+    }
+
+
+    private Set<String> getDns( List<Entry> entries )
+    {
+        Set<String> dns = new HashSet<>();
+
+        for ( Entry entry : entries )
+        {
+            assertTrue( dns.add( entry.getDn().getNormName() ), "Duplicate entry " + entry.getDn() );
+        }
+
+        return dns;
+    }
+
+
+    @Test
+    public void testSortedFullScan() throws Exception
+    {
+        for ( boolean streaming : new boolean[] { false, true } )
+        {
+            List<Entry> entries = new ArrayList<>();
+            SearchOperationContext searchContext = search( "(objectClass=*)", new SortKey( "cn" ), streaming, entries );
+
+            assertTrue( searchContext.isSorted() );
+            assertEquals( 11, entries.size() );
+            checkSorted( entries, "cn", 5 );
+        }
+    }
+
+
+    @Test
+    public void testSortedCandidates() throws Exception
+    {
+        List<Entry> entries = new ArrayList<>();
+        SearchOperationContext searchContext = search( "(ou=Sales)", new SortKey( "cn" ), false, entries );
+
+        assertTrue( searchContext.isSorted() );
+        assertEquals( 3, entries.size() );
+        checkSorted( entries, "cn", 1 );
+        assertEquals( "ou=Sales,o=Good Times Co.", entries.get( 2 ).getDn().getName() );
+
+        // The same entries as without the Sort control
+        List<Entry> unsorted = new ArrayList<>();
+        search( "(ou=Sales)", new SortKey( "ou" ), false, unsorted );
+
+        assertEquals( getDns( unsorted ), getDns( entries ) );
+
+        entries.clear();
+        search( "(|(cn=jim bean)(cn=jack daniels))", new SortKey( "cn" ), true, entries );
+        checkSorted( entries, "cn", 0 );
+        assertEquals( 4, entries.size() );
+        assertEquals( "cn=Jack Daniels,ou=Engineering,o=Good Times Co.", entries.get( 0 ).getDn().getName() );
+    }
+
+
+    @Test
+    public void testNotSorted() throws Exception
+    {
+        // No index on sn
+        List<Entry> entries = new ArrayList<>();
+        assertFalse( search( "(objectClass=*)", new SortKey( "sn" ), false, entries ).isSorted() );
+        assertEquals( 11, entries.size() );
+
+        // cn is multi-valued : the reverse order can't be read from the index
+        entries.clear();
+        assertFalse( search( "(objectClass=*)", new SortKey( "cn", null, true ), false, entries ).isSorted() );
+        assertEquals( 11, entries.size() );
+
+        // A matching rule which is not the one used by the index
+        entries.clear();
+        SortKey sortKey = new SortKey( "cn", SchemaConstants.CASE_EXACT_ORDERING_MATCH_MR_OID );
+        assertFalse( search( "(objectClass=*)", sortKey, false, entries ).isSorted() );
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.search.impl;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.filter.AndNode;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.filter.FilterParser;
+import org.apache.directory.api.ldap.model.filter.ScopeNode;
+import org.apache.directory.api.ldap.model.message.AliasDerefMode;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.FileUtils;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.MockDirectoryService;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.partition.impl.avl.AvlPartition;
+import org.apache.directory.server.core.partition.impl.btree.IndexCursorAdaptor;
+import org.apache.directory.server.xdbm.IndexEntry;
+import org.apache.directory.server.xdbm.StoreUtils;
+import org.apache.directory.server.xdbm.impl.avl.AvlIndex;
+import org.apache.directory.server.xdbm.search.PartitionSearchResult;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+
+
+/**
+ * Check that the candidates streamed by the CursorBuilder are the same as the
+ * candidates stored in a Set.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@Execution(ExecutionMode.SAME_THREAD)
+public class StreamedCandidatesTest extends AbstractCursorTest
+{
+    File wkdir;
+
+
+    @BeforeAll
+    public static void setup() throws Exception
+    {
+        // setup the standard registries
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = StreamedCandidatesTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        loaded = schemaManager.loadWithDeps( "collective" );
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+    }
+
+
+    @BeforeEach
+    public void createStore() throws Exception
+    {
+        directoryService = new MockDirectoryService();
+
+        // setup the working directory for the store
+        wkdir = File.createTempFile( getClass().getSimpleName(), "db" );
+        wkdir.delete();
+        wkdir = new File( wkdir.getParentFile(), getClass().getSimpleName() );
+        wkdir.mkdirs();
+
+        StoreUtils.createdExtraAttributes( schemaManager );
+
+        // initialize the store
+        store = new AvlPartition( schemaManager, directoryService.getDnFactory() );
+        ( ( Partition ) store ).setId( "example" );
+        store.setCacheSize( 10 );
+        store.setPartitionPath( wkdir.toURI() );
+        store.setSyncOnWrite( false );
+
+        store.addIndex( new AvlIndex<String>( SchemaConstants.OU_AT_OID ) );
+        store.addIndex( new AvlIndex<String>( SchemaConstants.CN_AT_OID ) );
+        ( ( Partition ) store ).setSuffixDn( new Dn( schemaManager, "o=Good Times Co." ) );
+        ( ( Partition ) store ).initialize();
+
+        StoreUtils.loadExampleData( store, schemaManager );
+
+        evaluatorBuilder = new EvaluatorBuilder( store, schemaManager );
+        cursorBuilder = new CursorBuilder( store, evaluatorBuilder );
+        directoryService.setSchemaManager( schemaManager );
+    }
+
+
+    @AfterEach
+    public void destroyStore() throws Exception
+    {
+        if ( store != null )
+        {
+            ( ( Partition ) store ).destroy( null );
+        }
+
+        store = null;
+
+        if ( wkdir != null )
+        {
+            FileUtils.deleteDirectory( wkdir );
+        }
+
+        wkdir = null;
+    }
+
+
+    /**
+     * Builds the filter used by the search engine for a search with the given base and scope
+     */
+    private ExprNode buildFilter( PartitionTxn txn, String filter, String base, SearchScope scope ) throws Exception
+    {
+        Dn baseDn = new Dn( schemaManager, base );
+        String baseId = store.getEntryId( txn, baseDn );
+
+        AndNode root = new AndNode();
+        root.getChildren().add( FilterParser.parse( schemaManager, filter ) );
+        root.getChildren().add( new ScopeNode( AliasDerefMode.NEVER_DEREF_ALIASES, baseDn, baseId, scope ) );
+
+        new DefaultOptimizer( store ).annotate( txn, root );
+
+        return root;
+    }
+
+
+    /**
+     * Gets the candidates stored in a Set by the CursorBuilder
+     */
+    private Set<String> getCandidateSet( PartitionTxn txn, ExprNode root ) throws Exception
+    {
+        PartitionSearchResult searchResult = new PartitionSearchResult( schemaManager );
+        Set<String> uuids = new HashSet<>();
+        searchResult.setCandidateSet( uuids );
+
+        if ( cursorBuilder.build( txn, root, searchResult ) < Long.MAX_VALUE )
+        {
+            return uuids;
+        }
+
+        // Full scan : use the MasterTable
+        Cursor<IndexEntry<String, String>> cursor = new IndexCursorAdaptor( txn, store.getMasterTable().cursor(), true );
+
+        while ( cursor.next() )
+        {
+            uuids.add( ( String ) cursor.get().getKey() );
+        }
+
+        cursor.close();
+
+        return uuids;
+    }
+
+
+    /**
+     * Gets the candidates streamed by the CursorBuilder, checking there are no duplicate
+     */
+    private Set<String> getStreamedCandidates( PartitionTxn txn, ExprNode root ) throws Exception
+    {
+        PartitionSearchResult searchResult = new PartitionSearchResult( schemaManager );
+        Cursor<IndexEntry<String, String>> cursor = cursorBuilder.buildStream( txn, root, searchResult );
+
+        assertNotNull( cursor );
+
+        Set<String> uuids = new HashSet<>();
+        cursor.beforeFirst();
+
+        while ( cursor.next() )
+        {
+            assertTrue( uuids.add( cursor.get().getId() ) );
+        }
+
+        cursor.close();
+
+        return uuids;
+    }
+
+
+    private void checkStreamed( String filter, String base, SearchScope scope ) throws Exception
+    {
+        PartitionTxn txn = ( ( Partition ) store ).beginReadTransaction();
+        ExprNode root = buildFilter( txn, filter, base, scope );
+
+        assertEquals( getCandidateSet( txn, root ), getStreamedCandidates( txn, root ), filter );
+    }
+
+
+    @Test
+    public void testStreamEquality() throws Exception
+    {
+        checkStreamed( "(cn=JOhnny WAlkeR)", "o=Good Times Co.", SearchScope.SUBTREE );
+        checkStreamed( "(ou=Sales)", "ou=Sales,o=Good Times Co.", SearchScope.ONELEVEL );
+        checkStreamed( "(sn=WAlkeR)", "o=Good Times Co.", SearchScope.SUBTREE );
+    }
+
+
+    @Test
+    public void testStreamPresence() throws Exception
+    {
+        checkStreamed( "(cn=*)", "o=Good Times Co.", SearchScope.SUBTREE );
+        checkStreamed( "(ou=*)", "ou=Sales,o=Good Times Co.", SearchScope.SUBTREE );
+        checkStreamed( "(sn=*)", "o=Good Times Co.", SearchScope.ONELEVEL );
+    }
+
+
+    @Test
+    public void testStreamScope() throws Exception
+    {
+        checkStreamed( "(objectClass=*)", "o=Good Times Co.", SearchScope.ONELEVEL );
+        checkStreamed( "(objectClass=*)", "ou=Sales,o=Good Times Co.", SearchScope.SUBTREE );
+        checkStreamed( "(!(cn=J*))", "ou=Engineering,o=Good Times Co.", SearchScope.SUBTREE );
+    }
+
+
+    @Test
+    public void testNoStreamWhenDedupIsNeeded() throws Exception
+    {
+        PartitionTxn txn = ( ( Partition ) store ).beginReadTransaction();
+
+        // An OR filter
+        ExprNode root = FilterParser.parse( schemaManager, "(|(cn=JOhnny WAlkeR)(ou=Sales))" );
+        new DefaultOptimizer( store ).annotate( txn, root );
+        assertNull( cursorBuilder.buildStream( txn, root, new PartitionSearchResult( schemaManager ) ) );
+
+        // A substring filter
+        root = FilterParser.parse( schemaManager, "(cn=J*)" );
+        new DefaultOptimizer( store ).annotate( txn, root );
+        assertNull( cursorBuilder.buildStream( txn, root, new PartitionSearchResult( schemaManager ) ) );
+
+        // A scope with alias dereferencing
+        Dn baseDn = new Dn( schemaManager, "o=Good Times Co." );
+        root = new ScopeNode( AliasDerefMode.DEREF_ALWAYS, baseDn, store.getEntryId( txn, baseDn ),
+            SearchScope.ONELEVEL );
+        PartitionSearchResult searchResult = new PartitionSearchResult( schemaManager );
+        searchResult.setAliasDerefMode( AliasDerefMode.DEREF_ALWAYS );
+        assertNull( cursorBuilder.buildStream( txn, root, searchResult ) );
+    }
+}